@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.alfresco.utilities.LdtpUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link LdtpUtils#compareImages(File, File)} over screenshot sized PNG files: identical images and images differing
+ * only in their last pixel (worst case of an exact comparison).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CompareImagesBenchmark
+{
+    @Param({ "1366x768", "2560x1440" })
+    public String resolution;
+
+    private File original;
+    private File copy;
+    private File changed;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        String[] size = resolution.split("x");
+        BufferedImage image = screenshot(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        original = write(image);
+        copy = write(image);
+        image.setRGB(image.getWidth() - 1, image.getHeight() - 1, 0xff0000);
+        changed = write(image);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        original.delete();
+        copy.delete();
+        changed.delete();
+    }
+
+    @Benchmark
+    public boolean identical()
+    {
+        return LdtpUtils.compareImages(original, copy);
+    }
+
+    @Benchmark
+    public boolean lastPixelDiffers()
+    {
+        return LdtpUtils.compareImages(original, changed);
+    }
+
+    /**
+     * Flat window areas with some noisy regions, close to a desktop capture
+     */
+    private static BufferedImage screenshot(int width, int height)
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(3);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                boolean noisy = (x / 64 + y / 48) % 5 == 0;
+                image.setRGB(x, y, noisy ? random.nextInt(0xffffff) : 0xf0f0f0 - (y / 32) * 0x010101);
+            }
+        }
+        return image;
+    }
+
+    private static File write(BufferedImage image) throws IOException
+    {
+        File file = File.createTempFile("screenshot", ".png");
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+}
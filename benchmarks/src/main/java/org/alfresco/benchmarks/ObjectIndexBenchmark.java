@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.utilities.ObjectIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Partial object name lookups (LdtpUtils.getFullObjectList) over Office ribbon sized object lists.
+ * <code>linearScan</code> is the lookup done before {@link ObjectIndex}, kept as reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectIndexBenchmark
+{
+    private static final String[] ROLES = { "btn", "txt", "lst", "mnu", "lbl", "chk", "cbo", "ukn" };
+    private static final String[] WORDS = { "Save", "Open", "Document", "Library", "Share", "Format", "Insert", "Review", "Table", "Picture",
+            "Paragraph", "Style", "Font", "Size", "Color", "Layout", "Page", "Margin", "Comment", "Track" };
+
+    @Param({ "500", "5000" })
+    public int size;
+
+    private String[] objects;
+    private ObjectIndex index;
+    private String lastObjectPartial;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(11);
+        objects = new String[size];
+        for (int i = 0; i < size; i++)
+        {
+            objects[i] = ROLES[random.nextInt(ROLES.length)] + WORDS[random.nextInt(WORDS.length)] + WORDS[random.nextInt(WORDS.length)] + i;
+        }
+        index = new ObjectIndex(objects);
+        lastObjectPartial = objects[size - 1].substring(3);
+    }
+
+    @Benchmark
+    public ObjectIndex buildIndex()
+    {
+        return new ObjectIndex(objects);
+    }
+
+    @Benchmark
+    public String resolveIndexed()
+    {
+        return index.resolve(lastObjectPartial);
+    }
+
+    @Benchmark
+    public List<String> resolveAllPattern()
+    {
+        return index.resolveAll(ObjectIndex.Role.BUTTON, "Save*Library");
+    }
+
+    @Benchmark
+    public String linearScan()
+    {
+        String partial = lastObjectPartial.toLowerCase().replace(".", "");
+        for (String object : objects)
+        {
+            if (object.substring(3).toLowerCase().contains(partial))
+            {
+                return object;
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.benchmarks;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.os.common.ApplicationBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * {@link ApplicationBase#getProperty(String)} resolving ${} chains of increasing depth
+ * (key0 = value, key1 = ${key0}/1, key2 = ${key1}/2, ...).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyBenchmark
+{
+    @Param({ "1", "8", "32" })
+    public int depth;
+
+    private PropertiesApplication application;
+    private String deepestKey;
+
+    @Setup
+    public void setUp()
+    {
+        Properties properties = new Properties();
+        properties.setProperty("key0", "C:\\Program Files\\Microsoft Office");
+        for (int i = 1; i <= depth; i++)
+        {
+            properties.setProperty("key" + i, "${key" + (i - 1) + "}\\" + i);
+        }
+        application = new PropertiesApplication(properties);
+        deepestKey = "key" + depth;
+    }
+
+    @Benchmark
+    public String resolveChain()
+    {
+        return application.getProperty(deepestKey);
+    }
+
+    /**
+     * Application that only serves properties, no GUI is involved
+     */
+    private static class PropertiesApplication extends ApplicationBase
+    {
+        PropertiesApplication(Properties properties)
+        {
+            this.properties = properties;
+        }
+
+        @Override
+        public void exitApplication()
+        {
+        }
+
+        @Override
+        public ApplicationBase openApplication()
+        {
+            return this;
+        }
+
+        @Override
+        public void closeWindow()
+        {
+        }
+
+        @Override
+        public void killProcess()
+        {
+        }
+
+        @Override
+        protected Ldtp initializeLdtp()
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.alfresco.listeners;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.utilities.AgentPool;
+import org.alfresco.utilities.LdtpEndpoint;
+import org.alfresco.utilities.LdtpSession;
+import org.alfresco.utilities.LdtpTransport;
+import org.apache.log4j.Logger;
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestContext;
+import org.testng.ITestListener;
+import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
+
+/**
+ * Runs each test method on its own desktop when the suite is run in parallel (i.e. parallel="methods").
+ * Before a test method (or its first @BeforeMethod) a free agent is leased from {@link AgentPool#getDefault()} for
+ * the thread running it, and given back once the test, its @AfterMethod methods and the result listeners (i.e.
+ * {@link ScreenshotOnFailure}, {@link CloseDialogsOnFailure}) are done, so every application, dialog and helper used by
+ * the test talks to that agent only. Threads waiting for an agent take the first one freed, so set the suite
+ * thread-count to the number of agents and the run time shrinks with each desktop added.
+ * The agent is also set as the {@link #ATTRIBUTE} attribute of the test result: TestNG calls the result listeners in
+ * the order they are registered, so register this listener after the others, and have them use
+ * {@link #getTransport(ITestResult)} so they reach the agent of the test whatever the order.
+ */
+public class AgentPoolListener implements IInvokedMethodListener, ITestListener, ISuiteListener
+{
+    private static Logger logger = Logger.getLogger(AgentPoolListener.class);
+    public static final String ATTRIBUTE = "ldtpEndpoint";
+
+    private final ThreadLocal<Lease> leases = new ThreadLocal<Lease>();
+    private final Set<Lease> open = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult)
+    {
+        ITestNGMethod testMethod = method.getTestMethod();
+        if (leases.get() == null && (method.isTestMethod() || testMethod.isBeforeMethodConfiguration()))
+        {
+            Lease lease = new Lease(AgentPool.getDefault().lease());
+            leases.set(lease);
+            open.add(lease);
+            logger.info(testMethod.getQualifiedName() + " runs on LDTP agent " + lease.session.getEndpoint());
+        }
+        Lease lease = leases.get();
+        if (lease != null && method.isTestMethod())
+        {
+            lease.reported = false;
+            testResult.setAttribute(ATTRIBUTE, lease.session.getEndpoint());
+        }
+    }
+
+    /**
+     * @param testResult
+     * @return the transport of the agent <testResult> ran on, or the one of the current thread if the test did not
+     *         run through this listener
+     */
+    public static LdtpTransport getTransport(ITestResult testResult)
+    {
+        Object endpoint = testResult.getAttribute(ATTRIBUTE);
+        return endpoint instanceof LdtpEndpoint ? LdtpTransport.forEndpoint((LdtpEndpoint) endpoint) : LdtpTransport.getDefault();
+    }
+
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult)
+    {
+        Lease lease = leases.get();
+        if (lease == null)
+        {
+            return;
+        }
+        ITestNGMethod testMethod = method.getTestMethod();
+        if (method.isTestMethod())
+        {
+            lease.afterMethods = testMethod.getTestClass().getAfterTestMethods().length;
+        }
+        else if (testMethod.isAfterMethodConfiguration())
+        {
+            lease.afterMethods--;
+        }
+        else
+        {
+            return;
+        }
+        releaseIfDone(lease);
+    }
+
+    @Override
+    public void onTestSuccess(ITestResult result)
+    {
+        reported();
+    }
+
+    @Override
+    public void onTestFailure(ITestResult result)
+    {
+        reported();
+    }
+
+    @Override
+    public void onTestSkipped(ITestResult result)
+    {
+        reported();
+    }
+
+    @Override
+    public void onTestFailedButWithinSuccessPercentage(ITestResult result)
+    {
+        reported();
+    }
+
+    @Override
+    public void onTestStart(ITestResult result)
+    {
+    }
+
+    @Override
+    public void onStart(ITestContext context)
+    {
+    }
+
+    @Override
+    public void onFinish(ITestContext context)
+    {
+    }
+
+    /**
+     * The result listeners registered before this one are done with the agent of the current thread
+     */
+    private void reported()
+    {
+        Lease lease = leases.get();
+        if (lease != null)
+        {
+            lease.reported = true;
+            releaseIfDone(lease);
+        }
+    }
+
+    /**
+     * Give back the agent of <lease> once both its @AfterMethod methods and the result listeners have run, whichever
+     * TestNG calls first
+     */
+    private void releaseIfDone(Lease lease)
+    {
+        if (lease.reported && lease.afterMethods <= 0)
+        {
+            leases.remove();
+            open.remove(lease);
+            lease.session.close();
+        }
+    }
+
+    @Override
+    public void onStart(ISuite suite)
+    {
+    }
+
+    /**
+     * Give back the agents of tests that did not get to their end (i.e. skipped after a failed @BeforeMethod)
+     */
+    @Override
+    public void onFinish(ISuite suite)
+    {
+        for (Lease lease : open)
+        {
+            lease.session.close();
+        }
+        open.clear();
+    }
+
+    /**
+     * Agent leased by one thread, with the number of @AfterMethod methods still to run on it and whether the result
+     * of its test was reported
+     */
+    private static class Lease
+    {
+        private final LdtpSession session;
+        private int afterMethods = Integer.MAX_VALUE;
+        private boolean reported;
+
+        Lease(LdtpSession session)
+        {
+            this.session = session;
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package org.alfresco.listeners;
 
-import org.alfresco.os.common.Dialog;
+import org.alfresco.os.common.DialogSweeper;
 import org.testng.ITestResult;
 import org.testng.TestListenerAdapter;
 
@@ -10,7 +10,7 @@ public class CloseDialogsOnFailure extends TestListenerAdapter
     @Override
     public void onTestFailure(ITestResult tr)
     {
-        new Dialog(" ").closeAllDialogs();
+        DialogSweeper.forTransport(AgentPoolListener.getTransport(tr)).sweep();
         super.onTestFailure(tr);
     }
 }
@@ -0,0 +1,32 @@
+package org.alfresco.listeners;
+
+import org.alfresco.utilities.LdtpMetrics;
+import org.apache.log4j.Logger;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.TestListenerAdapter;
+
+/**
+ * Logs the LDTP latency table (time spent per LDTP call and per wait) at the end of each suite.
+ * Add it next to {@link CloseDialogsOnFailure} in the suite listeners; the numbers are reset at suite start.
+ */
+public class LdtpMetricsReport extends TestListenerAdapter implements ISuiteListener
+{
+    private static Logger logger = Logger.getLogger(LdtpMetricsReport.class);
+
+    @Override
+    public void onStart(ISuite suite)
+    {
+        LdtpMetrics.getInstance().reset();
+    }
+
+    @Override
+    public void onFinish(ISuite suite)
+    {
+        if (!LdtpMetrics.ENABLED)
+        {
+            return;
+        }
+        logger.info("LDTP latency report for suite " + suite.getName() + System.lineSeparator() + LdtpMetrics.getInstance().formatTable());
+    }
+}
@@ -0,0 +1,70 @@
+package org.alfresco.listeners;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.utilities.ProcessLifecycleManager;
+import org.apache.log4j.Logger;
+import org.testng.ITestResult;
+import org.testng.TestListenerAdapter;
+
+/**
+ * Reports the processes started by the library (and their children) still running at the end of each test method,
+ * i.e. applications that were not closed. Each process is reported once, after the first method it outlived; helpers
+ * kept running across tests (see {@link ProcessLifecycleManager#trackInfrastructure(Process)}) are not reported.
+ * With <code>-Dldtp.lifecycle.killLeaks=true</code> they are also stopped, so they do not pile up and slow the desktop
+ * down during long runs.
+ */
+public class ProcessLeakReport extends TestListenerAdapter
+{
+    private static Logger logger = Logger.getLogger(ProcessLeakReport.class);
+
+    private final Set<ProcessHandle> reported = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void onTestSuccess(ITestResult tr)
+    {
+        report(tr);
+        super.onTestSuccess(tr);
+    }
+
+    @Override
+    public void onTestFailure(ITestResult tr)
+    {
+        report(tr);
+        super.onTestFailure(tr);
+    }
+
+    @Override
+    public void onTestSkipped(ITestResult tr)
+    {
+        report(tr);
+        super.onTestSkipped(tr);
+    }
+
+    private void report(ITestResult tr)
+    {
+        ProcessLifecycleManager manager = ProcessLifecycleManager.getInstance();
+        List<ProcessHandle> leaked = manager.getLeaked();
+        reported.retainAll(leaked);
+        boolean found = false;
+        for (ProcessHandle process : leaked)
+        {
+            if (reported.add(process))
+            {
+                found = true;
+                logger.warn(String.format("Process still running after test [%s]: %d %s", tr.getName(), process.pid(),
+                        process.info().commandLine().orElse("")));
+            }
+        }
+        if (found && Boolean.getBoolean("ldtp.lifecycle.killLeaks"))
+        {
+            List<ProcessHandle> alive = manager.destroyLeaked();
+            if (!alive.isEmpty())
+            {
+                logger.error("Could not stop processes: " + alive);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.alfresco.listeners;
+
+import org.alfresco.utilities.ScreenshotService;
+import org.apache.log4j.Logger;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+import org.testng.TestListenerAdapter;
+
+/**
+ * Captures the screen when a test fails, without holding the next test back. The path of the stored image is set as the
+ * <code>screenshot</code> attribute of the failed result, so reporters can link it; pending captures are finished
+ * before the &lt;test&gt; ends. The screen captured is the one of the agent the test ran on (see
+ * {@link AgentPoolListener#getTransport(ITestResult)}).
+ */
+public class ScreenshotOnFailure extends TestListenerAdapter
+{
+    private static Logger logger = Logger.getLogger(ScreenshotOnFailure.class);
+    public static final String ATTRIBUTE = "screenshot";
+
+    @Override
+    public void onTestFailure(final ITestResult tr)
+    {
+        ScreenshotService.getInstance().capture(AgentPoolListener.getTransport(tr).newLdtp("*"), null).whenComplete((file, error) -> {
+            if (error != null)
+            {
+                logger.warn("No screenshot for " + tr.getName() + ": " + error.getMessage());
+                return;
+            }
+            tr.setAttribute(ATTRIBUTE, file.getAbsolutePath());
+            logger.info(String.format("Screenshot of failed test %s: %s", tr.getName(), file.getAbsolutePath()));
+        });
+        super.onTestFailure(tr);
+    }
+
+    @Override
+    public void onFinish(ITestContext testContext)
+    {
+        if (!ScreenshotService.getInstance().awaitPending(Long.getLong("ldtp.screenshots.flushTimeout", 30000)))
+        {
+            logger.warn("Screenshots still pending at the end of " + testContext.getName());
+        }
+        super.onFinish(testContext);
+    }
+}
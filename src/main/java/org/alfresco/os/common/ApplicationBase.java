@@ -17,15 +17,25 @@ package org.alfresco.os.common;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
-import java.io.File;
 import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
+import org.alfresco.utilities.AgentPool;
+import org.alfresco.utilities.AsyncLdtp;
+import org.alfresco.utilities.LdtpBatch;
+import org.alfresco.utilities.LdtpConfig;
+import org.alfresco.utilities.LdtpEndpoint;
+import org.alfresco.utilities.LdtpSession;
+import org.alfresco.utilities.LdtpTransport;
 import org.alfresco.utilities.LdtpUtils;
+import org.alfresco.utilities.ProcessLifecycleManager;
+import org.alfresco.utilities.TimeoutAdvisor;
+import org.alfresco.utilities.WaitEngine;
+import org.alfresco.utilities.WaitPolicy;
+import org.alfresco.utilities.WindowEventBus;
 import org.apache.commons.lang.SystemUtils;
 import org.apache.log4j.Logger;
 
@@ -37,6 +47,7 @@ import com.cobra.ldtp.Ldtp;
 public abstract class ApplicationBase
 {
     private Ldtp ldtp;
+    private LdtpEndpoint endpoint;
 
     private static Logger logger = Logger.getLogger(ApplicationBase.class);
     protected String applicationPath;
@@ -56,9 +67,9 @@ public abstract class ApplicationBase
 
     protected Properties properties = null;
     protected String waitWindow;
+    private LdtpConfig config;
+    private Properties configSource;
 
-    private static final String START_DELIMITER = "${";
-    private static final String END_DELIMITER = "}";
     private ArrayList<Process> processes = new ArrayList<Process>();
 
     public abstract void exitApplication();
@@ -117,67 +128,33 @@ public abstract class ApplicationBase
     }
 
     /**
-     * This will initialize only once the Properties object
-     * You can get the value of a key property
+     * You can get the value of a key property from the shared {@link LdtpConfig} snapshot, ${} placeholders
+     * already resolved.
+     * If a subclass set its own {@link #properties}, the values are taken from them instead.
      *
      * @return String
      * @author Paul Brodner
      */
     public String getProperty(String key)
+    {
+        return getConfig().get(key);
+    }
+
+    /**
+     * @return the configuration used by {@link #getProperty(String)}
+     */
+    protected LdtpConfig getConfig()
     {
         if (properties == null)
         {
-            properties = new Properties();
-            URL propertyURI = this.getClass().getClassLoader().getResource(LdtpUtils.PROPERTIES_FILE);
-            if (propertyURI == null)
-            {
-                logger.error("Could not find property file: " + LdtpUtils.PROPERTIES_FILE);
-                return null;
-            }
-            File propertiesFile = new File(propertyURI.getPath());
-
-            if (!propertiesFile.exists())
-            {
-                logger.error("Propertie file: " + propertiesFile.getPath() + " does NOT exists");
-                return null;
-            }
-
-            try
-            {
-                properties.load(this.getClass().getClassLoader().getResourceAsStream(LdtpUtils.PROPERTIES_FILE));
-            }
-            catch (IOException e)
-            {
-                logger.error("Could NOT READ Properties file: " + e.getMessage());
-            }
+            return LdtpConfig.getInstance();
         }
-        String value = properties.getProperty(key);
-
-        if (value != null)
+        if (config == null || configSource != properties)
         {
-            int startIndex = 0;
-            int endIndex = 0;
-            while ((startIndex = value.indexOf(START_DELIMITER, endIndex)) >= 0 && (endIndex = value.indexOf(END_DELIMITER, startIndex)) >= 0)
-            {
-                String variableName = value.substring(startIndex + START_DELIMITER.length(), endIndex);
-                // now call getProperty recursively to have this looked up
-                String variableValue = null;
-
-                if (!variableName.equals(key))
-                {
-                    // only recurse if the variable does not equal our own original key
-                    variableValue = this.getProperty(variableName);
-                }
-
-                if (variableValue == null)
-                {
-                    // when unable to find the variable value, just return it as the variable name
-                    variableValue = START_DELIMITER + variableName + END_DELIMITER;
-                }
-                value = value.replace(START_DELIMITER + variableName + END_DELIMITER, variableValue);
-            }
+            config = LdtpConfig.of(properties);
+            configSource = properties;
         }
-        return value;
+        return config;
     }
 
     /**
@@ -192,30 +169,21 @@ public abstract class ApplicationBase
      */
     public Process runProcess(String... command) throws Exception
     {
-        Process process = LdtpUtils.runProcess(command);
+        Process process = ProcessLifecycleManager.getInstance().track(this, LdtpUtils.runProcess(command));
         setProcess(process);
         return process;
     }
 
     /**
      * @author Paul Brodner
-     * Destroyed the processes opened
+     * Destroyed the processes opened, with their child processes, and wait for them to be gone
      */
     protected void destroyProcesses()
     {
-
-        try
-        {
-            for (Iterator<Process> iterator = getProcesses().iterator(); iterator.hasNext(); )
-            {
-                Process process = iterator.next();
-                logger.debug("Destroy process: " + process.toString());
-                process.destroy();
-            }
-        }
-        catch (Exception e)
+        List<ProcessHandle> leaked = ProcessLifecycleManager.getInstance().destroy(this);
+        if (!leaked.isEmpty())
         {
-            logger.error("Error on destroy Process: " + e.getMessage());
+            logger.error("Could not destroy processes of " + getApplicationName() + ": " + leaked);
         }
     }
 
@@ -226,6 +194,11 @@ public abstract class ApplicationBase
      */
     public Ldtp getLdtp()
     {
+        if (ldtp != null && !isOnAgent(ldtp))
+        {
+            LdtpUtils.logDebug("Moving LDTP handle of " + ldtp.getWindowName() + " to agent " + getEndpoint());
+            ldtp = getTransport().newLdtp(ldtp.getWindowName());
+        }
         if (ldtp == null)
         {
             try
@@ -237,7 +210,7 @@ public abstract class ApplicationBase
             {
                 logger.error("Error Initializing LDTP: " + e.getMessage());
             }
-            ldtp = new Ldtp("dummy");
+            ldtp = getTransport().newLdtp("dummy");
             LdtpUtils.logDebug("Initialized LDTP with default wait window: " + getWaitWindow());
         }
         return ldtp;
@@ -248,6 +221,59 @@ public abstract class ApplicationBase
         this.ldtp = ldtp;
     }
 
+    /**
+     * Bind this application to the agent of <endpoint>, whatever {@link LdtpSession} the calling thread has open.
+     * Without it the application follows the session of the thread using it (see {@link AgentPool}).
+     *
+     * @param endpoint agent to drive this application on, null to follow the thread session again
+     */
+    public void bindTo(LdtpEndpoint endpoint)
+    {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @return the agent this application is driven on
+     */
+    public LdtpEndpoint getEndpoint()
+    {
+        return endpoint != null ? endpoint : LdtpSession.currentEndpoint();
+    }
+
+    /**
+     * @return the transport of the agent this application is driven on, to create new handles from
+     */
+    protected LdtpTransport getTransport()
+    {
+        return LdtpTransport.forEndpoint(getEndpoint());
+    }
+
+    private boolean isOnAgent(Ldtp handle)
+    {
+        if (endpoint == null && LdtpSession.current() == null)
+        {
+            // single agent run, nothing to compare
+            return true;
+        }
+        return LdtpTransport.of(handle).getEndpoint().equals(getEndpoint());
+    }
+
+    /**
+     * @return non blocking facade over the current LDTP handle
+     */
+    protected AsyncLdtp async()
+    {
+        return AsyncLdtp.of(getLdtp());
+    }
+
+    /**
+     * @return a new {@link LdtpBatch} bound to the current LDTP window, sending its steps in one round trip
+     */
+    protected LdtpBatch ldtpBatch()
+    {
+        return LdtpBatch.of(getLdtp());
+    }
+
     /**
      * @return all open applications as String Array
      * @author Paul Brodner
@@ -257,9 +283,17 @@ public abstract class ApplicationBase
         return getLdtp().getAppList();
     }
 
+    /**
+     * Point the LDTP handle of the application to its wait window and activate it.
+     * A handle taken from the {@link LdtpRegistry} cannot be renamed, so it is replaced by a handle of the application.
+     */
     public void focus()
     {
         logger.info("Focusing: " + getWaitWindow());
+        if (LdtpRegistry.isShared(getLdtp()))
+        {
+            setLdtp(LdtpTransport.of(getLdtp()).newLdtp(getWaitWindow()));
+        }
         getLdtp().setWindowName(getWaitWindow());
         getLdtp().activateWindow(getWaitWindow());
     }
@@ -273,48 +307,76 @@ public abstract class ApplicationBase
     /**
      * Wait for a Application main window
      * If you want to wait to specific dialogs, use waitForWindow
+     * The window is reported by the {@link WindowEventBus} of the agent, at the pace learned by
+     * {@link TimeoutAdvisor} for this window of this application.
      *
      * @param windowName
-     * @return
+     * @return a new LDTP handle of the window found, owned by the caller (it can be renamed), or null if none was found
      * @throws InterruptedException
      * @throws IOException
      * @author Paul Brodner
      */
     public Ldtp waitForApplicationWindow(String windowName, boolean defineGetLDTP)
     {
-        Ldtp _ldtp = initializeLdtp();
-        int retries = 0;
-        windowName = windowName.replaceAll("\\*", "");
+        final Ldtp _ldtp = initializeLdtp();
+        final String expectedWindow = windowName.replaceAll("\\*", "");
         // here we will wait until the window is visible
-        LdtpUtils.logInfo("WaitForApplicationWindow '" + windowName + "' between all windows...");
-        while (retries <= LdtpUtils.RETRY_COUNT)
+        LdtpUtils.logInfo("WaitForApplicationWindow '" + expectedWindow + "' between all windows...");
+        String window = TimeoutAdvisor.getInstance().await(
+                TimeoutAdvisor.key(LdtpTransport.of(_ldtp).getEndpoint(), getApplicationName(), "window", expectedWindow), WaitPolicy.defaultPolicy(),
+                () -> findOpenedWindow(_ldtp, expectedWindow),
+                timeout -> WindowEventBus.of(_ldtp).awaitCreated(found -> isExpectedWindow(expectedWindow, found), timeout));
+
+        if (window == null)
+        {
+            return null;
+        }
+        LdtpUtils.logInfo(String.format("Window [%s] found: %s", expectedWindow, window));
+        if (isDefinedWindowFullName())
         {
-            String[] windowList = _ldtp.getWindowList();
-            for (String window : windowList)
+            return _ldtp;
+        }
+        // callers rename the handle while following their windows, so it is never a shared one
+        Ldtp found = LdtpTransport.of(_ldtp).newLdtp(window);
+        if (defineGetLDTP)
+        {
+            setWaitWindow(window);
+            setLdtp(found);
+            return getLdtp();
+        }
+        return found;
+    }
+
+    /**
+     * @param ldtp
+     * @param expectedWindow
+     * @return the first opened window containing <expectedWindow>, null if there is none
+     */
+    private String findOpenedWindow(Ldtp ldtp, String expectedWindow)
+    {
+        for (String window : ldtp.getWindowList())
+        {
+            if (isExpectedWindow(expectedWindow, window))
             {
-                LdtpUtils.logInfo(String.format("Window [%s] expected, but found: %s. Waiting...", windowName, window));
-                if (window.contains(windowName))
-                {
-                    if (isDefinedWindowFullName())
-                    {
-                        return _ldtp;
-                    }
-                    _ldtp = new Ldtp(window);
-                    if (defineGetLDTP)
-                    {
-                        setWaitWindow(window);
-                        setLdtp(_ldtp);
-                        return getLdtp();
-                    }
-                    return _ldtp;
-                }
+                return window;
             }
-            LdtpUtils.waitToLoopTime(1);
-            retries += 1;
         }
         return null;
     }
 
+    /**
+     * Called for every window of every window list checked while waiting, so a mismatch is only logged at debug level
+     */
+    private boolean isExpectedWindow(String expectedWindow, String window)
+    {
+        if (window.contains(expectedWindow))
+        {
+            return true;
+        }
+        LdtpUtils.logDebug(String.format("Window [%s] expected, but found: %s. Waiting...", expectedWindow, window));
+        return false;
+    }
+
     /**
      * Wait for a Window
      *
@@ -330,31 +392,27 @@ public abstract class ApplicationBase
     }
 
     /**
-     * Wait until this <windowName> is closed
+     * Wait until this <windowName> is closed, that is until a window not containing <windowName> is listed, for
+     * at most 4 seconds. The window lists are taken from the {@link WindowEventBus} of the agent.
      *
      * @param windowName
      * @throws InterruptedException
      * @throws IOException
      */
-    public void waitUntilWindowIsClosed(String windowName) throws Exception
+    public void waitUntilWindowIsClosed(final String windowName) throws Exception
     {
-        int retries = 0;
-        Ldtp _ldtp = initializeLdtp();
-        while (retries <= 3)
-        {
-            String[] windowList = _ldtp.getWindowList();
-            for (String window : windowList)
+        final Ldtp _ldtp = initializeLdtp();
+        AsyncLdtp.await(WindowEventBus.of(_ldtp).await(windows -> {
+            for (String window : windows)
             {
                 LdtpUtils.logDebug(String.format("Window [%s] expected, but found: %s. Waiting...", windowName, window));
-
                 if (!window.contains(windowName))
                 {
-                    return;
+                    return true;
                 }
             }
-            Thread.sleep(1000);
-            retries += 1;
-        }
+            return false;
+        }, 4000));
     }
 
     /**
@@ -426,17 +484,10 @@ public abstract class ApplicationBase
      * @param name
      * @author Paul Brodner
      */
-    protected void clickButton(String name)
+    protected void clickButton(final String name)
     {
-        int btnEnabled = 0;
-        int cnt = 0;
-        while (btnEnabled == 0 && cnt < LdtpUtils.RETRY_COUNT)
-        {
-            LdtpUtils.logDebug("Wait until we can " + name + " the File...");
-            getLdtp().waitTime(1);
-            btnEnabled = getLdtp().stateEnabled(name);
-            cnt++;
-        }
+        LdtpUtils.logDebug("Wait until we can " + name + " the File...");
+        WaitEngine.until(() -> getLdtp().stateEnabled(name) != 0, WaitPolicy.defaultPolicy());
         getLdtp().click(name);
     }
 
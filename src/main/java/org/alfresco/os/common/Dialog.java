@@ -1,15 +1,11 @@
 package org.alfresco.os.common;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 
-import org.alfresco.utilities.LdtpUtils;
+import org.alfresco.utilities.LdtpTransport;
 import org.alfresco.utilities.LoggerUtils;
 import org.apache.log4j.Logger;
 
-import com.cobra.ldtp.Ldtp;
-
 /**
  * Map a simple Dialog window
  * 
@@ -23,23 +19,26 @@ public class Dialog extends GuiObject
     public Dialog(String dialogName)
     {
         setDialogName(dialogName);
-        setLdtp(new Ldtp(dialogName));
+        setLdtp(LdtpRegistry.getInstance().get(dialogName));
     }
 
+    /**
+     * Send ESC to all dialogs opened on the agent of this dialog, see {@link DialogSweeper}
+     */
     public void closeAllDialogs()
     {
-        logger.info("Try to close All Dialogs opened");
-        ArrayList<String> arrDialogs = getOpenedDialogs();
-        Collections.reverse(arrDialogs);
+        sweepDialogs();
+    }
 
-        for (Iterator<String> iterator = arrDialogs.iterator(); iterator.hasNext();)
-        {
-            String dialog = (String) iterator.next();
-            logger.info("Found  Dialog [" + dialog + "] and try to close it sending ESC key!");
-            getLdtp().activateWindow(dialog);
-            getLdtp().generateKeyEvent("<esc>");
-            logger.info("Pressing 'ESC' key on [" + dialog + "]");
-        }
+    /**
+     * Same as {@link #closeAllDialogs()}, telling which dialogs were found and which ones are still opened
+     *
+     * @return DialogSweeper.Result
+     */
+    public DialogSweeper.Result sweepDialogs()
+    {
+        logger.info("Try to close All Dialogs opened");
+        return DialogSweeper.of(getLdtp()).sweep();
     }
 
     /**
@@ -47,20 +46,7 @@ public class Dialog extends GuiObject
      */
     protected ArrayList<String> getOpenedDialogs()
     {
-        String[] windowsList = getLdtp().getWindowList();
-        ArrayList<String> arrDialogs = new ArrayList<String>();
-        for (String window : windowsList)
-        {
-            if (window.startsWith("dlg") || window.startsWith("frm"))
-            {
-                Ldtp info = new Ldtp(window);
-                if (!LdtpUtils.isApplicationObject(info))
-                {
-                    arrDialogs.add(window);
-                }
-            }
-        }
-        return arrDialogs;
+        return new ArrayList<String>(DialogSweeper.of(getLdtp()).findDialogs());
     }
 
     public void closeDialog()
@@ -68,9 +54,13 @@ public class Dialog extends GuiObject
         getLdtp().click("Close");
     }
     
+    /**
+     * Wait until the dialog is opened, for as long as the agent waits for a GUI (its own timeout).
+     * The agent does the waiting, so this is one call, and it returns without error if the dialog did not open.
+     */
     public void waitForDialogToAppear()
     {
-        getLdtp().waitTillGuiExist();
+        LdtpRegistry.getInstance().get(LdtpTransport.of(getLdtp()), getDialogName()).waitTillGuiExist();
     }
 
     public String getDialogName()
@@ -86,7 +76,8 @@ public class Dialog extends GuiObject
     public void focus()
     {
         logger.info("Grab focus to: " + getDialogName());
-        getLdtp().setWindowName(getDialogName());
+        // shared handles are never renamed: take the one of the current dialog name
+        setLdtp(LdtpRegistry.getInstance().get(LdtpTransport.of(getLdtp()), getDialogName()));
         getLdtp().waitTillGuiExist();
         getLdtp().activateWindow(getDialogName());
     }
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.os.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.alfresco.utilities.AsyncLdtp;
+import org.alfresco.utilities.LdtpBatch;
+import org.alfresco.utilities.LdtpTransport;
+import org.alfresco.utilities.LdtpUtils;
+import org.alfresco.utilities.LoggerUtils;
+import org.alfresco.utilities.WindowEventBus;
+import org.apache.log4j.Logger;
+
+import com.cobra.ldtp.Ldtp;
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Closes the dialogs left opened on one agent, i.e. after a test failure.
+ * A window is a dialog if its name starts with dlg or frm and it has no Application object. The classification of a
+ * window is kept as long as the window is in every window list the sweeper takes, and dropped as soon as one list
+ * misses it; a window closed and opened again under the same name between two sweeps keeps its classification, call
+ * {@link #reset()} when that can change the answer (i.e. the application under test was restarted). The windows not
+ * classified yet are checked concurrently and all the dismissals (activate the dialog, ESC) are sent as one
+ * {@link LdtpBatch}, each ESC travelling with the activation of the next dialog; an activation that fails ends the
+ * batch, so no ESC reaches a window it was not meant for. The {@link WindowEventBus} of the agent then waits up to
+ * <code>ldtp.dialogs.closeTimeout</code> (default 2000 ms) for the dialogs to close.
+ * There is one sweeper per {@link LdtpTransport}.
+ */
+public class DialogSweeper
+{
+    private static Logger logger = LoggerUtils.getLogger();
+    private static final ConcurrentMap<LdtpTransport, DialogSweeper> sweepers = new ConcurrentHashMap<LdtpTransport, DialogSweeper>();
+    private static final String ANY_WINDOW = " ";
+    private static final long CLOSE_TIMEOUT = Long.getLong("ldtp.dialogs.closeTimeout", 2000);
+    private static final long CLASSIFY_TIMEOUT = Long.getLong("ldtp.dialogs.classifyTimeout", 10000);
+
+    private final LdtpTransport transport;
+    private final Ldtp anyWindow;
+    private final Map<String, CompletableFuture<Boolean>> classifications = new HashMap<String, CompletableFuture<Boolean>>();
+
+    DialogSweeper(LdtpTransport transport)
+    {
+        this.transport = transport;
+        this.anyWindow = transport.newLdtp(ANY_WINDOW);
+    }
+
+    /**
+     * @return the sweeper of the agent of the {@link org.alfresco.utilities.LdtpSession} open on the current thread,
+     *         or of the agent configured for this environment
+     */
+    public static DialogSweeper getDefault()
+    {
+        return forTransport(LdtpTransport.getDefault());
+    }
+
+    /**
+     * @param ldtp
+     * @return the sweeper of the agent <ldtp> talks to
+     */
+    public static DialogSweeper of(Ldtp ldtp)
+    {
+        return forTransport(LdtpTransport.of(ldtp));
+    }
+
+    /**
+     * @param transport
+     * @return the sweeper of the agent of <transport>
+     */
+    public static DialogSweeper forTransport(LdtpTransport transport)
+    {
+        DialogSweeper sweeper = sweepers.get(transport);
+        if (sweeper == null)
+        {
+            DialogSweeper created = new DialogSweeper(transport);
+            sweeper = sweepers.putIfAbsent(transport, created);
+            if (sweeper == null)
+            {
+                sweeper = created;
+            }
+        }
+        return sweeper;
+    }
+
+    /**
+     * @return the dialogs currently opened, in opening order
+     */
+    public List<String> findDialogs()
+    {
+        return classify(getWindowList());
+    }
+
+    /**
+     * Send ESC to every opened dialog, the most recent first, and wait for them to close
+     *
+     * @return the dialogs found and the ones still opened after the sweep
+     */
+    public Result sweep()
+    {
+        List<String> dialogs = findDialogs();
+        if (dialogs.isEmpty())
+        {
+            return new Result(dialogs, Collections.<String> emptyList());
+        }
+        List<String> order = new ArrayList<String>(dialogs);
+        Collections.reverse(order);
+        LdtpBatch batch = new LdtpBatch(transport, ANY_WINDOW);
+        for (String dialog : order)
+        {
+            logger.info("Found  Dialog [" + dialog + "] and try to close it sending ESC key!");
+            batch.call("activatewindow", dialog).keys("<esc>");
+        }
+        LdtpBatch.Result dismissed = batch.execute();
+        if (!dismissed.isSuccessful())
+        {
+            logger.debug("Some dialogs could not be dismissed: " + dismissed);
+        }
+
+        final Set<String> swept = new HashSet<String>(dialogs);
+        List<String> remaining = new ArrayList<String>();
+        if (!AsyncLdtp.await(WindowEventBus.forTransport(transport).awaitClosed(swept::contains, CLOSE_TIMEOUT)))
+        {
+            transport.getWindowListCache().invalidate();
+            Set<String> opened = new HashSet<String>(Arrays.asList(getWindowList()));
+            for (String dialog : dialogs)
+            {
+                if (opened.contains(dialog))
+                {
+                    remaining.add(dialog);
+                }
+            }
+        }
+        Result result = new Result(dialogs, remaining);
+        if (!remaining.isEmpty())
+        {
+            logger.warn("Dialogs still opened after pressing ESC: " + remaining);
+        }
+        return result;
+    }
+
+    /**
+     * Forget all classifications, i.e. after the application under test was restarted
+     */
+    public synchronized void reset()
+    {
+        classifications.clear();
+    }
+
+    /**
+     * The classifications are started under the lock and awaited outside of it, for at most
+     * <code>ldtp.dialogs.classifyTimeout</code> ms (default 10000) each; a window that could not be classified is not
+     * a dialog for this call and is classified again by the next one.
+     *
+     * @param windows
+     * @return the dialogs among <windows>, in the same order
+     */
+    List<String> classify(String[] windows)
+    {
+        Map<String, CompletableFuture<Boolean>> candidates = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+        synchronized (this)
+        {
+            Set<String> opened = new HashSet<String>(Arrays.asList(windows));
+            for (Iterator<String> names = classifications.keySet().iterator(); names.hasNext();)
+            {
+                if (!opened.contains(names.next()))
+                {
+                    // missing from this list: if it opens again it is classified again
+                    names.remove();
+                }
+            }
+            for (String window : windows)
+            {
+                if (!window.startsWith("dlg") && !window.startsWith("frm"))
+                {
+                    continue;
+                }
+                CompletableFuture<Boolean> classification = classifications.get(window);
+                if (classification == null)
+                {
+                    // the windows not classified yet are checked in parallel, each with a handle of its own
+                    classification = AsyncLdtp.of(transport.newLdtp(window)).query(l -> !LdtpUtils.isApplicationObject(l));
+                    classifications.put(window, classification);
+                }
+                candidates.put(window, classification);
+            }
+        }
+        List<String> dialogs = new ArrayList<String>();
+        for (Map.Entry<String, CompletableFuture<Boolean>> candidate : candidates.entrySet())
+        {
+            try
+            {
+                if (AsyncLdtp.await(candidate.getValue(), CLASSIFY_TIMEOUT))
+                {
+                    dialogs.add(candidate.getKey());
+                }
+            }
+            catch (RuntimeException | LdtpExecutionError e)
+            {
+                logger.debug(String.format("Could not classify window [%s]: %s", candidate.getKey(), e.getMessage()));
+                synchronized (this)
+                {
+                    classifications.remove(candidate.getKey(), candidate.getValue());
+                }
+            }
+        }
+        logger.debug("Dialogs among " + candidates.keySet() + ": " + dialogs);
+        return dialogs;
+    }
+
+    /**
+     * @return number of windows with a known classification
+     */
+    synchronized int getClassifiedCount()
+    {
+        return classifications.size();
+    }
+
+    private String[] getWindowList()
+    {
+        return transport.getWindowListCache().getWindowList(anyWindow);
+    }
+
+    /**
+     * Dialogs found by a sweep and the ones still opened after it
+     */
+    public static class Result
+    {
+        private final List<String> dialogs;
+        private final List<String> remaining;
+
+        Result(List<String> dialogs, List<String> remaining)
+        {
+            this.dialogs = Collections.unmodifiableList(dialogs);
+            this.remaining = Collections.unmodifiableList(remaining);
+        }
+
+        /**
+         * @return the dialogs found opened, in opening order
+         */
+        public List<String> getDialogs()
+        {
+            return dialogs;
+        }
+
+        /**
+         * @return the dialogs still opened after the sweep
+         */
+        public List<String> getRemaining()
+        {
+            return remaining;
+        }
+
+        /**
+         * @return true if no dialog is left opened
+         */
+        public boolean isClean()
+        {
+            return remaining.isEmpty();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "DialogSweeper.Result[dialogs=" + dialogs + ", remaining=" + remaining + "]";
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package org.alfresco.os.common;
 
+import org.alfresco.utilities.AsyncLdtp;
+import org.alfresco.utilities.LdtpEndpoint;
+import org.alfresco.utilities.LdtpTransport;
 import org.alfresco.utilities.LdtpUtils;
 import org.alfresco.utilities.LoggerUtils;
 import org.apache.commons.lang.SystemUtils;
@@ -30,6 +33,32 @@ public abstract class GuiObject
         this.ldtp = ldtp;
     }
 
+    /**
+     * Move this object to the agent of <endpoint>: the same window is looked up on that desktop from now on
+     *
+     * @param endpoint
+     */
+    public void bindTo(LdtpEndpoint endpoint)
+    {
+        setLdtp(LdtpTransport.forEndpoint(endpoint).newLdtp(getLdtp().getWindowName()));
+    }
+
+    /**
+     * @return the agent this object is driven on
+     */
+    public LdtpEndpoint getEndpoint()
+    {
+        return LdtpTransport.of(getLdtp()).getEndpoint();
+    }
+
+    /**
+     * @return non blocking facade over the current LDTP handle
+     */
+    protected AsyncLdtp async()
+    {
+        return AsyncLdtp.of(getLdtp());
+    }
+
     /**
      * @return true if this Dialog exists
      */
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.os.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.alfresco.utilities.LdtpEndpoint;
+import org.alfresco.utilities.LdtpTransport;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Shared {@link Ldtp} handles, one per (agent endpoint, window name pattern).
+ * Helpers that only need to talk to a window (dialogs, context menus, alerts) take their handle from here instead
+ * of building a new one each time. Handles are evicted in LRU order once the registry holds more than
+ * <code>ldtp.registry.size</code> (default 64) handles, and all of them share the {@link LdtpTransport} of their
+ * agent.
+ * Shared handles cannot be renamed: setWindowName with another window name throws an
+ * {@link UnsupportedOperationException}, since every other user of the handle would be retargeted too. Take the handle
+ * of the other window from the registry instead; code that renames its handle (i.e. applications following their
+ * document windows) should keep creating its own handles.
+ */
+public class LdtpRegistry
+{
+    private static final LdtpRegistry instance = new LdtpRegistry(Integer.getInteger("ldtp.registry.size", 64));
+
+    private final Map<String, Ldtp> handles;
+
+    public LdtpRegistry(final int maxSize)
+    {
+        this.handles = new LinkedHashMap<String, Ldtp>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Ldtp> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the registry shared by all GUI objects
+     */
+    public static LdtpRegistry getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * @param windowName window name or pattern (i.e. "dlgSaveAs", "*Notepad")
+     * @return the shared handle of <windowName> on the default agent
+     */
+    public Ldtp get(String windowName)
+    {
+        return get(LdtpTransport.getDefault(), windowName);
+    }
+
+    /**
+     * @param transport agent to talk to
+     * @param windowName window name or pattern
+     * @return the shared handle of <windowName> on the agent of <transport>
+     */
+    public Ldtp get(LdtpTransport transport, String windowName)
+    {
+        String key = key(transport.getEndpoint(), windowName);
+        synchronized (handles)
+        {
+            Ldtp ldtp = handles.get(key);
+            if (ldtp != null)
+            {
+                return ldtp;
+            }
+            LdtpEndpoint endpoint = transport.getEndpoint();
+            ldtp = transport.bind(new SharedLdtp(windowName, endpoint.getHost(), String.valueOf(endpoint.getPort())));
+            handles.put(key, ldtp);
+            return ldtp;
+        }
+    }
+
+    /**
+     * @return number of handles currently registered
+     */
+    public int size()
+    {
+        synchronized (handles)
+        {
+            return handles.size();
+        }
+    }
+
+    /**
+     * Forget all handles
+     */
+    public void clear()
+    {
+        synchronized (handles)
+        {
+            handles.clear();
+        }
+    }
+
+    /**
+     * @param ldtp
+     * @return true if <ldtp> was given out by a registry, so it cannot be renamed
+     */
+    public static boolean isShared(Ldtp ldtp)
+    {
+        return ldtp instanceof SharedLdtp;
+    }
+
+    private static String key(LdtpEndpoint endpoint, String windowName)
+    {
+        return endpoint + "/" + windowName;
+    }
+
+    /**
+     * Handle given out by the registry, refusing to be retargeted to another window
+     */
+    private static class SharedLdtp extends Ldtp
+    {
+        private final boolean shared;
+
+        SharedLdtp(String windowName, String host, String port)
+        {
+            super(windowName, host, port);
+            this.shared = true;
+        }
+
+        @Override
+        public void setWindowName(String windowName)
+        {
+            // the cobra constructor may set the name itself, before <shared> is assigned
+            if (shared && windowName != null && !windowName.equals(getWindowName()))
+            {
+                throw new UnsupportedOperationException(String.format("Shared LDTP handle of [%s] cannot be renamed to [%s], use LdtpRegistry.get",
+                        getWindowName(), windowName));
+            }
+            super.setWindowName(windowName);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.alfresco.os.mac;
 import org.alfresco.os.common.ApplicationBase;
 import org.alfresco.os.mac.utils.AppleScript;
 import org.alfresco.utilities.LdtpUtils;
+import org.alfresco.utilities.ProcessLifecycleManager;
 import org.apache.log4j.Logger;
 
 import com.cobra.ldtp.Ldtp;
@@ -45,14 +46,14 @@ public abstract class Application extends ApplicationBase
     public void killProcess()
     {
         LdtpUtils.logDebug("Kill Application process: " + getApplicationName());
-        LdtpUtils.execute(new String[] { "killall", getApplicationName() });
+        ProcessLifecycleManager.getInstance().killByExecutable(getApplicationName());
        // killPython();
     }
 
     public void killPython()
     {
         LdtpUtils.logDebug("Kill Python process: Python");
-        LdtpUtils.executeOnUnix("kill `ps ax | grep \"python\" | awk '{print $1}'`");
+        ProcessLifecycleManager.getInstance().killByName("python");
     }
 
     @Override
@@ -61,14 +62,14 @@ public abstract class Application extends ApplicationBase
         Ldtp ldtp = null;
         try
         {
-            ldtp = new Ldtp(getWaitWindow());
+            ldtp = getTransport().newLdtp(getWaitWindow());
         }
         catch (Exception e) // it seem LDTP is not initialisez so we need to run a python script on MAC
         {
             String setupScript = this.getClass().getClassLoader().getResource("startLdtp.py").getPath();
             LdtpUtils.execute(new String[]{"python", "-i", setupScript});
             LdtpUtils.waitUntilProcessIsRunning("python");
-            ldtp = new Ldtp(getWaitWindow());
+            ldtp = getTransport().newLdtp(getWaitWindow());
         }
         return ldtp;
     }
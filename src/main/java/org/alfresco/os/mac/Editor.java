@@ -20,8 +20,12 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import org.alfresco.exceptions.OfficeCrashException;
+import org.alfresco.os.common.LdtpRegistry;
 import org.alfresco.os.mac.utils.AppleMenuBar;
+import org.alfresco.utilities.KeySequence;
 import org.alfresco.utilities.LdtpUtils;
+import org.alfresco.utilities.WaitEngine;
+import org.alfresco.utilities.WaitPolicy;
 import org.apache.log4j.Logger;
 
 import com.cobra.ldtp.Ldtp;
@@ -42,7 +46,7 @@ public abstract class Editor extends Application
     protected AppleMenuBar getAppleMenu()
     {
         if (appleMenu == null)
-            appleMenu = new AppleMenuBar(new Ldtp(getWaitWindow()));
+            appleMenu = new AppleMenuBar(LdtpRegistry.getInstance().get(getTransport(), getWaitWindow()));
 
         return appleMenu;
     }
@@ -56,7 +60,7 @@ public abstract class Editor extends Application
     public void edit(String data) throws LdtpExecutionError
     {
         logger.info("Editing document:" + data);
-        getLdtp().enterString(data);
+        KeySequence.type(getLdtp(), data);
         getLdtp().waitTime(1);
     }
 
@@ -161,15 +165,28 @@ public abstract class Editor extends Application
     {
         logger.info("Save document as: " + file.getPath());
         getLdtp().generateKeyEvent("<command><shift>s");
-
-        // add folder based on location
-        getLdtp().generateKeyEvent("<command>a");
-        getLdtp().enterString(file.getParent());
-        getLdtp().generateKeyEvent("<enter>");
-
+        // each batch types into a sheet opened by the previous one, so wait for it first
+        waitForSheet("btnSave", true);
+        // add folder based on location: typing a path opens the "Go to the folder" sheet
+        ldtpBatch().keys("<command>a").enter(file.getParent()).keys("<enter>").execute().assertSuccess();
+        waitForSheet("btnGo", false);
         // now add filename
-        getLdtp().enterString(file.getName());
-        getLdtp().generateKeyEvent("<enter>");
+        ldtpBatch().enter(file.getName()).keys("<enter>").execute().assertSuccess();
+    }
+
+    /**
+     * Wait until the sheet holding <buttonName> is opened (or closed) on the editor window
+     *
+     * @param buttonName i.e. btnSave
+     * @param opened
+     */
+    private void waitForSheet(final String buttonName, final boolean opened)
+    {
+        int expected = opened ? 1 : 0;
+        if (!WaitEngine.until(() -> getLdtp().objectExist(buttonName) == expected, WaitPolicy.defaultPolicy()))
+        {
+            throw new LdtpExecutionError(String.format("Sheet with [%s] was not %s", buttonName, opened ? "opened" : "closed"));
+        }
     }
 
     public void openFromFileMenu(File file) throws Exception
@@ -229,12 +246,12 @@ public abstract class Editor extends Application
      */
     public boolean applicationCrashedReportShown()
     {
-        return Arrays.asList(getLdtp().getWindowList()).contains("frmProblemReportforMicrosoftErrorReporting");
+        return Arrays.asList(LdtpUtils.getWindowList(getLdtp())).contains("frmProblemReportforMicrosoftErrorReporting");
     }
 
     public boolean applicationCrashedDontSentShown()
     {
-        return Arrays.asList(getLdtp().getWindowList()).contains("frmMicrosoftErrorReporting");
+        return Arrays.asList(LdtpUtils.getWindowList(getLdtp())).contains("frmMicrosoftErrorReporting");
     }
 
     /**
@@ -263,21 +280,16 @@ public abstract class Editor extends Application
 
     public boolean isFileOpened(String filename)
     {
-        return Arrays.asList(getLdtp().getWindowList()).contains("frm" + filename);
+        return Arrays.asList(LdtpUtils.getWindowList(getLdtp())).contains("frm" + filename);
     }
 
     /**
      * This will wait for a couple of times, until the file is closed
      */
-    public void waitUntilFileCloses(String filename)
+    public void waitUntilFileCloses(final String filename)
     {
         logger.info("Wait until the file: " + filename + " is closed.");
-        int retries = 1;
-        while (retries <= LdtpUtils.RETRY_COUNT && isFileOpened(filename))
-        {
-            retries++;
-            getLdtp().waitTime(1);
-        }
+        WaitEngine.until(() -> !isFileOpened(filename), WaitPolicy.defaultPolicy());
     }
 
     public Ldtp waitForWindow(String windowName) throws Exception
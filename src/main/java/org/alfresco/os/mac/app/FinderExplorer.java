@@ -11,7 +11,11 @@ import com.cobra.ldtp.Ldtp;
 import org.alfresco.exceptions.WindowNotOpenedException;
 import org.alfresco.os.mac.utils.AlertDialog;
 import org.alfresco.os.mac.utils.KeyboardShortcut;
+import org.alfresco.utilities.KeySequence;
 import org.alfresco.utilities.LdtpUtils;
+import org.alfresco.utilities.ObjectIndex;
+import org.alfresco.utilities.WaitEngine;
+import org.alfresco.utilities.WaitPolicy;
 import org.apache.log4j.Logger;
 
 import java.io.File;
@@ -358,7 +362,7 @@ public class FinderExplorer extends KeyboardShortcut
 
     public void replaceIfExists() throws Exception
     {
-        Ldtp replaceDialog = new Ldtp("frmCopy");
+        Ldtp replaceDialog = getTransport().newLdtp("frmCopy");
         LdtpUtils.waitForWindowPartialName(replaceDialog, "frmCopy");
         replaceDialog.click("btnReplace");
         waitUntilWindowIsClosed("frmCopy");
@@ -389,10 +393,15 @@ public class FinderExplorer extends KeyboardShortcut
     {
         logger.info(String.format("Rename file {%s} to {%s}.", file.getPath(), newName));
         selectFile(file);
+        // enter edit mode and wait for the name field before typing into it
+        final int textFields = ObjectIndex.forWindow(getLdtp()).withRole(ObjectIndex.Role.TEXT).size();
         getLdtp().generateKeyEvent("<enter>");
-        cmdAll();
-        getLdtp().generateKeyEvent(newName.getName());
-        getLdtp().generateKeyEvent("<enter>");
+        if (!WaitEngine.until(() -> ObjectIndex.forWindow(getLdtp()).withRole(ObjectIndex.Role.TEXT).size() > textFields, new WaitPolicy(100, 5000)))
+        {
+            logger.warn("No edit field appeared for " + file.getName() + ", typing the new name anyway.");
+        }
+        // select the whole name (extension included) and type the new one
+        ldtpBatch().keys("<command>a").keys(KeySequence.encode(newName.getName())).keys("<enter>").execute().assertSuccess();
     }
 
     /**
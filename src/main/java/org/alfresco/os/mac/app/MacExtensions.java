@@ -14,7 +14,7 @@ public class MacExtensions extends KeyboardShortcut
     
     public MacExtensions() 
     {
-        Ldtp ldtp = new Ldtp("*");
+        Ldtp ldtp = getTransport().newLdtp("*");
         setLdtp(ldtp);
         cmdSpotlight();
         try
@@ -85,22 +85,32 @@ public class TextEdit extends Editor
         AppleScript appleScript = getAppleScript();
         appleScript.clean();
         appleScript.addCommandScript("tell app \"TextEdit\" to activate");
-        appleScript.addCommandScript("delay 2");
         appleScript.addCommandScript("tell application \"System Events\"");
+        appleScript.addCommandScript("tell process \"TextEdit\"");
+        // wait for the window and the dialogs instead of fixed delays, up to 5 seconds each
+        appleScript.addCommandScript("repeat 50 times");
+        appleScript.addCommandScript("if frontmost then exit repeat");
+        appleScript.addCommandScript("delay 0.1");
+        appleScript.addCommandScript("end repeat");
         appleScript.addCommandScript("keystroke \"s\" using {command down}");
-        appleScript.addCommandScript("delay 1.5");
+        appleScript.addCommandScript("repeat 50 times");
+        appleScript.addCommandScript("if exists sheet 1 of front window then exit repeat");
+        appleScript.addCommandScript("delay 0.1");
+        appleScript.addCommandScript("end repeat");
         appleScript.addCommandScript("keystroke \"a\" using {command down}");
-        appleScript.addCommandScript("delay 0.5");
         appleScript.addCommandScript("keystroke \"a\" using {command down}");
-        appleScript.addCommandScript("delay 1");
         appleScript.addCommandScript("keystroke \"" + location.getParentFile().getPath() + "\"");
-        appleScript.addCommandScript("delay 1");
+        appleScript.addCommandScript("delay 0.5");
         appleScript.addCommandScript("keystroke return");
-        appleScript.addCommandScript("delay 2");
+        appleScript.addCommandScript("delay 0.3");
+        appleScript.addCommandScript("repeat 50 times");
+        appleScript.addCommandScript("if not (exists sheet 1 of sheet 1 of front window) then exit repeat");
+        appleScript.addCommandScript("delay 0.1");
+        appleScript.addCommandScript("end repeat");
         appleScript.addCommandScript("keystroke \"" + location.getName() + "\"");
-        appleScript.addCommandScript("delay 2");
         appleScript.addCommandScript("keystroke return");
         appleScript.addCommandScript("end tell");
+        appleScript.addCommandScript("end tell");
         appleScript.run();
     }
 
@@ -31,6 +31,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.alfresco.os.mac.Application;
+import org.alfresco.utilities.KeySequence;
 import org.alfresco.utilities.LdtpUtils;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
@@ -137,7 +138,7 @@ public class MicrosoftDocumentConnection extends Application
         try
         {
             LdtpUtils.logDebug("Now Exit MDC application.");
-            if (Arrays.asList(getLdtp().getWindowList()).contains(getWaitWindow()))
+            if (Arrays.asList(LdtpUtils.getWindowList(getLdtp())).contains(getWaitWindow()))
             {
                 focus();
                 killProcess();
@@ -361,8 +362,7 @@ public class MicrosoftDocumentConnection extends Application
      */
     public void checkInWithComment(String comment)
     {
-        comment = LdtpUtils.toLdapString(comment);
-        getLdtp().enterString(comment);
+        KeySequence.type(getLdtp(), comment);
         getLdtp().click("btnCheckIn1");
         getLdtp().waitTime(2);
     }
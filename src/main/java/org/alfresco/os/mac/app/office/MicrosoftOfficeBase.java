@@ -118,7 +118,7 @@ public class MicrosoftOfficeBase extends Editor
         {
             // no need for handling this exception
         }
-        return Arrays.asList(getLdtp().getWindowList()).contains("frm" + filename + "(Read-Only)");
+        return Arrays.asList(LdtpUtils.getWindowList(getLdtp())).contains("frm" + filename + "(Read-Only)");
     }
 
     /**
@@ -137,7 +137,7 @@ public class MicrosoftOfficeBase extends Editor
         {
             // no need to handle this exception, function will always return a boolean value bellow
         }
-        return Arrays.asList(getLdtp().getWindowList()).contains("frm" + filename);
+        return Arrays.asList(LdtpUtils.getWindowList(getLdtp())).contains("frm" + filename);
     }
 
     @Override
@@ -146,7 +146,7 @@ public class MicrosoftOfficeBase extends Editor
         handleCrash();
         runProcess(command);
         waitForWindow(getWaitWindow());
-        setLdtp(new Ldtp(getFileName()));
+        setLdtp(getTransport().newLdtp(getFileName()));
         return this;
     }
 
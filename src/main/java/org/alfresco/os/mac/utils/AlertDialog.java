@@ -15,6 +15,7 @@
 
 package org.alfresco.os.mac.utils;
 
+import org.alfresco.os.common.LdtpRegistry;
 import org.alfresco.os.mac.Application;
 import org.alfresco.utilities.LdtpUtils;
 
@@ -51,7 +52,7 @@ public class AlertDialog extends Application
 
     public Ldtp dialog()
     {
-        alert = new Ldtp(identifier);
+        alert = LdtpRegistry.getInstance().get(identifier);
         return alert;
     }
 
@@ -15,6 +15,7 @@
 
 package org.alfresco.os.mac.utils;
 
+import org.alfresco.utilities.LdtpTransport;
 import org.alfresco.utilities.LdtpUtils;
 
 import com.cobra.ldtp.Ldtp;
@@ -52,7 +53,7 @@ public class AppleMenuBar
 
     public AppleMenuBar()
     {
-        ldtp = new Ldtp("");
+        ldtp = LdtpTransport.getDefault().newLdtp("");
     }
 
     public AppleMenuBar(Ldtp demo)
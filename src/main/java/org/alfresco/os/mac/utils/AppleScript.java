@@ -17,7 +17,7 @@ package org.alfresco.os.mac.utils;
 
 import java.util.ArrayList;
 
-import org.alfresco.utilities.LdtpUtils;
+import org.apache.log4j.Logger;
 
 /**
  * This class is a wrapper over OSA Scripting - Apple Script.
@@ -30,6 +30,7 @@ import org.alfresco.utilities.LdtpUtils;
  */
 public class AppleScript
 {
+    private static Logger logger = Logger.getLogger(AppleScript.class);
     private ArrayList<String> commandLine = new ArrayList<String>();
 
     /**
@@ -45,21 +46,30 @@ public class AppleScript
     }
 
     /**
-     * Run the script
-     * @throws Exception 
+     * Run the script on the shared {@link ScriptHost} and wait for it
+     * 
+     * @return the output and exit status of the script
      */
-    public void run() 
+    public ScriptHost.Result run()
     {
-        commandLine.add(0, "osascript");
-        String[] command = new String[commandLine.size()];
-        command = commandLine.toArray(command);
+        StringBuilder script = new StringBuilder();
+        for (int i = 1; i < commandLine.size(); i += 2)
+        {
+            script.append(commandLine.get(i)).append('\n');
+        }
         try
         {
-        LdtpUtils.runProcess(command);
+            ScriptHost.Result result = ScriptHost.getDefault().run(script.toString());
+            if (!result.isSuccessful())
+            {
+                logger.warn("AppleScript failed: " + result);
+            }
+            return result;
         }
-        catch (Exception e)
+        catch (RuntimeException e)
         {
-            //need to work on this when we do mac udpates
+            logger.error("Cannot run AppleScript", e);
+            return new ScriptHost.Result(ScriptHost.Result.HOST_DIED, new ArrayList<String>(), false);
         }
     }
 
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.os.mac.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.utilities.AsyncLdtp;
+import org.alfresco.utilities.ProcessLifecycleManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps one script interpreter running and feeds it scripts over stdin, instead of starting a new process for each
+ * script. Each script gets its own output and exit status.
+ * <ul>
+ * <li>scripts from any thread are queued; the ones waiting when the host is free are written in one batch</li>
+ * <li>the host writes <code>__ldtp_done__ &lt;id&gt; &lt;status&gt;</code> after the output of each script</li>
+ * <li>if the host dies or a script runs longer than <code>ldtp.script.timeout</code> (default 60000 ms), the host is
+ * restarted for the next scripts</li>
+ * </ul>
+ * The interpreter is a {@link Backend}: {@link #APPLESCRIPT} (osascript, default) or {@link #SHELL} (/bin/sh).
+ */
+public class ScriptHost implements AutoCloseable
+{
+    private static Logger logger = Logger.getLogger(ScriptHost.class);
+    private static final String DONE = "__ldtp_done__ ";
+    private static final String EOF = "\u0000eof";
+    private static volatile ScriptHost defaultHost;
+
+    /**
+     * Interpreter behind a {@link ScriptHost}
+     */
+    public interface Backend
+    {
+        /**
+         * @return the command starting the interpreter
+         */
+        List<String> command();
+
+        /**
+         * @param id
+         * @param script
+         * @return what to write on stdin so the interpreter runs <script> and then writes the done line of <id>
+         */
+        String frame(String id, String script);
+    }
+
+    /**
+     * AppleScript run by NSAppleScript in one osascript (JavaScript for Automation) process
+     */
+    public static final Backend APPLESCRIPT = new Backend()
+    {
+        private String host;
+
+        @Override
+        public synchronized List<String> command()
+        {
+            if (host == null)
+            {
+                try (InputStream stream = ScriptHost.class.getResourceAsStream("/scriptHost.js");
+                        Scanner scanner = new Scanner(stream, StandardCharsets.UTF_8.name()))
+                {
+                    host = scanner.useDelimiter("\\A").next();
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException("Cannot read scriptHost.js", e);
+                }
+            }
+            return Arrays.asList("osascript", "-l", "JavaScript", "-e", host);
+        }
+
+        @Override
+        public String frame(String id, String script)
+        {
+            return script + "\n__ldtp_end__ " + id + "\n";
+        }
+
+        @Override
+        public String toString()
+        {
+            return "osascript";
+        }
+    };
+
+    /**
+     * Shell scripts run by one /bin/sh process; a script calling exit restarts the host
+     */
+    public static final Backend SHELL = new Backend()
+    {
+        @Override
+        public List<String> command()
+        {
+            return Arrays.asList("/bin/sh");
+        }
+
+        @Override
+        public String frame(String id, String script)
+        {
+            return "{\n" + script + "\n} </dev/null\nprintf '%s%s %d\\n' '" + DONE + "' '" + id + "' $?\n";
+        }
+
+        @Override
+        public String toString()
+        {
+            return "sh";
+        }
+    };
+
+    private final Backend backend;
+    private final long timeoutMillis;
+    private final BlockingQueue<Job> jobs = new LinkedBlockingQueue<Job>();
+    private final AtomicLong ids = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+    private Process process;
+    private Writer stdin;
+    private BlockingQueue<String> stdout;
+    private int restarts;
+
+    /**
+     * @param backend
+     */
+    public ScriptHost(Backend backend)
+    {
+        this(backend, Long.getLong("ldtp.script.timeout", 60000));
+    }
+
+    /**
+     * @param backend
+     * @param timeoutMillis time given to each script
+     */
+    public ScriptHost(Backend backend, long timeoutMillis)
+    {
+        this.backend = backend;
+        this.timeoutMillis = timeoutMillis;
+        this.worker = new Thread(this::work, "ldtp-script-host-" + backend);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * @return the AppleScript host shared by this JVM
+     */
+    public static ScriptHost getDefault()
+    {
+        if (defaultHost == null)
+        {
+            synchronized (ScriptHost.class)
+            {
+                if (defaultHost == null)
+                {
+                    defaultHost = new ScriptHost(APPLESCRIPT);
+                }
+            }
+        }
+        return defaultHost;
+    }
+
+    /**
+     * Queue <script>
+     *
+     * @param script
+     * @return future of the result, completed when the host finished the script
+     */
+    public CompletableFuture<Result> submit(String script)
+    {
+        Job job = new Job(String.valueOf(ids.incrementAndGet()), script);
+        if (closed)
+        {
+            job.result.completeExceptionally(new IllegalStateException("Script host closed"));
+            return job.result;
+        }
+        jobs.add(job);
+        return job.result;
+    }
+
+    /**
+     * Run <script> and wait for it
+     *
+     * @param script
+     * @return Result
+     */
+    public Result run(String script)
+    {
+        return AsyncLdtp.await(submit(script));
+    }
+
+    /**
+     * @return number of times the interpreter was started again after dying or timing out
+     */
+    public synchronized int getRestarts()
+    {
+        return restarts;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void work()
+    {
+        List<Job> batch = new ArrayList<Job>();
+        try
+        {
+            while (!closed)
+            {
+                batch.add(jobs.take());
+                jobs.drainTo(batch);
+                runBatch(batch);
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            logger.debug("Script host stopped");
+        }
+        finally
+        {
+            stop();
+            for (Job job : batch)
+            {
+                job.result.completeExceptionally(new IllegalStateException("Script host closed"));
+            }
+            for (Job job = jobs.poll(); job != null; job = jobs.poll())
+            {
+                job.result.completeExceptionally(new IllegalStateException("Script host closed"));
+            }
+        }
+    }
+
+    /**
+     * Write all scripts of <batch> at once, then read their results in order. Scripts not run because the host
+     * died are run again on a new host.
+     */
+    private void runBatch(List<Job> batch) throws InterruptedException
+    {
+        int next = 0;
+        while (next < batch.size())
+        {
+            try
+            {
+                ensureStarted();
+                StringBuilder frames = new StringBuilder();
+                for (Job job : batch.subList(next, batch.size()))
+                {
+                    frames.append(backend.frame(job.id, job.script));
+                }
+                stdin.write(frames.toString());
+                stdin.flush();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Cannot send scripts to the " + backend + " host: " + e.getMessage());
+                stop();
+                fail(batch.subList(next, batch.size()), e);
+                return;
+            }
+            while (next < batch.size())
+            {
+                Job job = batch.get(next);
+                Result result = read(job);
+                next++;
+                job.result.complete(result);
+                if (result.isTimedOut() || result.getStatus() == Result.HOST_DIED)
+                {
+                    // the scripts written after this one are lost with the host
+                    stop();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the output of <job> up to its done line, or what was read before the host died or the timeout
+     */
+    private Result read(Job job) throws InterruptedException
+    {
+        List<String> output = new ArrayList<String>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true)
+        {
+            long remaining = deadline - System.nanoTime();
+            String line = remaining > 0 ? stdout.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (line == null)
+            {
+                logger.warn("Script " + job.id + " still running after " + timeoutMillis + "ms, restarting the " + backend + " host.");
+                return new Result(Result.TIMED_OUT, output, true);
+            }
+            if (line == EOF)
+            {
+                logger.warn("The " + backend + " host died while running script " + job.id);
+                return new Result(Result.HOST_DIED, output, false);
+            }
+            int done = line.indexOf(DONE + job.id + " ");
+            if (done < 0)
+            {
+                output.add(line);
+                continue;
+            }
+            if (done > 0)
+            {
+                output.add(line.substring(0, done));
+            }
+            String status = line.substring(done + DONE.length() + job.id.length() + 1).trim();
+            try
+            {
+                return new Result(Integer.parseInt(status), output, false);
+            }
+            catch (NumberFormatException e)
+            {
+                return new Result(1, output, false);
+            }
+        }
+    }
+
+    private void fail(List<Job> jobs, Exception e)
+    {
+        for (Job job : jobs)
+        {
+            job.result.completeExceptionally(e);
+        }
+    }
+
+    private synchronized void ensureStarted() throws IOException
+    {
+        if (process != null && process.isAlive())
+        {
+            return;
+        }
+        if (process != null)
+        {
+            restarts++;
+        }
+        process = ProcessLifecycleManager.getInstance().trackInfrastructure(new ProcessBuilder(backend.command()).redirectErrorStream(true).start());
+        logger.debug("Started " + backend + " script host " + process.pid());
+        stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        Thread pump = new Thread(() -> {
+            try
+            {
+                for (String line = reader.readLine(); line != null; line = reader.readLine())
+                {
+                    lines.add(line);
+                }
+            }
+            catch (IOException e)
+            {
+                logger.debug("Script host output closed: " + e.getMessage());
+            }
+            lines.add(EOF);
+        }, "ldtp-script-host-output");
+        pump.setDaemon(true);
+        pump.start();
+        stdout = lines;
+    }
+
+    private synchronized void stop()
+    {
+        if (process == null)
+        {
+            return;
+        }
+        try
+        {
+            stdin.close();
+        }
+        catch (IOException e)
+        {
+            logger.debug("Cannot close script host input: " + e.getMessage());
+        }
+        if (process.isAlive())
+        {
+            ProcessLifecycleManager.terminate(Collections.singletonList(process.toHandle()), 500, 5000);
+        }
+    }
+
+    /**
+     * One queued script
+     */
+    private static class Job
+    {
+        private final String id;
+        private final String script;
+        private final CompletableFuture<Result> result = new CompletableFuture<Result>();
+
+        Job(String id, String script)
+        {
+            this.id = id;
+            this.script = script;
+        }
+    }
+
+    /**
+     * Output and exit status of one script
+     */
+    public static class Result
+    {
+        /** status of a script stopped after the timeout */
+        public static final int TIMED_OUT = -1;
+        /** status of a script during which the host exited */
+        public static final int HOST_DIED = -2;
+
+        private final int status;
+        private final List<String> output;
+        private final boolean timedOut;
+
+        Result(int status, List<String> output, boolean timedOut)
+        {
+            this.status = status;
+            this.output = Collections.unmodifiableList(output);
+            this.timedOut = timedOut;
+        }
+
+        /**
+         * @return exit status of the script (0 on success, the AppleScript error number on error), or
+         *         {@link #TIMED_OUT} / {@link #HOST_DIED}
+         */
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public boolean isSuccessful()
+        {
+            return status == 0;
+        }
+
+        public boolean isTimedOut()
+        {
+            return timedOut;
+        }
+
+        /**
+         * @return lines written by the script (stdout and stderr)
+         */
+        public List<String> getOutput()
+        {
+            return output;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ScriptHost.Result[status=" + status + ", output=" + output + "]";
+        }
+    }
+}
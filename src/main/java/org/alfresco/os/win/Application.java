@@ -53,7 +53,7 @@ public class Application extends ApplicationBase
         Ldtp ldtp = null;
         try
         {
-            ldtp = new Ldtp(getWaitWindow());
+            ldtp = getTransport().newLdtp(getWaitWindow());
         }
         catch (LdtpExecutionError e) // it seem LDTP is not initialisez so we need to run a python script on MAC
         {
@@ -72,9 +72,8 @@ public class Notepad extends Application
         getLdtp().click("Save As");
         waitForWindow("Save As");
         LdtpUtils.logInfo("before enter string");
-        getLdtp().enterString("txtFilename", destinationFile.getPath());
+        ldtpBatch().enter("txtFilename", destinationFile.getPath()).click("btnSave").execute().assertSuccess();
         LdtpUtils.logInfo("after enter string");
-        getLdtp().click("btnSave");
         LdtpUtils.waitToLoopTime(1);
     }
 
@@ -89,8 +88,7 @@ public class Notepad extends Application
         getLdtp().doubleClick("File");
         getLdtp().click("Save As");
         waitForWindow("Save As");
-        getLdtp().enterString("txtFilename", destinationFile.getPath());
-        getLdtp().click("btnSave");
+        ldtpBatch().enter("txtFilename", destinationFile.getPath()).click("btnSave").execute().assertSuccess();
         LdtpUtils.waitToLoopTime(1);
         getLdtp().click("Yes");
     }
@@ -112,7 +112,7 @@ public class WindowsExplorer extends Application
     public ApplicationBase replaceIfExits()
     {
         LdtpUtils.waitForWindowPartialName(getLdtp(), replaceIfExitsDialog);
-        Ldtp replaceDialog = new Ldtp(replaceIfExitsDialog);
+        Ldtp replaceDialog = getTransport().newLdtp(replaceIfExitsDialog);
         replaceDialog.click(btnReplaceFile);
         LdtpUtils.waitForWindowToDisappear(getLdtp(), replaceIfExitsDialog);
         return this;
@@ -389,7 +389,7 @@ public class WindowsExplorer extends Application
      */
     public File getIconImage(File fileOrFolder)
     {
-        Ldtp app = new Ldtp(fileOrFolder.getParentFile().getName());
+        Ldtp app = getTransport().newLdtp(fileOrFolder.getParentFile().getName());
         logger.info("Get Icon Image of: " + fileOrFolder.getPath());
         Integer[] a = app.getObjectSize(Files.getNameWithoutExtension(fileOrFolder.getName()));
 
@@ -1,8 +1,7 @@
 package org.alfresco.os.win.app.misc;
 
 import org.alfresco.os.common.GuiObject;
-
-import com.cobra.ldtp.Ldtp;
+import org.alfresco.os.common.LdtpRegistry;
 
 /**
  * Generic class that will handle Contextual Menus in Windows
@@ -26,7 +25,7 @@ public abstract class ContextMenu extends GuiObject
 
     public ContextMenu()
     {
-        setLdtp(new Ldtp("Context"));
+        setLdtp(LdtpRegistry.getInstance().get("Context"));
     }
 
     /**
@@ -1,8 +1,7 @@
 package org.alfresco.os.win.app.misc;
 
 import org.alfresco.os.common.GuiObject;
-
-import com.cobra.ldtp.Ldtp;
+import org.alfresco.os.common.LdtpRegistry;
 
 /**
  * Handles Context Menus sub items
@@ -14,7 +13,7 @@ public class ContextMenuItem extends GuiObject
 {
     public ContextMenuItem(String name)
     {
-        setLdtp(new Ldtp(name));
+        setLdtp(LdtpRegistry.getInstance().get(name));
     }
 
     public ContextMenuItem openSubMenu(String value)
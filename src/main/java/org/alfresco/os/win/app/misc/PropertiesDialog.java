@@ -3,6 +3,9 @@ package org.alfresco.os.win.app.misc;
 import java.io.File;
 import java.util.Arrays;
 
+import org.alfresco.os.common.LdtpRegistry;
+import org.alfresco.utilities.AsyncLdtp;
+import org.alfresco.utilities.ScreenshotService;
 import org.apache.log4j.Logger;
 
 import com.cobra.ldtp.Ldtp;
@@ -61,7 +64,8 @@ public class PropertiesDialog
         logger.info("Opening Properties Dialog for: " + getFileName().getPath());
         String fileWithoutExtension = Files.getNameWithoutExtension(getFileName().getName());
         logger.info("getFileName().getParentFile().getName() " + getFileName().getParentFile().getName());
-        propertyObject = new Ldtp(getFileName().getParentFile().getName());
+        LdtpRegistry registry = LdtpRegistry.getInstance();
+        Ldtp explorer = registry.get(getFileName().getParentFile().getName());
         if (getFileName().isFile())
         {
             fileList = "lst" + fileWithoutExtension + ".*";
@@ -70,11 +74,10 @@ public class PropertiesDialog
         {
             fileList = fileWithoutExtension;
         }
-        propertyObject.mouseLeftClick(fileList);
-        propertyObject.mouseRightClick(fileList);
-        propertyObject.setWindowName("Context");
-        propertyObject.selectMenuItem("Properties");
-        propertyObject.setWindowName(fileWithoutExtension + ".*");
+        explorer.mouseLeftClick(fileList);
+        explorer.mouseRightClick(fileList);
+        registry.get("Context").selectMenuItem("Properties");
+        propertyObject = registry.get(fileWithoutExtension + ".*");
         propertyObject.waitTillGuiExist();
         propertyObject.activateWindow( fileWithoutExtension + ".*");
         return propertyObject;
@@ -93,7 +96,8 @@ public class PropertiesDialog
      */
     public File getScreenshot()
     {
-        return new File(getLdtp().imageCapture("dlg" + Files.getNameWithoutExtension(getFileName().getName()) + ".*"));
+        return AsyncLdtp.await(ScreenshotService.getInstance().capture(getLdtp(),
+                "dlg" + Files.getNameWithoutExtension(getFileName().getName()) + ".*"));
     }
 
     public void clickCancel()
@@ -82,7 +82,7 @@ public class MicrosoftOffice2013 extends MicrosoftOfficeBase
     public void openOfficeFromFileMenu(String location) throws Exception
     {
 //        Ldtp ldtp = getLdtp();
-        Ldtp ldtp = new Ldtp("Document*");
+        Ldtp ldtp = getTransport().newLdtp("Document*");
         goToFile(ldtp);
         ldtp.mouseMove("Open");
         LdtpUtils.waitToLoopTime(2);
@@ -41,7 +41,7 @@ public class OfficeSharePoint extends MicrosoftOfficeBase
                 operateOnSecurity(userName, password);
 
             waitForWindow(fileName);
-            return new Ldtp(fileName);
+            return getTransport().newLdtp(fileName);
 
         }
         catch (Exception ee)
@@ -347,8 +347,7 @@ public class OfficeSharePoint extends MicrosoftOfficeBase
     {
         activateDialog("Save As");
 
-        getLdtp().enterString("txtFilename", path);
-        getLdtp().mouseLeftClick("btnSave");
+        ldtpBatch().enter("txtFilename", path).mouseLeftClick("btnSave").execute().assertSuccess();
 
         operateOnSecurity(userName, password);
 
@@ -366,8 +365,7 @@ public class OfficeSharePoint extends MicrosoftOfficeBase
         String addressBarObject = "tbarAddress" + path.replace(":", "").replace(".", "") + "/" + siteName.replace(".", "").replace("_", "").toLowerCase() + "/"
                 + "documentLibrary";
         LdtpUtils.waitForObject(getLdtp(), addressBarObject);
-        getLdtp().enterString("txtFilename", fileName);
-        getLdtp().mouseLeftClick("btnSave");
+        ldtpBatch().enter("txtFilename", fileName).mouseLeftClick("btnSave").execute().assertSuccess();
 
         operateOnConfirmSaveAs();
 
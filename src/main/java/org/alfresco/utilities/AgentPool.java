@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Pool of LDTP agents (one per desktop) shared by the threads of a test run.
+ * An agent is leased to one thread at a time as a {@link LdtpSession}, so two tests never drive the same desktop
+ * together. Before an agent is handed out it is checked with the <code>isalive</code> call (at most once every
+ * <code>ldtp.agents.healthInterval</code> ms, default 5000); an agent that does not answer is put aside for
+ * <code>ldtp.agents.retry</code> ms (default 30000) and the next free one is used instead.
+ * The default pool is configured with <code>LDTP_AGENTS</code> or <code>-Dldtp.agents=host1:4118,host2:4118</code>
+ * and falls back to the single agent of {@link LdtpEndpoint#getDefault()}.
+ */
+public class AgentPool
+{
+    private static Logger logger = Logger.getLogger(AgentPool.class);
+    private static volatile AgentPool defaultPool;
+
+    private final List<LdtpEndpoint> agents;
+    private final BlockingQueue<LdtpEndpoint> idle = new LinkedBlockingQueue<LdtpEndpoint>();
+    private final Map<LdtpEndpoint, Long> lastAlive = new ConcurrentHashMap<LdtpEndpoint, Long>();
+    private final Map<LdtpEndpoint, Boolean> down = new ConcurrentHashMap<LdtpEndpoint, Boolean>();
+    private final long healthIntervalMillis = Long.getLong("ldtp.agents.healthInterval", 5000);
+    private final long retryMillis = Long.getLong("ldtp.agents.retry", 30000);
+
+    public AgentPool(Collection<LdtpEndpoint> agents)
+    {
+        if (agents.isEmpty())
+        {
+            throw new IllegalArgumentException("An agent pool needs at least one LDTP agent");
+        }
+        this.agents = Collections.unmodifiableList(new ArrayList<LdtpEndpoint>(agents));
+        this.idle.addAll(this.agents);
+    }
+
+    /**
+     * @return the pool of the agents configured for this environment
+     */
+    public static AgentPool getDefault()
+    {
+        if (defaultPool == null)
+        {
+            synchronized (AgentPool.class)
+            {
+                if (defaultPool == null)
+                {
+                    String configured = System.getenv("LDTP_AGENTS");
+                    if (configured == null || configured.trim().isEmpty())
+                    {
+                        configured = System.getProperty("ldtp.agents");
+                    }
+                    List<LdtpEndpoint> agents = parse(configured);
+                    defaultPool = new AgentPool(agents.isEmpty() ? Collections.singletonList(LdtpEndpoint.getDefault()) : agents);
+                    logger.info("LDTP agent pool: " + defaultPool.agents);
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    /**
+     * @param agents comma separated list of host[:port], i.e. "win7-vm:4118,win10-vm"
+     * @return the endpoints of <agents>, empty if <agents> is null or blank
+     */
+    public static List<LdtpEndpoint> parse(String agents)
+    {
+        List<LdtpEndpoint> endpoints = new ArrayList<LdtpEndpoint>();
+        if (agents == null)
+        {
+            return endpoints;
+        }
+        for (String agent : agents.split(","))
+        {
+            agent = agent.trim();
+            if (agent.isEmpty())
+            {
+                continue;
+            }
+            int colon = agent.lastIndexOf(':');
+            if (colon < 0)
+            {
+                endpoints.add(new LdtpEndpoint(agent, LdtpEndpoint.DEFAULT_PORT));
+            }
+            else
+            {
+                endpoints.add(new LdtpEndpoint(agent.substring(0, colon), Integer.parseInt(agent.substring(colon + 1).trim())));
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Lease a healthy agent for the current thread, waiting up to <code>ldtp.agents.leaseTimeout</code> ms (default
+     * one hour) for one to be free
+     *
+     * @return the session bound to the current thread; close it to give the agent back
+     */
+    public LdtpSession lease()
+    {
+        return lease(Long.getLong("ldtp.agents.leaseTimeout", TimeUnit.HOURS.toMillis(1)));
+    }
+
+    /**
+     * @param timeoutMillis
+     * @return the session bound to the current thread; close it to give the agent back
+     * @throws LdtpExecutionError if no healthy agent was free within <timeoutMillis>
+     */
+    public LdtpSession lease(long timeoutMillis)
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try
+        {
+            while (true)
+            {
+                long remaining = deadline - System.nanoTime();
+                LdtpEndpoint agent = idle.poll(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+                if (agent == null)
+                {
+                    throw new LdtpExecutionError("No LDTP agent free after " + timeoutMillis + "ms, pool: " + agents + ", down: " + down.keySet());
+                }
+                if (isAlive(agent))
+                {
+                    return LdtpSession.open(agent, this);
+                }
+                putAside(agent);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new LdtpExecutionError("Interrupted while waiting for an LDTP agent");
+        }
+    }
+
+    /**
+     * Run <tasks> over all the agents of this pool: one worker per agent takes the next task as soon as it is done
+     * with the previous one, so faster desktops take more of the work and the total time shrinks with the number of
+     * agents. A task that fails does not stop the others.
+     *
+     * @param tasks
+     * @return the errors thrown by the tasks, empty if all of them passed
+     */
+    public List<Throwable> runAll(Collection<? extends Consumer<LdtpSession>> tasks)
+    {
+        final Queue<Consumer<LdtpSession>> queue = new ConcurrentLinkedQueue<Consumer<LdtpSession>>(tasks);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        int workers = Math.min(agents.size(), tasks.size());
+        final CountDownLatch done = new CountDownLatch(workers);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(workers, 1), new WaitEngine.DaemonThreadFactory("ldtp-agent"));
+        try
+        {
+            for (int i = 0; i < workers; i++)
+            {
+                executor.execute(() -> {
+                    try (LdtpSession session = lease())
+                    {
+                        Consumer<LdtpSession> task;
+                        while ((task = queue.poll()) != null)
+                        {
+                            try
+                            {
+                                task.accept(session);
+                            }
+                            catch (Throwable e)
+                            {
+                                logger.error("Task failed on " + session.getEndpoint(), e);
+                                errors.add(e);
+                            }
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        errors.add(e);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            errors.add(e);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return errors;
+    }
+
+    /**
+     * @return all the agents of this pool
+     */
+    public List<LdtpEndpoint> getAgents()
+    {
+        return agents;
+    }
+
+    /**
+     * @return number of agents free to be leased right now
+     */
+    public int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    /**
+     * @return true if <agent> did not answer its last health check
+     */
+    public boolean isDown(LdtpEndpoint agent)
+    {
+        return down.containsKey(agent);
+    }
+
+    void release(LdtpEndpoint agent)
+    {
+        idle.offer(agent);
+    }
+
+    private boolean isAlive(LdtpEndpoint agent)
+    {
+        Long checked = lastAlive.get(agent);
+        if (checked != null && System.nanoTime() - checked < TimeUnit.MILLISECONDS.toNanos(healthIntervalMillis))
+        {
+            return true;
+        }
+        try
+        {
+            LdtpTransport.forEndpoint(agent).execute("isalive");
+            lastAlive.put(agent, System.nanoTime());
+            if (down.remove(agent) != null)
+            {
+                logger.info("LDTP agent " + agent + " is back");
+            }
+            return true;
+        }
+        catch (XmlRpcException e)
+        {
+            logger.warn("LDTP agent " + agent + " is not answering: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void putAside(final LdtpEndpoint agent)
+    {
+        lastAlive.remove(agent);
+        down.put(agent, Boolean.TRUE);
+        WaitEngine.getScheduler().schedule(() -> release(agent), retryMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.cobra.ldtp.Ldtp;
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Non blocking facade over a {@link Ldtp} handle: every operation returns a {@link CompletableFuture} and runs on a
+ * bounded I/O executor (system property <code>ldtp.async.threads</code>, default 4).
+ * Calls are ordered per agent:
+ * <ul>
+ * <li>actions (click, keys, etc.) run one at a time, in submission order, after the queries submitted before them</li>
+ * <li>queries (window list, object list, screenshots, etc.) run after the actions submitted before them, and may
+ * overlap with each other</li>
+ * </ul>
+ * so a query always sees the GUI state left by the previous actions, while independent queries run in parallel.
+ * Calls run with the {@link LdtpSession} of the thread that submitted them, so helpers resolving the default agent
+ * inside a call talk to the same desktop as the caller.
+ * Use {@link #await(CompletableFuture)} to block on a result; it gives up after <code>ldtp.async.awaitTimeout</code> ms
+ * (default 600000, 0 waits forever) so a lost completion fails the test instead of hanging it.
+ * The helpers of this library only go through it where independent queries can overlap (dialog classification,
+ * screenshots); their other calls are sent directly, since a handoff to the executor would only add latency to a
+ * step the caller waits for anyway.
+ */
+public class AsyncLdtp
+{
+    private static final int THREADS = Integer.getInteger("ldtp.async.threads", 4);
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(Integer.getInteger("ldtp.async.queue", 1024)), new WaitEngine.DaemonThreadFactory("ldtp-io"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    private static final long AWAIT_TIMEOUT = Long.getLong("ldtp.async.awaitTimeout", 600000);
+    private static final ConcurrentMap<LdtpTransport, Lane> lanes = new ConcurrentHashMap<LdtpTransport, Lane>();
+
+    static
+    {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Ldtp ldtp;
+    private final Lane lane;
+
+    private AsyncLdtp(Ldtp ldtp, Lane lane)
+    {
+        this.ldtp = ldtp;
+        this.lane = lane;
+    }
+
+    /**
+     * @param ldtp
+     * @return asynchronous facade over <ldtp>, ordered with all other calls to the same agent
+     */
+    public static AsyncLdtp of(Ldtp ldtp)
+    {
+        LdtpTransport transport = LdtpTransport.of(ldtp);
+        Lane lane = lanes.get(transport);
+        if (lane == null)
+        {
+            Lane created = new Lane();
+            lane = lanes.putIfAbsent(transport, created);
+            if (lane == null)
+            {
+                lane = created;
+            }
+        }
+        return new AsyncLdtp(ldtp, lane);
+    }
+
+    /**
+     * @return the executor running all asynchronous LDTP calls
+     */
+    public static ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Block until <future> completes and return its value, for up to <code>ldtp.async.awaitTimeout</code> ms.
+     * Errors are re-thrown as they would be by the synchronous call (i.e. {@link LdtpExecutionError}).
+     *
+     * @param future
+     * @return the value of <future>
+     */
+    public static <T> T await(CompletableFuture<T> future)
+    {
+        return await(future, AWAIT_TIMEOUT);
+    }
+
+    /**
+     * Block until <future> completes and return its value.
+     * Errors are re-thrown as they would be by the synchronous call (i.e. {@link LdtpExecutionError}).
+     * <future> is left as is on timeout, since it may be shared with other callers.
+     *
+     * @param future
+     * @param timeoutMillis 0 to wait forever
+     * @return the value of <future>
+     * @throws LdtpExecutionError if <future> did not complete within <timeoutMillis>
+     */
+    public static <T> T await(CompletableFuture<T> future, long timeoutMillis)
+    {
+        try
+        {
+            return timeoutMillis <= 0 ? future.get() : future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            throw new LdtpExecutionError("No LDTP result after " + timeoutMillis + " ms");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for LDTP", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    public Ldtp getLdtp()
+    {
+        return ldtp;
+    }
+
+    /**
+     * Run <call> as an action: it may change the GUI, so it is ordered with every other call to the agent
+     *
+     * @param call
+     * @return future of the call result
+     */
+    public <T> CompletableFuture<T> action(Function<Ldtp, T> call)
+    {
+        return lane.action(LdtpSession.propagate(() -> call.apply(ldtp)));
+    }
+
+    /**
+     * Run <call> as a query: it does not change the GUI, so it may overlap with other queries
+     *
+     * @param call
+     * @return future of the call result
+     */
+    public <T> CompletableFuture<T> query(Function<Ldtp, T> call)
+    {
+        return lane.query(LdtpSession.propagate(() -> call.apply(ldtp)));
+    }
+
+    public CompletableFuture<Integer> click(String objectName)
+    {
+        return action(l -> l.click(objectName));
+    }
+
+    public CompletableFuture<Integer> doubleClick(String objectName)
+    {
+        return action(l -> l.doubleClick(objectName));
+    }
+
+    public CompletableFuture<Integer> generateKeyEvent(String keys)
+    {
+        return action(l -> l.generateKeyEvent(keys));
+    }
+
+    public CompletableFuture<Integer> enterString(String data)
+    {
+        return action(l -> l.enterString(data));
+    }
+
+    public CompletableFuture<Integer> enterString(String objectName, String data)
+    {
+        return action(l -> l.enterString(objectName, data));
+    }
+
+    public CompletableFuture<String[]> getWindowList()
+    {
+        return query(l -> LdtpUtils.getWindowList(l));
+    }
+
+    public CompletableFuture<String[]> getObjectList()
+    {
+        return query(l -> l.getObjectList());
+    }
+
+    public CompletableFuture<Boolean> guiExist()
+    {
+        return query(l -> l.guiExist() == 1);
+    }
+
+    public CompletableFuture<Boolean> objectExist(String objectName)
+    {
+        return query(l -> l.objectExist(objectName) == 1);
+    }
+
+    /**
+     * @return future of the path of the screenshot saved by the agent
+     */
+    public CompletableFuture<String> imageCapture()
+    {
+        return query(l -> l.imageCapture());
+    }
+
+    /**
+     * Ordering of the calls sent to one agent
+     */
+    private static class Lane
+    {
+        private CompletableFuture<Void> lastAction = CompletableFuture.completedFuture(null);
+        private final List<CompletableFuture<Void>> pendingQueries = new ArrayList<CompletableFuture<Void>>();
+
+        synchronized <T> CompletableFuture<T> action(Supplier<T> call)
+        {
+            List<CompletableFuture<Void>> previous = new ArrayList<CompletableFuture<Void>>(pendingQueries);
+            previous.add(lastAction);
+            pendingQueries.clear();
+            CompletableFuture<T> result = CompletableFuture.allOf(previous.toArray(new CompletableFuture<?>[previous.size()]))
+                    .thenApplyAsync(ignored -> call.get(), executor);
+            lastAction = result.handle((value, error) -> null);
+            return result;
+        }
+
+        synchronized <T> CompletableFuture<T> query(Supplier<T> call)
+        {
+            for (Iterator<CompletableFuture<Void>> iterator = pendingQueries.iterator(); iterator.hasNext();)
+            {
+                if (iterator.next().isDone())
+                {
+                    iterator.remove();
+                }
+            }
+            CompletableFuture<T> result = lastAction.thenApplyAsync(ignored -> call.get(), executor);
+            pendingQueries.add(result.handle((value, error) -> null));
+            return result;
+        }
+    }
+}
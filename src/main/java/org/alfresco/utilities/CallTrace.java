@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Binary trace of the LDTP calls of a run, written by {@link CallTraceRecorder} and replayed by
+ * {@link CallTraceReplayer}.
+ * <p>
+ * Format: the header (<code>LDTPTRC</code>, version byte, start time in epoch milliseconds), then records starting
+ * with a tag byte:
+ * <ul>
+ * <li>string: id and UTF-8 bytes of a method, window, object or thread name, written once before its first use</li>
+ * <li>call: method id, thread id, start and duration (nanoseconds from the start of the trace), fault flag,
+ * parameters and result</li>
+ * </ul>
+ * Numbers are unsigned LEB128 varints (zig-zag for signed values). Short strings are referenced by id, long ones are
+ * written inline, and results longer than 4096 characters (screenshots) are reduced to their length.
+ */
+public final class CallTrace
+{
+    static final byte[] MAGIC = "LDTPTRC".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int STRING = 1;
+    static final int CALL = 2;
+
+    static final int NULL = 0;
+    static final int INTERNED = 1;
+    static final int INLINE = 2;
+    static final int ELIDED = 3;
+    static final int INT = 4;
+    static final int BOOLEAN = 5;
+    static final int DOUBLE = 6;
+    static final int ARRAY = 7;
+    static final int MAP = 8;
+
+    static final int MAX_INTERNED_LENGTH = 256;
+    static final int MAX_RESULT_LENGTH = 4096;
+
+    private final long startMillis;
+    private final List<Call> calls;
+
+    private CallTrace(long startMillis, List<Call> calls)
+    {
+        this.startMillis = startMillis;
+        this.calls = calls;
+    }
+
+    /**
+     * @param file trace written by {@link CallTraceRecorder}
+     * @return the trace; a file cut short (i.e. the JVM was killed) returns the calls written before the cut
+     * @throws IOException if <file> cannot be read or is not a trace
+     */
+    public static CallTrace read(Path file) throws IOException
+    {
+        try (InputStream stream = Files.newInputStream(file))
+        {
+            return read(stream);
+        }
+    }
+
+    static CallTrace read(InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC))
+        {
+            throw new IOException("Not an LDTP call trace");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported call trace version " + version);
+        }
+        long startMillis = in.readLong();
+        Map<Integer, String> strings = new HashMap<Integer, String>();
+        List<Call> calls = new ArrayList<Call>();
+        try
+        {
+            while (true)
+            {
+                int tag = in.read();
+                if (tag < 0)
+                {
+                    break;
+                }
+                if (tag == STRING)
+                {
+                    int id = (int) readVarLong(in);
+                    strings.put(id, readUtf8(in));
+                }
+                else if (tag == CALL)
+                {
+                    String method = strings.get((int) readVarLong(in));
+                    String thread = strings.get((int) readVarLong(in));
+                    long start = readVarLong(in);
+                    long duration = readVarLong(in);
+                    boolean failed = in.readBoolean();
+                    Object[] params = new Object[(int) readVarLong(in)];
+                    for (int i = 0; i < params.length; i++)
+                    {
+                        params[i] = readValue(in, strings);
+                    }
+                    calls.add(new Call(method, thread, params, readValue(in, strings), start, duration, failed));
+                }
+                else
+                {
+                    throw new IOException("Corrupted call trace, unknown record " + tag);
+                }
+            }
+        }
+        catch (EOFException e)
+        {
+            // last record cut short
+        }
+        return new CallTrace(startMillis, calls);
+    }
+
+    public long getStartMillis()
+    {
+        return startMillis;
+    }
+
+    public List<Call> getCalls()
+    {
+        return calls;
+    }
+
+    /**
+     * @param calls
+     * @return latency of <calls> per method
+     */
+    public static Map<String, LatencyHistogram> profile(List<Call> calls)
+    {
+        Map<String, LatencyHistogram> profile = new TreeMap<String, LatencyHistogram>();
+        for (Call call : calls)
+        {
+            LatencyHistogram histogram = profile.get(call.getMethod());
+            if (histogram == null)
+            {
+                histogram = new LatencyHistogram();
+                profile.put(call.getMethod(), histogram);
+            }
+            histogram.record(call.getDurationNanos());
+        }
+        return profile;
+    }
+
+    /**
+     * @param baseline i.e. the calls of a trace recorded with the previous library version
+     * @param candidate i.e. the same calls replayed with {@link CallTraceReplayer}
+     * @return text table comparing the latency of each method, for logs
+     */
+    public static String compare(List<Call> baseline, List<Call> candidate)
+    {
+        Map<String, LatencyHistogram> before = profile(baseline);
+        Map<String, LatencyHistogram> after = profile(candidate);
+        Map<String, Boolean> methods = new LinkedHashMap<String, Boolean>();
+        for (String method : before.keySet())
+        {
+            methods.put(method, true);
+        }
+        for (String method : after.keySet())
+        {
+            methods.put(method, true);
+        }
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-22s %8s %8s %12s %12s %12s %12s %8s%n", "method", "count", "count'", "mean(ms)", "mean'(ms)", "p90(ms)",
+                "p90'(ms)", "ratio"));
+        for (String method : methods.keySet())
+        {
+            LatencyHistogram a = before.containsKey(method) ? before.get(method) : new LatencyHistogram();
+            LatencyHistogram b = after.containsKey(method) ? after.get(method) : new LatencyHistogram();
+            double ratio = a.getMeanMicros() > 0 ? b.getMeanMicros() / a.getMeanMicros() : Double.NaN;
+            table.append(String.format("%-22s %8d %8d %12.2f %12.2f %12.2f %12.2f %8.2f%n", method, a.getCount(), b.getCount(),
+                    a.getMeanMicros() / 1000.0, b.getMeanMicros() / 1000.0, a.getPercentileMicros(90) / 1000.0,
+                    b.getPercentileMicros(90) / 1000.0, ratio));
+        }
+        return table.toString();
+    }
+
+    private static Object readValue(DataInput in, Map<Integer, String> strings) throws IOException
+    {
+        int type = in.readUnsignedByte();
+        switch (type)
+        {
+            case NULL:
+                return null;
+            case INTERNED:
+                return strings.get((int) readVarLong(in));
+            case INLINE:
+                return readUtf8(in);
+            case ELIDED:
+                return new Elided((int) readVarLong(in));
+            case INT:
+                long zigzag = readVarLong(in);
+                return (int) ((zigzag >>> 1) ^ -(zigzag & 1));
+            case BOOLEAN:
+                return in.readBoolean();
+            case DOUBLE:
+                return in.readDouble();
+            case ARRAY:
+                Object[] array = new Object[(int) readVarLong(in)];
+                for (int i = 0; i < array.length; i++)
+                {
+                    array[i] = readValue(in, strings);
+                }
+                return array;
+            case MAP:
+                int size = (int) readVarLong(in);
+                Map<String, Object> map = new HashMap<String, Object>();
+                for (int i = 0; i < size; i++)
+                {
+                    String key = String.valueOf(readValue(in, strings));
+                    map.put(key, readValue(in, strings));
+                }
+                return map;
+            default:
+                throw new IOException("Corrupted call trace, unknown value type " + type);
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted call trace, varint too long");
+    }
+
+    static void writeUtf8(DataOutput out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readUtf8(DataInput in) throws IOException
+    {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Result too long to be kept in the trace (i.e. a screenshot), only its length is known
+     */
+    public static final class Elided
+    {
+        private final int length;
+
+        Elided(int length)
+        {
+            this.length = length;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<" + length + " characters>";
+        }
+    }
+
+    /**
+     * One recorded call
+     */
+    public static final class Call
+    {
+        private final String method;
+        private final String thread;
+        private final Object[] params;
+        private final Object result;
+        private final long startNanos;
+        private final long durationNanos;
+        private final boolean failed;
+
+        Call(String method, String thread, Object[] params, Object result, long startNanos, long durationNanos, boolean failed)
+        {
+            this.method = method;
+            this.thread = thread;
+            this.params = params;
+            this.result = result;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.failed = failed;
+        }
+
+        /**
+         * @return LDTP method, in lower case
+         */
+        public String getMethod()
+        {
+            return method;
+        }
+
+        /**
+         * @return name of the thread that made the call
+         */
+        public String getThread()
+        {
+            return thread;
+        }
+
+        public Object[] getParams()
+        {
+            return params.clone();
+        }
+
+        /**
+         * @return the agent response, the fault message if {@link #isFailed()}
+         */
+        public Object getResult()
+        {
+            return result;
+        }
+
+        /**
+         * @return start of the call, in nanoseconds from the start of the trace
+         */
+        public long getStartNanos()
+        {
+            return startNanos;
+        }
+
+        public long getDurationNanos()
+        {
+            return durationNanos;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
+        }
+
+        @Override
+        public String toString()
+        {
+            return method + Arrays.deepToString(params) + " " + durationNanos / 1000 + "us" + (failed ? " failed" : "");
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Records every LDTP call reaching an agent (method, parameters, result, start and duration) into a binary
+ * {@link CallTrace} file, to find out offline which GUI calls made a run slow.
+ * Enabled with <code>-Dldtp.trace=path/to/file.trace</code>: each {@link LdtpTransport} then passes its calls to
+ * the shared recorder.
+ * The calling threads only claim a slot of a lock-free ring buffer (<code>ldtp.trace.buffer</code> events, default
+ * 8192); a background thread encodes the events and writes them to disk. When the buffer is full events are dropped
+ * and counted instead of slowing the test down.
+ */
+public class CallTraceRecorder implements LdtpCallInterceptor, AutoCloseable
+{
+    private static Logger logger = Logger.getLogger(CallTraceRecorder.class);
+    public static final boolean ENABLED = System.getProperty("ldtp.trace") != null;
+    private static volatile CallTraceRecorder instance;
+
+    private final Path file;
+    private final long origin = System.nanoTime();
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private final LongAdder dropped = new LongAdder();
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private long written;
+
+    /**
+     * @param file trace file, replaced if it exists
+     * @param capacity number of events the ring buffer holds, rounded up to a power of two
+     * @throws IOException
+     */
+    public CallTraceRecorder(Path file, int capacity) throws IOException
+    {
+        this.file = file;
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new AtomicReferenceArray<Event>(size);
+        this.mask = size - 1;
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        out.write(CallTrace.MAGIC);
+        out.writeByte(CallTrace.VERSION);
+        out.writeLong(System.currentTimeMillis());
+        this.writer = new Thread(this::drain, "ldtp-trace");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("Recording LDTP calls to " + file);
+    }
+
+    /**
+     * @return the recorder writing to the file of the <code>ldtp.trace</code> system property, null if it is not set
+     *         or the file cannot be created
+     */
+    public static CallTraceRecorder getInstance()
+    {
+        if (!ENABLED)
+        {
+            return null;
+        }
+        if (instance == null)
+        {
+            synchronized (CallTraceRecorder.class)
+            {
+                if (instance == null)
+                {
+                    try
+                    {
+                        final CallTraceRecorder recorder = new CallTraceRecorder(Paths.get(System.getProperty("ldtp.trace")),
+                                Integer.getInteger("ldtp.trace.buffer", 8192));
+                        Runtime.getRuntime().addShutdownHook(new Thread(recorder::close, "ldtp-trace-close"));
+                        instance = recorder;
+                    }
+                    catch (IOException e)
+                    {
+                        logger.error("Cannot record LDTP calls", e);
+                        return null;
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public Object intercept(LdtpCall call) throws XmlRpcException
+    {
+        long start = System.nanoTime();
+        Object result = null;
+        boolean failed = true;
+        try
+        {
+            result = call.proceed();
+            failed = false;
+            return result;
+        }
+        catch (XmlRpcException e)
+        {
+            result = e.getMessage();
+            throw e;
+        }
+        finally
+        {
+            Object[] params = new Object[call.getParameterCount()];
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = call.getParameter(i);
+            }
+            offer(new Event(call.getMethodName(), Thread.currentThread().getName(), params, result, start - origin, System.nanoTime() - start,
+                    failed));
+        }
+    }
+
+    /**
+     * @return number of calls written to the trace so far
+     */
+    public synchronized long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * @return number of calls lost because the buffer was full
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Wait until the events recorded so far are on disk
+     *
+     * @param timeoutMillis
+     * @return true if everything was written
+     */
+    public boolean flush(long timeoutMillis)
+    {
+        final long target = head.get();
+        boolean drained = WaitEngine.until(() -> tail >= target, new WaitPolicy(1, 50, 2.0, timeoutMillis));
+        synchronized (this)
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Cannot write call trace: " + e.getMessage());
+                return false;
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Write the pending events and close the trace file
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this)
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Cannot close call trace: " + e.getMessage());
+            }
+        }
+        logger.info(String.format("Recorded %d LDTP calls to %s (%d dropped)", getWritten(), file, getDropped()));
+    }
+
+    private void offer(Event event)
+    {
+        long sequence;
+        do
+        {
+            sequence = head.get();
+            if (closed || sequence - tail >= slots.length())
+            {
+                dropped.increment();
+                return;
+            }
+        }
+        while (!head.compareAndSet(sequence, sequence + 1));
+        slots.set((int) (sequence & mask), event);
+    }
+
+    /**
+     * Writer thread: encode the events in sequence order, flushing the file when idle
+     */
+    private void drain()
+    {
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        boolean dirty = false;
+        while (true)
+        {
+            long sequence = tail;
+            int index = (int) (sequence & mask);
+            Event event = slots.get(index);
+            if (event == null)
+            {
+                if (dirty)
+                {
+                    dirty = !flushQuietly();
+                }
+                if (closed && sequence == head.get())
+                {
+                    return;
+                }
+                LockSupport.parkNanos(this, idleNanos);
+                idleNanos = Math.min(idleNanos * 2, TimeUnit.MILLISECONDS.toNanos(20));
+                continue;
+            }
+            idleNanos = TimeUnit.MILLISECONDS.toNanos(1);
+            slots.set(index, null);
+            write(event);
+            tail = sequence + 1;
+            dirty = true;
+        }
+    }
+
+    private synchronized boolean flushQuietly()
+    {
+        try
+        {
+            out.flush();
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    private synchronized void write(Event event)
+    {
+        try
+        {
+            int method = intern(event.method);
+            int thread = intern(event.thread);
+            for (Object param : event.params)
+            {
+                internValues(param);
+            }
+            internValues(event.result);
+            out.writeByte(CallTrace.CALL);
+            CallTrace.writeVarLong(out, method);
+            CallTrace.writeVarLong(out, thread);
+            CallTrace.writeVarLong(out, Math.max(event.start, 0));
+            CallTrace.writeVarLong(out, Math.max(event.duration, 0));
+            out.writeBoolean(event.failed);
+            CallTrace.writeVarLong(out, event.params.length);
+            for (Object param : event.params)
+            {
+                writeValue(param, false);
+            }
+            writeValue(event.result, true);
+            written++;
+        }
+        catch (IOException e)
+        {
+            dropped.increment();
+            logger.debug("Cannot write call trace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the string records of the short strings of <value> not written yet
+     */
+    private void internValues(Object value) throws IOException
+    {
+        if (value instanceof String && ((String) value).length() <= CallTrace.MAX_INTERNED_LENGTH)
+        {
+            intern((String) value);
+        }
+        else if (value instanceof Object[])
+        {
+            for (Object item : (Object[]) value)
+            {
+                internValues(item);
+            }
+        }
+        else if (value instanceof Map)
+        {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                internValues(String.valueOf(entry.getKey()));
+                internValues(entry.getValue());
+            }
+        }
+    }
+
+    private int intern(String value) throws IOException
+    {
+        Integer id = strings.get(value);
+        if (id == null)
+        {
+            id = strings.size();
+            strings.put(value, id);
+            out.writeByte(CallTrace.STRING);
+            CallTrace.writeVarLong(out, id);
+            CallTrace.writeUtf8(out, value);
+        }
+        return id;
+    }
+
+    private void writeValue(Object value, boolean result) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(CallTrace.NULL);
+        }
+        else if (value instanceof String)
+        {
+            String text = (String) value;
+            if (text.length() <= CallTrace.MAX_INTERNED_LENGTH)
+            {
+                out.writeByte(CallTrace.INTERNED);
+                CallTrace.writeVarLong(out, strings.get(text));
+            }
+            else if (result && text.length() > CallTrace.MAX_RESULT_LENGTH)
+            {
+                out.writeByte(CallTrace.ELIDED);
+                CallTrace.writeVarLong(out, text.length());
+            }
+            else
+            {
+                out.writeByte(CallTrace.INLINE);
+                CallTrace.writeUtf8(out, text);
+            }
+        }
+        else if (value instanceof Integer)
+        {
+            int number = (Integer) value;
+            out.writeByte(CallTrace.INT);
+            CallTrace.writeVarLong(out, ((long) number << 1) ^ (number >> 31));
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte(CallTrace.BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Number)
+        {
+            out.writeByte(CallTrace.DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        }
+        else if (value instanceof Object[])
+        {
+            Object[] array = (Object[]) value;
+            out.writeByte(CallTrace.ARRAY);
+            CallTrace.writeVarLong(out, array.length);
+            for (Object item : array)
+            {
+                writeValue(item, result);
+            }
+        }
+        else if (value instanceof Map)
+        {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(CallTrace.MAP);
+            CallTrace.writeVarLong(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                writeValue(String.valueOf(entry.getKey()), result);
+                writeValue(entry.getValue(), result);
+            }
+        }
+        else
+        {
+            out.writeByte(CallTrace.INLINE);
+            CallTrace.writeUtf8(out, String.valueOf(value));
+        }
+    }
+
+    /**
+     * One call waiting in the ring buffer
+     */
+    private static class Event
+    {
+        private final String method;
+        private final String thread;
+        private final Object[] params;
+        private final Object result;
+        private final long start;
+        private final long duration;
+        private final boolean failed;
+
+        Event(String method, String thread, Object[] params, Object result, long start, long duration, boolean failed)
+        {
+            this.method = method;
+            this.thread = thread;
+            this.params = params;
+            this.result = result;
+            this.start = start;
+            this.duration = duration;
+            this.failed = failed;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Sends the calls of a {@link CallTrace} again to an agent, usually the FakeLdtpAgent of the test sources or a test desktop, to
+ * reproduce the load of a run offline. Calls are sent one after the other in the order they started; with a speed
+ * above 0 the pauses between them are kept, divided by the speed (1 is the original pace, 10 is ten times faster),
+ * with 0 they are sent back to back.
+ * The replayed calls are returned with their new timings; compare them to the trace with
+ * {@link CallTrace#compare(List, List)}.
+ */
+public class CallTraceReplayer
+{
+    private static Logger logger = Logger.getLogger(CallTraceReplayer.class);
+
+    private final LdtpTransport target;
+    private final double speed;
+
+    /**
+     * @param target transport of the agent receiving the calls
+     */
+    public CallTraceReplayer(LdtpTransport target)
+    {
+        this(target, 0);
+    }
+
+    private CallTraceReplayer(LdtpTransport target, double speed)
+    {
+        this.target = target;
+        this.speed = speed;
+    }
+
+    /**
+     * @param speed 1 for the original pace, above 1 to go faster, 0 to send the calls without pauses
+     * @return CallTraceReplayer
+     */
+    public CallTraceReplayer withSpeed(double speed)
+    {
+        if (speed < 0)
+        {
+            throw new IllegalArgumentException("Speed must be 0 or positive: " + speed);
+        }
+        return new CallTraceReplayer(target, speed);
+    }
+
+    /**
+     * @param trace
+     * @return the calls as replayed, with the result and duration returned by the target
+     */
+    public List<CallTrace.Call> replay(CallTrace trace)
+    {
+        return replay(trace.getCalls());
+    }
+
+    /**
+     * @param calls
+     * @return the calls as replayed, with the result and duration returned by the target
+     */
+    public List<CallTrace.Call> replay(List<CallTrace.Call> calls)
+    {
+        List<CallTrace.Call> replayed = new ArrayList<CallTrace.Call>(calls.size());
+        if (calls.isEmpty())
+        {
+            return replayed;
+        }
+        long traceStart = calls.get(0).getStartNanos();
+        long replayStart = System.nanoTime();
+        int failures = 0;
+        for (CallTrace.Call call : calls)
+        {
+            if (speed > 0)
+            {
+                long due = replayStart + (long) ((call.getStartNanos() - traceStart) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                {
+                    WaitEngine.sleep(TimeUnit.NANOSECONDS.toMillis(wait));
+                }
+            }
+            long start = System.nanoTime();
+            Object result;
+            boolean failed = false;
+            try
+            {
+                result = target.execute(call.getMethod(), call.getParams());
+            }
+            catch (XmlRpcException e)
+            {
+                result = e.getMessage();
+                failed = true;
+                failures++;
+            }
+            replayed.add(new CallTrace.Call(call.getMethod(), call.getThread(), call.getParams(), result, start - replayStart,
+                    System.nanoTime() - start, failed));
+        }
+        logger.info(String.format("Replayed %d calls to %s in %d ms, %d failed", calls.size(), target.getEndpoint(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - replayStart), failures));
+        return replayed;
+    }
+}
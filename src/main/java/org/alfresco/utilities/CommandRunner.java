@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.lang.SystemUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs an external command without the pipe deadlocks of reading its output after waitFor():
+ * <ul>
+ * <li>stdout and stderr are drained at the same time, each into a ring buffer keeping the last lines
+ * (<code>ldtp.command.maxLines</code>, default 10000)</li>
+ * <li>each line can also be streamed to a callback as soon as it is read</li>
+ * <li>the command and its children are stopped after the timeout (<code>ldtp.command.timeout</code>, default 60000
+ * ms)</li>
+ * </ul>
+ * All commands share one pool of daemon threads, so many of them can run at the same time with {@link #start()}.
+ * Commands are tracked by {@link ProcessLifecycleManager}, except the {@link #detached()} ones.
+ * Instances are immutable, the <code>with*</code> methods return a new runner.
+ */
+public final class CommandRunner
+{
+    private static Logger logger = Logger.getLogger(CommandRunner.class);
+    private static final ExecutorService executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new WaitEngine.DaemonThreadFactory("ldtp-command"));
+    /** how long to keep reading after the command exited, for output still held by its children */
+    private static final long DRAIN_MILLIS = 2000;
+    /** how long a command may take to be stopped after its timeout and hand over its output */
+    private static final long STOP_MILLIS = 10000;
+
+    /** Output stream of a line */
+    public enum Stream
+    {
+        STDOUT, STDERR
+    }
+
+    private final List<String> command;
+    private final long timeoutMillis;
+    private final int maxLines;
+    private final BiConsumer<Stream, String> listener;
+    private final boolean tracked;
+
+    private CommandRunner(List<String> command, long timeoutMillis, int maxLines, BiConsumer<Stream, String> listener, boolean tracked)
+    {
+        this.command = command;
+        this.timeoutMillis = timeoutMillis;
+        this.maxLines = maxLines;
+        this.listener = listener;
+        this.tracked = tracked;
+    }
+
+    /**
+     * @param command program and its arguments
+     * @return CommandRunner
+     */
+    public static CommandRunner of(String... command)
+    {
+        return new CommandRunner(Collections.unmodifiableList(Arrays.asList(command.clone())), Long.getLong("ldtp.command.timeout", 60000),
+                Integer.getInteger("ldtp.command.maxLines", 10000), null, true);
+    }
+
+    /**
+     * @param command command line run by the shell of the system (cmd /c on Windows, /bin/sh -c otherwise)
+     * @return CommandRunner
+     */
+    public static CommandRunner shell(String command)
+    {
+        return SystemUtils.IS_OS_WINDOWS ? of("cmd", "/c", command) : of("/bin/sh", "-c", command);
+    }
+
+    /**
+     * @param timeoutMillis time after which the command is stopped, 0 to wait forever
+     * @return CommandRunner
+     */
+    public CommandRunner withTimeout(long timeoutMillis)
+    {
+        return new CommandRunner(command, timeoutMillis, maxLines, listener, tracked);
+    }
+
+    /**
+     * For long-lived processes started and left running (i.e. the LDTP agent): no timeout, and not tracked by
+     * {@link ProcessLifecycleManager}, so they are neither reported as leaked nor torn down with the test processes
+     *
+     * @return CommandRunner
+     */
+    public CommandRunner detached()
+    {
+        return new CommandRunner(command, 0, maxLines, listener, false);
+    }
+
+    /**
+     * @param maxLines number of last lines kept for each stream
+     * @return CommandRunner
+     */
+    public CommandRunner withMaxLines(int maxLines)
+    {
+        return new CommandRunner(command, timeoutMillis, maxLines, listener, tracked);
+    }
+
+    /**
+     * @param listener called with each line as soon as it is read, from the thread draining its stream
+     * @return CommandRunner
+     */
+    public CommandRunner onLine(BiConsumer<Stream, String> listener)
+    {
+        return new CommandRunner(command, timeoutMillis, maxLines, listener, tracked);
+    }
+
+    /**
+     * Run the command and wait for it
+     *
+     * @return Result
+     * @throws IOException if the command cannot be started
+     */
+    public Result run() throws IOException
+    {
+        return AsyncLdtp.await(start(launch()), timeoutMillis <= 0 ? 0 : timeoutMillis + STOP_MILLIS);
+    }
+
+    /**
+     * Start the command without waiting for it
+     *
+     * @return future of the result, failed with an IOException if the command cannot be started
+     */
+    public CompletableFuture<Result> start()
+    {
+        try
+        {
+            return start(launch());
+        }
+        catch (IOException e)
+        {
+            CompletableFuture<Result> failed = new CompletableFuture<Result>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private Process launch() throws IOException
+    {
+        Process process = new ProcessBuilder(command).start();
+        return tracked ? ProcessLifecycleManager.getInstance().track(null, process) : process;
+    }
+
+    private CompletableFuture<Result> start(final Process process)
+    {
+        logger.debug("Started " + command + " as " + process.pid());
+        final long start = System.nanoTime();
+        final Drain stdout = new Drain(process.getInputStream(), Stream.STDOUT);
+        final Drain stderr = new Drain(process.getErrorStream(), Stream.STDERR);
+        final CompletableFuture<Void> drained = CompletableFuture.allOf(CompletableFuture.runAsync(stdout, executor),
+                CompletableFuture.runAsync(stderr, executor));
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final ScheduledFuture<?> timeout = timeoutMillis <= 0 ? null : WaitEngine.getScheduler().schedule(() -> {
+            if (process.isAlive())
+            {
+                timedOut.set(true);
+                logger.warn("Command " + command + " still running after " + timeoutMillis + "ms, stopping it.");
+                executor.execute(() -> ProcessLifecycleManager.terminate(Collections.singletonList(process.toHandle()), 500, 5000));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return process.onExit().thenCompose(exited -> {
+            if (timeout != null)
+            {
+                timeout.cancel(false);
+            }
+            return drained.completeOnTimeout(null, DRAIN_MILLIS, TimeUnit.MILLISECONDS);
+        }).thenApply(ignored -> {
+            stdout.close();
+            stderr.close();
+            return new Result(command, process.exitValue(), timedOut.get(), stdout.lines(), stderr.lines(), stdout.dropped() + stderr.dropped(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        });
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CommandRunner" + command;
+    }
+
+    /**
+     * Reads one stream into a ring buffer of its last lines
+     */
+    private class Drain implements Runnable
+    {
+        private final InputStream stream;
+        private final Stream type;
+        private final ArrayDeque<String> buffer = new ArrayDeque<String>();
+        private long dropped;
+
+        Drain(InputStream stream, Stream type)
+        {
+            this.stream = stream;
+            this.type = type;
+        }
+
+        @Override
+        public void run()
+        {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream)))
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    synchronized (this)
+                    {
+                        if (buffer.size() == maxLines)
+                        {
+                            buffer.removeFirst();
+                            dropped++;
+                        }
+                        buffer.addLast(line);
+                    }
+                    if (listener != null)
+                    {
+                        listener.accept(type, line);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // closed after the command exited
+                logger.debug("Stopped reading " + type + " of " + command + ": " + e.getMessage());
+            }
+        }
+
+        synchronized long dropped()
+        {
+            return dropped;
+        }
+
+        synchronized List<String> lines()
+        {
+            return new ArrayList<String>(buffer);
+        }
+
+        void close()
+        {
+            try
+            {
+                stream.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("Cannot close " + type + " of " + command, e);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a command
+     */
+    public static final class Result
+    {
+        private final List<String> command;
+        private final int exitCode;
+        private final boolean timedOut;
+        private final List<String> stdout;
+        private final List<String> stderr;
+        private final long droppedLines;
+        private final long durationMillis;
+
+        Result(List<String> command, int exitCode, boolean timedOut, List<String> stdout, List<String> stderr, long droppedLines,
+                long durationMillis)
+        {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.stdout = Collections.unmodifiableList(stdout);
+            this.stderr = Collections.unmodifiableList(stderr);
+            this.droppedLines = droppedLines;
+            this.durationMillis = durationMillis;
+        }
+
+        public int getExitCode()
+        {
+            return exitCode;
+        }
+
+        /**
+         * @return true if the command was stopped because it ran longer than the timeout
+         */
+        public boolean isTimedOut()
+        {
+            return timedOut;
+        }
+
+        /**
+         * @return true if the command exited with 0 before the timeout
+         */
+        public boolean isSuccessful()
+        {
+            return exitCode == 0 && !timedOut;
+        }
+
+        /**
+         * @return last lines written on stdout
+         */
+        public List<String> getStdout()
+        {
+            return stdout;
+        }
+
+        /**
+         * @return last lines written on stderr
+         */
+        public List<String> getStderr()
+        {
+            return stderr;
+        }
+
+        /**
+         * @return stdout then stderr, one line per line
+         */
+        public String getOutput()
+        {
+            StringBuilder output = new StringBuilder();
+            for (String line : stdout)
+            {
+                output.append(line).append('\n');
+            }
+            for (String line : stderr)
+            {
+                output.append(line).append('\n');
+            }
+            return output.toString();
+        }
+
+        /**
+         * @return number of lines that did not fit in the buffers
+         */
+        public long getDroppedLines()
+        {
+            return droppedLines;
+        }
+
+        public long getDurationMillis()
+        {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("CommandRunner.Result[%s exit=%d timedOut=%s stdout=%d lines stderr=%d lines %dms]", command, exitCode, timedOut,
+                    stdout.size(), stderr.size(), durationMillis);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Checks the content of a file against an expected string, byte array or digest, without loading the file in memory.
+ * The file is streamed once in 64KB blocks: an expected content is compared block by block and the check stops at the
+ * first difference (or right away if the size differs, i.e. while the file is still being written), a digest is
+ * computed on the fly. A file that did not change since the last failed check (same size and modification time) is
+ * not read again, so the matcher is cheap to use as a {@link FileWaiter} condition.
+ */
+public abstract class ContentMatcher implements Predicate<Path>
+{
+    private static Logger logger = Logger.getLogger(ContentMatcher.class);
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final long TIMESTAMP_RESOLUTION = 2000;
+
+    private long checkedSize = -1;
+    private long checkedModified = -1;
+
+    /**
+     * @param expected content, encoded with the default charset (as the file was written by the application)
+     * @return ContentMatcher
+     */
+    public static ContentMatcher of(String expected)
+    {
+        return of(expected, Charset.defaultCharset());
+    }
+
+    public static ContentMatcher of(String expected, Charset charset)
+    {
+        return of(expected.getBytes(charset));
+    }
+
+    /**
+     * @param expected
+     * @return ContentMatcher comparing the file byte by byte with <expected>
+     */
+    public static ContentMatcher of(byte[] expected)
+    {
+        return new BytesMatcher(expected.clone());
+    }
+
+    /**
+     * @param algorithm MessageDigest algorithm, i.e. SHA-256 or MD5
+     * @param hexDigest expected digest in hexadecimal
+     * @return ContentMatcher comparing the digest of the file with <hexDigest>
+     */
+    public static ContentMatcher ofDigest(String algorithm, String hexDigest)
+    {
+        try
+        {
+            MessageDigest.getInstance(algorithm);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+        }
+        return new DigestMatcher(algorithm, fromHex(hexDigest));
+    }
+
+    /**
+     * @param file
+     * @return true if the content of <file> is the expected one; false if it differs or cannot be read
+     */
+    @Override
+    public synchronized boolean test(Path file)
+    {
+        try
+        {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() == checkedSize && modified == checkedModified)
+            {
+                return false;
+            }
+            boolean matches = attributes.isRegularFile() && matches(file, attributes.size());
+            if (!matches && System.currentTimeMillis() - modified > TIMESTAMP_RESOLUTION)
+            {
+                // only trusted once the timestamp is old enough, a rewrite within the same second keeps it
+                checkedSize = attributes.size();
+                checkedModified = modified;
+            }
+            return matches;
+        }
+        catch (IOException e)
+        {
+            // missing, or locked by the application still writing it
+            logger.debug("Cannot check content of " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @param file
+     * @param size current size of <file>
+     * @return true if the content of <file> is the expected one
+     * @throws IOException
+     */
+    protected abstract boolean matches(Path file, long size) throws IOException;
+
+    /**
+     * Call <block> with each block of <file> until it returns false
+     *
+     * @return false if <block> stopped the read
+     */
+    static boolean read(Path file, Predicate<ByteBuffer> block) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            while (channel.read(buffer) >= 0)
+            {
+                buffer.flip();
+                if (!block.test(buffer))
+                {
+                    return false;
+                }
+                buffer.clear();
+            }
+        }
+        return true;
+    }
+
+    static byte[] fromHex(String hex)
+    {
+        if (hex.length() % 2 != 0)
+        {
+            throw new IllegalArgumentException("Invalid hexadecimal digest: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Compares the file with the expected bytes, stopping at the first difference
+     */
+    private static class BytesMatcher extends ContentMatcher
+    {
+        private final byte[] expected;
+
+        BytesMatcher(byte[] expected)
+        {
+            this.expected = expected;
+        }
+
+        @Override
+        protected boolean matches(Path file, long size) throws IOException
+        {
+            if (size != expected.length)
+            {
+                return false;
+            }
+            final int[] offset = new int[1];
+            boolean same = read(file, buffer -> {
+                int length = buffer.remaining();
+                if (offset[0] + length > expected.length)
+                {
+                    return false;
+                }
+                if (!ByteBuffer.wrap(expected, offset[0], length).equals(buffer))
+                {
+                    return false;
+                }
+                offset[0] += length;
+                return true;
+            });
+            // the file may have changed while it was read
+            return same && offset[0] == expected.length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ContentMatcher[" + expected.length + " bytes]";
+        }
+    }
+
+    /**
+     * Compares the digest of the file with the expected one
+     */
+    private static class DigestMatcher extends ContentMatcher
+    {
+        private final String algorithm;
+        private final byte[] expected;
+
+        DigestMatcher(String algorithm, byte[] expected)
+        {
+            this.algorithm = algorithm;
+            this.expected = expected;
+        }
+
+        @Override
+        protected boolean matches(Path file, long size) throws IOException
+        {
+            final MessageDigest digest;
+            try
+            {
+                digest = MessageDigest.getInstance(algorithm);
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            read(file, buffer -> {
+                digest.update(buffer);
+                return true;
+            });
+            return MessageDigest.isEqual(digest.digest(), expected);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ContentMatcher[" + algorithm + "]";
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Waits for files to be created, deleted or changed on disk.
+ * The parent folders are watched with a {@link WatchService} (inotify on Linux, native notifications on Windows), so
+ * a wait ends as soon as the event arrives instead of at the next poll. Files are still checked now and then (up to
+ * once a second) in case an event is lost, and folders that cannot be watched (missing folders, network drives,
+ * platforms where the JDK only polls, like Mac OS) are polled with an interval growing from 10ms to 250ms.
+ * One thread serves the waits of the whole process.
+ */
+public final class FileWaiter
+{
+    private static Logger logger = Logger.getLogger(FileWaiter.class);
+    private static final long WATCHED_MAX_INTERVAL = 1000;
+    private static final long POLLED_MAX_INTERVAL = 250;
+    private static final Predicate<Path> EXISTS = path -> Files.exists(path);
+    private static final Predicate<Path> DELETED = path -> !Files.exists(path);
+
+    private static final Object lock = new Object();
+    private static final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+    private static final Map<Path, Set<Waiter>> waiters = new HashMap<Path, Set<Waiter>>();
+    private static WatchService service;
+    private static boolean serviceAvailable = true;
+
+    private FileWaiter()
+    {
+    }
+
+    /**
+     * @param file
+     * @param timeoutMillis
+     * @return true if <file> exists before the timeout
+     */
+    public static boolean waitUntilExists(File file, long timeoutMillis)
+    {
+        return waitUntil(Collections.singleton(file), EXISTS, "FileWaiter.exists", timeoutMillis);
+    }
+
+    /**
+     * @param file
+     * @param timeoutMillis
+     * @return true if <file> does not exist any more before the timeout
+     */
+    public static boolean waitUntilDeleted(File file, long timeoutMillis)
+    {
+        return waitUntil(Collections.singleton(file), DELETED, "FileWaiter.deleted", timeoutMillis);
+    }
+
+    /**
+     * Wait for several files at once, i.e. all the files of a copied folder
+     *
+     * @param files
+     * @param timeoutMillis
+     * @return true if all <files> exist before the timeout
+     */
+    public static boolean waitUntilAllExist(Collection<File> files, long timeoutMillis)
+    {
+        return waitUntil(files, EXISTS, "FileWaiter.exists", timeoutMillis);
+    }
+
+    /**
+     * @param files
+     * @param timeoutMillis
+     * @return true if none of <files> exists any more before the timeout
+     */
+    public static boolean waitUntilAllDeleted(Collection<File> files, long timeoutMillis)
+    {
+        return waitUntil(files, DELETED, "FileWaiter.deleted", timeoutMillis);
+    }
+
+    /**
+     * Wait until <condition> is true for <file>, checking it again each time the folder of <file> changes
+     * (i.e. with a {@link ContentMatcher} to wait for the end of a write)
+     *
+     * @param file
+     * @param condition
+     * @param timeoutMillis
+     * @return true if the condition was fulfilled before the timeout
+     */
+    public static boolean waitUntil(File file, Predicate<Path> condition, long timeoutMillis)
+    {
+        return waitUntil(Collections.singleton(file), condition, "FileWaiter.condition", timeoutMillis);
+    }
+
+    private static boolean waitUntil(Collection<File> files, Predicate<Path> condition, String site, long timeoutMillis)
+    {
+        Waiter waiter = new Waiter(files, condition);
+        if (waiter.isDone())
+        {
+            return true;
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean watched = register(waiter);
+        boolean done;
+        try
+        {
+            long maxInterval = watched ? WATCHED_MAX_INTERVAL : POLLED_MAX_INTERVAL;
+            long interval = 10;
+            // checked again after the registration, so no event can be missed in between
+            while (!(done = waiter.isDone()))
+            {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                {
+                    break;
+                }
+                if (!waiter.await(Math.min(interval, TimeUnit.NANOSECONDS.toMillis(remaining) + 1)))
+                {
+                    done = waiter.isDone();
+                    break;
+                }
+                interval = Math.min(interval * 2, maxInterval);
+            }
+        }
+        finally
+        {
+            unregister(waiter);
+        }
+        if (LdtpMetrics.ENABLED)
+        {
+            LdtpMetrics.getInstance().recordWait(site, System.nanoTime() - start, 0, !done);
+        }
+        return done;
+    }
+
+    /**
+     * Watch the folders of <waiter>
+     *
+     * @return false if at least one folder is only polled
+     */
+    private static boolean register(Waiter waiter)
+    {
+        boolean watched = true;
+        synchronized (lock)
+        {
+            WatchService watchService = getService();
+            for (Path folder : waiter.folders)
+            {
+                WatchKey key = keys.get(folder);
+                if (key == null && watchService != null && Files.isDirectory(folder))
+                {
+                    try
+                    {
+                        key = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                                StandardWatchEventKinds.ENTRY_MODIFY);
+                        keys.put(folder, key);
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        logger.debug("Cannot watch " + folder + ", polling it: " + e.getMessage());
+                    }
+                }
+                watched &= key != null;
+                Set<Waiter> folderWaiters = waiters.get(folder);
+                if (folderWaiters == null)
+                {
+                    folderWaiters = new HashSet<Waiter>();
+                    waiters.put(folder, folderWaiters);
+                }
+                folderWaiters.add(waiter);
+            }
+        }
+        return watched;
+    }
+
+    private static void unregister(Waiter waiter)
+    {
+        synchronized (lock)
+        {
+            for (Path folder : waiter.folders)
+            {
+                Set<Waiter> folderWaiters = waiters.get(folder);
+                if (folderWaiters != null && folderWaiters.remove(waiter) && folderWaiters.isEmpty())
+                {
+                    waiters.remove(folder);
+                    WatchKey key = keys.remove(folder);
+                    if (key != null)
+                    {
+                        key.cancel();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the shared watch service, starting it on first use; null if events are not available
+     */
+    private static WatchService getService()
+    {
+        if (service == null && serviceAvailable)
+        {
+            try
+            {
+                WatchService created = FileSystems.getDefault().newWatchService();
+                if (created.getClass().getName().contains("Polling"))
+                {
+                    // the JDK only polls every few seconds on this platform, our own polling is faster
+                    created.close();
+                    serviceAvailable = false;
+                    return null;
+                }
+                service = created;
+                Thread thread = new WaitEngine.DaemonThreadFactory("ldtp-file-watch").newThread(() -> dispatch(created));
+                thread.start();
+            }
+            catch (IOException | UnsupportedOperationException e)
+            {
+                logger.debug("File events are not available, files will be polled: " + e.getMessage());
+                serviceAvailable = false;
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Wake up the waiters of each folder with events
+     */
+    private static void dispatch(WatchService watchService)
+    {
+        while (true)
+        {
+            WatchKey key;
+            try
+            {
+                key = watchService.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+            key.pollEvents();
+            List<Waiter> toSignal = new ArrayList<Waiter>();
+            synchronized (lock)
+            {
+                Set<Waiter> folderWaiters = waiters.get(key.watchable());
+                if (folderWaiters != null)
+                {
+                    toSignal.addAll(folderWaiters);
+                }
+                if (!key.reset())
+                {
+                    // folder deleted, its waiters go on polling
+                    keys.remove(key.watchable());
+                }
+            }
+            for (Waiter waiter : toSignal)
+            {
+                waiter.signal();
+            }
+        }
+    }
+
+    /**
+     * Files one caller waits for, with the condition they must fulfil
+     */
+    private static class Waiter
+    {
+        private final Set<Path> pending = new HashSet<Path>();
+        private final Set<Path> folders = new HashSet<Path>();
+        private final Predicate<Path> condition;
+        private boolean signaled;
+
+        Waiter(Collection<File> files, Predicate<Path> condition)
+        {
+            this.condition = condition;
+            for (File file : files)
+            {
+                Path path = file.getAbsoluteFile().toPath();
+                pending.add(path);
+                if (path.getParent() != null)
+                {
+                    folders.add(path.getParent());
+                }
+            }
+        }
+
+        /**
+         * @return true once the condition is true for every file
+         */
+        synchronized boolean isDone()
+        {
+            for (Iterator<Path> iterator = pending.iterator(); iterator.hasNext();)
+            {
+                if (condition.test(iterator.next()))
+                {
+                    iterator.remove();
+                }
+            }
+            return pending.isEmpty();
+        }
+
+        synchronized void signal()
+        {
+            signaled = true;
+            notifyAll();
+        }
+
+        /**
+         * Block until an event arrives in one of the folders or <millis> elapsed
+         *
+         * @return false if the thread was interrupted
+         */
+        synchronized boolean await(long millis)
+        {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while (!signaled && (remaining = deadline - System.nanoTime()) > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            signaled = false;
+            return true;
+        }
+    }
+}
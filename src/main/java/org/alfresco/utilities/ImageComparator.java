@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares two images (i.e. screenshots or icons) pixel by pixel on their ARGB rasters.
+ * By default the comparison is exact and stops at the first different pixel. It can be relaxed with a per channel
+ * tolerance (anti-aliasing, font smoothing), regions to ignore (clock, cursor) and an accepted ratio of different
+ * pixels, can reject clearly different images with a perceptual hash before looking at the pixels, and can produce
+ * a diff image. Large images are split in bands of rows compared in parallel on the common {@link ForkJoinPool}.
+ * Instances are immutable, the <code>with*</code> methods return a new comparator.
+ */
+public final class ImageComparator
+{
+    /** Images below this number of pixels are compared on the calling thread */
+    private static final int PARALLEL_THRESHOLD = 256 * 1024;
+    private static final int BAND_ROWS = 64;
+    private static final int DIFF_COLOR = 0xffff0000;
+    private static final int IGNORED_COLOR = 0xff0000ff;
+
+    private final int tolerance;
+    private final double maxMismatchRatio;
+    private final List<Rectangle> ignored;
+    private final int maxHashDistance;
+    private final boolean diffImage;
+
+    private ImageComparator(int tolerance, double maxMismatchRatio, List<Rectangle> ignored, int maxHashDistance, boolean diffImage)
+    {
+        this.tolerance = tolerance;
+        this.maxMismatchRatio = maxMismatchRatio;
+        this.ignored = ignored;
+        this.maxHashDistance = maxHashDistance;
+        this.diffImage = diffImage;
+    }
+
+    /**
+     * @return comparator accepting only identical images
+     */
+    public static ImageComparator exact()
+    {
+        return new ImageComparator(0, 0, Collections.<Rectangle> emptyList(), -1, false);
+    }
+
+    /**
+     * @param tolerance maximum difference accepted on each of the alpha, red, green and blue channels (0-255)
+     * @return ImageComparator
+     */
+    public ImageComparator withTolerance(int tolerance)
+    {
+        if (tolerance < 0 || tolerance > 255)
+        {
+            throw new IllegalArgumentException("Tolerance must be between 0 and 255: " + tolerance);
+        }
+        return new ImageComparator(tolerance, maxMismatchRatio, ignored, maxHashDistance, diffImage);
+    }
+
+    /**
+     * @param maxMismatchRatio ratio of different pixels still accepted as a match (0 to 1)
+     * @return ImageComparator
+     */
+    public ImageComparator withMaxMismatchRatio(double maxMismatchRatio)
+    {
+        return new ImageComparator(tolerance, maxMismatchRatio, ignored, maxHashDistance, diffImage);
+    }
+
+    /**
+     * @param region area of the images that is not compared
+     * @return ImageComparator
+     */
+    public ImageComparator ignoring(Rectangle region)
+    {
+        List<Rectangle> regions = new ArrayList<Rectangle>(ignored);
+        regions.add(new Rectangle(region));
+        return new ImageComparator(tolerance, maxMismatchRatio, Collections.unmodifiableList(regions), maxHashDistance, diffImage);
+    }
+
+    /**
+     * Reject images whose perceptual hashes differ by more than <maxDistance> bits (out of 64) without comparing
+     * their pixels. Such results have a NaN mismatch ratio.
+     *
+     * @param maxDistance
+     * @return ImageComparator
+     */
+    public ImageComparator withHashPrefilter(int maxDistance)
+    {
+        return new ImageComparator(tolerance, maxMismatchRatio, ignored, maxDistance, diffImage);
+    }
+
+    /**
+     * @return comparator producing a diff image: different pixels in red, ignored regions in blue, the rest faded
+     */
+    public ImageComparator withDiffImage()
+    {
+        return new ImageComparator(tolerance, maxMismatchRatio, ignored, maxHashDistance, true);
+    }
+
+    /**
+     * @param expected
+     * @param actual
+     * @return Result
+     * @throws IOException if one of the files cannot be read as an image
+     */
+    public Result compare(File expected, File actual) throws IOException
+    {
+        return compare(read(expected), read(actual));
+    }
+
+    public Result compare(BufferedImage expected, BufferedImage actual)
+    {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        if (width != actual.getWidth() || height != actual.getHeight())
+        {
+            return new Result(false, width * height, 1.0, null);
+        }
+        if (maxHashDistance >= 0 && Long.bitCount(perceptualHash(expected) ^ perceptualHash(actual)) > maxHashDistance)
+        {
+            return new Result(false, -1, Double.NaN, null);
+        }
+        int[] pixelsA = argb(expected);
+        int[] pixelsB = argb(actual);
+        boolean[] mask = mask(width, height);
+        int[] diff = diffImage ? new int[width * height] : null;
+        long allowed = (long) Math.floor(maxMismatchRatio * width * height);
+        // without diff image, stop as soon as more pixels differ than allowed
+        Comparison comparison = new Comparison(pixelsA, pixelsB, mask, diff, width, diff == null ? allowed : Long.MAX_VALUE);
+        long mismatched = width * height < PARALLEL_THRESHOLD ? comparison.compareRows(0, height) : ForkJoinPool.commonPool().invoke(
+                comparison.task(0, height));
+        double ratio = (double) mismatched / (width * height);
+        BufferedImage diffResult = null;
+        if (diff != null)
+        {
+            diffResult = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            diffResult.setRGB(0, 0, width, height, diff, 0, width);
+        }
+        return new Result(mismatched <= allowed, comparison.stopped.get() ? -1 : mismatched, comparison.stopped.get() ? Double.NaN : ratio,
+                diffResult);
+    }
+
+    /**
+     * 64 bit difference hash: the image is reduced to 9x8 grey pixels and each bit tells if a pixel is brighter than
+     * its right neighbour. Similar images have hashes differing by a few bits only.
+     *
+     * @param image
+     * @return long
+     */
+    public static long perceptualHash(BufferedImage image)
+    {
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = small.createGraphics();
+        try
+        {
+            graphics.drawImage(image, 0, 0, 9, 8, null);
+        }
+        finally
+        {
+            graphics.dispose();
+        }
+        long hash = 0;
+        for (int y = 0; y < 8; y++)
+        {
+            for (int x = 0; x < 8; x++)
+            {
+                hash <<= 1;
+                if ((small.getRGB(x, y) & 0xff) > (small.getRGB(x + 1, y) & 0xff))
+                {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static BufferedImage read(File file) throws IOException
+    {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+        {
+            throw new IOException("Not a supported image: " + file.getPath());
+        }
+        return image;
+    }
+
+    /**
+     * @return the ARGB pixels of <image>, converted only if it is not already stored as ARGB/RGB ints
+     */
+    private static int[] argb(BufferedImage image)
+    {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getRaster().getDataBuffer().getSize() == image.getWidth() * image.getHeight())
+        {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = converted.createGraphics();
+        try
+        {
+            graphics.drawImage(image, 0, 0, null);
+        }
+        finally
+        {
+            graphics.dispose();
+        }
+        return ((DataBufferInt) converted.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * @return true for each ignored pixel, null if nothing is ignored
+     */
+    private boolean[] mask(int width, int height)
+    {
+        if (ignored.isEmpty())
+        {
+            return null;
+        }
+        boolean[] mask = new boolean[width * height];
+        for (Rectangle region : ignored)
+        {
+            Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+            for (int y = clipped.y; y < clipped.y + clipped.height; y++)
+            {
+                int row = y * width;
+                for (int x = clipped.x; x < clipped.x + clipped.width; x++)
+                {
+                    mask[row + x] = true;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Shared state of one comparison, the rows being split between tasks
+     */
+    private final class Comparison
+    {
+        private final int[] pixelsA;
+        private final int[] pixelsB;
+        private final boolean[] mask;
+        private final int[] diff;
+        private final int width;
+        private final long limit;
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        Comparison(int[] pixelsA, int[] pixelsB, boolean[] mask, int[] diff, int width, long limit)
+        {
+            this.pixelsA = pixelsA;
+            this.pixelsB = pixelsB;
+            this.mask = mask;
+            this.diff = diff;
+            this.width = width;
+            this.limit = limit;
+        }
+
+        /**
+         * @return number of different pixels in rows [from, to), possibly partial once the limit is reached
+         */
+        long compareRows(int from, int to)
+        {
+            long mismatched = 0;
+            for (int y = from; y < to && !stopped.get(); y++)
+            {
+                int start = y * width;
+                int end = start + width;
+                for (int i = start; i < end; i++)
+                {
+                    int a = pixelsA[i];
+                    int b = pixelsB[i];
+                    boolean skip = mask != null && mask[i];
+                    boolean different = !skip && a != b && (tolerance == 0 || !withinTolerance(a, b));
+                    if (diff != null)
+                    {
+                        diff[i] = skip ? IGNORED_COLOR : different ? DIFF_COLOR : fade(a);
+                    }
+                    if (different && ++mismatched > limit)
+                    {
+                        stopped.set(true);
+                        return mismatched;
+                    }
+                }
+            }
+            return mismatched;
+        }
+
+        RecursiveTask<Long> task(final int from, final int to)
+        {
+            return new RecursiveTask<Long>()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Long compute()
+                {
+                    if (to - from <= BAND_ROWS)
+                    {
+                        return compareRows(from, to);
+                    }
+                    int middle = (from + to) >>> 1;
+                    RecursiveTask<Long> left = task(from, middle);
+                    left.fork();
+                    long right = task(middle, to).invoke();
+                    return right + left.join();
+                }
+            };
+        }
+
+        private boolean withinTolerance(int a, int b)
+        {
+            for (int shift = 0; shift < 32; shift += 8)
+            {
+                if (Math.abs(((a >>> shift) & 0xff) - ((b >>> shift) & 0xff)) > tolerance)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int fade(int argb)
+        {
+            int grey = (((argb >> 16) & 0xff) + ((argb >> 8) & 0xff) + (argb & 0xff)) / 3;
+            grey = 192 + grey / 4;
+            return 0xff000000 | grey << 16 | grey << 8 | grey;
+        }
+    }
+
+    /**
+     * Outcome of a comparison
+     */
+    public static final class Result
+    {
+        private final boolean match;
+        private final long mismatchedPixels;
+        private final double mismatchRatio;
+        private final BufferedImage diffImage;
+
+        Result(boolean match, long mismatchedPixels, double mismatchRatio, BufferedImage diffImage)
+        {
+            this.match = match;
+            this.mismatchedPixels = mismatchedPixels;
+            this.mismatchRatio = mismatchRatio;
+            this.diffImage = diffImage;
+        }
+
+        static Result unreadable()
+        {
+            return new Result(false, -1, Double.NaN, null);
+        }
+
+        public boolean isMatch()
+        {
+            return match;
+        }
+
+        /**
+         * @return number of different pixels, -1 if the comparison stopped early (exact mode, hash pre-filter)
+         */
+        public long getMismatchedPixels()
+        {
+            return mismatchedPixels;
+        }
+
+        /**
+         * @return ratio of different pixels (0 to 1), NaN if the comparison stopped early
+         */
+        public double getMismatchRatio()
+        {
+            return mismatchRatio;
+        }
+
+        /**
+         * @return the diff image, null if it was not requested or the images have different sizes
+         */
+        public BufferedImage getDiffImage()
+        {
+            return diffImage;
+        }
+
+        /**
+         * @param file PNG file to write the diff image to
+         * @throws IOException
+         */
+        public void writeDiffImage(File file) throws IOException
+        {
+            if (diffImage == null)
+            {
+                throw new IllegalStateException("No diff image, use ImageComparator.withDiffImage()");
+            }
+            ImageIO.write(diffImage, "png", file);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "ImageComparator.Result[match=" + match + ", mismatchedPixels=" + mismatchedPixels + ", ratio=" + mismatchRatio + "]";
+        }
+    }
+}
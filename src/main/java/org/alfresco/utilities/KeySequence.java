@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cobra.ldtp.Ldtp;
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Encodes raw text into the key syntax of LDTP enterString/generateKeyEvent, where <code>&lt;name&gt;</code> is a
+ * special key.
+ * <ul>
+ * <li>characters that would be read as key names or that cannot be typed as is are replaced by their keys (i.e.
+ * <code>&lt;</code> becomes <code>&lt;shift&gt;,</code>, a new line becomes <code>&lt;enter&gt;</code>)</li>
+ * <li>text without such characters is returned as is, without copy; other texts are encoded in one pass over a
+ * per thread buffer, and short ones are kept in a bounded cache (<code>ldtp.keys.cache</code>, default 256)</li>
+ * <li>long texts are typed in chunks of <code>ldtp.keys.chunk</code> characters (default 256) sent in one
+ * {@link LdtpBatch}, never splitting a key from its modifiers</li>
+ * </ul>
+ * Use {@link #builder()} to mix text with special keys and shortcuts.
+ */
+public final class KeySequence
+{
+    /** LDTP special keys */
+    public enum Key
+    {
+        ENTER("enter"), TAB("tab"), ESC("esc"), SPACE("space"), BACKSPACE("bksp"), DELETE("delete"), HOME("home"), END("end"), PAGE_UP(
+                "pgup"), PAGE_DOWN("pgdown"), UP("up"), DOWN("down"), LEFT("left"), RIGHT("right"), F1("F1"), F2("F2"), F3("F3"), F4(
+                "F4"), F5("F5"), F6("F6"), F7("F7"), F8("F8"), F9("F9"), F10("F10"), F11("F11"), F12("F12"),
+        CTRL("ctrl", true), ALT("alt", true), SHIFT("shift", true), COMMAND("command", true), OPTION("option", true);
+
+        private final String token;
+        private final boolean modifier;
+
+        private Key(String name)
+        {
+            this(name, false);
+        }
+
+        private Key(String name, boolean modifier)
+        {
+            this.token = "<" + name + ">";
+            this.modifier = modifier;
+        }
+
+        /**
+         * @return the key as sent to LDTP, i.e. &lt;enter&gt;
+         */
+        public String getToken()
+        {
+            return token;
+        }
+
+        /**
+         * @return true if the key applies to the next key (ctrl, shift, etc.)
+         */
+        public boolean isModifier()
+        {
+            return modifier;
+        }
+    }
+
+    private static final int CHUNK_SIZE = Integer.getInteger("ldtp.keys.chunk", 256);
+    private static final int CACHE_SIZE = Integer.getInteger("ldtp.keys.cache", 256);
+    /** longer texts are not cached, they are rarely typed twice */
+    private static final int CACHED_LENGTH = 1024;
+    private static final String[] MODIFIER_TOKENS = { "<ctrl>", "<alt>", "<shift>", "<command>", "<option>" };
+
+    private static final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    private static final Map<String, String> cache = new LinkedHashMap<String, String>(64, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private KeySequence()
+    {
+    }
+
+    /**
+     * @param text raw text, as it should appear on screen
+     * @return <text> in LDTP key syntax
+     */
+    public static String encode(String text)
+    {
+        int first = firstSpecial(text);
+        if (first < 0)
+        {
+            return text;
+        }
+        boolean cacheable = text.length() <= CACHED_LENGTH;
+        if (cacheable)
+        {
+            synchronized (cache)
+            {
+                String encoded = cache.get(text);
+                if (encoded != null)
+                {
+                    return encoded;
+                }
+            }
+        }
+        StringBuilder out = buffer.get();
+        out.setLength(0);
+        out.append(text, 0, first);
+        for (int i = first; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            String key = replacement(c);
+            if (key == null)
+            {
+                out.append(c);
+            }
+            else
+            {
+                out.append(key);
+                if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n')
+                {
+                    i++;
+                }
+            }
+        }
+        String encoded = out.toString();
+        if (out.capacity() > 64 * 1024)
+        {
+            // do not keep the buffer of a huge document per thread
+            buffer.remove();
+        }
+        if (cacheable)
+        {
+            synchronized (cache)
+            {
+                cache.put(text, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Split <keys>, already in LDTP key syntax, in chunks of at most <maxLength> characters without breaking a
+     * &lt;key&gt; or separating it from its modifiers. A single key longer than <maxLength> gets its own chunk.
+     *
+     * @param keys
+     * @param maxLength
+     * @return the chunks, in order
+     */
+    public static List<String> split(String keys, int maxLength)
+    {
+        if (keys.length() <= maxLength)
+        {
+            return Collections.singletonList(keys);
+        }
+        List<String> chunks = new ArrayList<String>(keys.length() / maxLength + 1);
+        int start = 0;
+        int unitStart = 0;
+        while (unitStart < keys.length())
+        {
+            int unitEnd = unitEnd(keys, unitStart);
+            if (unitEnd - start > maxLength && unitStart > start)
+            {
+                chunks.add(keys.substring(start, unitStart));
+                start = unitStart;
+            }
+            unitStart = unitEnd;
+        }
+        chunks.add(keys.substring(start));
+        return chunks;
+    }
+
+    /**
+     * Type <text> in the focused object of <ldtp>: encoded, split in chunks and sent in one batch
+     *
+     * @param ldtp
+     * @param text raw text
+     * @throws LdtpExecutionError if the agent could not type one of the chunks
+     */
+    public static void type(Ldtp ldtp, String text) throws LdtpExecutionError
+    {
+        LdtpBatch batch = LdtpBatch.of(ldtp);
+        for (String chunk : split(encode(text), CHUNK_SIZE))
+        {
+            batch.enter(chunk);
+        }
+        batch.execute().assertSuccess();
+    }
+
+    /**
+     * @return a builder of key sequences mixing text, keys and shortcuts
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * @return index of the first character needing a replacement, -1 if none does
+     */
+    private static int firstSpecial(String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (replacement(text.charAt(i)) != null)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String replacement(char c)
+    {
+        switch (c)
+        {
+            case '<':
+                return "<shift>,";
+            case '>':
+                return "<shift>.";
+            case '\n':
+            case '\r':
+                return Key.ENTER.token;
+            case '\t':
+                return Key.TAB.token;
+            case '\b':
+                return Key.BACKSPACE.token;
+            case 27:
+                return Key.ESC.token;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return end of the unit starting at <start>: one character or key, with the modifiers before it
+     */
+    private static int unitEnd(String keys, int start)
+    {
+        int i = start;
+        while (true)
+        {
+            if (keys.charAt(i) != '<')
+            {
+                return i + 1;
+            }
+            int close = keys.indexOf('>', i + 1);
+            if (close < 0)
+            {
+                return i + 1;
+            }
+            boolean modifier = isModifier(keys, i, close + 1);
+            i = close + 1;
+            if (!modifier || i >= keys.length())
+            {
+                return i;
+            }
+        }
+    }
+
+    private static boolean isModifier(String keys, int start, int end)
+    {
+        for (String token : MODIFIER_TOKENS)
+        {
+            if (token.length() == end - start && keys.startsWith(token, start))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds a key sequence, i.e. <code>builder().press(Key.COMMAND, 'a').text("new name").press(Key.ENTER)</code>
+     */
+    public static final class Builder
+    {
+        private final StringBuilder keys = new StringBuilder();
+
+        private Builder()
+        {
+        }
+
+        /**
+         * @param text raw text, encoded
+         */
+        public Builder text(String text)
+        {
+            keys.append(encode(text));
+            return this;
+        }
+
+        /**
+         * Press <key> with the <modifiers> held down
+         */
+        public Builder press(Key... keys)
+        {
+            for (Key key : keys)
+            {
+                this.keys.append(key.token);
+            }
+            return this;
+        }
+
+        /**
+         * Press <c> with the <modifier> held down, i.e. press(Key.CTRL, 's')
+         */
+        public Builder press(Key modifier, char c)
+        {
+            keys.append(modifier.token).append(encode(String.valueOf(c)));
+            return this;
+        }
+
+        /**
+         * @return the sequence in LDTP key syntax
+         */
+        public String build()
+        {
+            return keys.toString();
+        }
+
+        @Override
+        public String toString()
+        {
+            return build();
+        }
+    }
+}
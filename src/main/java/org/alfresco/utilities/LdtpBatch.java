@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.cobra.ldtp.Ldtp;
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Chain of LDTP calls sent to the agent in a single <code>system.multicall</code> request.
+ * Example:
+ * 
+ * <pre>
+ * LdtpBatch.of(getLdtp()).keys(&quot;&lt;command&gt;a&quot;).enter(text).click(&quot;btnSave&quot;).execute().assertSuccess();
+ * </pre>
+ * 
+ * The steps run in order and a step runs only if the steps it depends on succeeded: a step bound to a window or an
+ * object (click, enter into an object, any {@link #call(String, Object...)}) can fail because the UI is not in the
+ * expected state, so it is the last step of its round trip and the steps after it are only sent once it succeeded.
+ * The steps acting on the focused object (keys, typing) only fail on agent errors and are sent together with the
+ * window bound step that follows them. Once a step failed, the steps not sent yet are reported as not executed.
+ * If the agent answers that it does not know <code>system.multicall</code> the steps are sent one by one with the same
+ * contract; this is detected once per {@link LdtpTransport} and remembered.
+ * Window bound steps use the window name of the handle the batch was created from.
+ */
+public class LdtpBatch
+{
+    private static Logger logger = Logger.getLogger(LdtpBatch.class);
+    private static final String MULTICALL = "system.multicall";
+    private static final int METHOD_NOT_FOUND = -32601;
+
+    private final LdtpTransport transport;
+    private final String windowName;
+    private final List<Step> steps = new ArrayList<Step>();
+
+    public LdtpBatch(LdtpTransport transport, String windowName)
+    {
+        this.transport = transport;
+        this.windowName = windowName;
+    }
+
+    /**
+     * @param ldtp
+     * @return a new batch sent through the transport of <ldtp>, using its window name
+     */
+    public static LdtpBatch of(Ldtp ldtp)
+    {
+        return new LdtpBatch(LdtpTransport.of(ldtp), ldtp.getWindowName());
+    }
+
+    /**
+     * Same as {@link Ldtp#generateKeyEvent(String)}
+     */
+    public LdtpBatch keys(String keys)
+    {
+        return focused("generatekeyevent", keys);
+    }
+
+    /**
+     * Same as {@link Ldtp#enterString(String)}: type <data> in the focused object
+     */
+    public LdtpBatch enter(String data)
+    {
+        return focused("enterstring", data);
+    }
+
+    /**
+     * Same as {@link Ldtp#enterString(String, String)}
+     */
+    public LdtpBatch enter(String objectName, String data)
+    {
+        return action("enterstring", windowName, objectName, data);
+    }
+
+    public LdtpBatch click(String objectName)
+    {
+        return action("click", windowName, objectName);
+    }
+
+    public LdtpBatch doubleClick(String objectName)
+    {
+        return action("doubleclick", windowName, objectName);
+    }
+
+    public LdtpBatch mouseLeftClick(String objectName)
+    {
+        return action("mouseleftclick", windowName, objectName);
+    }
+
+    /**
+     * Add any LDTP call; its result is returned as is, without checking it
+     *
+     * @param method LDTP method name, i.e. getobjectlist
+     * @param params
+     */
+    public LdtpBatch call(String method, Object... params)
+    {
+        steps.add(new Step(method.toLowerCase(), params, false, false));
+        return this;
+    }
+
+    /**
+     * @return number of steps added so far
+     */
+    public int size()
+    {
+        return steps.size();
+    }
+
+    /**
+     * Send all steps to the agent, in as few round trips as the dependencies between them allow
+     *
+     * @return per step results
+     */
+    public Result execute()
+    {
+        Object[] results = new Object[steps.size()];
+        Throwable[] errors = new Throwable[steps.size()];
+        int next = 0;
+        while (next < steps.size())
+        {
+            int end = next;
+            while (steps.get(end).focused && end < steps.size() - 1)
+            {
+                end++;
+            }
+            // <next>..<end> depend on nothing that may still fail
+            boolean failed = send(next, end + 1, results, errors);
+            next = end + 1;
+            if (failed)
+            {
+                for (int j = next; j < steps.size(); j++)
+                {
+                    errors[j] = new LdtpExecutionError(steps.get(j) + " was not executed, a previous step failed");
+                }
+                break;
+            }
+        }
+        return new Result(steps, results, errors);
+    }
+
+    private LdtpBatch action(String method, Object... params)
+    {
+        steps.add(new Step(method, params, true, false));
+        return this;
+    }
+
+    private LdtpBatch focused(String method, Object... params)
+    {
+        steps.add(new Step(method, params, true, true));
+        return this;
+    }
+
+    /**
+     * Send the steps from <from> to <to> (excluded), in one multicall if there are several and the agent supports it
+     *
+     * @return true if one of them failed
+     */
+    private boolean send(int from, int to, Object[] results, Throwable[] errors)
+    {
+        if (to - from > 1 && transport.isMulticallSupported())
+        {
+            try
+            {
+                return sendMulticall(from, to, results, errors);
+            }
+            catch (XmlRpcException e)
+            {
+                if (!isMulticallUnknown(e))
+                {
+                    // connection refused, timeout or agent failure: what was executed is unknown
+                    for (int i = from; i < to; i++)
+                    {
+                        errors[i] = new LdtpExecutionError(steps.get(i) + " was not executed: " + e.getMessage());
+                    }
+                    return true;
+                }
+                logger.info("Agent " + transport.getEndpoint() + " does not support " + MULTICALL + ", sending calls one by one: " + e.getMessage());
+                transport.setMulticallSupported(false);
+            }
+        }
+        for (int i = from; i < to; i++)
+        {
+            Step step = steps.get(i);
+            try
+            {
+                results[i] = transport.execute(step.method, step.params);
+                errors[i] = step.check(results[i]);
+            }
+            catch (XmlRpcException e)
+            {
+                errors[i] = new LdtpExecutionError(step + " failed: " + e.getMessage());
+            }
+            if (errors[i] != null)
+            {
+                for (int j = i + 1; j < to; j++)
+                {
+                    errors[j] = new LdtpExecutionError(steps.get(j) + " was not executed, a previous step failed");
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean sendMulticall(int from, int to, Object[] results, Throwable[] errors) throws XmlRpcException
+    {
+        Object[] calls = new Object[to - from];
+        for (int i = 0; i < calls.length; i++)
+        {
+            Map<String, Object> call = new HashMap<String, Object>();
+            call.put("methodName", steps.get(from + i).method);
+            call.put("params", steps.get(from + i).params);
+            calls[i] = call;
+        }
+        Object response = transport.execute(MULTICALL, new Object[] { calls });
+        if (!(response instanceof Object[]) || ((Object[]) response).length != calls.length)
+        {
+            throw new XmlRpcException("Unexpected " + MULTICALL + " response: " + response);
+        }
+        Object[] responses = (Object[]) response;
+        boolean failed = false;
+        for (int i = 0; i < responses.length; i++)
+        {
+            Step step = steps.get(from + i);
+            if (responses[i] instanceof Object[] && ((Object[]) responses[i]).length > 0)
+            {
+                results[from + i] = ((Object[]) responses[i])[0];
+                errors[from + i] = step.check(results[from + i]);
+            }
+            else if (responses[i] instanceof Map)
+            {
+                Map<?, ?> fault = (Map<?, ?>) responses[i];
+                errors[from + i] = new LdtpExecutionError(step + " failed: " + fault.get("faultString"));
+            }
+            else
+            {
+                errors[from + i] = new LdtpExecutionError(step + " returned an unexpected response: " + responses[i]);
+            }
+            failed |= errors[from + i] != null;
+        }
+        return failed;
+    }
+
+    /**
+     * @return true if <e> is the agent telling it has no system.multicall method, not a fault of the calls themselves
+     */
+    private static boolean isMulticallUnknown(XmlRpcException e)
+    {
+        if (e.code == METHOD_NOT_FOUND)
+        {
+            return true;
+        }
+        String message = String.valueOf(e.getMessage());
+        return e.code != 0 && message.contains(MULTICALL)
+                && (message.contains("not supported") || message.contains("not found") || message.contains("No such handler"));
+    }
+
+    /**
+     * One call of the batch
+     */
+    private static class Step
+    {
+        private final String method;
+        private final Object[] params;
+        private final boolean action;
+        /** acts on the focused object, not on a window or object that may be missing */
+        private final boolean focused;
+
+        Step(String method, Object[] params, boolean action, boolean focused)
+        {
+            this.method = method;
+            this.params = params;
+            this.action = action;
+            this.focused = focused;
+        }
+
+        /**
+         * Actions return 1 on success, as checked by the cobra client
+         */
+        LdtpExecutionError check(Object result)
+        {
+            if (action && !(result instanceof Integer && ((Integer) result).intValue() == 1))
+            {
+                return new LdtpExecutionError(this + " returned " + result);
+            }
+            return null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return method + Arrays.toString(params);
+        }
+    }
+
+    /**
+     * Results and errors of each step, in the order the steps were added
+     */
+    public static class Result
+    {
+        private final List<String> steps;
+        private final Object[] results;
+        private final Throwable[] errors;
+
+        Result(List<Step> steps, Object[] results, Throwable[] errors)
+        {
+            List<String> names = new ArrayList<String>(steps.size());
+            for (Step step : steps)
+            {
+                names.add(step.toString());
+            }
+            this.steps = Collections.unmodifiableList(names);
+            this.results = results;
+            this.errors = errors;
+        }
+
+        public int size()
+        {
+            return results.length;
+        }
+
+        /**
+         * @param index
+         * @return value returned by step <index>, null if it failed or was not executed
+         */
+        public Object getResult(int index)
+        {
+            return results[index];
+        }
+
+        /**
+         * @param index
+         * @return error of step <index>, null if it succeeded
+         */
+        public Throwable getError(int index)
+        {
+            return errors[index];
+        }
+
+        public boolean isSuccessful()
+        {
+            for (Throwable error : errors)
+            {
+                if (error != null)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Throw the error of the first failed step, as the cobra client does for a single call
+         *
+         * @return this result
+         * @throws LdtpExecutionError
+         */
+        public Result assertSuccess() throws LdtpExecutionError
+        {
+            for (int i = 0; i < errors.length; i++)
+            {
+                if (errors[i] instanceof LdtpExecutionError)
+                {
+                    throw (LdtpExecutionError) errors[i];
+                }
+                if (errors[i] != null)
+                {
+                    throw new LdtpExecutionError(steps.get(i) + " failed: " + errors[i].getMessage());
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder value = new StringBuilder("LdtpBatch.Result[");
+            for (int i = 0; i < results.length; i++)
+            {
+                value.append(i == 0 ? "" : ", ").append(steps.get(i)).append("=").append(errors[i] == null ? results[i] : errors[i].getMessage());
+            }
+            return value.append("]").toString();
+        }
+    }
+}
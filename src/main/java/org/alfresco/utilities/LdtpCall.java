@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+
+/**
+ * One LDTP call travelling through the {@link LdtpCallInterceptor} chain of a {@link LdtpRpcClient}
+ */
+public class LdtpCall
+{
+    private static final Set<String> NO_WINDOW_METHODS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("getwindowlist",
+            "getapplist", "generatekeyevent", "keypress", "keyrelease", "launchapp", "wait", "isalive", "system.multicall")));
+
+    private final LdtpRpcClient client;
+    private final XmlRpcRequest request;
+    private final LdtpCallInterceptor[] interceptors;
+    private int position = 0;
+
+    LdtpCall(LdtpRpcClient client, XmlRpcRequest request, LdtpCallInterceptor[] interceptors)
+    {
+        this.client = client;
+        this.request = request;
+        this.interceptors = interceptors;
+    }
+
+    /**
+     * @return the LDTP method name (i.e. getwindowlist, click, generatekeyevent) in lower case
+     */
+    public String getMethodName()
+    {
+        return request.getMethodName().toLowerCase();
+    }
+
+    public int getParameterCount()
+    {
+        return request.getParameterCount();
+    }
+
+    public Object getParameter(int index)
+    {
+        return request.getParameter(index);
+    }
+
+    /**
+     * @return the window name this call targets (first String parameter), or null if the method is not bound to a
+     *         window (i.e. generatekeyevent, getwindowlist)
+     */
+    public String getWindowName()
+    {
+        String method = getMethodName();
+        if (NO_WINDOW_METHODS.contains(method) || ("enterstring".equals(method) && request.getParameterCount() < 2))
+        {
+            return null;
+        }
+        if (request.getParameterCount() > 0 && request.getParameter(0) instanceof String)
+        {
+            return (String) request.getParameter(0);
+        }
+        return null;
+    }
+
+    public LdtpRpcClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * Pass the call to the next interceptor, or to the agent if this is the last one
+     *
+     * @return the result returned by the agent
+     * @throws XmlRpcException
+     */
+    public Object proceed() throws XmlRpcException
+    {
+        if (position < interceptors.length)
+        {
+            return interceptors[position++].intercept(this);
+        }
+        return client.invoke(request);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(request.getMethodName()).append('(');
+        for (int i = 0; i < request.getParameterCount(); i++)
+        {
+            if (i > 0)
+            {
+                sb.append(", ");
+            }
+            sb.append(request.getParameter(i));
+        }
+        return sb.append(')').toString();
+    }
+}
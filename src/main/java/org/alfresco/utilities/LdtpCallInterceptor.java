@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Hook around every XML-RPC call made by an {@link com.cobra.ldtp.Ldtp} handle that was attached with
+ * {@link LdtpRpcClient#attach(com.cobra.ldtp.Ldtp)}.
+ * Implementations must call {@link LdtpCall#proceed()} to let the call reach the agent (or return a value without
+ * calling it, e.g. from a cache).
+ */
+public interface LdtpCallInterceptor
+{
+    Object intercept(LdtpCall call) throws XmlRpcException;
+}
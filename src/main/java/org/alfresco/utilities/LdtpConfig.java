@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Immutable snapshot of the {@link LdtpUtils#PROPERTIES_FILE} configuration, shared by the whole process.
+ * ${name} placeholders are resolved once when the snapshot is built, so {@link #get(String)} is a plain map lookup.
+ * Placeholders that cannot be resolved (unknown name, reference to itself or cycle) are kept as they are, cycles
+ * being reported at load time.
+ * Each value can be overridden with a system property of the same name (-Dcifs.path=...) or an environment variable
+ * with the name upper cased and dots replaced by underscores (CIFS_PATH), system properties winning.
+ * The file is read from the classpath, or from <code>-Dldtp.config=path</code>. When it is a file on disk it is
+ * watched and a new snapshot replaces the current one as soon as it changes (disable with
+ * <code>-Dldtp.config.watch=false</code>).
+ */
+public final class LdtpConfig
+{
+    private static Logger logger = Logger.getLogger(LdtpConfig.class);
+    private static final String START_DELIMITER = "${";
+    private static final String END_DELIMITER = "}";
+    private static volatile LdtpConfig instance;
+    private static Thread watcher;
+
+    private final Map<String, String> values;
+
+    private LdtpConfig(Map<String, String> values)
+    {
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @return the current snapshot of the configuration file, with the environment overrides applied
+     */
+    public static LdtpConfig getInstance()
+    {
+        LdtpConfig config = instance;
+        if (config == null)
+        {
+            synchronized (LdtpConfig.class)
+            {
+                if (instance == null)
+                {
+                    instance = load();
+                }
+                config = instance;
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Read the configuration file again and replace the current snapshot.
+     * If the file cannot be read the current snapshot is kept.
+     *
+     * @return the snapshot in use after the reload
+     */
+    public static synchronized LdtpConfig reload()
+    {
+        LdtpConfig loaded = load();
+        if (loaded.values.isEmpty() && instance != null && !instance.values.isEmpty())
+        {
+            logger.warn("Configuration file is empty or could not be read, keeping the previous configuration");
+            return instance;
+        }
+        instance = loaded;
+        logger.info("Configuration " + LdtpUtils.PROPERTIES_FILE + " reloaded: " + loaded.values.size() + " properties");
+        return loaded;
+    }
+
+    /**
+     * Build a snapshot from <properties>, without environment overrides
+     *
+     * @param properties
+     * @return LdtpConfig
+     */
+    public static LdtpConfig of(Properties properties)
+    {
+        return new LdtpConfig(resolve(toMap(properties)));
+    }
+
+    /**
+     * @param key
+     * @return the resolved value of <key> or null if it is not defined
+     */
+    public String get(String key)
+    {
+        return values.get(key);
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the resolved value of <key> or <defaultValue> if it is not defined
+     */
+    public String get(String key, String defaultValue)
+    {
+        String value = values.get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    public Set<String> keys()
+    {
+        return values.keySet();
+    }
+
+    /**
+     * Resolve all ${name} placeholders of <raw> against its own keys
+     *
+     * @param raw values as read from the file
+     * @return resolved values
+     */
+    static Map<String, String> resolve(Map<String, String> raw)
+    {
+        Map<String, String> resolved = new HashMap<String, String>(raw.size() * 2);
+        for (String key : raw.keySet())
+        {
+            resolve(key, raw, resolved, new LinkedHashSet<String>());
+        }
+        return resolved;
+    }
+
+    private static String resolve(String key, Map<String, String> raw, Map<String, String> resolved, Set<String> resolving)
+    {
+        String value = resolved.get(key);
+        if (value != null)
+        {
+            return value;
+        }
+        value = raw.get(key);
+        resolving.add(key);
+        StringBuilder result = new StringBuilder(value.length());
+        int position = 0;
+        int startIndex;
+        int endIndex;
+        while ((startIndex = value.indexOf(START_DELIMITER, position)) >= 0 && (endIndex = value.indexOf(END_DELIMITER, startIndex)) >= 0)
+        {
+            String variableName = value.substring(startIndex + START_DELIMITER.length(), endIndex);
+            String variableValue = null;
+            if (resolving.contains(variableName))
+            {
+                if (!variableName.equals(key))
+                {
+                    logger.error("Cycle in " + LdtpUtils.PROPERTIES_FILE + ": " + resolving + " -> " + variableName + ", keeping the placeholder");
+                }
+            }
+            else if (raw.containsKey(variableName))
+            {
+                variableValue = resolve(variableName, raw, resolved, resolving);
+            }
+            result.append(value, position, startIndex);
+            if (variableValue == null)
+            {
+                // when unable to find the variable value, just keep the variable name
+                result.append(value, startIndex, endIndex + END_DELIMITER.length());
+            }
+            else
+            {
+                result.append(variableValue);
+            }
+            position = endIndex + END_DELIMITER.length();
+        }
+        result.append(value, position, value.length());
+        resolving.remove(key);
+        value = result.toString();
+        resolved.put(key, value);
+        return value;
+    }
+
+    private static LdtpConfig load()
+    {
+        Properties properties = new Properties();
+        try (InputStream stream = open())
+        {
+            if (stream == null)
+            {
+                logger.error("Could not find property file: " + LdtpUtils.PROPERTIES_FILE);
+            }
+            else
+            {
+                properties.load(stream);
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Could NOT READ Properties file: " + e.getMessage());
+        }
+        Map<String, String> raw = toMap(properties);
+        for (Map.Entry<String, String> entry : raw.entrySet())
+        {
+            String override = System.getProperty(entry.getKey());
+            if (override == null)
+            {
+                override = System.getenv(entry.getKey().toUpperCase().replace('.', '_').replace('-', '_'));
+            }
+            if (override != null)
+            {
+                entry.setValue(override);
+            }
+        }
+        Path file = getConfigFile();
+        if (file != null && !"false".equalsIgnoreCase(System.getProperty("ldtp.config.watch")))
+        {
+            watch(file);
+        }
+        return new LdtpConfig(resolve(raw));
+    }
+
+    private static InputStream open() throws IOException
+    {
+        Path file = getConfigFile();
+        if (file != null)
+        {
+            return Files.newInputStream(file);
+        }
+        return LdtpConfig.class.getClassLoader().getResourceAsStream(LdtpUtils.PROPERTIES_FILE);
+    }
+
+    /**
+     * @return the configuration file on disk, null if it is not a file (i.e. packed in a jar)
+     */
+    private static Path getConfigFile()
+    {
+        String configured = System.getProperty("ldtp.config");
+        if (configured != null)
+        {
+            return Paths.get(configured).toAbsolutePath();
+        }
+        URL resource = LdtpConfig.class.getClassLoader().getResource(LdtpUtils.PROPERTIES_FILE);
+        if (resource == null || !"file".equals(resource.getProtocol()))
+        {
+            return null;
+        }
+        try
+        {
+            return Paths.get(resource.toURI());
+        }
+        catch (URISyntaxException e)
+        {
+            return null;
+        }
+    }
+
+    private static Map<String, String> toMap(Properties properties)
+    {
+        Map<String, String> map = new HashMap<String, String>();
+        for (String key : properties.stringPropertyNames())
+        {
+            map.put(key, properties.getProperty(key));
+        }
+        return map;
+    }
+
+    /**
+     * Reload the configuration each time <file> is written
+     */
+    private static synchronized void watch(final Path file)
+    {
+        if (watcher != null || file.getParent() == null)
+        {
+            return;
+        }
+        try
+        {
+            final WatchService service = FileSystems.getDefault().newWatchService();
+            file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watcher = new WaitEngine.DaemonThreadFactory("ldtp-config").newThread(() -> {
+                while (!Thread.currentThread().isInterrupted())
+                {
+                    WatchKey key;
+                    try
+                    {
+                        key = service.take();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    for (WatchEvent<?> event : key.pollEvents())
+                    {
+                        if (file.getFileName().equals(event.context()))
+                        {
+                            reload();
+                            break;
+                        }
+                    }
+                    key.reset();
+                }
+            });
+            watcher.start();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not watch " + file + " for changes: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Address of one LDTP agent.
+ * The default endpoint is read the same way as {@link com.cobra.ldtp.Ldtp} does: the <code>LDTP_SERVER_ADDR</code>
+ * and <code>LDTP_SERVER_PORT</code> environment variables, then the <code>ldtp.server.addr</code> and
+ * <code>ldtp.server.port</code> system properties, falling back to localhost:4118.
+ */
+public final class LdtpEndpoint
+{
+    public static final String DEFAULT_HOST = "localhost";
+    public static final int DEFAULT_PORT = 4118;
+
+    private final String host;
+    private final int port;
+
+    public LdtpEndpoint(String host, int port)
+    {
+        if (host == null || host.isEmpty() || port <= 0)
+        {
+            throw new IllegalArgumentException("Invalid LDTP endpoint: " + host + ":" + port);
+        }
+        this.host = host.toLowerCase();
+        this.port = port;
+    }
+
+    /**
+     * @return the endpoint configured for this environment
+     */
+    public static LdtpEndpoint getDefault()
+    {
+        String host = firstNonEmpty(System.getenv("LDTP_SERVER_ADDR"), System.getProperty("ldtp.server.addr"), DEFAULT_HOST);
+        String port = firstNonEmpty(System.getenv("LDTP_SERVER_PORT"), System.getProperty("ldtp.server.port"), String.valueOf(DEFAULT_PORT));
+        try
+        {
+            return new LdtpEndpoint(host, Integer.parseInt(port.trim()));
+        }
+        catch (NumberFormatException e)
+        {
+            return new LdtpEndpoint(host, DEFAULT_PORT);
+        }
+    }
+
+    /**
+     * @param serverUrl XML-RPC URL of the agent, i.e. http://localhost:4118/RPC2
+     * @return LdtpEndpoint
+     */
+    public static LdtpEndpoint fromUrl(URL serverUrl)
+    {
+        return new LdtpEndpoint(serverUrl.getHost(), serverUrl.getPort() < 0 ? DEFAULT_PORT : serverUrl.getPort());
+    }
+
+    public String getHost()
+    {
+        return host;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * @return XML-RPC URL of the agent
+     */
+    public URL getServerUrl()
+    {
+        try
+        {
+            return new URL("http", host, port, "/RPC2");
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalStateException("Invalid LDTP endpoint " + this, e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (this == other)
+        {
+            return true;
+        }
+        if (!(other instanceof LdtpEndpoint))
+        {
+            return false;
+        }
+        LdtpEndpoint endpoint = (LdtpEndpoint) other;
+        return port == endpoint.port && host.equals(endpoint.host);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * host.hashCode() + port;
+    }
+
+    @Override
+    public String toString()
+    {
+        return host + ":" + port;
+    }
+
+    private static String firstNonEmpty(String... values)
+    {
+        for (String value : values)
+        {
+            if (value != null && !value.trim().isEmpty())
+            {
+                return value.trim();
+            }
+        }
+        return null;
+    }
+}
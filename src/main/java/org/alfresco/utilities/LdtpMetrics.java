@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Latency instrumentation of this library.
+ * Every call reaching an agent through a {@link LdtpTransport} is recorded per (method, window): count, error count
+ * and a {@link LatencyHistogram}. Calls answered locally (i.e. by the {@link WindowListCache}) are not counted.
+ * Time spent in {@link WaitEngine} retry loops is recorded separately per calling helper (i.e.
+ * LdtpUtils.waitForObject), with the share of it the thread spent parked between polls.
+ * Windows are part of the call keys, so at most <code>ldtp.metrics.windows</code> (default 200) distinct windows are
+ * tracked; calls to further windows are aggregated per method under {@link #OTHER_WINDOWS}.
+ * Instrumentation can be disabled with the system property <code>ldtp.metrics=false</code>.
+ */
+public class LdtpMetrics implements LdtpCallInterceptor
+{
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("ldtp.metrics"));
+    public static final String OTHER_WINDOWS = "(other windows)";
+    private static final String NO_WINDOW = "-";
+    private static final int MAX_WINDOWS = Integer.getInteger("ldtp.metrics.windows", 200);
+    private static final LdtpMetrics instance = new LdtpMetrics();
+
+    private final ConcurrentMap<String, Stats> calls = new ConcurrentHashMap<String, Stats>();
+    private final ConcurrentMap<String, Stats> waits = new ConcurrentHashMap<String, Stats>();
+    private final Set<String> windows = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @return the metrics shared by all transports
+     */
+    public static LdtpMetrics getInstance()
+    {
+        return instance;
+    }
+
+    @Override
+    public Object intercept(LdtpCall call) throws XmlRpcException
+    {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            Object result = call.proceed();
+            failed = false;
+            return result;
+        }
+        finally
+        {
+            recordCall(call.getMethodName(), call.getWindowName(), System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * @param method LDTP method
+     * @param window target window, null if the method is not bound to a window
+     * @param nanos duration of the call
+     * @param failed true if the agent returned a fault or could not be reached
+     */
+    public void recordCall(String method, String window, long nanos, boolean failed)
+    {
+        String name = method + "\t" + trackedWindow(window);
+        stats(calls, name).record(nanos, 0, failed);
+    }
+
+    /**
+     * @param site helper waiting, i.e. LdtpUtils.waitForObject
+     * @param nanos total duration of the wait
+     * @param parkedNanos part of <nanos> spent parked between polls
+     * @param timedOut true if the wait ended without its condition being fulfilled
+     */
+    public void recordWait(String site, long nanos, long parkedNanos, boolean timedOut)
+    {
+        stats(waits, site).record(nanos, parkedNanos, timedOut);
+    }
+
+    /**
+     * @return snapshot of the call metrics, slowest total time first
+     */
+    public List<Stat> getCallStats()
+    {
+        return snapshot(calls);
+    }
+
+    /**
+     * @return snapshot of the wait metrics, slowest total time first
+     */
+    public List<Stat> getWaitStats()
+    {
+        return snapshot(waits);
+    }
+
+    public void reset()
+    {
+        calls.clear();
+        waits.clear();
+        windows.clear();
+    }
+
+    /**
+     * @return <window> while fewer than MAX_WINDOWS windows are tracked, OTHER_WINDOWS for the windows beyond
+     */
+    private String trackedWindow(String window)
+    {
+        if (window == null)
+        {
+            return NO_WINDOW;
+        }
+        if (windows.contains(window) || (windows.size() < MAX_WINDOWS && windows.add(window)))
+        {
+            return window;
+        }
+        return OTHER_WINDOWS;
+    }
+
+    /**
+     * @return calls and waits as text tables, for logs
+     */
+    public String formatTable()
+    {
+        StringBuilder table = new StringBuilder();
+        String header = "%-22s %-36s %8s %7s %10s %10s %10s %10s %10s %10s%n";
+        String row = "%-22s %-36s %8d %7d %10.1f %10.1f %10.1f %10.1f %10.1f %10.2f%n";
+        table.append(String.format("LDTP calls%n"));
+        table.append(String.format(header, "method", "window", "count", "errors", "mean(ms)", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)", "total(s)"));
+        for (Stat stat : getCallStats())
+        {
+            table.append(String.format(row, stat.getName(), abbreviate(stat.getWindow(), 36), stat.getCount(), stat.getErrors(), millis(stat.getMeanMicros()),
+                    millis(stat.getP50Micros()), millis(stat.getP90Micros()), millis(stat.getP99Micros()), millis(stat.getMaxMicros()),
+                    stat.getTotalMicros() / 1e6));
+        }
+        table.append(String.format("%nWaits (total includes the calls done while polling, parked is the time spent idle)%n"));
+        String waitHeader = "%-59s %8s %7s %10s %10s %10s %10s %10s%n";
+        String waitRow = "%-59s %8d %7d %10.1f %10.1f %10.1f %10.2f %10.2f%n";
+        table.append(String.format(waitHeader, "helper", "count", "timeout", "mean(ms)", "p90(ms)", "max(ms)", "total(s)", "parked(s)"));
+        for (Stat stat : getWaitStats())
+        {
+            table.append(String.format(waitRow, abbreviate(stat.getName(), 59), stat.getCount(), stat.getErrors(), millis(stat.getMeanMicros()),
+                    millis(stat.getP90Micros()), millis(stat.getMaxMicros()), stat.getTotalMicros() / 1e6, stat.getParkedMicros() / 1e6));
+        }
+        return table.toString();
+    }
+
+    private static Stats stats(ConcurrentMap<String, Stats> map, String name)
+    {
+        Stats stats = map.get(name);
+        if (stats == null)
+        {
+            Stats created = new Stats();
+            stats = map.putIfAbsent(name, created);
+            if (stats == null)
+            {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    private static List<Stat> snapshot(Map<String, Stats> map)
+    {
+        List<Stat> result = new ArrayList<Stat>();
+        for (Map.Entry<String, Stats> entry : map.entrySet())
+        {
+            String[] name = entry.getKey().split("\t", 2);
+            result.add(new Stat(name[0], name.length > 1 ? name[1] : null, entry.getValue()));
+        }
+        Collections.sort(result, (a, b) -> Long.compare(b.getTotalMicros(), a.getTotalMicros()));
+        return result;
+    }
+
+    private static double millis(double micros)
+    {
+        return micros / 1000.0;
+    }
+
+    private static String abbreviate(String value, int width)
+    {
+        if (value == null)
+        {
+            return NO_WINDOW;
+        }
+        return value.length() <= width ? value : value.substring(0, width - 3) + "...";
+    }
+
+    /**
+     * Live counters of one method/window or wait site
+     */
+    private static class Stats
+    {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder parkedNanos = new LongAdder();
+
+        void record(long nanos, long parked, boolean failed)
+        {
+            histogram.record(nanos);
+            parkedNanos.add(parked);
+            if (failed)
+            {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of one method/window or wait site
+     */
+    public static class Stat
+    {
+        private final String name;
+        private final String window;
+        private final long count;
+        private final long errors;
+        private final double meanMicros;
+        private final long p50Micros;
+        private final long p90Micros;
+        private final long p99Micros;
+        private final long maxMicros;
+        private final long totalMicros;
+        private final long parkedMicros;
+
+        Stat(String name, String window, Stats stats)
+        {
+            this.name = name;
+            this.window = window;
+            this.count = stats.histogram.getCount();
+            this.errors = stats.errors.sum();
+            this.meanMicros = stats.histogram.getMeanMicros();
+            this.p50Micros = stats.histogram.getPercentileMicros(50);
+            this.p90Micros = stats.histogram.getPercentileMicros(90);
+            this.p99Micros = stats.histogram.getPercentileMicros(99);
+            this.maxMicros = stats.histogram.getMaxMicros();
+            this.totalMicros = stats.histogram.getTotalMicros();
+            this.parkedMicros = TimeUnit.NANOSECONDS.toMicros(stats.parkedNanos.sum());
+        }
+
+        /**
+         * @return LDTP method for calls, helper name for waits
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return target window of calls, null for waits
+         */
+        public String getWindow()
+        {
+            return window;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return failed calls, or waits that timed out
+         */
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        public double getMeanMicros()
+        {
+            return meanMicros;
+        }
+
+        public long getP50Micros()
+        {
+            return p50Micros;
+        }
+
+        public long getP90Micros()
+        {
+            return p90Micros;
+        }
+
+        public long getP99Micros()
+        {
+            return p99Micros;
+        }
+
+        public long getMaxMicros()
+        {
+            return maxMicros;
+        }
+
+        public long getTotalMicros()
+        {
+            return totalMicros;
+        }
+
+        public long getParkedMicros()
+        {
+            return parkedMicros;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s[%s] count=%d errors=%d mean=%.0fus p90=%dus max=%dus", name, window == null ? NO_WINDOW : window, count, errors,
+                    meanMicros, p90Micros, maxMicros);
+        }
+    }
+}
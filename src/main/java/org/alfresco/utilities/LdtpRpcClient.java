@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfig;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * XML-RPC client that lets this library see every call an {@link Ldtp} handle sends to the agent.
+ * The cobra {@link Ldtp} class builds its own private XmlRpcClient, so {@link #attach(Ldtp)} swaps that client
+ * with the shared instance of its {@link LdtpTransport}. Calls are then passed through the registered
+ * {@link LdtpCallInterceptor}s.
+ */
+public class LdtpRpcClient extends XmlRpcClient
+{
+    private static Logger logger = Logger.getLogger(LdtpRpcClient.class);
+    private static final Field clientField = findClientField();
+
+    private final List<LdtpCallInterceptor> interceptors = new CopyOnWriteArrayList<LdtpCallInterceptor>();
+    private final LdtpTransport transport;
+
+    /**
+     * Client not bound to any {@link LdtpTransport}
+     */
+    public LdtpRpcClient()
+    {
+        this(null);
+    }
+
+    LdtpRpcClient(LdtpTransport transport)
+    {
+        this.transport = transport;
+    }
+
+    /**
+     * Make sure <ldtp> talks to the agent through the shared {@link LdtpRpcClient} of its {@link LdtpTransport}.
+     * The agent address is taken from the client the handle was created with.
+     * Attaching the same handle twice returns the client already attached.
+     *
+     * @param ldtp
+     * @return the client used by <ldtp> or null if the client could not be replaced
+     */
+    public static LdtpRpcClient attach(Ldtp ldtp)
+    {
+        if (ldtp == null || clientField == null)
+        {
+            return null;
+        }
+        synchronized (ldtp)
+        {
+            try
+            {
+                Object current = clientField.get(ldtp);
+                if (current instanceof LdtpRpcClient)
+                {
+                    return (LdtpRpcClient) current;
+                }
+                LdtpEndpoint endpoint = LdtpEndpoint.getDefault();
+                if (current instanceof XmlRpcClient)
+                {
+                    XmlRpcClientConfig config = ((XmlRpcClient) current).getClientConfig();
+                    if (config instanceof XmlRpcClientConfigImpl && ((XmlRpcClientConfigImpl) config).getServerURL() != null)
+                    {
+                        endpoint = LdtpEndpoint.fromUrl(((XmlRpcClientConfigImpl) config).getServerURL());
+                    }
+                }
+                LdtpRpcClient client = LdtpTransport.forEndpoint(endpoint).getClient();
+                clientField.set(ldtp, client);
+                return client;
+            }
+            catch (IllegalAccessException e)
+            {
+                logger.debug("Could not attach to LDTP client: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Make <ldtp> talk to the agent through <client>
+     *
+     * @param ldtp
+     * @param client
+     * @return true if the handle is now using <client>
+     */
+    public static boolean bind(Ldtp ldtp, LdtpRpcClient client)
+    {
+        if (ldtp == null || clientField == null)
+        {
+            return false;
+        }
+        synchronized (ldtp)
+        {
+            try
+            {
+                clientField.set(ldtp, client);
+                return true;
+            }
+            catch (IllegalAccessException e)
+            {
+                logger.debug("Could not bind LDTP client: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the transport owning this client, null for a standalone client
+     */
+    public LdtpTransport getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * Add <interceptor> at the end of the chain, unless it is already registered
+     *
+     * @param interceptor
+     */
+    public void addInterceptor(LdtpCallInterceptor interceptor)
+    {
+        synchronized (interceptors)
+        {
+            if (!interceptors.contains(interceptor))
+            {
+                interceptors.add(interceptor);
+            }
+        }
+    }
+
+    public void removeInterceptor(LdtpCallInterceptor interceptor)
+    {
+        interceptors.remove(interceptor);
+    }
+
+    @Override
+    public Object execute(XmlRpcRequest request) throws XmlRpcException
+    {
+        if (interceptors.isEmpty())
+        {
+            return invoke(request);
+        }
+        return new LdtpCall(this, request, interceptors.toArray(new LdtpCallInterceptor[0])).proceed();
+    }
+
+    /**
+     * Send <request> to the agent, bypassing the interceptors
+     *
+     * @param request
+     * @return the agent response
+     * @throws XmlRpcException
+     */
+    protected Object invoke(XmlRpcRequest request) throws XmlRpcException
+    {
+        return super.execute(request);
+    }
+
+    private static Field findClientField()
+    {
+        for (Class<?> type = Ldtp.class; type != null; type = type.getSuperclass())
+        {
+            for (Field field : type.getDeclaredFields())
+            {
+                if (XmlRpcClient.class.isAssignableFrom(field.getType()))
+                {
+                    try
+                    {
+                        field.setAccessible(true);
+                        return field;
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logger.warn("LDTP client field is not accessible, calls will not be intercepted: " + e.getMessage());
+                        return null;
+                    }
+                }
+            }
+        }
+        logger.warn("Could not find the XML-RPC client of " + Ldtp.class.getName() + ", calls will not be intercepted");
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Binds the current thread to one LDTP agent.
+ * While a session is open, {@link LdtpTransport#getDefault()} (and so every helper, dialog and application creating
+ * its handles from it) talks to the agent of the session instead of the one configured for the environment. This is
+ * how several desktops are driven from one JVM: each thread opens a session on its own agent, usually leased from an
+ * {@link AgentPool}.
+ * Sessions nest: closing a session brings back the one that was open before it on the same thread.
+ */
+public final class LdtpSession implements AutoCloseable
+{
+    private static Logger logger = Logger.getLogger(LdtpSession.class);
+    private static final ThreadLocal<LdtpSession> current = new ThreadLocal<LdtpSession>();
+
+    private final LdtpEndpoint endpoint;
+    private final AgentPool pool;
+    private final LdtpSession previous;
+    private final Thread owner;
+    private volatile boolean closed;
+
+    private LdtpSession(LdtpEndpoint endpoint, AgentPool pool)
+    {
+        this.endpoint = endpoint;
+        this.pool = pool;
+        this.previous = current();
+        this.owner = Thread.currentThread();
+    }
+
+    /**
+     * Open a session on <endpoint> for the current thread
+     *
+     * @param endpoint
+     * @return LdtpSession to close once the thread is done with the agent
+     */
+    public static LdtpSession open(LdtpEndpoint endpoint)
+    {
+        return open(endpoint, null);
+    }
+
+    static LdtpSession open(LdtpEndpoint endpoint, AgentPool pool)
+    {
+        LdtpSession session = new LdtpSession(endpoint, pool);
+        current.set(session);
+        logger.debug("Opened LDTP session on " + endpoint + " for thread " + session.owner.getName());
+        return session;
+    }
+
+    /**
+     * @return the session open on the current thread, null if there is none
+     */
+    public static LdtpSession current()
+    {
+        LdtpSession session = current.get();
+        while (session != null && session.closed)
+        {
+            // closed from another thread
+            session = session.previous;
+        }
+        return session;
+    }
+
+    /**
+     * @return the agent of the session open on the current thread, or the default agent of this environment
+     */
+    public static LdtpEndpoint currentEndpoint()
+    {
+        LdtpSession session = current();
+        return session == null ? LdtpEndpoint.getDefault() : session.endpoint;
+    }
+
+    /**
+     * Wrap <call> so it runs with the session open on the current thread, whatever thread ends up running it
+     *
+     * @param call work handed over to another thread, i.e. an I/O executor
+     * @return Supplier
+     */
+    static <T> Supplier<T> propagate(final Supplier<T> call)
+    {
+        final LdtpSession session = current();
+        return () -> {
+            LdtpSession before = current.get();
+            set(session);
+            try
+            {
+                return call.get();
+            }
+            finally
+            {
+                set(before);
+            }
+        };
+    }
+
+    private static void set(LdtpSession session)
+    {
+        if (session == null)
+        {
+            current.remove();
+        }
+        else
+        {
+            current.set(session);
+        }
+    }
+
+    public LdtpEndpoint getEndpoint()
+    {
+        return endpoint;
+    }
+
+    public LdtpTransport getTransport()
+    {
+        return LdtpTransport.forEndpoint(endpoint);
+    }
+
+    /**
+     * @param windowName
+     * @return a new handle on <windowName> of the agent of this session
+     */
+    public Ldtp newLdtp(String windowName)
+    {
+        return getTransport().newLdtp(windowName);
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Unbind the thread from this agent and give the agent back to its {@link AgentPool}.
+     * Closing a session twice has no effect.
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        if (owner == Thread.currentThread() && current.get() == this)
+        {
+            if (previous == null)
+            {
+                current.remove();
+            }
+            else
+            {
+                current.set(previous);
+            }
+        }
+        else
+        {
+            logger.warn("LDTP session on " + endpoint + " closed outside of its thread " + owner.getName());
+        }
+        if (pool != null)
+        {
+            pool.release(endpoint);
+        }
+        logger.debug("Closed LDTP session on " + endpoint);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LdtpSession[" + endpoint + "]";
+    }
+}
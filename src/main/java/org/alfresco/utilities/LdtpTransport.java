@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcSunHttpTransportFactory;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Connection layer between this library and one LDTP agent.
+ * There is one transport per {@link LdtpEndpoint}; it owns a single {@link LdtpRpcClient} configured once and shared
+ * by every {@link Ldtp} handle talking to that agent, so all calls go through the same interceptors (window list
+ * cache, metrics, traces) whatever handle they are made from.
+ * What is shared is the configuration and the interceptor chain, not the cost of a handle: the cobra constructor still
+ * builds its own XML-RPC client for each new handle, which {@link #newLdtp(String)} then replaces with the shared one
+ * (see {@link LdtpRpcClient#bind(Ldtp, LdtpRpcClient)}); the gain comes from handles being created less often (see
+ * {@link org.alfresco.os.common.LdtpRegistry}). Requests use the JDK HTTP transport with its keep-alive connection
+ * pool, as the cobra client already did, one request per connection at a time: calls are not pipelined, concurrency
+ * comes from {@link AsyncLdtp} and {@link LdtpBatch}.
+ * Connecting to the agent gives up after <code>ldtp.transport.connectTimeout</code> ms (default 10000) and waiting
+ * for its reply after <code>ldtp.transport.replyTimeout</code> ms (default 120000, above the 30 s LDTP waits of the
+ * agent itself), so a dead agent fails the calls instead of hanging them; 0 waits forever.
+ * Each transport also owns the {@link WindowListCache} of its agent.
+ */
+public class LdtpTransport
+{
+    private static Logger logger = Logger.getLogger(LdtpTransport.class);
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("ldtp.transport.connectTimeout", 10000);
+    private static final int REPLY_TIMEOUT = Integer.getInteger("ldtp.transport.replyTimeout", 120000);
+    private static final ConcurrentMap<LdtpEndpoint, LdtpTransport> transports = new ConcurrentHashMap<LdtpEndpoint, LdtpTransport>();
+
+    private final LdtpEndpoint endpoint;
+    private final LdtpRpcClient client;
+    private final WindowListCache windowListCache;
+    private volatile boolean multicallSupported = true;
+
+    private LdtpTransport(LdtpEndpoint endpoint)
+    {
+        this(endpoint, null);
+    }
+
+    /**
+     * @param endpoint
+     * @param client client to use instead of a new {@link LdtpRpcClient}, mainly for tests
+     */
+    LdtpTransport(LdtpEndpoint endpoint, LdtpRpcClient client)
+    {
+        this.endpoint = endpoint;
+        XmlRpcClientConfigImpl config = new XmlRpcClientConfigImpl();
+        config.setServerURL(endpoint.getServerUrl());
+        config.setConnectionTimeout(CONNECT_TIMEOUT);
+        config.setReplyTimeout(REPLY_TIMEOUT);
+        this.client = client == null ? new LdtpRpcClient(this) : client;
+        this.client.setConfig(config);
+        this.client.setTransportFactory(new XmlRpcSunHttpTransportFactory(this.client));
+        this.windowListCache = new WindowListCache(WindowListCache.DEFAULT_TTL);
+        this.client.addInterceptor(windowListCache);
+        if (CallTraceRecorder.ENABLED && CallTraceRecorder.getInstance() != null)
+        {
+            this.client.addInterceptor(CallTraceRecorder.getInstance());
+        }
+        if (LdtpMetrics.ENABLED)
+        {
+            // after the cache: only the calls reaching the agent are measured
+            this.client.addInterceptor(LdtpMetrics.getInstance());
+        }
+        logger.debug("Created LDTP transport for " + endpoint);
+    }
+
+    /**
+     * @return the transport of the agent of the {@link LdtpSession} open on the current thread, or of the agent
+     *         configured for this environment
+     */
+    public static LdtpTransport getDefault()
+    {
+        return forEndpoint(LdtpSession.currentEndpoint());
+    }
+
+    /**
+     * @param endpoint
+     * @return the transport shared by all handles talking to <endpoint>
+     */
+    public static LdtpTransport forEndpoint(LdtpEndpoint endpoint)
+    {
+        LdtpTransport transport = transports.get(endpoint);
+        if (transport == null)
+        {
+            LdtpTransport created = new LdtpTransport(endpoint);
+            transport = transports.putIfAbsent(endpoint, created);
+            if (transport == null)
+            {
+                transport = created;
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Return the transport <ldtp> talks through, binding the handle to the shared client of its agent if this was
+     * not done yet
+     *
+     * @param ldtp
+     * @return LdtpTransport
+     */
+    public static LdtpTransport of(Ldtp ldtp)
+    {
+        LdtpRpcClient client = LdtpRpcClient.attach(ldtp);
+        if (client != null && client.getTransport() != null)
+        {
+            return client.getTransport();
+        }
+        return getDefault();
+    }
+
+    /**
+     * Create a {@link Ldtp} handle for <windowName> using the shared client of this agent.
+     * The cobra constructor builds a client of its own first, which is dropped right away: prefer the handles of
+     * {@link org.alfresco.os.common.LdtpRegistry} over calling this for each step.
+     *
+     * @param windowName
+     * @return Ldtp
+     */
+    public Ldtp newLdtp(String windowName)
+    {
+        return bind(new Ldtp(windowName, endpoint.getHost(), String.valueOf(endpoint.getPort())));
+    }
+
+    /**
+     * Bind <ldtp>, created for the host and port of this agent, to the shared client
+     *
+     * @param ldtp
+     * @return <ldtp>
+     */
+    public <T extends Ldtp> T bind(T ldtp)
+    {
+        LdtpRpcClient.bind(ldtp, client);
+        return ldtp;
+    }
+
+    /**
+     * Call <method> on the agent directly
+     *
+     * @param method LDTP method name, i.e. getwindowlist
+     * @param params
+     * @return the agent response
+     * @throws XmlRpcException
+     */
+    public Object execute(String method, Object... params) throws XmlRpcException
+    {
+        return client.execute(method, params);
+    }
+
+    /**
+     * @return false once a {@link LdtpBatch} found out that this agent does not support system.multicall
+     */
+    public boolean isMulticallSupported()
+    {
+        return multicallSupported;
+    }
+
+    void setMulticallSupported(boolean multicallSupported)
+    {
+        this.multicallSupported = multicallSupported;
+    }
+
+    public LdtpEndpoint getEndpoint()
+    {
+        return endpoint;
+    }
+
+    public LdtpRpcClient getClient()
+    {
+        return client;
+    }
+
+    public WindowListCache getWindowListCache()
+    {
+        return windowListCache;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LdtpTransport[" + endpoint + "]";
+    }
+}
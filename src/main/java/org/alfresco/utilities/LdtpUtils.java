@@ -15,19 +15,16 @@
 
 package org.alfresco.utilities;
 
-import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.PixelGrabber;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.SystemUtils;
 import org.apache.log4j.Logger;
@@ -82,21 +79,20 @@ public class LdtpUtils
     /**
      * This will kill a process based on windowsName - works on linux/mac OS
      * Fow windows application, just pass the exe name of the application as <windowName> e.g. "notepad.exe"
+     * The processes and their children are asked to close first, then killed (see {@link ProcessLifecycleManager}).
      * 
      * @author <a href="mailto:paulbrodner@gmail.com">Paul Brodner</a>
      * @param windowName
      */
     public static void killProcessByWindowName(String windowName)
     {
-
-        if (SystemUtils.IS_OS_MAC)
+        if (SystemUtils.IS_OS_WINDOWS)
         {
-            executeOnUnix("kill `ps ax | grep \"" + windowName + "\" | awk '{print $1}'`");
+            ProcessLifecycleManager.getInstance().killByExecutable(windowName);
         }
-
-        if (SystemUtils.IS_OS_WINDOWS)
+        else
         {
-            execute(new String[] { "taskkill", "/F", "/IM", windowName });
+            ProcessLifecycleManager.getInstance().killByName(windowName);
         }
     }
 
@@ -125,39 +121,21 @@ public class LdtpUtils
     }
 
     /**
-     * Wait for an object
+     * Wait for an object, polled at the pace learned by {@link TimeoutAdvisor} for this object of this window
      * 
      * @param ldtp
      * @param objectName
      */
-    public static void waitForObject(Ldtp ldtp, String objectName)
+    public static void waitForObject(final Ldtp ldtp, final String objectName)
     {
-        int counter = 0;
-        int exists;
-
-        while (counter < RETRY_COUNT)
-        {
-            exists = ldtp.objectExist(objectName);
-            if (exists == 1)
-            {
-                break;
-            }
-            else
-            {
-                counter++;
-                waitToLoopTime(1);
-            }
-        }
+        TimeoutAdvisor.getInstance().until(
+                TimeoutAdvisor.key(LdtpTransport.of(ldtp).getEndpoint(), ldtp.getWindowName(), "object", objectName),
+                () -> ldtp.objectExist(objectName) == 1, WaitPolicy.defaultPolicy());
     }
 
-    public static void waitForObjectToBeEnabled(Ldtp ldtp, String objName)
+    public static void waitForObjectToBeEnabled(final Ldtp ldtp, final String objName)
     {
-        int retry = 0;
-        while (retry < RETRY_COUNT && ldtp.stateEnabled(objName) != 1)
-        {
-            retry++;
-            waitToLoopTime(1);
-        }
+        WaitEngine.until(() -> ldtp.stateEnabled(objName) == 1, WaitPolicy.defaultPolicy());
     }
 
     /**
@@ -169,27 +147,10 @@ public class LdtpUtils
      * @param ldtp
      * @param partialObjectName
      */
-    public static void waitForPartialObject(Ldtp ldtp, String partialObjectName)
+    public static void waitForPartialObject(final Ldtp ldtp, final String partialObjectName)
     {
-        int counter = 0;
         logger.info("Waiting for partial object: " + partialObjectName);
-
-        while (counter < RETRY_COUNT)
-        {
-            if (getFullObjectList(ldtp, partialObjectName) != "")
-                break;
-            else
-            {
-                counter++;
-                try
-                {
-                    ldtp.wait(1);
-                }
-                catch (Exception e)
-                {
-                }
-            }
-        }
+        WaitEngine.until(() -> !getFullObjectList(ldtp, partialObjectName).isEmpty(), WaitPolicy.defaultPolicy());
     }
 
     /**
@@ -197,39 +158,20 @@ public class LdtpUtils
      * 
      * @author <a href="mailto:paulbrodner@gmail.com">Paul Brodner</a>
      * @param command
-     * @return
+     * @return stdout then stderr of the command
      */
     public static String executeOnUnix(String command)
     {
         logInfo("Run Command: " + command);
-
-        StringBuilder sb = new StringBuilder();
-        String[] commands = new String[] { "/bin/sh", "-c", command };
         try
         {
-            Process proc = new ProcessBuilder(commands).start();
-            BufferedReader stdInput = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-
-            BufferedReader stdError = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-
-            String s = null;
-            while ((s = stdInput.readLine()) != null)
-            {
-                sb.append(s);
-                sb.append("\n");
-            }
-
-            while ((s = stdError.readLine()) != null)
-            {
-                sb.append(s);
-                sb.append("\n");
-            }
+            return CommandRunner.of("/bin/sh", "-c", command).run().getOutput();
         }
         catch (IOException e)
         {
-            e.printStackTrace();
+            logger.error("Could not execute command: " + command, e);
+            return "";
         }
-        return sb.toString();
     }
 
     /**
@@ -242,12 +184,7 @@ public class LdtpUtils
         ArrayList<String> lines = new ArrayList<String>();
         try
         {
-            Process p = Runtime.getRuntime().exec("cmd /c " + command);
-            p.waitFor();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-
-            String line;
-            while ((line = reader.readLine()) != null)
+            for (String line : CommandRunner.of(("cmd /c " + command).split("\\s+")).run().getStdout())
             {
                 if (!line.startsWith(" Volume"))
                 {
@@ -255,55 +192,46 @@ public class LdtpUtils
                 }
             }
         }
-        catch (IOException e1)
-        {
-        }
-        catch (InterruptedException e2)
+        catch (IOException e)
         {
+            logger.error("Could not execute command: " + command, e);
         }
         return lines;
     }
 
     public static List<String> executeOnMac(String command)
     {
-        ArrayList<String> lines = new ArrayList<String>();
+        logger.info("command " + command);
         try
         {
-            logger.info("command " + command);
-            String[] com = {"/bin/sh", "-c" , command};
-            Process p = Runtime.getRuntime().exec(com);
-            p.waitFor();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            String line;
-            while ((line = reader.readLine()) != null)
-            {
-                lines.add(line);
-            }
+            return new ArrayList<String>(CommandRunner.of("/bin/sh", "-c", command).run().getStdout());
         }
-        catch (IOException e1)
-        {
-        }
-        catch (InterruptedException e2)
+        catch (IOException e)
         {
+            logger.error("Could not execute command: " + command, e);
+            return new ArrayList<String>();
         }
-        return lines;
     }
+
     /**
-     * Execute a command
+     * Execute a command, without waiting for it. The command is left running as long as it needs (i.e. the LDTP
+     * agent), see {@link CommandRunner#detached()}
      * 
      * @example: execute(new String[] { "killall", getApplicationName() }) for MAC
      * @param command
      */
     public static void execute(String[] command)
     {
-        try
-        {
-            Runtime.getRuntime().exec(command);
-        }
-        catch (IOException e)
-        {
-            logger.error("Could not execute command", e.getCause());
-        }
+        CommandRunner.of(command).detached().start().whenComplete((result, error) -> {
+            if (error != null)
+            {
+                logger.error("Could not execute command", error);
+            }
+            else if (!result.isSuccessful())
+            {
+                logger.debug(result);
+            }
+        });
     }
 
     /**
@@ -323,14 +251,14 @@ public class LdtpUtils
         Process process;
         process = pb.start();
         logger.info("Starting Process:" + process.toString());
-        return process;
+        return ProcessLifecycleManager.getInstance().track(null, process);
     }
 
     /**
      * This method will transform the input string to a recognized output LDAP command.
      * Example:
      * inputs like <img src="aaa"> cannot be processed by LDAP enterString method, so we need to pre-process it
-     * transforming '<' into '<shift>.' for example and so on.
+     * transforming '<' into '<shift>,' for example and so on (see {@link KeySequence#encode(String)}).
      * 
      * @author Paul Brodner
      * @param input
@@ -338,42 +266,19 @@ public class LdtpUtils
      */
     public static String toLdapString(String input)
     {
-        String results = "";
-        for (int i = 0; i < input.length(); i++)
-        {
-            char c = input.charAt(i);
-            if (c == '<')
-            {
-                results += "<shift>,";
-            }
-            else if (c == '>')
-            {
-                results += "<shift>.";
-            }
-            else
-            {
-                results += c;
-            }
-        }
-        return results;
+        return KeySequence.encode(input);
     }
 
     /**
-     * We will wait until the <seconds> are passed from current run
+     * We will wait until the <seconds> are passed from current run.
+     * The thread is parked by {@link WaitEngine}, so no CPU is used while waiting.
      * 
      * @param seconds
      */
     public static void waitToLoopTime(int seconds)
     {
         logInfo("Waiting (in loops) for: " + seconds + " second(s).");
-        long currentTime;
-        long endTime;
-        currentTime = System.currentTimeMillis();
-        do
-        {
-            endTime = System.currentTimeMillis();
-        }
-        while (endTime - currentTime < (seconds * 1000));
+        WaitEngine.sleep(seconds * 1000L);
     }
     /**
      * We will wait until the <seconds> are passed from current run
@@ -487,118 +392,120 @@ public class LdtpUtils
     }
 
     /**
-     * This until a file exists on disc, or the RETRY_COUNT is reached
+     * This until a file exists on disc, or 60 seconds elapsed.
+     * Returns as soon as the file is created (see {@link FileWaiter}).
      * 
      * @param filePath
      */
-    public static void waitUntilFileExistsOnDisk(File filePath)
+    public static void waitUntilFileExistsOnDisk(final File filePath)
     {
         logger.info(String.format("Waiting until file [%s] exists on Disk", filePath.getPath()));
-        int retries = 1;
-        while (retries <= 60 && !filePath.exists())
-        {
-            retries++;
-            waitToLoopTime(1);
-        }
+        FileWaiter.waitUntilExists(filePath, TimeUnit.SECONDS.toMillis(60));
     }
-    public static void waitUntilFileDoesNotExistsOnDisk(File filePath)
+
+    public static void waitUntilFileDoesNotExistsOnDisk(final File filePath)
     {
         logger.info(String.format("Waiting until file [%s] does not exists on Disk", filePath.getPath()));
-        int retries = 1;
-        while (retries <= 60 && filePath.exists())
-        {
-            retries++;
-            waitToLoopTime(1);
-        }
+        FileWaiter.waitUntilDeleted(filePath, TimeUnit.SECONDS.toMillis(60));
+    }
+
+    /**
+     * Wait until all <files> exist on disk, or 60 seconds elapsed
+     * 
+     * @param files
+     * @return true if all files exist
+     */
+    public static boolean waitUntilFilesExistOnDisk(Collection<File> files)
+    {
+        logger.info(String.format("Waiting until files %s exist on Disk", files));
+        return FileWaiter.waitUntilAllExist(files, TimeUnit.SECONDS.toMillis(60));
     }
 
+    /**
+     * Wait until the file content is <expectedContent>, or 60 seconds elapsed.
+     * The file is checked again each time it changes on disk, see {@link ContentMatcher}.
+     * 
+     * @param filePath
+     * @param expectedContent
+     * @throws Exception
+     */
     public static void waitUntilFileHasContent(File filePath, String expectedContent) throws Exception
     {
         logger.info(String.format("Waiting until file [%s] has content '%s'", filePath.getPath(), expectedContent));
-        int retries = 1;
-        String actualContent = new String(java.nio.file.Files.readAllBytes(Paths.get(filePath.getPath())));
-        while (retries <= 60 && actualContent != expectedContent)
+        if (!waitUntilFileHasContent(filePath, ContentMatcher.of(expectedContent)))
         {
-            actualContent = new String(java.nio.file.Files.readAllBytes(Paths.get(filePath.getPath())));
-            retries++;
-            waitToLoopTime(1);
+            logger.warn(String.format("File [%s] does not have the expected content after 60 seconds", filePath.getPath()));
         }
     }
+
+    /**
+     * Wait until the content of <filePath> is accepted by <matcher> (i.e. expected bytes or digest), or 60 seconds
+     * elapsed
+     * 
+     * @param filePath
+     * @param matcher
+     * @return true if the content matched
+     */
+    public static boolean waitUntilFileHasContent(File filePath, ContentMatcher matcher)
+    {
+        return FileWaiter.waitUntil(filePath, matcher, TimeUnit.SECONDS.toMillis(60));
+    }
     /**
      * Check if process identified by <processName> is currently running
      * 
-     * @param processName
+     * @param processName part of the process command line, case insensitive
      * @return
      */
     public static boolean isProcessRunning(String processName)
     {
-        processName = processName.toLowerCase();
         logger.info("process name :" + processName);
-        Process p = null;
-        try
-        {
-            if (SystemUtils.IS_OS_MAC)
-            {
-                p = Runtime.getRuntime().exec("ps -ef");
-            }
-            else if (SystemUtils.IS_OS_WINDOWS)
-            {
-                p = Runtime.getRuntime().exec(new String[] { "cmd", "/c", "tasklist" });
-            }
-            InputStream inputStream = p.getInputStream();
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-            BufferedReader bufferReader = new BufferedReader(inputStreamReader);
-            String line;
-            while ((line = bufferReader.readLine()) != null)
-            {
-                if (line.toLowerCase().contains(processName))
-                    return true;
-            }
-            inputStream.close();
-            inputStreamReader.close();
-            bufferReader.close();
-        }
-        catch (Exception err)
-        {
-            err.printStackTrace();
-        }
-        return false;
+        return ProcessMonitor.getInstance().isRunning(processName);
     }
 
     /**
-     * Wait until process is running, or the RETRY_COUNT is reached
+     * Wait until process is running, or the default wait timeout is reached.
+     * Returns as soon as the process is seen by the {@link ProcessMonitor}.
      * 
      * @param processName
      */
-    public static void waitUntilProcessIsRunning(String processName)
+    public static void waitUntilProcessIsRunning(final String processName)
     {
-        boolean isRunning;
-        int retry = 0;
-        isRunning = isProcessRunning(processName);
-        while (!isRunning && retry <= RETRY_COUNT)
-        {
-            retry++;
-            waitToLoopTime(1);
-            isRunning = isProcessRunning(processName);
-        }
+        awaitProcess(ProcessMonitor.getInstance().whenStarted(processName), processName);
     }
 
     /**
-     * Wait until process is not running, or the RETRY_COUNT is reached
+     * Wait until process is not running, or the default wait timeout is reached
      *
      * @param processName
      */
-    public static void waitUntilProcessIsNotRunning(String processName)
+    public static void waitUntilProcessIsNotRunning(final String processName)
+    {
+        logger.info(String.format("Wait until process %s is not working", processName));
+        awaitProcess(ProcessMonitor.getInstance().whenExited(processName), processName);
+    }
+
+    private static void awaitProcess(CompletableFuture<?> event, String processName)
     {
-        boolean isRunning;
-        int retry = 0;
-        isRunning = isProcessRunning(processName);
-        while (isRunning && retry < RETRY_COUNT)
+        try
+        {
+            event.get(WaitPolicy.defaultPolicy().getTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            logger.info("Timed out waiting for process " + processName);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
         {
-            retry++;
-            waitToLoopTime(1);
-            isRunning = isProcessRunning(processName);
-            logger.info(String.format("Wait until process %s is not working", processName));
+            logger.error("Could not check process " + processName, e.getCause());
+        }
+        finally
+        {
+            // stops listening if the process did not show up in time
+            event.cancel(false);
         }
     }
 
@@ -636,6 +543,19 @@ public class LdtpUtils
         return randomFile;
     }
 
+    /**
+     * Return the list of opened windows.
+     * The list is served from the {@link WindowListCache} of the agent, so checks done in the same tick cost one call to the
+     * LDTP agent.
+     * 
+     * @param ldtp
+     * @return window names
+     */
+    public static String[] getWindowList(Ldtp ldtp)
+    {
+        return LdtpTransport.of(ldtp).getWindowListCache().getWindowList(ldtp);
+    }
+
     /**
      * Return the full name of the window list based on a partial value
      * 
@@ -643,40 +563,47 @@ public class LdtpUtils
      * @param partialWindowList
      * @return
      */
-    public static String getFullWindowList(Ldtp ldtp, String partialWindowList)
+    public static String getFullWindowList(final Ldtp ldtp, final String partialWindowList)
     {
-        int retries = 0;
-        while (retries <= LdtpUtils.RETRY_COUNT)
+        return WaitEngine.poll(() -> findWindow(ldtp, partialWindowList), window -> window != null, WaitPolicy.defaultPolicy());
+    }
+
+    /**
+     * Look once (no waiting) between all opened windows for one that contains <partialWindowName>
+     * 
+     * @param ldtp
+     * @param partialWindowName
+     * @return the full window name or null if there is no such window
+     */
+    private static String findWindow(Ldtp ldtp, String partialWindowName)
+    {
+        String partial = partialWindowName.toLowerCase();
+        for (String window : getWindowList(ldtp))
         {
-            String[] windowList = ldtp.getWindowList();
-            for (String window : windowList)
+            if (window.toLowerCase().contains(partial))
             {
-                if (window.toLowerCase().contains(partialWindowList.toLowerCase()))
-                {
-                    return window;
-                }
+                return window;
             }
-            waitToLoopTime(1);
-            retries += 1;
         }
         return null;
     }
 
-    public static void waitForWindowToDisappear(Ldtp ldtp, String windowName)
+    /**
+     * Wait until no window is named <windowName>, as reported by the {@link WindowEventBus} of the agent
+     *
+     * @param ldtp
+     * @param windowName full window name
+     */
+    public static void waitForWindowToDisappear(final Ldtp ldtp, final String windowName)
     {
-        int retries = 0;
-        String[] windowList = ldtp.getWindowList();
-        while (retries <= LdtpUtils.RETRY_COUNT && Arrays.asList(windowList).contains(windowName))
-        {
-            logger.info(String.format("Wait for window '%s' to disappear", windowName));
-            retries++;
-            waitToLoopTime(1);
-            windowList = ldtp.getWindowList();
-        }
+        logger.info(String.format("Wait for window '%s' to disappear", windowName));
+        AsyncLdtp.await(WindowEventBus.of(ldtp).awaitClosed(windowName::equals, WaitPolicy.defaultPolicy().getTimeoutMillis()));
     }
 
     /**
-     * Return the full name of the LDTP object
+     * Return the full name of the LDTP object.
+     * Lookups are answered by the cached {@link ObjectIndex} of the window, so the object list is downloaded once per
+     * snapshot.
      * 
      * @param ldtp
      * @param partialObjectName
@@ -684,19 +611,8 @@ public class LdtpUtils
      */
     public static String getFullObjectList(Ldtp ldtp, String partialObjectName)
     {
-        String fullObjectName = "";
-        String[] allObjectsWindow = ldtp.getObjectList();
-        partialObjectName = partialObjectName.toLowerCase().replace(".", "");
-
-        for (String objectWindow : allObjectsWindow)
-        {
-            if (objectWindow.substring(3).toLowerCase().contains(partialObjectName))
-            {
-                fullObjectName = objectWindow;
-                return fullObjectName;
-            }
-        }
-        return fullObjectName;
+        String fullObjectName = ObjectIndex.forWindow(ldtp).resolve(partialObjectName);
+        return fullObjectName == null ? "" : fullObjectName;
     }
 
     /**
@@ -706,21 +622,10 @@ public class LdtpUtils
      * @param objectName
      * @param valueToWait
      */
-    public static void waitObjectHasValue(Ldtp ldtp, String objectName, String valueToWait)
+    public static void waitObjectHasValue(final Ldtp ldtp, final String objectName, final String valueToWait)
     {
-        int waitInSeconds = 2;
-        int counter = 0;
-        while (counter < LdtpUtils.RETRY_COUNT)
-        {
-            String fileNameContent = ldtp.getTextValue(objectName);
-            if (fileNameContent.equals(valueToWait))
-                break;
-            else
-            {
-                ldtp.waitTime(waitInSeconds);
-                waitInSeconds = (waitInSeconds * 2);
-            }
-        }
+        WaitPolicy backoff = new WaitPolicy(2000, 16000, 2.0, RETRY_COUNT * 1000L);
+        WaitEngine.until(() -> valueToWait.equals(ldtp.getTextValue(objectName)), backoff);
     }
 
     /**
@@ -733,8 +638,7 @@ public class LdtpUtils
         File screen = null;
         try
         {
-            Ldtp ldtp = new Ldtp("*");
-            screen = new File(ldtp.imageCapture());
+            screen = AsyncLdtp.await(getScreenShotAsync());
         }
         catch (LdtpExecutionError e)
         {
@@ -743,6 +647,17 @@ public class LdtpUtils
         return screen;
     }
 
+    /**
+     * Capture screenshot without blocking the caller; the capture is ordered after the actions already sent to the
+     * agent and stored by the {@link ScreenshotService}
+     * 
+     * @return future of the screenshot file
+     */
+    public static CompletableFuture<File> getScreenShotAsync()
+    {
+        return ScreenshotService.getInstance().capture();
+    }
+
     /**
      * If the LDTP object contains the Application object then
      * we can consider this ldtp as one application
@@ -763,7 +678,7 @@ public class LdtpUtils
     public static void killAllApplicationsByExeName(String applicationExeNam)
     {
         logger.info("Killing application by executable name: " + applicationExeNam);
-        LdtpUtils.execute(new String[] { "taskkill", "/F", "/IM", applicationExeNam });
+        ProcessLifecycleManager.getInstance().killByExecutable(applicationExeNam);
     }
 
     /**
@@ -771,67 +686,48 @@ public class LdtpUtils
      * 
      * @param initialImage
      * @param compareImage
-     * @return
+     * @return true if both images have exactly the same pixels
      */
     public static boolean compareImages(File initialImage, File compareImage)
     {
-        logger.info(String.format("Comparing %s with %s", initialImage.getPath(), compareImage.getPath()));
-
-        Image imageA = Toolkit.getDefaultToolkit().getImage(initialImage.getPath());
-        Image imageB = Toolkit.getDefaultToolkit().getImage(compareImage.getPath());
+        return compareImages(initialImage, compareImage, ImageComparator.exact()).isMatch();
+    }
 
+    /**
+     * Compare two images with the rules of <comparator> (tolerance, ignored regions, diff image).
+     * 
+     * @param initialImage
+     * @param compareImage
+     * @param comparator
+     * @return the comparison result, not matching if one of the images cannot be read
+     */
+    public static ImageComparator.Result compareImages(File initialImage, File compareImage, ImageComparator comparator)
+    {
+        logger.info(String.format("Comparing %s with %s", initialImage.getPath(), compareImage.getPath()));
         try
         {
-
-            PixelGrabber grab1 = new PixelGrabber(imageA, 0, 0, -1, -1, false);
-            PixelGrabber grab2 = new PixelGrabber(imageB, 0, 0, -1, -1, false);
-
-            int[] data1 = null;
-
-            if (grab1.grabPixels())
-            {
-                int width = grab1.getWidth();
-                int height = grab1.getHeight();
-                data1 = new int[width * height];
-                data1 = (int[]) grab1.getPixels();
-            }
-
-            int[] data2 = null;
-
-            if (grab2.grabPixels())
-            {
-                int width = grab2.getWidth();
-                int height = grab2.getHeight();
-                data2 = new int[width * height];
-                data2 = (int[]) grab2.getPixels();
-            }
-
-            return java.util.Arrays.equals(data1, data2);
-
+            ImageComparator.Result result = comparator.compare(initialImage, compareImage);
+            logger.debug(result);
+            return result;
         }
-        catch (InterruptedException e)
+        catch (IOException e)
         {
-            e.printStackTrace();
             logger.error("Cannot compare images:", e);
+            return ImageComparator.Result.unreadable();
         }
-        return false;
     }
 
     /**
-     * Wait for partial window name
+     * Wait for partial window name, polled at the pace learned by {@link TimeoutAdvisor} for this window
      * 
      * @param ldtp
      * @param partialWindowName
      */
-    public static void waitForWindowPartialName(Ldtp ldtp, String partialWindowName)
+    public static void waitForWindowPartialName(final Ldtp ldtp, final String partialWindowName)
     {
-        int retries = 1;
         logger.info(String.format("Waiting for window:  %s", partialWindowName));
-        while (retries <= LdtpUtils.RETRY_COUNT && LdtpUtils.getFullWindowList(ldtp, partialWindowName) == null)
-        {
-            LdtpUtils.waitToLoopTime(1);
-            retries++;
-        }
+        TimeoutAdvisor.getInstance().until(TimeoutAdvisor.key(LdtpTransport.of(ldtp).getEndpoint(), null, "window", partialWindowName),
+                () -> findWindow(ldtp, partialWindowName) != null, WaitPolicy.defaultPolicy());
     }
     
     /**
@@ -843,7 +739,7 @@ public class LdtpUtils
     public static boolean isWindowOpened(Ldtp ldtp, String windowName)
     {
         boolean isOpened = false;
-        String[] windows = ldtp.getWindowList();
+        String[] windows = getWindowList(ldtp);
         windowName = windowName.toLowerCase();
         for (String window : windows)
         {
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Searchable index over one <code>getObjectList()</code> snapshot of a window.
+ * Object names are normalized once (role prefix removed, lower case) and indexed by trigrams, so partial lookups on
+ * windows with thousands of objects (i.e. Office ribbons) are answered without scanning the whole list.
+ * Matching follows {@link LdtpUtils#getFullObjectList(Ldtp, String)}: the partial name is lower-cased, dots are
+ * removed and it is searched in the object name without its 3 letters role prefix (btn, txt, lst, mnu, etc.).
+ * Indexes built by {@link #forWindow(Ldtp)} are cached per agent window until the {@link WindowListCache} generation
+ * changes or the TTL (system property <code>ldtp.objectindex.ttl</code>, default 500ms) expires.
+ */
+public class ObjectIndex
+{
+    public static final long DEFAULT_TTL = Long.getLong("ldtp.objectindex.ttl", 500);
+    private static final int MAX_CACHED_WINDOWS = 128;
+    private static final int ROLE_PREFIX_LENGTH = 3;
+    private static final Map<String, CachedIndex> cache = new ConcurrentHashMap<String, CachedIndex>();
+
+    private final String[] objects;
+    private final String[] keys;
+    private final Map<Long, int[]> trigrams;
+
+    /**
+     * Known LDTP role prefixes
+     */
+    public enum Role
+    {
+        BUTTON("btn"), TEXT("txt"), LIST("lst"), MENU("mnu"), LABEL("lbl"), CHECK_BOX("chk"), RADIO_BUTTON("rbtn"), COMBO_BOX("cbo"), TOOLBAR(
+                "tbar"), UNKNOWN("ukn");
+
+        private final String prefix;
+
+        private Role(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        public String getPrefix()
+        {
+            return prefix;
+        }
+    }
+
+    /**
+     * Build an index over <objects>, keeping their order
+     *
+     * @param objects result of getObjectList()
+     */
+    public ObjectIndex(String[] objects)
+    {
+        this.objects = objects == null ? new String[0] : objects.clone();
+        this.keys = new String[this.objects.length];
+        Map<Long, List<Integer>> postings = new HashMap<Long, List<Integer>>();
+        Set<Long> seen = new HashSet<Long>();
+        for (int id = 0; id < this.objects.length; id++)
+        {
+            String key = toKey(this.objects[id]);
+            keys[id] = key;
+            seen.clear();
+            for (int i = 0; i + 3 <= key.length(); i++)
+            {
+                long trigram = trigram(key, i);
+                if (seen.add(trigram))
+                {
+                    List<Integer> ids = postings.get(trigram);
+                    if (ids == null)
+                    {
+                        ids = new ArrayList<Integer>(4);
+                        postings.put(trigram, ids);
+                    }
+                    ids.add(id);
+                }
+            }
+        }
+        trigrams = new HashMap<Long, int[]>(postings.size() * 2);
+        for (Map.Entry<Long, List<Integer>> entry : postings.entrySet())
+        {
+            List<Integer> ids = entry.getValue();
+            int[] array = new int[ids.size()];
+            for (int i = 0; i < array.length; i++)
+            {
+                array[i] = ids.get(i);
+            }
+            trigrams.put(entry.getKey(), array);
+        }
+    }
+
+    /**
+     * Return the index of the window <ldtp> is bound to, fetching the object list only if the cached index is
+     * stale
+     *
+     * @param ldtp
+     * @return ObjectIndex
+     */
+    public static ObjectIndex forWindow(Ldtp ldtp)
+    {
+        LdtpTransport transport = LdtpTransport.of(ldtp);
+        String window = ldtp.getWindowName() == null ? null : transport.getEndpoint() + "/" + ldtp.getWindowName();
+        long generation = transport.getWindowListCache().getGeneration();
+        CachedIndex cached = window == null ? null : cache.get(window);
+        if (cached != null && cached.isValid(generation))
+        {
+            return cached.index;
+        }
+        ObjectIndex index = new ObjectIndex(ldtp.getObjectList());
+        if (window != null)
+        {
+            if (cache.size() >= MAX_CACHED_WINDOWS)
+            {
+                cache.clear();
+            }
+            cache.put(window, new CachedIndex(index, generation));
+        }
+        return index;
+    }
+
+    /**
+     * Forget all cached indexes
+     */
+    public static void invalidateAll()
+    {
+        cache.clear();
+    }
+
+    /**
+     * @return number of objects indexed
+     */
+    public int size()
+    {
+        return objects.length;
+    }
+
+    /**
+     * @param partialObjectName
+     * @return the first object (in getObjectList() order) whose name contains <partialObjectName>, or null
+     */
+    public String resolve(String partialObjectName)
+    {
+        int id = first(normalize(partialObjectName), null);
+        return id < 0 ? null : objects[id];
+    }
+
+    /**
+     * @param role
+     * @param partialObjectName
+     * @return the first object of <role> whose name contains <partialObjectName>, or null
+     */
+    public String resolve(Role role, String partialObjectName)
+    {
+        int id = first(normalize(partialObjectName), role.getPrefix());
+        return id < 0 ? null : objects[id];
+    }
+
+    /**
+     * Return all objects matching <pattern>. The pattern is a partial name where '*' matches any characters, so
+     * "Save*As" matches btnSaveAs and mnuSaveDocumentAs.
+     *
+     * @param pattern
+     * @return matching objects in getObjectList() order
+     */
+    public List<String> resolveAll(String pattern)
+    {
+        return resolveAll(null, pattern);
+    }
+
+    /**
+     * Same as {@link #resolveAll(String)} restricted to objects of <role>
+     *
+     * @param role
+     * @param pattern
+     * @return matching objects in getObjectList() order
+     */
+    public List<String> resolveAll(Role role, String pattern)
+    {
+        String[] segments = splitPattern(normalize(pattern));
+        String longest = "";
+        for (String segment : segments)
+        {
+            if (segment.length() > longest.length())
+            {
+                longest = segment;
+            }
+        }
+        String prefix = role == null ? null : role.getPrefix();
+        List<String> result = new ArrayList<String>();
+        int[] candidates = candidates(longest);
+        int count = candidates == null ? keys.length : candidates.length;
+        for (int i = 0; i < count; i++)
+        {
+            int id = candidates == null ? i : candidates[i];
+            if (hasRole(id, prefix) && matchesSegments(keys[id], segments))
+            {
+                result.add(objects[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param role
+     * @return all objects of <role>, in getObjectList() order
+     */
+    public List<String> withRole(Role role)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int id = 0; id < objects.length; id++)
+        {
+            if (hasRole(id, role.getPrefix()))
+            {
+                result.add(objects[id]);
+            }
+        }
+        return result;
+    }
+
+    private int first(String partial, String rolePrefix)
+    {
+        int[] candidates = candidates(partial);
+        int count = candidates == null ? keys.length : candidates.length;
+        for (int i = 0; i < count; i++)
+        {
+            int id = candidates == null ? i : candidates[i];
+            if (hasRole(id, rolePrefix) && keys[id].contains(partial))
+            {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return sorted ids of the objects containing all trigrams of <partial>, or null when <partial> is too short
+     *         to use the trigram index (all objects are candidates)
+     */
+    private int[] candidates(String partial)
+    {
+        if (partial.length() < 3)
+        {
+            return null;
+        }
+        List<int[]> lists = new ArrayList<int[]>();
+        for (int i = 0; i + 3 <= partial.length(); i++)
+        {
+            int[] ids = trigrams.get(trigram(partial, i));
+            if (ids == null)
+            {
+                return new int[0];
+            }
+            lists.add(ids);
+        }
+        int[] result = lists.get(0);
+        for (int[] ids : lists)
+        {
+            if (ids.length < result.length)
+            {
+                result = ids;
+            }
+        }
+        for (int[] ids : lists)
+        {
+            if (ids != result)
+            {
+                result = intersect(result, ids);
+            }
+        }
+        return result;
+    }
+
+    private boolean hasRole(int id, String rolePrefix)
+    {
+        return rolePrefix == null || objects[id].startsWith(rolePrefix);
+    }
+
+    private static int[] intersect(int[] a, int[] b)
+    {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length)
+        {
+            if (a[i] == b[j])
+            {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+            else if (a[i] < b[j])
+            {
+                i++;
+            }
+            else
+            {
+                j++;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static boolean matchesSegments(String key, String[] segments)
+    {
+        int from = 0;
+        for (String segment : segments)
+        {
+            int found = key.indexOf(segment, from);
+            if (found < 0)
+            {
+                return false;
+            }
+            from = found + segment.length();
+        }
+        return true;
+    }
+
+    private static String[] splitPattern(String pattern)
+    {
+        List<String> segments = new ArrayList<String>();
+        for (String segment : pattern.split("\\*"))
+        {
+            if (!segment.isEmpty())
+            {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    private static String normalize(String partialObjectName)
+    {
+        return partialObjectName.toLowerCase().replace(".", "");
+    }
+
+    private static String toKey(String objectName)
+    {
+        if (objectName == null || objectName.length() <= ROLE_PREFIX_LENGTH)
+        {
+            return "";
+        }
+        return objectName.substring(ROLE_PREFIX_LENGTH).toLowerCase();
+    }
+
+    private static long trigram(String value, int index)
+    {
+        return ((long) value.charAt(index) << 32) | ((long) value.charAt(index + 1) << 16) | value.charAt(index + 2);
+    }
+
+    private static class CachedIndex
+    {
+        private final ObjectIndex index;
+        private final long generation;
+        private final long created = System.nanoTime();
+
+        CachedIndex(ObjectIndex index, long generation)
+        {
+            this.index = index;
+            this.generation = generation;
+        }
+
+        boolean isValid(long currentGeneration)
+        {
+            return generation == currentGeneration && System.nanoTime() - created < TimeUnit.MILLISECONDS.toNanos(DEFAULT_TTL);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import org.alfresco.utilities.ProcessMonitor.ProcessInfo;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps track of the processes started by this library (see {@link LdtpUtils#runProcess(String...)}) and of their
+ * descendants, and tears them down.
+ * Descendants are collected every <code>ldtp.lifecycle.scan</code> ms (default 1000) while tracked processes are
+ * running, so children are still known once their parent is gone. Processes are stopped all together: first asked to
+ * terminate, then killed after <code>ldtp.lifecycle.grace</code> ms (default 3000), and given up after
+ * <code>ldtp.lifecycle.timeout</code> ms (default 10000); the ones still running are returned as leaked.
+ * Applications handed over to the system (i.e. with <code>open</code> on Mac OS) are not descendants of the process
+ * started and are not tracked.
+ * Helper processes meant to outlive the tests (i.e. the script host) are tracked with
+ * {@link #trackInfrastructure(Process)}: they are torn down with the others, but never reported as leaked.
+ */
+public final class ProcessLifecycleManager
+{
+    private static Logger logger = Logger.getLogger(ProcessLifecycleManager.class);
+    private static final ProcessLifecycleManager instance = new ProcessLifecycleManager();
+    private static final Object NO_OWNER = new Object();
+    private static final Object INFRASTRUCTURE = new Object();
+
+    private final long scanInterval = Long.getLong("ldtp.lifecycle.scan", 1000);
+    private final long graceMillis = Long.getLong("ldtp.lifecycle.grace", 3000);
+    private final long timeoutMillis = Long.getLong("ldtp.lifecycle.timeout", 10000);
+    private final Map<Long, Tracked> tracked = new ConcurrentHashMap<Long, Tracked>();
+    private ScheduledFuture<?> scanner;
+
+    private ProcessLifecycleManager()
+    {
+    }
+
+    public static ProcessLifecycleManager getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Track <process> and its descendants on behalf of <owner>.
+     * Tracking a process again only changes its owner.
+     *
+     * @param owner object responsible for the process (i.e. the application that started it), null for none
+     * @param process
+     * @return <process>
+     */
+    public Process track(Object owner, Process process)
+    {
+        track(owner, process.toHandle());
+        return process;
+    }
+
+    /**
+     * Track <process>, a helper kept running across tests, and its descendants
+     *
+     * @param process
+     * @return <process>
+     */
+    public Process trackInfrastructure(Process process)
+    {
+        return track(INFRASTRUCTURE, process);
+    }
+
+    public void track(Object owner, ProcessHandle handle)
+    {
+        Object key = owner == null ? NO_OWNER : owner;
+        Tracked previous = tracked.put(handle.pid(), new Tracked(key, handle));
+        if (previous == null)
+        {
+            logger.debug("Tracking process " + handle.pid());
+        }
+        for (Tracked descendant : tracked.values())
+        {
+            if (descendant.root == handle.pid())
+            {
+                descendant.owner = key;
+            }
+        }
+        startScanner();
+    }
+
+    /**
+     * @return the tracked processes (and descendants) still running
+     */
+    public List<ProcessHandle> getAlive()
+    {
+        collectDescendants();
+        return tracked.values().stream().map(t -> t.handle).filter(ProcessHandle::isAlive).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the tracked processes (and descendants) still running, except the infrastructure ones
+     */
+    public List<ProcessHandle> getLeaked()
+    {
+        collectDescendants();
+        return tracked.values().stream().filter(t -> t.owner != INFRASTRUCTURE).map(t -> t.handle).filter(ProcessHandle::isAlive)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param owner
+     * @return the processes (and descendants) of <owner> still running
+     */
+    public List<ProcessHandle> getAlive(Object owner)
+    {
+        Object key = owner == null ? NO_OWNER : owner;
+        collectDescendants();
+        return tracked.values().stream().filter(t -> t.owner == key).map(t -> t.handle).filter(ProcessHandle::isAlive)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Tear down the processes of <owner> and their descendants
+     *
+     * @param owner
+     * @return the processes still running after the timeout
+     */
+    public List<ProcessHandle> destroy(Object owner)
+    {
+        return forget(terminate(getAlive(owner), graceMillis, timeoutMillis));
+    }
+
+    /**
+     * Tear down all tracked processes and their descendants
+     *
+     * @return the processes still running after the timeout
+     */
+    public List<ProcessHandle> destroyAll()
+    {
+        return forget(terminate(getAlive(), graceMillis, timeoutMillis));
+    }
+
+    /**
+     * Tear down the {@link #getLeaked()} processes
+     *
+     * @return the processes still running after the timeout
+     */
+    public List<ProcessHandle> destroyLeaked()
+    {
+        return forget(terminate(getLeaked(), graceMillis, timeoutMillis));
+    }
+
+    /**
+     * Tear down the processes whose command line contains <name> (case insensitive), with their descendants.
+     * This process and its parents are never part of it.
+     *
+     * @param name
+     * @return the processes still running after the timeout
+     */
+    public List<ProcessHandle> killByName(String name)
+    {
+        return terminate(handles(ProcessMonitor.getInstance().find(name)), graceMillis, timeoutMillis);
+    }
+
+    /**
+     * Tear down the processes of executable <executableName> (i.e. "notepad.exe", "TextEdit"), case insensitive
+     *
+     * @param executableName
+     * @return the processes still running after the timeout
+     */
+    public List<ProcessHandle> killByExecutable(String executableName)
+    {
+        List<ProcessInfo> found = new ArrayList<ProcessInfo>();
+        for (ProcessInfo process : ProcessMonitor.getInstance().getProcesses())
+        {
+            String name = process.getName();
+            if (name.equalsIgnoreCase(executableName) || name.equalsIgnoreCase(executableName + ".exe"))
+            {
+                found.add(process);
+            }
+        }
+        return terminate(handles(found), graceMillis, timeoutMillis);
+    }
+
+    /**
+     * Stop <handles> and their descendants in parallel: ask them to terminate, kill the ones still running after
+     * <graceMillis> and wait for them until <timeoutMillis>
+     *
+     * @param handles
+     * @param graceMillis
+     * @param timeoutMillis
+     * @return the processes still running after <timeoutMillis>
+     */
+    public static List<ProcessHandle> terminate(Collection<ProcessHandle> handles, long graceMillis, long timeoutMillis)
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        // descendants first: they are re-parented once their parent is gone
+        Map<Long, ProcessHandle> all = new LinkedHashMap<Long, ProcessHandle>();
+        for (ProcessHandle handle : handles)
+        {
+            handle.descendants().forEach(descendant -> all.put(descendant.pid(), descendant));
+            all.put(handle.pid(), handle);
+        }
+        Set<Long> protectedPids = ancestry();
+        List<ProcessHandle> alive = all.values().stream().filter(h -> h.isAlive() && !protectedPids.contains(h.pid())).collect(Collectors.toList());
+        if (alive.isEmpty())
+        {
+            return alive;
+        }
+        logger.info("Stopping processes " + pids(alive));
+        for (ProcessHandle handle : alive)
+        {
+            if (handle.supportsNormalTermination())
+            {
+                handle.destroy();
+            }
+            else
+            {
+                handle.destroyForcibly();
+            }
+        }
+        alive = awaitExit(alive, Math.min(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis)));
+        if (!alive.isEmpty())
+        {
+            logger.info("Killing processes " + pids(alive));
+            alive.forEach(ProcessHandle::destroyForcibly);
+            alive = awaitExit(alive, deadline);
+        }
+        if (!alive.isEmpty())
+        {
+            logger.warn("Processes still running after " + timeoutMillis + "ms: " + pids(alive));
+        }
+        return alive;
+    }
+
+    /**
+     * @return the handles of the processes still running when <deadline> (System.nanoTime) is reached
+     */
+    private static List<ProcessHandle> awaitExit(List<ProcessHandle> handles, long deadline)
+    {
+        CompletableFuture<?>[] exits = handles.stream().map(ProcessHandle::onExit).toArray(CompletableFuture<?>[]::new);
+        try
+        {
+            CompletableFuture.allOf(exits).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException | ExecutionException e)
+        {
+            // some are still running
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return handles.stream().filter(ProcessHandle::isAlive).collect(Collectors.toList());
+    }
+
+    private static Set<Long> ancestry()
+    {
+        Set<Long> pids = ConcurrentHashMap.newKeySet();
+        for (ProcessHandle handle = ProcessHandle.current(); handle != null; handle = handle.parent().orElse(null))
+        {
+            pids.add(handle.pid());
+        }
+        return pids;
+    }
+
+    private static List<ProcessHandle> handles(List<ProcessInfo> processes)
+    {
+        List<ProcessHandle> handles = new ArrayList<ProcessHandle>();
+        for (ProcessInfo process : processes)
+        {
+            ProcessHandle.of(process.getPid()).ifPresent(handles::add);
+        }
+        return handles;
+    }
+
+    private static String pids(List<ProcessHandle> handles)
+    {
+        return handles.stream().map(h -> h.pid() + " " + h.info().command().orElse("")).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    private List<ProcessHandle> forget(List<ProcessHandle> leaked)
+    {
+        tracked.values().removeIf(t -> !t.handle.isAlive());
+        return leaked;
+    }
+
+    /**
+     * Add the descendants of the tracked processes, and forget the processes gone
+     */
+    private void collectDescendants()
+    {
+        for (Tracked process : new ArrayList<Tracked>(tracked.values()))
+        {
+            if (process.handle.isAlive())
+            {
+                process.handle.descendants().forEach(descendant -> tracked.putIfAbsent(descendant.pid(), new Tracked(process.owner, descendant,
+                        process.root)));
+            }
+        }
+        tracked.values().removeIf(t -> !t.handle.isAlive());
+    }
+
+    private synchronized void startScanner()
+    {
+        if (scanner == null)
+        {
+            scanner = WaitEngine.repeat(this::scan, scanInterval);
+        }
+    }
+
+    private synchronized void scan()
+    {
+        try
+        {
+            collectDescendants();
+        }
+        catch (RuntimeException e)
+        {
+            logger.debug("Could not collect descendant processes: " + e.getMessage());
+        }
+        if (tracked.isEmpty() && scanner != null)
+        {
+            scanner.cancel(false);
+            scanner = null;
+        }
+    }
+
+    /**
+     * One process started by the library, or a descendant of it
+     */
+    private static class Tracked
+    {
+        private final ProcessHandle handle;
+        private final long root;
+        private volatile Object owner;
+
+        Tracked(Object owner, ProcessHandle handle)
+        {
+            this(owner, handle, handle.pid());
+        }
+
+        Tracked(Object owner, ProcessHandle handle, long root)
+        {
+            this.owner = owner;
+            this.handle = handle;
+            this.root = root;
+        }
+    }
+}
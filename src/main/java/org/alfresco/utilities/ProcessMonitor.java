@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Process table of the local machine, read with {@link ProcessHandle#allProcesses()} (/proc on Linux, native calls on
+ * Windows and Mac OS) instead of forking <code>ps</code> or <code>tasklist</code>.
+ * The snapshot is refreshed incrementally: processes already known (same pid and start time) keep their details,
+ * only new ones are read. It is refreshed on demand when older than <code>ldtp.process.maxAge</code> ms (default
+ * 100), and every <code>ldtp.process.interval</code> ms (default 50) while someone listens for start/exit events.
+ * On Windows the JDK cannot read the command of elevated processes or of processes of other sessions; their executable
+ * name is read from <code>tasklist</code> instead, once per refresh that meets new ones, so they are found by name too.
+ */
+public final class ProcessMonitor
+{
+    private static Logger logger = Logger.getLogger(ProcessMonitor.class);
+    private static final ProcessMonitor instance = new ProcessMonitor();
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+    private static final long LIST_TIMEOUT = 10000;
+
+    private final long maxAge = TimeUnit.MILLISECONDS.toNanos(Long.getLong("ldtp.process.maxAge", 100));
+    private final long interval = Long.getLong("ldtp.process.interval", 50);
+    private final List<ProcessListener> listeners = new CopyOnWriteArrayList<ProcessListener>();
+    private volatile Map<Long, ProcessInfo> processes;
+    private volatile long refreshedAt;
+    private ScheduledFuture<?> poller;
+
+    private ProcessMonitor()
+    {
+    }
+
+    public static ProcessMonitor getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * @param name part of the process command line, case insensitive (i.e. "TextEdit", "python")
+     * @return true if a process matching <name> is running
+     */
+    public boolean isRunning(String name)
+    {
+        return !find(name).isEmpty();
+    }
+
+    /**
+     * @param name part of the process command line, case insensitive
+     * @return the running processes matching <name>
+     */
+    public List<ProcessInfo> find(String name)
+    {
+        String lowerName = name.toLowerCase();
+        List<ProcessInfo> found = new ArrayList<ProcessInfo>();
+        for (ProcessInfo process : getProcesses())
+        {
+            if (process.matches(lowerName))
+            {
+                found.add(process);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return all running processes, refreshed if the snapshot is too old
+     */
+    public Collection<ProcessInfo> getProcesses()
+    {
+        if (processes == null || System.nanoTime() - refreshedAt > maxAge)
+        {
+            refresh();
+        }
+        return processes.values();
+    }
+
+    /**
+     * @param name part of the process command line, case insensitive
+     * @return future completed with the first process matching <name>, right away if one is already running
+     */
+    public CompletableFuture<ProcessInfo> whenStarted(final String name)
+    {
+        final CompletableFuture<ProcessInfo> started = new CompletableFuture<ProcessInfo>();
+        final String lowerName = name.toLowerCase();
+        ProcessListener listener = new ProcessListener()
+        {
+            @Override
+            public void processStarted(ProcessInfo process)
+            {
+                if (process.matches(lowerName))
+                {
+                    started.complete(process);
+                }
+            }
+        };
+        // listen first, so a process started while checking is not missed
+        addListener(listener);
+        List<ProcessInfo> running = find(name);
+        if (!running.isEmpty())
+        {
+            started.complete(running.get(0));
+        }
+        started.whenComplete((process, error) -> removeListener(listener));
+        return started;
+    }
+
+    /**
+     * @param name part of the process command line, case insensitive
+     * @return future completed once no process matches <name>, right away if none is running
+     */
+    public CompletableFuture<Void> whenExited(final String name)
+    {
+        final CompletableFuture<Void> exited = new CompletableFuture<Void>();
+        ProcessListener listener = new ProcessListener()
+        {
+            @Override
+            public void processExited(ProcessInfo process)
+            {
+                if (process.matches(name.toLowerCase()) && find(name).isEmpty())
+                {
+                    exited.complete(null);
+                }
+            }
+        };
+        addListener(listener);
+        if (!isRunning(name))
+        {
+            exited.complete(null);
+        }
+        exited.whenComplete((nothing, error) -> removeListener(listener));
+        return exited;
+    }
+
+    /**
+     * @param pid
+     * @return future completed when process <pid> exits, notified by the operating system
+     */
+    public CompletableFuture<Void> whenExited(long pid)
+    {
+        Optional<ProcessHandle> handle = ProcessHandle.of(pid);
+        if (!handle.isPresent())
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+        return handle.get().onExit().thenApply(process -> null);
+    }
+
+    /**
+     * Be notified of each process starting or exiting. The process table is polled while there are listeners.
+     *
+     * @param listener
+     */
+    public void addListener(ProcessListener listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.add(listener);
+            if (poller == null)
+            {
+                if (processes == null)
+                {
+                    refresh();
+                }
+                poller = WaitEngine.repeat(this::poll, interval);
+            }
+        }
+    }
+
+    public void removeListener(ProcessListener listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.remove(listener);
+            if (listeners.isEmpty() && poller != null)
+            {
+                poller.cancel(false);
+                poller = null;
+            }
+        }
+    }
+
+    /**
+     * Read the process table again, notifying the listeners of the processes started and exited since the last
+     * refresh
+     */
+    public void refresh()
+    {
+        List<ProcessInfo> started = new ArrayList<ProcessInfo>();
+        List<ProcessInfo> exited = new ArrayList<ProcessInfo>();
+        synchronized (this)
+        {
+            Map<Long, ProcessInfo> previous = processes;
+            Map<Long, ProcessInfo> current = new HashMap<Long, ProcessInfo>(previous == null ? 512 : previous.size() * 2);
+            Map<Long, String> executables = null;
+            Iterator<ProcessHandle> handles = ProcessHandle.allProcesses().iterator();
+            while (handles.hasNext())
+            {
+                ProcessHandle handle = handles.next();
+                ProcessHandle.Info info = handle.info();
+                long startMillis = info.startInstant().map(start -> start.toEpochMilli()).orElse(-1L);
+                ProcessInfo process = previous == null ? null : previous.get(handle.pid());
+                if (process == null || process.startMillis != startMillis)
+                {
+                    String command = info.command().orElse("");
+                    String commandLine = info.commandLine().orElse(command);
+                    if (commandLine.isEmpty() && WINDOWS)
+                    {
+                        if (executables == null)
+                        {
+                            executables = readExecutables();
+                        }
+                        commandLine = executables.getOrDefault(handle.pid(), "");
+                    }
+                    process = new ProcessInfo(handle.pid(), startMillis, command, commandLine);
+                    if (previous != null)
+                    {
+                        started.add(process);
+                    }
+                }
+                current.put(process.getPid(), process);
+            }
+            if (previous != null)
+            {
+                for (ProcessInfo process : previous.values())
+                {
+                    ProcessInfo now = current.get(process.getPid());
+                    if (now == null || !now.equals(process))
+                    {
+                        exited.add(process);
+                    }
+                }
+            }
+            processes = Collections.unmodifiableMap(current);
+            refreshedAt = System.nanoTime();
+        }
+        notifyListeners(started, exited);
+    }
+
+    /**
+     * @return executable name of each running process, as listed by tasklist
+     */
+    private static Map<Long, String> readExecutables()
+    {
+        try
+        {
+            CommandRunner.Result result = CommandRunner.of("tasklist", "/FO", "CSV", "/NH").withTimeout(LIST_TIMEOUT).withMaxLines(
+                    Integer.MAX_VALUE).run();
+            return parseTasklist(result.getStdout());
+        }
+        catch (IOException e)
+        {
+            logger.debug("Could not list the executables of the processes: " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * @param lines output of <code>tasklist /FO CSV /NH</code>, i.e. "name.exe","1234","Services","0","8,192 K"
+     * @return executable name by pid
+     */
+    static Map<Long, String> parseTasklist(List<String> lines)
+    {
+        Map<Long, String> executables = new HashMap<Long, String>();
+        for (String line : lines)
+        {
+            String[] columns = line.trim().replaceFirst("^\"", "").split("\",\"");
+            if (columns.length < 2)
+            {
+                continue;
+            }
+            try
+            {
+                executables.put(Long.parseLong(columns[1]), columns[0]);
+            }
+            catch (NumberFormatException e)
+            {
+                logger.debug("Unexpected process line: " + line);
+            }
+        }
+        return executables;
+    }
+
+    private void poll()
+    {
+        try
+        {
+            refresh();
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Could not refresh the process table: " + e.getMessage());
+        }
+    }
+
+    private void notifyListeners(List<ProcessInfo> started, List<ProcessInfo> exited)
+    {
+        if (started.isEmpty() && exited.isEmpty())
+        {
+            return;
+        }
+        for (ProcessListener listener : listeners)
+        {
+            try
+            {
+                for (ProcessInfo process : exited)
+                {
+                    listener.processExited(process);
+                }
+                for (ProcessInfo process : started)
+                {
+                    listener.processStarted(process);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                logger.error("Process listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Receives the processes starting and exiting on the machine
+     */
+    public interface ProcessListener
+    {
+        default void processStarted(ProcessInfo process)
+        {
+        }
+
+        default void processExited(ProcessInfo process)
+        {
+        }
+    }
+
+    /**
+     * One process of the snapshot
+     */
+    public static final class ProcessInfo
+    {
+        private final long pid;
+        private final long startMillis;
+        private final String command;
+        private final String commandLine;
+        private final String lowerCommandLine;
+
+        /**
+         * @param pid
+         * @param startMillis -1 if unknown
+         * @param command executable path, empty if it cannot be read
+         * @param commandLine command line, or the executable name listed by the system if the JDK cannot read it
+         */
+        ProcessInfo(long pid, long startMillis, String command, String commandLine)
+        {
+            this.pid = pid;
+            this.startMillis = startMillis;
+            this.command = command;
+            this.commandLine = commandLine;
+            this.lowerCommandLine = commandLine.toLowerCase();
+        }
+
+        public long getPid()
+        {
+            return pid;
+        }
+
+        /**
+         * @return executable path, empty if the process belongs to another user and cannot be inspected
+         */
+        public String getCommand()
+        {
+            return command;
+        }
+
+        /**
+         * @return command line, or only the executable name if the process cannot be inspected
+         */
+        public String getCommandLine()
+        {
+            return commandLine;
+        }
+
+        /**
+         * @return executable file name, i.e. TextEdit
+         */
+        public String getName()
+        {
+            String path = command.isEmpty() ? commandLine : command;
+            return path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+        }
+
+        boolean matches(String lowerName)
+        {
+            return lowerCommandLine.contains(lowerName);
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof ProcessInfo))
+            {
+                return false;
+            }
+            ProcessInfo process = (ProcessInfo) other;
+            return pid == process.pid && startMillis == process.startMillis;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(pid);
+        }
+
+        @Override
+        public String toString()
+        {
+            return pid + " " + commandLine;
+        }
+    }
+}
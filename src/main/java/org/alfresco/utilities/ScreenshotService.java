@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.cobra.ldtp.Ldtp;
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Takes screenshots off the test thread and keeps them in one content-addressed folder.
+ * <ul>
+ * <li>captures are ordered after the actions already sent to the agent (see {@link AsyncLdtp}); at most
+ * <code>ldtp.screenshots.queue</code> (default 8) are pending, further requests fail right away instead of slowing the
+ * test down</li>
+ * <li>the image received from the agent is stored as <code>&lt;sha-256&gt;.png</code>, so the same screen captured
+ * again costs no disk space and no write</li>
+ * <li>once stored, the PNG is re-encoded with the highest compression in the background and replaced if smaller</li>
+ * <li>the folder (<code>ldtp.screenshots.dir</code>, default <code>ldtp-screenshots</code> in the temp folder) is kept
+ * under <code>ldtp.screenshots.maxMB</code> (default 200) by removing the least recently captured images</li>
+ * </ul>
+ */
+public class ScreenshotService
+{
+    private static Logger logger = Logger.getLogger(ScreenshotService.class);
+    private static final String EXTENSION = ".png";
+    private static volatile ScreenshotService instance;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Semaphore slots;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ExecutorService storage = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new WaitEngine.DaemonThreadFactory("ldtp-screenshot"));
+    /** size of each stored image by hash, least recently captured first */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(64, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * @param directory
+     * @param maxBytes
+     * @param queueSize
+     */
+    ScreenshotService(Path directory, long maxBytes, int queueSize)
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.slots = new Semaphore(queueSize);
+        ((ThreadPoolExecutor) storage).allowCoreThreadTimeOut(true);
+        try
+        {
+            Files.createDirectories(directory);
+            loadIndex();
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot use screenshot folder " + directory, e);
+        }
+    }
+
+    /**
+     * @return the service configured with the <code>ldtp.screenshots.*</code> system properties
+     */
+    public static ScreenshotService getInstance()
+    {
+        if (instance == null)
+        {
+            synchronized (ScreenshotService.class)
+            {
+                if (instance == null)
+                {
+                    Path directory = Paths.get(System.getProperty("ldtp.screenshots.dir",
+                            new File(System.getProperty("java.io.tmpdir"), "ldtp-screenshots").getPath()));
+                    instance = new ScreenshotService(directory, Long.getLong("ldtp.screenshots.maxMB", 200) * 1024 * 1024,
+                            Integer.getInteger("ldtp.screenshots.queue", 8));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Capture the whole screen of the current agent
+     *
+     * @return future of the stored image
+     */
+    public CompletableFuture<File> capture()
+    {
+        return capture(LdtpTransport.getDefault().newLdtp("*"), null);
+    }
+
+    /**
+     * Capture <windowName>, or the whole screen if it is null, on the agent <ldtp> talks to
+     *
+     * @param ldtp
+     * @param windowName
+     * @return future of the stored image, failed with {@link LdtpExecutionError} if too many captures are pending
+     */
+    public CompletableFuture<File> capture(Ldtp ldtp, final String windowName)
+    {
+        if (!slots.tryAcquire())
+        {
+            CompletableFuture<File> rejected = new CompletableFuture<File>();
+            rejected.completeExceptionally(new LdtpExecutionError("Screenshot skipped, " + pending.get() + " captures are already pending"));
+            return rejected;
+        }
+        pending.incrementAndGet();
+        final LdtpTransport transport = LdtpTransport.of(ldtp);
+        CompletableFuture<String> encoded = AsyncLdtp.of(ldtp).query(l -> {
+            try
+            {
+                Object image = windowName == null ? transport.execute("imagecapture") : transport.execute("imagecapture", windowName);
+                return String.valueOf(image);
+            }
+            catch (XmlRpcException e)
+            {
+                throw new LdtpExecutionError(e.getMessage());
+            }
+        });
+        CompletableFuture<File> stored = new CompletableFuture<File>();
+        encoded.whenComplete((image, error) -> {
+            slots.release();
+            if (error != null)
+            {
+                done();
+                stored.completeExceptionally(error);
+                return;
+            }
+            storage.execute(() -> {
+                Path file = null;
+                try
+                {
+                    file = store(Base64.getMimeDecoder().decode(image));
+                    stored.complete(file.toFile());
+                }
+                catch (IOException e)
+                {
+                    stored.completeExceptionally(new LdtpExecutionError("Cannot store screenshot: " + e.getMessage()));
+                }
+                catch (RuntimeException e)
+                {
+                    stored.completeExceptionally(e);
+                }
+                try
+                {
+                    if (file != null)
+                    {
+                        compress(file);
+                    }
+                }
+                finally
+                {
+                    done();
+                }
+            });
+        });
+        return stored;
+    }
+
+    /**
+     * Wait until all pending captures are stored and compressed
+     *
+     * @param timeoutMillis
+     * @return true if nothing is pending anymore
+     */
+    public boolean awaitPending(long timeoutMillis)
+    {
+        return WaitEngine.until(() -> pending.get() == 0, new WaitPolicy(10, 200, 2.0, timeoutMillis));
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @return size of all stored images
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    /**
+     * @return number of stored images
+     */
+    public synchronized int getCount()
+    {
+        return index.size();
+    }
+
+    /**
+     * Store <png> under its hash, or only mark it as recently used if it was already captured
+     *
+     * @param png
+     * @return the stored file
+     * @throws IOException
+     */
+    Path store(byte[] png) throws IOException
+    {
+        String hash = sha256(png);
+        Path file = directory.resolve(hash + EXTENSION);
+        synchronized (this)
+        {
+            if (index.get(hash) != null && Files.exists(file))
+            {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                logger.debug("Screenshot already stored: " + file);
+                return file;
+            }
+        }
+        replace(file, png);
+        synchronized (this)
+        {
+            Long previous = index.put(hash, (long) png.length);
+            totalBytes += png.length - (previous == null ? 0 : previous);
+            evict(hash);
+        }
+        logger.debug("Screenshot stored: " + file);
+        return file;
+    }
+
+    /**
+     * Re-encode <file> with the highest PNG compression, keeping it only if it is smaller
+     */
+    void compress(Path file)
+    {
+        try
+        {
+            BufferedImage image = ImageIO.read(file.toFile());
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+            if (image == null || !writers.hasNext())
+            {
+                return;
+            }
+            ImageWriter writer = writers.next();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ImageOutputStream stream = ImageIO.createImageOutputStream(out))
+            {
+                writer.setOutput(stream);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                if (param.canWriteCompressed())
+                {
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(0.0f);
+                }
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            finally
+            {
+                writer.dispose();
+            }
+            long size = Files.size(file);
+            if (out.size() >= size)
+            {
+                return;
+            }
+            synchronized (this)
+            {
+                String hash = file.getFileName().toString().replace(EXTENSION, "");
+                if (!index.containsKey(hash))
+                {
+                    // evicted in the meantime
+                    return;
+                }
+                replace(file, out.toByteArray());
+                index.put(hash, (long) out.size());
+                totalBytes -= size - out.size();
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot compress screenshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void done()
+    {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Remove the least recently captured images until the folder fits in the maximum size, keeping <keep>
+     */
+    private void evict(String keep)
+    {
+        Iterator<Map.Entry<String, Long>> entries = index.entrySet().iterator();
+        while (totalBytes > maxBytes && entries.hasNext())
+        {
+            Map.Entry<String, Long> entry = entries.next();
+            if (entry.getKey().equals(keep))
+            {
+                continue;
+            }
+            try
+            {
+                Files.deleteIfExists(directory.resolve(entry.getKey() + EXTENSION));
+                totalBytes -= entry.getValue();
+                entries.remove();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Cannot remove old screenshot " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Index the images already in the folder, oldest first
+     */
+    private synchronized void loadIndex() throws IOException
+    {
+        List<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION))
+        {
+            for (Path file : stream)
+            {
+                files.add(file);
+            }
+        }
+        files.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+        for (Path file : files)
+        {
+            long size = file.toFile().length();
+            index.put(file.getFileName().toString().replace(EXTENSION, ""), size);
+            totalBytes += size;
+        }
+        evict(null);
+    }
+
+    /**
+     * Write <content> to <file> through a temporary file, so readers never see a partial image
+     */
+    private void replace(Path file, byte[] content) throws IOException
+    {
+        Path temp = Files.createTempFile(directory, "capture", ".tmp");
+        try
+        {
+            Files.write(temp, content);
+            try
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String sha256(byte[] content)
+    {
+        try
+        {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content))
+            {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
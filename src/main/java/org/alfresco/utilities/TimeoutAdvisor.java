@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Learns how long windows and objects take to appear and derives the {@link WaitPolicy} of the next waits from it,
+ * so a window that always shows up in 50 ms is polled every few milliseconds instead of every second, and a window
+ * later than usual is reported in the log.
+ * <ul>
+ * <li>only waits that had to poll are learned: a target already there on the first check says nothing about how
+ * long it takes to appear</li>
+ * <li>the last <code>ldtp.timeouts.samples</code> (default 50) latencies are kept per key (agent, application and
+ * window/object name) in <code>ldtp.timeouts.file</code> (default <code>ldtp-timeouts.properties</code> in the temp
+ * folder), saved in the background and at exit</li>
+ * <li>with at least <code>ldtp.timeouts.minSamples</code> (default 5) samples, the first interval is a quarter of the
+ * median and the learned deadline <code>ldtp.timeouts.margin</code> (default 3) times the 99th percentile (at least
+ * twice the slowest wait seen, plus one second), never more than the default policy</li>
+ * <li>a wait missing its learned deadline is logged and goes on with the default policy up to the timeout of the
+ * caller, so a wait never gives up earlier than it would without this class</li>
+ * <li>with <code>-Dldtp.timeouts.failFast=true</code> it gives up at the learned deadline instead, so a window that
+ * will not come fails the test in seconds rather than after the full timeout; the miss is learned, and the next wait
+ * of the same key runs with the default policy again</li>
+ * </ul>
+ * Disabled unless <code>-Dldtp.timeouts.adaptive=true</code>.
+ */
+public class TimeoutAdvisor
+{
+    private static Logger logger = Logger.getLogger(TimeoutAdvisor.class);
+    public static final boolean ENABLED = Boolean.getBoolean("ldtp.timeouts.adaptive");
+    private static final int SAMPLES = Integer.getInteger("ldtp.timeouts.samples", 50);
+    private static final int MIN_SAMPLES = Integer.getInteger("ldtp.timeouts.minSamples", 5);
+    private static final int MARGIN = Integer.getInteger("ldtp.timeouts.margin", 3);
+    private static final boolean FAIL_FAST = Boolean.getBoolean("ldtp.timeouts.failFast");
+    private static final long MIN_INTERVAL = 10;
+    private static final long MIN_TIMEOUT = 2000;
+    private static volatile TimeoutAdvisor instance;
+
+    private final Path file;
+    private final boolean enabled;
+    private final boolean failFast;
+    private final ConcurrentMap<String, History> histories = new ConcurrentHashMap<String, History>();
+    private volatile boolean dirty;
+
+    /**
+     * @param file store of the latencies, loaded if it exists; null to keep them in memory only
+     * @param enabled false to wait with the fallback policies only, learning nothing
+     */
+    TimeoutAdvisor(Path file, boolean enabled)
+    {
+        this(file, enabled, false);
+    }
+
+    /**
+     * @param file store of the latencies, loaded if it exists; null to keep them in memory only
+     * @param enabled false to wait with the fallback policies only, learning nothing
+     * @param failFast true to give up at the learned deadline instead of going on up to the fallback timeout
+     */
+    TimeoutAdvisor(Path file, boolean enabled, boolean failFast)
+    {
+        this.file = file;
+        this.enabled = enabled;
+        this.failFast = failFast;
+        if (enabled && file != null && Files.exists(file))
+        {
+            load();
+        }
+    }
+
+    /**
+     * @return the advisor of this JVM, using the store of the <code>ldtp.timeouts.file</code> system property
+     */
+    public static TimeoutAdvisor getInstance()
+    {
+        if (instance == null)
+        {
+            synchronized (TimeoutAdvisor.class)
+            {
+                if (instance == null)
+                {
+                    final TimeoutAdvisor advisor = new TimeoutAdvisor(Paths.get(System.getProperty("ldtp.timeouts.file",
+                            new File(System.getProperty("java.io.tmpdir"), "ldtp-timeouts.properties").getPath())), ENABLED, FAIL_FAST);
+                    if (ENABLED)
+                    {
+                        WaitEngine.repeat(advisor::save, TimeUnit.SECONDS.toMillis(10));
+                        Runtime.getRuntime().addShutdownHook(new Thread(advisor::save, "ldtp-timeouts-save"));
+                    }
+                    instance = advisor;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param endpoint agent the wait is done on, desktops do not all answer at the same pace
+     * @param scope application or window the target belongs to
+     * @param kind i.e. window, object
+     * @param name name of the window or object waited for
+     * @return the key of a wait
+     */
+    public static String key(LdtpEndpoint endpoint, String scope, String kind, String name)
+    {
+        return endpoint + "|" + (scope == null ? "*" : scope) + "|" + kind + ":" + name;
+    }
+
+    /**
+     * @param key
+     * @param fallback policy used until enough latencies are known
+     * @return the policy to use for the next wait of <key>
+     */
+    public WaitPolicy policy(String key, WaitPolicy fallback)
+    {
+        History history = histories.get(key);
+        if (!enabled || history == null)
+        {
+            return fallback;
+        }
+        return history.policy(fallback);
+    }
+
+    /**
+     * @param key
+     * @param latencyMillis time the wait took
+     * @param found false if the wait ended on its deadline
+     */
+    public void record(String key, long latencyMillis, boolean found)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        History history = histories.get(key);
+        if (history == null)
+        {
+            histories.putIfAbsent(key, new History());
+            history = histories.get(key);
+        }
+        history.record(latencyMillis, found);
+        dirty = true;
+    }
+
+    /**
+     * Wait until <condition> is true with the policy learned for <key>, and learn from this wait
+     *
+     * @param key
+     * @param condition
+     * @param fallback policy used until enough latencies are known
+     * @return true if the condition was fulfilled before the deadline
+     */
+    public boolean until(String key, BooleanSupplier condition, WaitPolicy fallback)
+    {
+        if (!enabled)
+        {
+            return WaitEngine.until(condition, fallback);
+        }
+        final int[] checks = new int[1];
+        BooleanSupplier counted = () -> {
+            checks[0]++;
+            return condition.getAsBoolean();
+        };
+        WaitPolicy policy = policy(key, fallback);
+        long start = System.nanoTime();
+        boolean found = WaitEngine.until(counted, policy);
+        if (!found && policy != fallback && !late(key, policy))
+        {
+            WaitPolicy rest = remaining(fallback, start);
+            found = rest != null && WaitEngine.until(counted, rest);
+        }
+        if (checks[0] > 1)
+        {
+            record(key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), found);
+        }
+        return found;
+    }
+
+    /**
+     * Same as {@link #until(String, BooleanSupplier, WaitPolicy)} for waits driven by events, i.e.
+     * {@link WindowEventBus#awaitCreated(String, long)}
+     *
+     * @param key
+     * @param fallback policy used until enough latencies are known
+     * @param now checks the target once, returning it if it is already there and null otherwise
+     * @param wait started with a deadline in milliseconds; completes with null once it passed
+     * @return the value <now> or <wait> returned, null if the deadline of <fallback> passed
+     */
+    public <T> T await(String key, WaitPolicy fallback, Supplier<T> now, LongFunction<CompletableFuture<T>> wait)
+    {
+        T value = now.get();
+        if (value != null)
+        {
+            return value;
+        }
+        if (!enabled)
+        {
+            return AsyncLdtp.await(wait.apply(fallback.getTimeoutMillis()));
+        }
+        WaitPolicy policy = policy(key, fallback);
+        long start = System.nanoTime();
+        value = AsyncLdtp.await(wait.apply(policy.getTimeoutMillis()));
+        if (value == null && policy != fallback && !late(key, policy))
+        {
+            WaitPolicy rest = remaining(fallback, start);
+            value = rest == null ? null : AsyncLdtp.await(wait.apply(rest.getTimeoutMillis()));
+        }
+        record(key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), value != null);
+        return value;
+    }
+
+    /**
+     * Same as {@link WaitEngine#poll(Supplier, Predicate, WaitPolicy)} with the policy learned for <key>
+     *
+     * @param key
+     * @param supplier
+     * @param accept
+     * @param fallback
+     * @return the accepted value or null if the deadline was reached
+     */
+    public <T> T poll(String key, Supplier<T> supplier, Predicate<T> accept, WaitPolicy fallback)
+    {
+        final Object[] holder = new Object[1];
+        boolean found = until(key, () -> {
+            T value = supplier.get();
+            holder[0] = value;
+            return accept.test(value);
+        }, fallback);
+        if (!found)
+        {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) holder[0];
+        return value;
+    }
+
+    /**
+     * @return true if the wait gives up at the learned deadline, false if it goes on up to the fallback one
+     */
+    private boolean late(String key, WaitPolicy policy)
+    {
+        if (failFast)
+        {
+            logger.warn(String.format("[%s] not found after the learned %dms (usually %s), giving up", key, policy.getTimeoutMillis(),
+                    histories.get(key)));
+            return true;
+        }
+        logger.info(String.format("[%s] not found after the learned %dms (usually %s), waiting up to the default deadline", key,
+                policy.getTimeoutMillis(), histories.get(key)));
+        return false;
+    }
+
+    /**
+     * @return <fallback> with the time left to its deadline since <start>, null if none is left
+     */
+    private static WaitPolicy remaining(WaitPolicy fallback, long start)
+    {
+        long left = fallback.getTimeoutMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return left <= 0 ? null : new WaitPolicy(fallback.getIntervalMillis(), fallback.getMaxIntervalMillis(), fallback.getBackoff(), left);
+    }
+
+    /**
+     * @param key
+     * @param percentile
+     * @return the <percentile> of the latencies known for <key> in milliseconds, -1 if none is known
+     */
+    public long getPercentile(String key, double percentile)
+    {
+        History history = histories.get(key);
+        return history == null ? -1 : history.percentile(percentile);
+    }
+
+    public void reset()
+    {
+        histories.clear();
+        dirty = true;
+    }
+
+    /**
+     * Write the latencies to the store if they changed
+     */
+    public synchronized void save()
+    {
+        if (file == null || !dirty)
+        {
+            return;
+        }
+        dirty = false;
+        Properties properties = new Properties();
+        for (Map.Entry<String, History> entry : histories.entrySet())
+        {
+            properties.setProperty(entry.getKey(), entry.getValue().encode());
+        }
+        try
+        {
+            if (file.getParent() != null)
+            {
+                Files.createDirectories(file.getParent());
+            }
+            Path temp = Files.createTempFile(file.getParent() == null ? Paths.get(".") : file.getParent(), "timeouts", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp))
+            {
+                properties.store(out, "Latencies learned by TimeoutAdvisor (milliseconds)");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot save wait latencies to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void load()
+    {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file))
+        {
+            properties.load(in);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Cannot read wait latencies from " + file + ": " + e.getMessage());
+            return;
+        }
+        for (String key : properties.stringPropertyNames())
+        {
+            History history = History.decode(properties.getProperty(key));
+            if (history != null)
+            {
+                histories.put(key, history);
+            }
+        }
+        logger.debug("Loaded wait latencies of " + histories.size() + " windows and objects from " + file);
+    }
+
+    /**
+     * Last latencies of one key
+     */
+    private static class History
+    {
+        private final long[] samples = new long[SAMPLES];
+        private int size;
+        private int next;
+        private int timeouts;
+        private boolean lastTimedOut;
+
+        synchronized void record(long latencyMillis, boolean found)
+        {
+            if (!found)
+            {
+                timeouts++;
+                lastTimedOut = true;
+                return;
+            }
+            lastTimedOut = false;
+            samples[next] = latencyMillis;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+        }
+
+        synchronized WaitPolicy policy(WaitPolicy fallback)
+        {
+            if (size < MIN_SAMPLES || lastTimedOut)
+            {
+                return fallback;
+            }
+            long[] sorted = sorted();
+            long median = percentile(sorted, 50);
+            long p90 = percentile(sorted, 90);
+            long p99 = percentile(sorted, 99);
+            long max = sorted[sorted.length - 1];
+            long interval = clamp(median / 4, MIN_INTERVAL, fallback.getIntervalMillis());
+            long maxInterval = clamp(p90 / 2, interval, fallback.getMaxIntervalMillis());
+            long timeout = clamp(Math.max(p99 * MARGIN, max * 2) + 1000, MIN_TIMEOUT, fallback.getTimeoutMillis());
+            return new WaitPolicy(interval, maxInterval, fallback.getBackoff(), timeout);
+        }
+
+        synchronized long percentile(double percentile)
+        {
+            return size == 0 ? -1 : percentile(sorted(), percentile);
+        }
+
+        private long[] sorted()
+        {
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        private static long percentile(long[] sorted, double percentile)
+        {
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+
+        private static long clamp(long value, long min, long max)
+        {
+            return Math.max(min, Math.min(value, Math.max(min, max)));
+        }
+
+        /**
+         * @return timeouts;latency,latency,... oldest latency first
+         */
+        synchronized String encode()
+        {
+            StringBuilder value = new StringBuilder().append(timeouts).append(';');
+            for (int i = 0; i < size; i++)
+            {
+                if (i > 0)
+                {
+                    value.append(',');
+                }
+                value.append(samples[(next - size + i + samples.length) % samples.length]);
+            }
+            return value.toString();
+        }
+
+        static History decode(String value)
+        {
+            try
+            {
+                History history = new History();
+                String[] parts = value.split(";", 2);
+                history.timeouts = Integer.parseInt(parts[0].trim());
+                if (parts.length > 1 && !parts[1].trim().isEmpty())
+                {
+                    for (String sample : parts[1].split(","))
+                    {
+                        history.record(Long.parseLong(sample.trim()), true);
+                    }
+                }
+                return history;
+            }
+            catch (NumberFormatException e)
+            {
+                logger.debug("Ignoring invalid wait latencies: " + value);
+                return null;
+            }
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return size == 0 ? "unknown" : "p50=" + percentile(50) + "ms p99=" + percentile(99) + "ms";
+        }
+    }
+}
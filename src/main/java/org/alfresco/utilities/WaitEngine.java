@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Shared wait engine used by all retry loops of this library.
+ * Waiting threads are parked (no CPU is used while waiting) and asynchronous waits are driven by one shared
+ * {@link ScheduledExecutorService}, so idle waits cost close to nothing even when several suites run side by side.
+ * The scheduler only keeps time: work that may block (agent calls, process scans, file writes) is handed to
+ * {@link #background(Runnable)} or {@link #repeat(Runnable, long)}, so a slow agent never delays a timeout.
+ * Each wait is reported to {@link LdtpMetrics}, attributed to the method that started it.
+ * This class should have only static methods added.
+ */
+public final class WaitEngine
+{
+    private static Logger logger = Logger.getLogger(WaitEngine.class);
+    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Integer.getInteger("ldtp.wait.threads", 2),
+            new DaemonThreadFactory("ldtp-wait"));
+    private static final ExecutorService workers = Executors.newCachedThreadPool(new DaemonThreadFactory("ldtp-background"));
+
+    private static final StackWalker walker = StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+    private static final int CALLER_DEPTH = 12;
+    private static final Set<String> DELEGATING_UTILS = new HashSet<String>(Arrays.asList("waitToLoopTime", "waitForElement"));
+
+    private WaitEngine()
+    {
+    }
+
+    /**
+     * @return the scheduler shared by all asynchronous waits; tasks run on it must return right away
+     */
+    public static ScheduledExecutorService getScheduler()
+    {
+        return scheduler;
+    }
+
+    /**
+     * Run <task> on a background thread, outside the scheduler
+     *
+     * @param task may block
+     */
+    public static void background(Runnable task)
+    {
+        workers.execute(() -> runLogged(task));
+    }
+
+    /**
+     * Run <task> every <intervalMillis> on a background thread: the scheduler only triggers it, and a run still going
+     * on when the next one is due makes it skip that one.
+     *
+     * @param task may block
+     * @param intervalMillis
+     * @return future to cancel to stop the runs; a run already started completes
+     */
+    public static ScheduledFuture<?> repeat(final Runnable task, long intervalMillis)
+    {
+        final AtomicBoolean running = new AtomicBoolean();
+        final Runnable run = () -> {
+            try
+            {
+                runLogged(task);
+            }
+            finally
+            {
+                running.set(false);
+            }
+        };
+        return scheduler.scheduleWithFixedDelay(() -> {
+            if (running.compareAndSet(false, true))
+            {
+                workers.execute(run);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void runLogged(Runnable task)
+    {
+        try
+        {
+            task.run();
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Background task failed: " + task, e);
+        }
+    }
+
+    /**
+     * Park the current thread for <millis>.
+     * If the thread is interrupted the method returns earlier, keeping the interrupted status.
+     *
+     * @param millis
+     * @return true if the full period elapsed, false if the thread was interrupted
+     */
+    public static boolean sleep(long millis)
+    {
+        long start = System.nanoTime();
+        boolean completed = park(millis);
+        if (LdtpMetrics.ENABLED)
+        {
+            long elapsed = System.nanoTime() - start;
+            LdtpMetrics.getInstance().recordWait(caller(), elapsed, elapsed, false);
+        }
+        return completed;
+    }
+
+    /**
+     * Wait until <condition> is true, or the <policy> deadline is reached.
+     * The condition is checked right away, then after each poll interval.
+     *
+     * @param condition
+     * @param policy
+     * @return true if the condition was fulfilled before the deadline
+     */
+    public static boolean until(BooleanSupplier condition, WaitPolicy policy)
+    {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(policy.getTimeoutMillis());
+        long interval = policy.getIntervalMillis();
+        long parked = 0;
+        boolean fulfilled;
+        while (true)
+        {
+            if (condition.getAsBoolean())
+            {
+                fulfilled = true;
+                break;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                fulfilled = false;
+                break;
+            }
+            long parkStart = System.nanoTime();
+            boolean completed = park(Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, interval));
+            parked += System.nanoTime() - parkStart;
+            if (!completed)
+            {
+                logger.debug("Wait interrupted, checking the condition one last time.");
+                fulfilled = condition.getAsBoolean();
+                break;
+            }
+            interval = policy.nextInterval(interval);
+        }
+        if (LdtpMetrics.ENABLED)
+        {
+            LdtpMetrics.getInstance().recordWait(caller(), System.nanoTime() - start, parked, !fulfilled);
+        }
+        return fulfilled;
+    }
+
+    /**
+     * Poll <supplier> until the value returned is accepted by <accept>, or the <policy> deadline is reached.
+     *
+     * @param supplier
+     * @param accept
+     * @param policy
+     * @return the accepted value or null if the deadline was reached
+     */
+    public static <T> T poll(Supplier<T> supplier, Predicate<T> accept, WaitPolicy policy)
+    {
+        final Object[] holder = new Object[1];
+        boolean found = until(() -> {
+            T value = supplier.get();
+            holder[0] = value;
+            return accept.test(value);
+        }, policy);
+        if (!found)
+        {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) holder[0];
+        return value;
+    }
+
+    /**
+     * Same as {@link #until(BooleanSupplier, WaitPolicy)} but without blocking the caller: the condition is
+     * re-scheduled on the shared scheduler between polls. Keep the condition short, it runs on a scheduler thread.
+     *
+     * @param condition
+     * @param policy
+     * @return future completed with true if the condition was fulfilled before the deadline, false otherwise
+     */
+    public static CompletableFuture<Boolean> untilAsync(BooleanSupplier condition, WaitPolicy policy)
+    {
+        CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        final long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(policy.getTimeoutMillis());
+        scheduler.execute(new Poller(condition, policy, deadline, result));
+        if (LdtpMetrics.ENABLED)
+        {
+            final String caller = caller();
+            result.whenComplete((fulfilled, error) -> LdtpMetrics.getInstance().recordWait(caller, System.nanoTime() - start, 0,
+                    !Boolean.TRUE.equals(fulfilled)));
+        }
+        return result;
+    }
+
+    /**
+     * Park the current thread for <millis>, returning false if it is interrupted
+     */
+    private static boolean park(long millis)
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+        {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Class.method of the code that started the current wait, used to attribute wait time. Only the top
+     *         frames are walked, skipping this engine and the helpers that merely delegate to it (i.e.
+     *         LdtpUtils.waitToLoopTime), so the time is charged to the code that asked for the wait
+     */
+    private static String caller()
+    {
+        return walker.walk(frames -> frames.limit(CALLER_DEPTH).filter(frame -> !isDelegating(frame)).findFirst()
+                .map(frame -> frame.getDeclaringClass().getSimpleName() + "." + frame.getMethodName()).orElse("unknown"));
+    }
+
+    private static boolean isDelegating(StackWalker.StackFrame frame)
+    {
+        Class<?> declaring = frame.getDeclaringClass();
+        while (declaring.getEnclosingClass() != null)
+        {
+            declaring = declaring.getEnclosingClass();
+        }
+        if (declaring == WaitEngine.class || declaring == TimeoutAdvisor.class)
+        {
+            return true;
+        }
+        return declaring == LdtpUtils.class && DELEGATING_UTILS.contains(frame.getMethodName());
+    }
+
+    /**
+     * One poll of an asynchronous wait, re-scheduling itself until the condition or the deadline is reached
+     */
+    private static class Poller implements Runnable
+    {
+        private final BooleanSupplier condition;
+        private final WaitPolicy policy;
+        private final long deadline;
+        private final CompletableFuture<Boolean> result;
+        private long interval;
+
+        Poller(BooleanSupplier condition, WaitPolicy policy, long deadline, CompletableFuture<Boolean> result)
+        {
+            this.condition = condition;
+            this.policy = policy;
+            this.deadline = deadline;
+            this.result = result;
+            this.interval = policy.getIntervalMillis();
+        }
+
+        @Override
+        public void run()
+        {
+            if (result.isDone())
+            {
+                return;
+            }
+            try
+            {
+                if (condition.getAsBoolean())
+                {
+                    result.complete(true);
+                    return;
+                }
+            }
+            catch (Throwable e)
+            {
+                result.completeExceptionally(e);
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                result.complete(false);
+                return;
+            }
+            long delay = Math.min(TimeUnit.NANOSECONDS.toMillis(remaining) + 1, interval);
+            interval = policy.nextInterval(interval);
+            scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so background waits never keep the JVM alive
+     */
+    static class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
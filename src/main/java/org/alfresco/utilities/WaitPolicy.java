@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+/**
+ * Describes how {@link WaitEngine} polls a condition: the first poll interval, how the interval grows
+ * between polls (backoff) and the overall deadline.
+ * Instances are immutable, use the <code>with*</code> methods to derive a new policy.
+ * Defaults can be overridden with the system properties:
+ * <ul>
+ * <li>ldtp.wait.interval - first poll interval in milliseconds (default 250)</li>
+ * <li>ldtp.wait.maxInterval - upper bound of the poll interval in milliseconds (default 1000)</li>
+ * <li>ldtp.wait.backoff - multiplier applied to the interval after each poll (default 2)</li>
+ * </ul>
+ */
+public class WaitPolicy
+{
+    public static final long DEFAULT_INTERVAL = Long.getLong("ldtp.wait.interval", 250);
+    public static final long DEFAULT_MAX_INTERVAL = Long.getLong("ldtp.wait.maxInterval", 1000);
+    public static final double DEFAULT_BACKOFF = getDoubleProperty("ldtp.wait.backoff", 2.0);
+
+    private final long intervalMillis;
+    private final long maxIntervalMillis;
+    private final double backoff;
+    private final long timeoutMillis;
+
+    /**
+     * Poll every <intervalMillis> until <timeoutMillis> is reached
+     *
+     * @param intervalMillis
+     * @param timeoutMillis
+     */
+    public WaitPolicy(long intervalMillis, long timeoutMillis)
+    {
+        this(intervalMillis, intervalMillis, 1.0, timeoutMillis);
+    }
+
+    /**
+     * @param intervalMillis first poll interval
+     * @param maxIntervalMillis the interval will never grow over this value
+     * @param backoff multiplier applied to the interval after each unsuccessful poll
+     * @param timeoutMillis overall deadline of the wait
+     */
+    public WaitPolicy(long intervalMillis, long maxIntervalMillis, double backoff, long timeoutMillis)
+    {
+        if (intervalMillis <= 0 || timeoutMillis < 0)
+        {
+            throw new IllegalArgumentException("Invalid wait policy: interval=" + intervalMillis + " timeout=" + timeoutMillis);
+        }
+        this.intervalMillis = intervalMillis;
+        this.maxIntervalMillis = Math.max(intervalMillis, maxIntervalMillis);
+        this.backoff = Math.max(1.0, backoff);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Default polling strategy (see class comment) bounded by <timeoutSeconds>
+     *
+     * @param timeoutSeconds
+     * @return WaitPolicy
+     */
+    public static WaitPolicy seconds(int timeoutSeconds)
+    {
+        return new WaitPolicy(DEFAULT_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_BACKOFF, timeoutSeconds * 1000L);
+    }
+
+    /**
+     * Default polling strategy bounded by {@link LdtpUtils#RETRY_COUNT} seconds
+     *
+     * @return WaitPolicy
+     */
+    public static WaitPolicy defaultPolicy()
+    {
+        return seconds(LdtpUtils.RETRY_COUNT);
+    }
+
+    public long getIntervalMillis()
+    {
+        return intervalMillis;
+    }
+
+    public long getMaxIntervalMillis()
+    {
+        return maxIntervalMillis;
+    }
+
+    public double getBackoff()
+    {
+        return backoff;
+    }
+
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    /**
+     * @param currentInterval
+     * @return the interval that should be used after <currentInterval>
+     */
+    public long nextInterval(long currentInterval)
+    {
+        long next = (long) (currentInterval * backoff);
+        return Math.min(Math.max(next, intervalMillis), maxIntervalMillis);
+    }
+
+    public WaitPolicy withTimeout(long timeoutMillis)
+    {
+        return new WaitPolicy(intervalMillis, maxIntervalMillis, backoff, timeoutMillis);
+    }
+
+    public WaitPolicy withInterval(long intervalMillis)
+    {
+        return new WaitPolicy(intervalMillis, Math.max(intervalMillis, maxIntervalMillis), backoff, timeoutMillis);
+    }
+
+    public WaitPolicy withBackoff(double backoff, long maxIntervalMillis)
+    {
+        return new WaitPolicy(intervalMillis, maxIntervalMillis, backoff, timeoutMillis);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("WaitPolicy[interval=%dms, maxInterval=%dms, backoff=%.1f, timeout=%dms]", intervalMillis, maxIntervalMillis, backoff,
+                timeoutMillis);
+    }
+
+    private static double getDoubleProperty(String key, double defaultValue)
+    {
+        String value = System.getProperty(key);
+        if (value == null)
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Window created/closed notifications of one agent, shared by all the window waits of this library.
+ * If the agent accepts <code>registerevent</code> for window:create and window:destroy, its <code>poll_events</code>
+ * queue is drained at each tick and the window list is only fetched when a window event came in (and every
+ * <code>ldtp.windowevents.resync</code> ms, default 2000, in case one was missed). Otherwise the same events are
+ * synthesized by diffing consecutive window lists. Either way there is one background poller per agent
+ * (every <code>ldtp.windowevents.interval</code> ms, default 200, on a {@link WaitEngine#repeat(Runnable, long)}
+ * background thread, so a slow agent never holds up the timers of the scheduler), running only while someone waits
+ * or listens, so any number of concurrent waiters costs one poll stream.
+ * Example:
+ * 
+ * <pre>
+ * String window = AsyncLdtp.await(WindowEventBus.of(ldtp).awaitCreated(&quot;dlgSave*As&quot;, 30000));
+ * </pre>
+ * 
+ * There is one bus per {@link LdtpTransport}.
+ */
+public class WindowEventBus
+{
+    private static Logger logger = Logger.getLogger(WindowEventBus.class);
+    public static final long INTERVAL = Long.getLong("ldtp.windowevents.interval", 200);
+    private static final long RESYNC_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("ldtp.windowevents.resync", 2000));
+    private static final String[] AGENT_EVENTS = { "window:create", "window:destroy" };
+    private static final int MAX_EVENTS_PER_POLL = 256;
+    private static final Pattern ROLE_PREFIX = Pattern.compile("^[a-z]+(?=[^a-z])");
+    private static final ConcurrentMap<LdtpTransport, WindowEventBus> buses = new ConcurrentHashMap<LdtpTransport, WindowEventBus>();
+
+    public enum Type
+    {
+        CREATED, CLOSED
+    }
+
+    private final LdtpTransport transport;
+    private final Ldtp handle;
+    private final List<Waiter> waiters = new ArrayList<Waiter>();
+    private final List<Consumer<WindowEvent>> listeners = new CopyOnWriteArrayList<Consumer<WindowEvent>>();
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private ScheduledFuture<?> poller;
+    private volatile boolean refresh;
+    private volatile Boolean agentEvents;
+    // only used by the thread holding <polling>
+    private List<String> windows;
+    private long lastSnapshot;
+
+    WindowEventBus(LdtpTransport transport)
+    {
+        this.transport = transport;
+        this.handle = transport.newLdtp(" ");
+    }
+
+    /**
+     * @return the bus of the agent of the {@link LdtpSession} open on the current thread, or of the agent configured
+     *         for this environment
+     */
+    public static WindowEventBus getDefault()
+    {
+        return forTransport(LdtpTransport.getDefault());
+    }
+
+    /**
+     * @param ldtp
+     * @return the bus of the agent <ldtp> talks to
+     */
+    public static WindowEventBus of(Ldtp ldtp)
+    {
+        return forTransport(LdtpTransport.of(ldtp));
+    }
+
+    /**
+     * @param transport
+     * @return the bus of the agent of <transport>
+     */
+    public static WindowEventBus forTransport(LdtpTransport transport)
+    {
+        WindowEventBus bus = buses.get(transport);
+        if (bus == null)
+        {
+            WindowEventBus created = new WindowEventBus(transport);
+            bus = buses.putIfAbsent(transport, created);
+            if (bus == null)
+            {
+                bus = created;
+            }
+        }
+        return bus;
+    }
+
+    /**
+     * @param windowName window name or pattern, matched as LDTP does: spaces ignored, role prefix (i.e. dlg) optional and
+     *            '*' matching any characters (case insensitive)
+     * @param timeoutMillis
+     * @return future completed with the full name of the first window matching <windowName>, right away if one is
+     *         already opened, or with null once <timeoutMillis> passed
+     */
+    public CompletableFuture<String> awaitCreated(String windowName, long timeoutMillis)
+    {
+        return awaitCreated(matcher(windowName), timeoutMillis);
+    }
+
+    /**
+     * @param window accepts the full names of the windows waited for
+     * @param timeoutMillis
+     * @return future completed with the full name of the first window accepted by <window>, or with null once
+     *         <timeoutMillis> passed
+     */
+    public CompletableFuture<String> awaitCreated(final Predicate<String> window, long timeoutMillis)
+    {
+        return register(new Waiter("WindowEventBus.awaitCreated", windows -> {
+            for (String candidate : windows)
+            {
+                if (window.test(candidate))
+                {
+                    return candidate;
+                }
+            }
+            return null;
+        }), timeoutMillis).thenApply(created -> (String) created);
+    }
+
+    /**
+     * @param windowName window name or pattern, matched as LDTP does: spaces ignored, role prefix (i.e. dlg) optional and
+     *            '*' matching any characters (case insensitive)
+     * @param timeoutMillis
+     * @return future completed with true once no opened window matches <windowName>, or with false once
+     *         <timeoutMillis> passed
+     */
+    public CompletableFuture<Boolean> awaitClosed(String windowName, long timeoutMillis)
+    {
+        return awaitClosed(matcher(windowName), timeoutMillis);
+    }
+
+    /**
+     * @param window accepts the full names of the windows waited for
+     * @param timeoutMillis
+     * @return future completed with true once no opened window is accepted by <window>, or with false once
+     *         <timeoutMillis> passed
+     */
+    public CompletableFuture<Boolean> awaitClosed(final Predicate<String> window, long timeoutMillis)
+    {
+        return register(new Waiter("WindowEventBus.awaitClosed", windows -> {
+            for (String candidate : windows)
+            {
+                if (window.test(candidate))
+                {
+                    return null;
+                }
+            }
+            return Boolean.TRUE;
+        }), timeoutMillis).thenApply(closed -> closed != null);
+    }
+
+    /**
+     * Wait for a condition on the whole window list, i.e. for any window but the one of the application under test
+     *
+     * @param windows accepts the list of the opened windows
+     * @param timeoutMillis
+     * @return future completed with the first window list accepted by <windows>, or with null once <timeoutMillis>
+     *         passed
+     */
+    public CompletableFuture<List<String>> await(final Predicate<List<String>> windows, long timeoutMillis)
+    {
+        return register(new Waiter("WindowEventBus.await", current -> windows.test(current) ? current : null), timeoutMillis).thenApply(
+                accepted -> {
+                    @SuppressWarnings("unchecked")
+                    List<String> list = (List<String>) accepted;
+                    return list;
+                });
+    }
+
+    /**
+     * Receive every window created or closed from now on, until <listener> is removed.
+     * Listeners run on the poller thread and must return quickly.
+     *
+     * @param listener
+     */
+    public void addListener(Consumer<WindowEvent> listener)
+    {
+        listeners.add(listener);
+        synchronized (this)
+        {
+            start();
+        }
+    }
+
+    public void removeListener(Consumer<WindowEvent> listener)
+    {
+        listeners.remove(listener);
+        synchronized (this)
+        {
+            stopIfIdle();
+        }
+    }
+
+    /**
+     * @return true if the agent sends window events, false if they are synthesized from window lists, null if the
+     *         agent was not asked yet
+     */
+    public Boolean isAgentEvents()
+    {
+        return agentEvents;
+    }
+
+    /**
+     * @return true while the background poller runs
+     */
+    public synchronized boolean isPolling()
+    {
+        return poller != null;
+    }
+
+    private CompletableFuture<Object> register(final Waiter waiter, long timeoutMillis)
+    {
+        synchronized (this)
+        {
+            waiters.add(waiter);
+            start();
+        }
+        waiter.timeout = WaitEngine.getScheduler().schedule(() -> complete(waiter, null), timeoutMillis, TimeUnit.MILLISECONDS);
+        // check the windows already opened without waiting for the next tick
+        refresh = true;
+        WaitEngine.background(this::poll);
+        return waiter.future;
+    }
+
+    private void complete(Waiter waiter, Object accepted)
+    {
+        synchronized (this)
+        {
+            if (!waiters.remove(waiter))
+            {
+                return;
+            }
+            stopIfIdle();
+        }
+        if (accepted != null && waiter.timeout != null)
+        {
+            waiter.timeout.cancel(false);
+        }
+        if (LdtpMetrics.ENABLED)
+        {
+            long elapsed = System.nanoTime() - waiter.created;
+            LdtpMetrics.getInstance().recordWait(waiter.site, elapsed, elapsed, accepted == null);
+        }
+        waiter.future.complete(accepted);
+    }
+
+    private void start()
+    {
+        if (poller == null)
+        {
+            poller = WaitEngine.repeat(this::poll, INTERVAL);
+        }
+    }
+
+    private void stopIfIdle()
+    {
+        if (poller != null && waiters.isEmpty() && listeners.isEmpty())
+        {
+            poller.cancel(false);
+            poller = null;
+        }
+    }
+
+    /**
+     * One tick of the poller: drain the agent events if it sends them, then diff the window list if needed.
+     * Ticks never overlap; a tick requested while another one runs is done at the next interval.
+     */
+    void poll()
+    {
+        if (!polling.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            boolean snapshot = refresh || windows == null;
+            refresh = false;
+            if (agentEvents == null)
+            {
+                agentEvents = registerAgentEvents();
+            }
+            if (agentEvents)
+            {
+                if (drainAgentEvents())
+                {
+                    transport.getWindowListCache().invalidate();
+                    snapshot = true;
+                }
+                snapshot |= System.nanoTime() - lastSnapshot >= RESYNC_NANOS;
+            }
+            else
+            {
+                snapshot = true;
+            }
+            if (snapshot)
+            {
+                update(Arrays.asList(transport.getWindowListCache().getWindowList(handle)));
+            }
+        }
+        catch (RuntimeException | XmlRpcException e)
+        {
+            logger.debug("Could not poll the windows of " + transport.getEndpoint() + ": " + e.getMessage());
+        }
+        finally
+        {
+            polling.set(false);
+        }
+    }
+
+    private boolean registerAgentEvents()
+    {
+        try
+        {
+            for (String event : AGENT_EVENTS)
+            {
+                transport.execute("registerevent", event);
+            }
+            logger.debug("Using the window events of " + transport.getEndpoint());
+            return true;
+        }
+        catch (XmlRpcException e)
+        {
+            logger.debug("No window events from " + transport.getEndpoint() + ", diffing window lists: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return true if at least one window event was received
+     */
+    private boolean drainAgentEvents() throws XmlRpcException
+    {
+        boolean received = false;
+        for (int i = 0; i < MAX_EVENTS_PER_POLL; i++)
+        {
+            Object event = transport.execute("poll_events");
+            if (event == null || String.valueOf(event).isEmpty())
+            {
+                break;
+            }
+            received |= String.valueOf(event).startsWith("window:");
+        }
+        return received;
+    }
+
+    private void update(List<String> current)
+    {
+        List<String> previous = windows;
+        windows = current;
+        lastSnapshot = System.nanoTime();
+        if (previous != null && !listeners.isEmpty())
+        {
+            fire(Type.CREATED, current, new HashSet<String>(previous));
+            fire(Type.CLOSED, previous, new HashSet<String>(current));
+        }
+        List<Waiter> pending;
+        synchronized (this)
+        {
+            pending = new ArrayList<Waiter>(waiters);
+        }
+        for (Waiter waiter : pending)
+        {
+            Object accepted = waiter.check.apply(current);
+            if (accepted != null)
+            {
+                complete(waiter, accepted);
+            }
+        }
+    }
+
+    /**
+     * Notify the listeners of the windows of <windows> not in <others>
+     */
+    private void fire(Type type, List<String> windows, Set<String> others)
+    {
+        for (String window : windows)
+        {
+            if (!others.contains(window))
+            {
+                WindowEvent event = new WindowEvent(type, window);
+                for (Consumer<WindowEvent> listener : listeners)
+                {
+                    try
+                    {
+                        listener.accept(event);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logger.warn("Window event listener failed on " + event, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param windowName window name or pattern where '*' matches any characters
+     * @return case insensitive matcher of the full window names matching <windowName> the way LDTP matches window
+     *         names: spaces are ignored on both sides and the role prefix of the window (i.e. dlg, frm) is optional, so
+     *         "Delete File" matches dlgDeleteFile
+     */
+    static Predicate<String> matcher(String windowName)
+    {
+        StringBuilder regex = new StringBuilder();
+        String[] parts = windowName.replace(" ", "").split("\\*", -1);
+        for (int i = 0; i < parts.length; i++)
+        {
+            regex.append(i == 0 ? "" : ".*").append(Pattern.quote(parts[i]));
+        }
+        final Pattern pattern = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        return window -> {
+            String name = window.replace(" ", "");
+            return pattern.matcher(name).matches() || pattern.matcher(ROLE_PREFIX.matcher(name).replaceFirst("")).matches();
+        };
+    }
+
+    /**
+     * One pending await
+     */
+    private static class Waiter
+    {
+        private final String site;
+        private final Function<List<String>, Object> check;
+        private final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        private final long created = System.nanoTime();
+        private volatile ScheduledFuture<?> timeout;
+
+        /**
+         * @param site name of the wait in {@link LdtpMetrics}
+         * @param check returns what the wait completes with for a window list, null while the wait goes on
+         */
+        Waiter(String site, Function<List<String>, Object> check)
+        {
+            this.site = site;
+            this.check = check;
+        }
+    }
+
+    /**
+     * One window created or closed
+     */
+    public static class WindowEvent
+    {
+        private final Type type;
+        private final String window;
+
+        WindowEvent(Type type, String window)
+        {
+            this.type = type;
+            this.window = window;
+        }
+
+        public Type getType()
+        {
+            return type;
+        }
+
+        /**
+         * @return full name of the window
+         */
+        public String getWindow()
+        {
+            return window;
+        }
+
+        @Override
+        public String toString()
+        {
+            return type + " " + window;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Short-lived snapshot of the agent window list, shared by all window lookups.
+ * Every <code>getWindowList()</code> is a full XML-RPC round trip, so a burst of checks done in the same tick is
+ * served from one snapshot. A snapshot is dropped when it is older than the TTL (system property
+ * <code>ldtp.windowlist.ttl</code>, default 300ms) or when an action that can open/close windows (click,
+ * generateKeyEvent, closeWindow, etc.) went through an attached {@link Ldtp} handle - each such action increments
+ * the generation counter.
+ * This class is safe to share across threads; concurrent misses result in a single fetch. Each
+ * {@link LdtpTransport} owns the cache of its agent.
+ */
+public class WindowListCache implements LdtpCallInterceptor
+{
+    public static final long DEFAULT_TTL = Long.getLong("ldtp.windowlist.ttl", 300);
+    private static final String GET_WINDOW_LIST = "getwindowlist";
+    private static final Set<String> WINDOW_ACTIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("click", "doubleclick",
+            "mouseleftclick", "mouserightclick", "generatekeyevent", "keypress", "keyrelease", "enterstring", "selectmenuitem", "selectitem",
+            "closewindow", "launchapp", "system.multicall")));
+
+    private final long ttlNanos;
+    private final AtomicLong generation = new AtomicLong();
+    private final Object fetchLock = new Object();
+    private volatile Snapshot snapshot;
+
+    public WindowListCache(long ttlMillis)
+    {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    /**
+     * @return the cache of the default agent, shared by all the helpers of this library
+     */
+    public static WindowListCache getInstance()
+    {
+        return LdtpTransport.getDefault().getWindowListCache();
+    }
+
+    /**
+     * @return true if <ldtpMethod> can change the list of opened windows
+     */
+    public static boolean isWindowAction(String ldtpMethod)
+    {
+        return WINDOW_ACTIONS.contains(ldtpMethod.toLowerCase());
+    }
+
+    /**
+     * Return the list of opened windows, from the current snapshot if it is still valid.
+     * <ldtp> is attached to this cache, so the actions it performs from now on invalidate the snapshot; the list itself
+     * is served by {@link #intercept(LdtpCall)}. A handle whose client cannot be replaced is not attached and always
+     * asks the agent, as its actions could not invalidate the snapshot either.
+     *
+     * @param ldtp
+     * @return copy of the window list
+     */
+    public String[] getWindowList(Ldtp ldtp)
+    {
+        attach(ldtp);
+        String[] windows = ldtp.getWindowList();
+        return windows == null ? new String[0] : windows;
+    }
+
+    /**
+     * Route all calls of <ldtp> through this cache: window list requests are served from the snapshot and window
+     * actions invalidate it.
+     *
+     * @param ldtp
+     */
+    public void attach(Ldtp ldtp)
+    {
+        LdtpRpcClient client = LdtpRpcClient.attach(ldtp);
+        if (client != null)
+        {
+            client.addInterceptor(this);
+        }
+    }
+
+    /**
+     * Drop the current snapshot; the next lookup will fetch the window list from the agent
+     */
+    public void invalidate()
+    {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return the generation counter, incremented on each invalidation
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+    @Override
+    public Object intercept(LdtpCall call) throws XmlRpcException
+    {
+        String method = call.getMethodName();
+        if (GET_WINDOW_LIST.equals(method) && call.getParameterCount() == 0)
+        {
+            return getWindowList(call);
+        }
+        if (!WINDOW_ACTIONS.contains(method))
+        {
+            return call.proceed();
+        }
+        try
+        {
+            return call.proceed();
+        }
+        finally
+        {
+            invalidate();
+        }
+    }
+
+    private Object getWindowList(LdtpCall call) throws XmlRpcException
+    {
+        Snapshot current = snapshot;
+        if (isValid(current))
+        {
+            return current.windows.clone();
+        }
+        synchronized (fetchLock)
+        {
+            current = snapshot;
+            if (isValid(current))
+            {
+                return current.windows.clone();
+            }
+            long fetchGeneration = generation.get();
+            Object result = call.proceed();
+            if (result instanceof Object[])
+            {
+                Object[] list = (Object[]) result;
+                String[] windows = new String[list.length];
+                for (int i = 0; i < list.length; i++)
+                {
+                    windows[i] = String.valueOf(list[i]);
+                }
+                snapshot = new Snapshot(windows, fetchGeneration);
+            }
+            return result;
+        }
+    }
+
+    private boolean isValid(Snapshot current)
+    {
+        return current != null && current.generation == generation.get() && System.nanoTime() - current.created < ttlNanos;
+    }
+
+    private static class Snapshot
+    {
+        private final String[] windows;
+        private final long generation;
+        private final long created = System.nanoTime();
+
+        Snapshot(String[] windows, long generation)
+        {
+            this.windows = windows;
+            this.generation = generation;
+        }
+    }
+}
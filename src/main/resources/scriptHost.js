@@ -0,0 +1,64 @@
+// Long-lived AppleScript interpreter used by org.alfresco.os.mac.utils.ScriptHost.
+// Reads scripts from stdin, each one followed by a line "__ldtp_end__ <id>", runs them with NSAppleScript
+// and writes their result followed by a line "__ldtp_done__ <id> <status>".
+ObjC.import('Foundation');
+
+var input = $.NSFileHandle.fileHandleWithStandardInput;
+var output = $.NSFileHandle.fileHandleWithStandardOutput;
+
+function write(text)
+{
+    output.writeData($(text).dataUsingEncoding($.NSUTF8StringEncoding));
+}
+
+function execute(source, id)
+{
+    var error = Ref();
+    var result = $.NSAppleScript.alloc.initWithSource($(source)).executeAndReturnError(error);
+    var status = 0;
+    if (error[0] && !error[0].isNil())
+    {
+        var number = error[0].objectForKey('NSAppleScriptErrorNumber');
+        var message = error[0].objectForKey('NSAppleScriptErrorMessage');
+        status = number && !number.isNil() ? number.intValue : 1;
+        if (status == 0)
+        {
+            status = 1;
+        }
+        write((message && !message.isNil() ? message.js : 'AppleScript error') + '\n');
+    }
+    else if (result && !result.isNil() && !result.stringValue.isNil())
+    {
+        write(result.stringValue.js + '\n');
+    }
+    write('__ldtp_done__ ' + id + ' ' + status + '\n');
+}
+
+function run()
+{
+    var pending = '';
+    var script = [];
+    while (true)
+    {
+        var data = input.availableData;
+        if (data.length == 0)
+        {
+            return;
+        }
+        pending += $.NSString.alloc.initWithDataEncoding(data, $.NSUTF8StringEncoding).js;
+        var lines = pending.split('\n');
+        pending = lines.pop();
+        for (var i = 0; i < lines.length; i++)
+        {
+            if (lines[i].indexOf('__ldtp_end__ ') == 0)
+            {
+                execute(script.join('\n'), lines[i].substring('__ldtp_end__ '.length));
+                script = [];
+            }
+            else
+            {
+                script.push(lines[i]);
+            }
+        }
+    }
+}
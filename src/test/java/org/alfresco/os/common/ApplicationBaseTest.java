@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.os.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.utilities.FakeLdtpAgent;
+import org.alfresco.utilities.GuiModel;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Unit test for validation of the window waits of ApplicationBase, against a {@link FakeLdtpAgent}
+ */
+public class ApplicationBaseTest
+{
+    private GuiModel model;
+    private FakeLdtpAgent agent;
+    private ApplicationBase application;
+
+    @BeforeMethod
+    public void startAgent() throws Exception
+    {
+        model = new GuiModel();
+        model.window("frmUntitled-Notepad");
+        agent = FakeLdtpAgent.start(model);
+        application = new TestApplication(agent);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopAgent()
+    {
+        agent.stop();
+    }
+
+    @Test
+    public void testWaitForApplicationWindowMatchesPartialNames()
+    {
+        Assert.assertEquals(application.waitForApplicationWindow("Untitled*", false).getWindowName(), "frmUntitled-Notepad");
+
+        model.schedule(300, m -> m.window("dlgSave Document As"));
+        Assert.assertEquals(application.waitForApplicationWindow("Document", false).getWindowName(), "dlgSave Document As");
+    }
+
+    @Test
+    public void testWaitedWindowHandlesBelongToTheCaller() throws Exception
+    {
+        Ldtp window = application.waitForWindow("Untitled");
+        Assert.assertFalse(LdtpRegistry.isShared(window));
+        window.setWindowName("dlgSaveAs");
+        Assert.assertEquals(window.getWindowName(), "dlgSaveAs");
+    }
+
+    @Test
+    public void testFocusReplacesASharedHandle()
+    {
+        application.setWaitWindow("frmUntitled-Notepad");
+        application.setLdtp(LdtpRegistry.getInstance().get(agent.getTransport(), "dlgSaveAs"));
+        application.focus();
+
+        Assert.assertFalse(LdtpRegistry.isShared(application.getLdtp()));
+        Assert.assertEquals(application.getLdtp().getWindowName(), "frmUntitled-Notepad");
+        Assert.assertEquals(LdtpRegistry.getInstance().get(agent.getTransport(), "dlgSaveAs").getWindowName(), "dlgSaveAs");
+    }
+
+    @Test
+    public void testWaitUntilWindowIsClosedReturnsOnceAnotherWindowIsListed() throws Exception
+    {
+        model.schedule(300, m -> m.window("dlgSaveAs"));
+        long start = System.nanoTime();
+        application.waitUntilWindowIsClosed("Notepad");
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(elapsed >= 250 && elapsed < 3000, "Returned once a window not containing the name was listed: " + elapsed + "ms");
+    }
+
+    /**
+     * Application driven through the fake agent only
+     */
+    private static class TestApplication extends ApplicationBase
+    {
+        private final FakeLdtpAgent agent;
+
+        TestApplication(FakeLdtpAgent agent)
+        {
+            this.agent = agent;
+        }
+
+        @Override
+        protected Ldtp initializeLdtp()
+        {
+            return agent.newLdtp(" ");
+        }
+
+        @Override
+        public void exitApplication()
+        {
+        }
+
+        @Override
+        public ApplicationBase openApplication() throws Exception
+        {
+            return this;
+        }
+
+        @Override
+        public void closeWindow()
+        {
+        }
+
+        @Override
+        public void killProcess()
+        {
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.os.common;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.utilities.FakeLdtpAgent;
+import org.alfresco.utilities.GuiModel;
+import org.alfresco.utilities.WaitEngine;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of DialogSweeper class, against a {@link FakeLdtpAgent}
+ */
+public class DialogSweeperTest
+{
+    private GuiModel model;
+    private FakeLdtpAgent agent;
+    private DialogSweeper sweeper;
+
+    @BeforeMethod
+    public void startAgent() throws Exception
+    {
+        model = new GuiModel();
+        model.window("frmTextEdit").object("mnuApplication");
+        model.window("dlgSave").object("btnSave");
+        model.window("frmStubborn").object("btnOK");
+        model.window("dlgAlert").object("btnOK");
+        // ESC closes the most recent dlg window, frmStubborn never closes
+        model.onKeys("<esc>", m -> {
+            String[] names = m.getWindowNames();
+            for (int i = names.length - 1; i >= 0; i--)
+            {
+                if (names[i].startsWith("dlg"))
+                {
+                    m.removeWindow(names[i]);
+                    return;
+                }
+            }
+        });
+        agent = FakeLdtpAgent.start(model);
+        sweeper = new DialogSweeper(agent.getTransport());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopAgent()
+    {
+        agent.stop();
+    }
+
+    @Test
+    public void testSweepDismissesInOneBatchAndVerifies()
+    {
+        DialogSweeper.Result result = sweeper.sweep();
+
+        Assert.assertEquals(result.getDialogs(), Arrays.asList("dlgSave", "frmStubborn", "dlgAlert"));
+        Assert.assertEquals(result.getRemaining(), Arrays.asList("frmStubborn"));
+        Assert.assertFalse(result.isClean());
+        Assert.assertEquals(agent.getCallCount("system.multicall"), 2, "Each ESC sent with the next activation");
+        Assert.assertEquals(Arrays.asList(model.getWindowNames()), Arrays.asList("frmTextEdit", "frmStubborn"));
+    }
+
+    @Test
+    public void testClassificationIsKeptWhileTheWindowIsListed()
+    {
+        Assert.assertEquals(sweeper.findDialogs(), Arrays.asList("dlgSave", "frmStubborn", "dlgAlert"));
+        int fetched = agent.getCallCount("getobjectlist");
+        Assert.assertEquals(fetched, 4);
+
+        agent.getTransport().getWindowListCache().invalidate();
+        Assert.assertEquals(sweeper.findDialogs(), Arrays.asList("dlgSave", "frmStubborn", "dlgAlert"));
+        Assert.assertEquals(agent.getCallCount("getobjectlist"), fetched, "Known windows are not classified again");
+
+        model.removeWindow("dlgAlert");
+        agent.getTransport().getWindowListCache().invalidate();
+        Assert.assertEquals(sweeper.findDialogs(), Arrays.asList("dlgSave", "frmStubborn"));
+        Assert.assertEquals(sweeper.getClassifiedCount(), 3);
+
+        // missing from the last list: the window opened again may not be the same dialog
+        model.window("dlgAlert").object("mnuApplication");
+        agent.getTransport().getWindowListCache().invalidate();
+        Assert.assertEquals(sweeper.findDialogs(), Arrays.asList("dlgSave", "frmStubborn"));
+        Assert.assertEquals(agent.getCallCount("getobjectlist"), fetched + 1);
+    }
+
+    @Test
+    public void testMissingClassificationsAreFetchedConcurrently()
+    {
+        model.delay("getobjectlist", 400);
+        long start = System.nanoTime();
+        Assert.assertEquals(sweeper.findDialogs().size(), 3);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(elapsed < 1400, "Four windows classified in parallel: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testClassificationsLeaveTheRegistryAlone()
+    {
+        int registered = LdtpRegistry.getInstance().size();
+        Assert.assertEquals(sweeper.findDialogs().size(), 3);
+        Assert.assertEquals(LdtpRegistry.getInstance().size(), registered, "One-off classifications use handles of their own");
+    }
+
+    @Test
+    public void testSlowClassificationsDoNotHoldOtherCallers() throws Exception
+    {
+        model.delay("getobjectlist", 1500);
+        Thread first = new Thread(sweeper::findDialogs);
+        first.start();
+        WaitEngine.sleep(200);
+        long start = System.nanoTime();
+        Assert.assertEquals(sweeper.getClassifiedCount(), 4, "Classifications started");
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500, "The lock is not held while waiting");
+        first.join();
+    }
+
+    @Test
+    public void testDismissalsAreAwaitedThroughWindowEvents()
+    {
+        model.removeWindow("frmStubborn");
+        long start = System.nanoTime();
+        DialogSweeper.Result result = sweeper.sweep();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(result.isClean(), result.toString());
+        Assert.assertTrue(elapsed < 2000, "Closed dialogs are reported before the close timeout: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testNothingToSweep()
+    {
+        model.removeWindow("dlgSave").removeWindow("frmStubborn").removeWindow("dlgAlert");
+        DialogSweeper.Result result = sweeper.sweep();
+        Assert.assertTrue(result.isClean());
+        Assert.assertTrue(result.getDialogs().isEmpty());
+        Assert.assertEquals(agent.getCallCount("system.multicall"), 0);
+    }
+}
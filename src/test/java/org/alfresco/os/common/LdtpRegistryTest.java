@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.os.common;
+
+import org.alfresco.utilities.LdtpEndpoint;
+import org.alfresco.utilities.LdtpTransport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cobra.ldtp.Ldtp;
+
+/**
+ * Unit test for validation of LdtpRegistry class; the handles never reach an agent
+ */
+public class LdtpRegistryTest
+{
+    private final LdtpTransport transport = LdtpTransport.forEndpoint(new LdtpEndpoint("registry-test", 4118));
+
+    @Test
+    public void testHandlesAreSharedPerWindow()
+    {
+        LdtpRegistry registry = new LdtpRegistry(2);
+        Ldtp save = registry.get(transport, "dlgSaveAs");
+        Assert.assertTrue(registry.get(transport, "dlgSaveAs") == save);
+        registry.get(transport, "dlgOpen");
+        registry.get(transport, "dlgPrint");
+        Assert.assertEquals(registry.size(), 2);
+        Assert.assertFalse(registry.get(transport, "dlgSaveAs") == save, "Least recently used handle evicted");
+    }
+
+    @Test
+    public void testSharedHandlesCannotBeRenamed()
+    {
+        Ldtp extensions = new LdtpRegistry(4).get(transport, "Extensions");
+        extensions.setWindowName("Extensions");
+        try
+        {
+            extensions.setWindowName("Spotlight*");
+            Assert.fail("A shared handle must not be retargeted");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            Assert.assertEquals(extensions.getWindowName(), "Extensions");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.alfresco.os.mac.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Test ScriptHost class, backed by /bin/sh so it runs on any unix.
+ */
+public class ScriptHostTest
+{
+    private ScriptHost host;
+
+    @BeforeClass
+    public void startHost()
+    {
+        host = new ScriptHost(ScriptHost.SHELL, 2000);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopHost()
+    {
+        host.close();
+    }
+
+    @Test
+    public void testOutputAndStatusPerScript()
+    {
+        ScriptHost.Result ok = host.run("echo one\necho two >&2");
+        Assert.assertEquals(ok.getStatus(), 0);
+        Assert.assertEquals(ok.getOutput(), Arrays.asList("one", "two"));
+
+        ScriptHost.Result failed = host.run("printf partial; false");
+        Assert.assertEquals(failed.getStatus(), 1);
+        Assert.assertEquals(failed.getOutput(), Arrays.asList("partial"), "Output without new line kept");
+    }
+
+    @Test
+    public void testOneHostForAllScripts()
+    {
+        String first = host.run("echo $$").getOutput().get(0);
+        String second = host.run("echo $$").getOutput().get(0);
+        Assert.assertEquals(first, second, "Same interpreter process");
+    }
+
+    @Test
+    public void testConcurrentCallers() throws Exception
+    {
+        List<CompletableFuture<ScriptHost.Result>> results = new ArrayList<CompletableFuture<ScriptHost.Result>>();
+        for (int i = 0; i < 20; i++)
+        {
+            final int n = i;
+            results.add(CompletableFuture.supplyAsync(() -> host.submit("echo script" + n + "; exit_code=" + n % 3 + "; (exit $exit_code)"))
+                    .thenCompose(future -> future));
+        }
+        for (int i = 0; i < 20; i++)
+        {
+            ScriptHost.Result result = results.get(i).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(result.getOutput(), Arrays.asList("script" + i));
+            Assert.assertEquals(result.getStatus(), i % 3);
+        }
+    }
+
+    @Test
+    public void testRestartAfterExitAndTimeout() throws Exception
+    {
+        int restarts = host.getRestarts();
+        CompletableFuture<ScriptHost.Result> exit = host.submit("echo bye; exit 4");
+        CompletableFuture<ScriptHost.Result> after = host.submit("echo still here");
+        Assert.assertEquals(exit.get(10, TimeUnit.SECONDS).getStatus(), ScriptHost.Result.HOST_DIED);
+        Assert.assertEquals(exit.get().getOutput(), Arrays.asList("bye"));
+        Assert.assertEquals(after.get(10, TimeUnit.SECONDS).getOutput(), Arrays.asList("still here"), "Run again on a new host");
+
+        ScriptHost.Result slow = host.run("sleep 30");
+        Assert.assertTrue(slow.isTimedOut());
+        Assert.assertEquals(host.run("echo back").getOutput(), Arrays.asList("back"));
+        Assert.assertEquals(host.getRestarts(), restarts + 2);
+    }
+}
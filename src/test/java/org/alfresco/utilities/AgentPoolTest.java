@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Unit test for validation of AgentPool and LdtpSession classes, using two {@link FakeLdtpAgent}s as desktops
+ */
+public class AgentPoolTest
+{
+    private FakeLdtpAgent first;
+    private FakeLdtpAgent second;
+
+    @BeforeClass
+    public void startAgents() throws Exception
+    {
+        first = FakeLdtpAgent.start(new GuiModel().window("frmFirst").object("btnOK").model());
+        second = FakeLdtpAgent.start(new GuiModel().window("frmSecond").object("btnOK").model());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopAgents()
+    {
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void testSessionRoutesDefaultTransport() throws Exception
+    {
+        LdtpEndpoint before = LdtpTransport.getDefault().getEndpoint();
+        try (LdtpSession session = LdtpSession.open(second.getEndpoint()))
+        {
+            Assert.assertSame(LdtpSession.current(), session);
+            Assert.assertEquals(LdtpTransport.getDefault().getEndpoint(), second.getEndpoint());
+            Assert.assertEquals(Arrays.asList((Object[]) LdtpTransport.getDefault().execute("getwindowlist")), Arrays.asList("frmSecond"));
+            try (LdtpSession nested = LdtpSession.open(first.getEndpoint()))
+            {
+                Assert.assertEquals(LdtpTransport.getDefault().getEndpoint(), first.getEndpoint());
+            }
+            Assert.assertEquals(LdtpTransport.getDefault().getEndpoint(), second.getEndpoint());
+        }
+        Assert.assertNull(LdtpSession.current());
+        Assert.assertEquals(LdtpTransport.getDefault().getEndpoint(), before);
+    }
+
+    @Test
+    public void testAgentIsLeasedToOneThreadAtATime()
+    {
+        AgentPool pool = new AgentPool(Collections.singletonList(first.getEndpoint()));
+        LdtpSession session = pool.lease(1000);
+        Assert.assertEquals(pool.getIdleCount(), 0);
+        try
+        {
+            pool.lease(100);
+            Assert.fail("The only agent is already leased");
+        }
+        catch (LdtpExecutionError e)
+        {
+            // expected
+        }
+        session.close();
+        session.close();
+        Assert.assertEquals(pool.getIdleCount(), 1);
+        pool.lease(100).close();
+    }
+
+    @Test
+    public void testAgentNotAnsweringIsPutAside() throws Exception
+    {
+        FakeLdtpAgent stopped = FakeLdtpAgent.start(new GuiModel());
+        LdtpEndpoint dead = stopped.getEndpoint();
+        stopped.stop();
+
+        AgentPool pool = new AgentPool(Arrays.asList(dead, first.getEndpoint()));
+        try (LdtpSession session = pool.lease(5000))
+        {
+            Assert.assertEquals(session.getEndpoint(), first.getEndpoint());
+            Assert.assertTrue(pool.isDown(dead));
+        }
+    }
+
+    @Test
+    public void testRunAllSpreadsTasksOverAgents()
+    {
+        AgentPool pool = new AgentPool(Arrays.asList(first.getEndpoint(), second.getEndpoint()));
+        final Set<LdtpEndpoint> used = ConcurrentHashMap.newKeySet();
+        final AtomicInteger busy = new AtomicInteger();
+        final AtomicInteger maxBusy = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        List<Consumer<LdtpSession>> tasks = new ArrayList<Consumer<LdtpSession>>();
+        for (int i = 0; i < 10; i++)
+        {
+            tasks.add(session -> {
+                maxBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+                used.add(LdtpTransport.getDefault().getEndpoint());
+                WaitEngine.sleep(20);
+                busy.decrementAndGet();
+                done.incrementAndGet();
+            });
+        }
+        tasks.add(session -> {
+            throw new IllegalStateException("task failure");
+        });
+
+        List<Throwable> errors = pool.runAll(tasks);
+        Assert.assertEquals(errors.size(), 1);
+        Assert.assertEquals(done.get(), 10);
+        Assert.assertEquals(used.size(), 2, "Both desktops used");
+        Assert.assertEquals(maxBusy.get(), 2);
+        Assert.assertEquals(pool.getIdleCount(), 2, "Agents given back");
+    }
+
+    @Test
+    public void testParse()
+    {
+        Assert.assertEquals(AgentPool.parse("win7:4118, win10 ,"), Arrays.asList(new LdtpEndpoint("win7", 4118), new LdtpEndpoint("win10", 4118)));
+        Assert.assertTrue(AgentPool.parse(null).isEmpty());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Unit test for validation of AsyncLdtp ordering rules; the calls do not reach any agent
+ */
+public class AsyncLdtpTest
+{
+    private final AsyncLdtp async = AsyncLdtp.of(null);
+
+    @Test
+    public void testQueriesOverlapBetweenOrderedActions()
+    {
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        CompletableFuture<Integer> first = async.action(l -> step(events, "action1", 100));
+        CompletableFuture<Integer> query1 = async.query(l -> step(events, "query1", 200));
+        CompletableFuture<Integer> query2 = async.query(l -> step(events, "query2", 200));
+        CompletableFuture<Integer> second = async.action(l -> step(events, "action2", 0));
+        AsyncLdtp.await(second);
+
+        Assert.assertTrue(first.isDone() && query1.isDone() && query2.isDone());
+        Assert.assertEquals(events.get(0), "start action1");
+        Assert.assertEquals(events.get(1), "end action1");
+        Assert.assertTrue(events.subList(2, 4).containsAll(Arrays.asList("start query1", "start query2")),
+                "Queries run in parallel: " + events);
+        Assert.assertEquals(events.get(events.size() - 2), "start action2", "Action waits for previous queries: " + events);
+    }
+
+    @Test
+    public void testAwaitRethrowsLdtpErrors()
+    {
+        CompletableFuture<Integer> failed = async.action(l -> {
+            throw new LdtpExecutionError("Unable to find object btnMissing");
+        });
+        try
+        {
+            AsyncLdtp.await(failed);
+            Assert.fail("Error should be re-thrown");
+        }
+        catch (LdtpExecutionError e)
+        {
+            Assert.assertEquals(e.getMessage(), "Unable to find object btnMissing");
+        }
+        Assert.assertEquals(AsyncLdtp.await(async.action(l -> 1)), Integer.valueOf(1), "A failed action does not block the next ones");
+    }
+
+    @Test
+    public void testAwaitIsBounded()
+    {
+        CompletableFuture<Integer> never = new CompletableFuture<Integer>();
+        try
+        {
+            AsyncLdtp.await(never, 50);
+            Assert.fail("Await should give up");
+        }
+        catch (LdtpExecutionError e)
+        {
+            Assert.assertEquals(e.getMessage(), "No LDTP result after 50 ms");
+        }
+        Assert.assertFalse(never.isDone(), "The future is left to its other callers");
+    }
+
+    private static Integer step(List<String> events, String name, long millis)
+    {
+        events.add("start " + name);
+        WaitEngine.sleep(millis);
+        events.add("end " + name);
+        return 1;
+    }
+
+    @Test
+    public void testCallsRunWithTheSessionOfTheCaller()
+    {
+        LdtpEndpoint endpoint = new LdtpEndpoint("desktop-2", 4118);
+        try (LdtpSession session = LdtpSession.open(endpoint))
+        {
+            Assert.assertEquals(AsyncLdtp.await(async.query(l -> LdtpSession.currentEndpoint())), endpoint);
+            Assert.assertEquals(AsyncLdtp.await(async.action(l -> LdtpSession.currentEndpoint())), endpoint);
+        }
+        Assert.assertEquals(AsyncLdtp.await(async.query(l -> LdtpSession.currentEndpoint())), LdtpEndpoint.getDefault(),
+                "Worker threads do not keep the session");
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of CallTraceRecorder, CallTrace and CallTraceReplayer, driven through
+ * {@link FakeLdtpAgent}
+ */
+public class CallTraceTest
+{
+    private static GuiModel notepad()
+    {
+        GuiModel model = new GuiModel();
+        StringBuilder document = new StringBuilder();
+        while (document.length() < 10000)
+        {
+            document.append("long document ");
+        }
+        model.window("frmUntitled-Notepad").text("txt0", "hello").text("txt1", document.toString());
+        return model;
+    }
+
+    /**
+     * Record a few calls against a fresh agent
+     */
+    private static CallTrace record(Path file, long pauseMillis) throws Exception
+    {
+        FakeLdtpAgent agent = FakeLdtpAgent.start(notepad());
+        CallTraceRecorder recorder = new CallTraceRecorder(file, 64);
+        LdtpTransport transport = agent.getTransport();
+        transport.getClient().addInterceptor(recorder);
+        try
+        {
+            transport.execute("gettextvalue", "frmUntitled-Notepad", "txt0");
+            WaitEngine.sleep(pauseMillis);
+            transport.execute("generatekeyevent", "<ctrl>s");
+            try
+            {
+                transport.execute("gettextvalue", "frmUntitled-Notepad", "txtMissing");
+                Assert.fail("Unknown object is a fault");
+            }
+            catch (XmlRpcException e)
+            {
+                // expected
+            }
+            transport.execute("gettextvalue", "frmUntitled-Notepad", "txt1");
+            for (int i = 0; i < 50; i++)
+            {
+                transport.execute("gettextvalue", "frmUntitled-Notepad", "txt0");
+            }
+            Assert.assertTrue(recorder.flush(5000));
+        }
+        finally
+        {
+            transport.getClient().removeInterceptor(recorder);
+            recorder.close();
+            agent.stop();
+        }
+        Assert.assertEquals(recorder.getWritten() + recorder.getDropped(), 54);
+        return CallTrace.read(file);
+    }
+
+    @Test
+    public void testRecordAndRead() throws Exception
+    {
+        Path file = Files.createTempFile("ldtp", ".trace");
+        try
+        {
+            List<CallTrace.Call> calls = record(file, 0).getCalls();
+            Assert.assertTrue(calls.size() >= 4, "Most calls kept: " + calls.size());
+            CallTrace.Call text = calls.get(0);
+            Assert.assertEquals(text.getMethod(), "gettextvalue");
+            Assert.assertEquals(text.getParams(), new Object[] { "frmUntitled-Notepad", "txt0" });
+            Assert.assertEquals(text.getResult(), "hello");
+            Assert.assertFalse(text.isFailed());
+            Assert.assertTrue(text.getDurationNanos() > 0);
+            Assert.assertEquals(text.getThread(), Thread.currentThread().getName());
+
+            Assert.assertEquals(calls.get(1).getResult(), 1);
+            Assert.assertTrue(calls.get(1).getStartNanos() >= text.getStartNanos());
+            Assert.assertTrue(calls.get(2).isFailed());
+            Assert.assertTrue(calls.get(3).getResult() instanceof CallTrace.Elided, "Long result not kept in the trace");
+            Assert.assertTrue(Files.size(file) < 3000, "Names written once: " + Files.size(file) + " bytes");
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testReplayAgainstSlowerAgent() throws Exception
+    {
+        Path file = Files.createTempFile("ldtp", ".trace");
+        FakeLdtpAgent standIn = FakeLdtpAgent.start(notepad().delay("generatekeyevent", 100));
+        try
+        {
+            CallTrace trace = record(file, 300);
+            long start = System.nanoTime();
+            List<CallTrace.Call> replayed = new CallTraceReplayer(standIn.getTransport()).withSpeed(1).replay(trace);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            Assert.assertEquals(replayed.size(), trace.getCalls().size());
+            Assert.assertTrue(elapsed >= 300, "Original pauses kept: " + elapsed + "ms");
+            Assert.assertEquals(replayed.get(0).getResult(), "hello");
+            Assert.assertTrue(replayed.get(2).isFailed());
+            Assert.assertTrue(replayed.get(1).getDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(100), "Slower stand-in");
+
+            start = System.nanoTime();
+            new CallTraceReplayer(standIn.getTransport()).withSpeed(10).replay(trace);
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < elapsed, "Accelerated replay");
+
+            String comparison = CallTrace.compare(trace.getCalls(), replayed);
+            Assert.assertTrue(comparison.contains("generatekeyevent"), comparison);
+        }
+        finally
+        {
+            standIn.stop();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testTruncatedTrace() throws Exception
+    {
+        Path file = Files.createTempFile("ldtp", ".trace");
+        try
+        {
+            int calls = record(file, 0).getCalls().size();
+            byte[] content = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(content, content.length - 3));
+            Assert.assertEquals(CallTrace.read(file).getCalls().size(), calls - 1, "Calls before the cut kept");
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of CommandRunner class, using child JVMs as commands
+ */
+public class CommandRunnerTest
+{
+    private static CommandRunner chatty(int lines, int exitCode, long sleepMillis)
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return CommandRunner.of(java, "-cp", System.getProperty("java.class.path"), Chatty.class.getName(), String.valueOf(lines),
+                String.valueOf(exitCode), String.valueOf(sleepMillis));
+    }
+
+    @Test
+    public void testLargeOutputOnBothStreams() throws Exception
+    {
+        final AtomicInteger streamed = new AtomicInteger();
+        CommandRunner.Result result = chatty(50000, 3, 0).withMaxLines(100).onLine((stream, line) -> streamed.incrementAndGet()).run();
+
+        Assert.assertEquals(result.getExitCode(), 3);
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertFalse(result.isTimedOut());
+        Assert.assertEquals(result.getStdout().size(), 100);
+        Assert.assertEquals(result.getStdout().get(99), "out 49999", "Last lines kept");
+        Assert.assertEquals(result.getStderr().get(99), "err 49999");
+        Assert.assertEquals(result.getDroppedLines(), 2 * (50000 - 100));
+        Assert.assertEquals(streamed.get(), 100000, "Every line streamed");
+    }
+
+    @Test
+    public void testTimeout() throws Exception
+    {
+        long start = System.nanoTime();
+        CommandRunner.Result result = chatty(1, 0, 60000).withTimeout(500).run();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue(result.isTimedOut(), result.toString());
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertEquals(result.getStdout().get(0), "out 0", "Output read before the timeout is kept");
+        Assert.assertTrue(elapsed < 15000, "Stopped after the timeout: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testConcurrentCommands() throws Exception
+    {
+        List<CompletableFuture<CommandRunner.Result>> results = new ArrayList<CompletableFuture<CommandRunner.Result>>();
+        for (int i = 0; i < 4; i++)
+        {
+            results.add(chatty(10, i, 200).start());
+        }
+        for (int i = 0; i < 4; i++)
+        {
+            CommandRunner.Result result = results.get(i).get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(result.getExitCode(), i);
+            Assert.assertEquals(result.getOutput().split("\n").length, 20);
+        }
+    }
+
+    @Test
+    public void testCommandNotFound()
+    {
+        CompletableFuture<CommandRunner.Result> result = CommandRunner.of("no-such-command-" + System.nanoTime()).start();
+        Assert.assertTrue(result.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testDetachedLaunchOutlivesTheTimeout() throws Exception
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String previous = System.getProperty("ldtp.command.timeout");
+        System.setProperty("ldtp.command.timeout", "300");
+        try
+        {
+            LdtpUtils.execute(new String[] { java, "-cp", System.getProperty("java.class.path"), Chatty.class.getName(), "1", "0", "4321" });
+        }
+        finally
+        {
+            if (previous == null)
+            {
+                System.clearProperty("ldtp.command.timeout");
+            }
+            else
+            {
+                System.setProperty("ldtp.command.timeout", previous);
+            }
+        }
+        Thread.sleep(1500);
+        List<ProcessHandle> launched = new ArrayList<ProcessHandle>();
+        ProcessHandle.current().children().filter(child -> child.info().arguments().map(a -> Arrays.asList(a).contains("4321")).orElse(false))
+                .forEach(launched::add);
+        try
+        {
+            Assert.assertEquals(launched.size(), 1, "Still running after the command timeout");
+            Assert.assertFalse(ProcessLifecycleManager.getInstance().getAlive().contains(launched.get(0)), "Not tracked as a test process");
+        }
+        finally
+        {
+            launched.forEach(ProcessHandle::destroyForcibly);
+        }
+    }
+
+    public static class Chatty
+    {
+        public static void main(String[] args) throws InterruptedException
+        {
+            int lines = Integer.parseInt(args[0]);
+            for (int i = 0; i < lines; i++)
+            {
+                System.out.println("out " + i);
+                System.err.println("err " + i);
+            }
+            System.out.flush();
+            Thread.sleep(Long.parseLong(args[2]));
+            System.exit(Integer.parseInt(args[1]));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of ContentMatcher class
+ */
+public class ContentMatcherTest
+{
+    private Path file;
+
+    @BeforeMethod
+    public void createFile() throws IOException
+    {
+        file = Files.createTempFile("content", ".txt");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void removeFile() throws IOException
+    {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testStringContent() throws IOException
+    {
+        Files.write(file, "hello world".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(ContentMatcher.of("hello world", StandardCharsets.UTF_8).test(file));
+        Assert.assertFalse(ContentMatcher.of("hello", StandardCharsets.UTF_8).test(file), "Shorter content");
+        Assert.assertFalse(ContentMatcher.of("hello_world", StandardCharsets.UTF_8).test(file), "Same size, different content");
+        Assert.assertFalse(ContentMatcher.of("x").test(file.resolveSibling("missing.txt")));
+    }
+
+    @Test
+    public void testLargeContentAndDigest() throws Exception
+    {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        Files.write(file, content);
+
+        Assert.assertTrue(ContentMatcher.of(content).test(file));
+        byte[] changed = content.clone();
+        changed[changed.length - 1]++;
+        Assert.assertFalse(ContentMatcher.of(changed).test(file));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(content))
+        {
+            hex.append(String.format("%02x", b));
+        }
+        Assert.assertTrue(ContentMatcher.ofDigest("SHA-256", hex.toString()).test(file));
+        Assert.assertFalse(ContentMatcher.ofDigest("SHA-256", hex.reverse().toString()).test(file));
+    }
+
+    @Test
+    public void testWaitEndsWhenWriteCompletes() throws Exception
+    {
+        final File target = file.toFile();
+        Files.write(file, "draft".getBytes(StandardCharsets.UTF_8));
+        WaitEngine.getScheduler().schedule(() -> {
+            try
+            {
+                Files.write(file, "final content".getBytes(StandardCharsets.UTF_8));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }, 300, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        Assert.assertTrue(LdtpUtils.waitUntilFileHasContent(target, ContentMatcher.of("final content", StandardCharsets.UTF_8)));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(elapsed < 2000, "Wait ended right after the write: " + elapsed + "ms");
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.log4j.Logger;
+
+import com.cobra.ldtp.Ldtp;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * XML-RPC server answering the LDTP methods used by this library from a {@link GuiModel}, so GUI helpers can be
+ * exercised without a desktop:
+ * 
+ * <pre>
+ * GuiModel model = new GuiModel();
+ * model.window(&quot;frmUntitled-Notepad&quot;).object(&quot;txt0&quot;);
+ * FakeLdtpAgent agent = FakeLdtpAgent.start(model);
+ * Ldtp ldtp = agent.newLdtp(&quot;*Notepad&quot;);
+ * ...
+ * agent.stop();
+ * </pre>
+ * 
+ * The agent listens on the loopback interface. Unknown windows and objects are reported with the same kind of fault
+ * a real agent sends, and <code>system.multicall</code> is supported, as are window events once enabled with
+ * {@link GuiModel#windowEvents(boolean)}.
+ * Run {@link #main(String[])} to start an agent on a fixed port (default 4118) for a whole suite.
+ */
+public class FakeLdtpAgent
+{
+    private static Logger logger = Logger.getLogger(FakeLdtpAgent.class);
+    private static final int FAULT_CODE = 1;
+    private static final int METHOD_NOT_FOUND = -32601;
+    private static final int DEFAULT_TIMEOUT = 30;
+
+    private final GuiModel model;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LdtpEndpoint endpoint;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private FakeLdtpAgent(GuiModel model, int port) throws IOException
+    {
+        this.model = model;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newCachedThreadPool(new WaitEngine.DaemonThreadFactory("fake-ldtp-agent"));
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        this.endpoint = new LdtpEndpoint("127.0.0.1", server.getAddress().getPort());
+        logger.info("Fake LDTP agent listening on " + endpoint);
+    }
+
+    /**
+     * Start an agent on a free port
+     *
+     * @param model
+     * @return the started agent
+     * @throws IOException
+     */
+    public static FakeLdtpAgent start(GuiModel model) throws IOException
+    {
+        return new FakeLdtpAgent(model, 0);
+    }
+
+    /**
+     * @param model
+     * @param port
+     * @return the agent listening on <port>
+     * @throws IOException
+     */
+    public static FakeLdtpAgent start(GuiModel model, int port) throws IOException
+    {
+        return new FakeLdtpAgent(model, port);
+    }
+
+    /**
+     * Start an agent with an empty model. Usage: FakeLdtpAgent [port]
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : LdtpEndpoint.DEFAULT_PORT;
+        start(new GuiModel(), port);
+        Thread.currentThread().join();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public GuiModel getModel()
+    {
+        return model;
+    }
+
+    public LdtpEndpoint getEndpoint()
+    {
+        return endpoint;
+    }
+
+    /**
+     * @return the transport talking to this agent
+     */
+    public LdtpTransport getTransport()
+    {
+        return LdtpTransport.forEndpoint(endpoint);
+    }
+
+    /**
+     * @param windowName
+     * @return a handle for <windowName> talking to this agent
+     */
+    public Ldtp newLdtp(String windowName)
+    {
+        return getTransport().newLdtp(windowName);
+    }
+
+    /**
+     * @param method LDTP method name, i.e. getwindowlist
+     * @return number of calls of <method> received (calls inside system.multicall included)
+     */
+    public int getCallCount(String method)
+    {
+        AtomicInteger count = calls.get(method.toLowerCase());
+        return count == null ? 0 : count.get();
+    }
+
+    public void resetCallCounts()
+    {
+        calls.clear();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        String response;
+        try (InputStream body = exchange.getRequestBody())
+        {
+            XmlRpcCodec.Call call = XmlRpcCodec.parseCall(body);
+            response = XmlRpcCodec.encodeResponse(invoke(call.method, call.params));
+        }
+        catch (Fault e)
+        {
+            response = XmlRpcCodec.encodeFault(e.code, e.getMessage());
+        }
+        catch (Exception e)
+        {
+            logger.debug("Fake LDTP agent could not answer the request", e);
+            response = XmlRpcCodec.encodeFault(FAULT_CODE, e.toString());
+        }
+        byte[] bytes = XmlRpcCodec.toBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Answer one LDTP call from the model
+     */
+    Object invoke(String method, Object[] params) throws Fault
+    {
+        method = method.toLowerCase();
+        AtomicInteger count = calls.get(method);
+        if (count == null)
+        {
+            calls.putIfAbsent(method, new AtomicInteger());
+            count = calls.get(method);
+        }
+        count.incrementAndGet();
+        long delay = model.getDelay(method);
+        if (delay > 0)
+        {
+            WaitEngine.sleep(delay);
+        }
+        switch (method)
+        {
+            case "system.multicall":
+                return multicall(params);
+            case "isalive":
+                return true;
+            case "getwindowlist":
+                return model.getWindowNames();
+            case "getapplist":
+                return new Object[0];
+            case "getobjectlist":
+                return window(params, 0).getObjectNames();
+            case "guiexist":
+                return exists(string(params, 0), string(params, 1)) ? 1 : 0;
+            case "objectexist":
+                return exists(string(params, 0), string(params, 1)) ? 1 : 0;
+            case "waittillguiexist":
+                return waitFor(params, true);
+            case "waittillguinotexist":
+                return waitFor(params, false);
+            case "stateenabled":
+                GuiModel.Element element = findElement(params);
+                return element != null && element.isEnabled() ? 1 : 0;
+            case "click":
+            case "doubleclick":
+            case "mouseleftclick":
+            case "mouserightclick":
+            case "press":
+            case "check":
+            case "uncheck":
+            case "selecttab":
+                return click(element(params));
+            case "selectmenuitem":
+                return selectMenuItem(params);
+            case "generatekeyevent":
+            case "keypress":
+            case "keyrelease":
+                model.type(string(params, 0));
+                return 1;
+            case "enterstring":
+                if (params.length < 3)
+                {
+                    model.type(string(params, params.length - 1));
+                    return 1;
+                }
+                element(params).setText(element(params).getText() + string(params, 2));
+                return 1;
+            case "settextvalue":
+                element(params).setText(string(params, 2));
+                return 1;
+            case "appendtext":
+                element(params).setText(element(params).getText() + string(params, 2));
+                return 1;
+            case "gettextvalue":
+                return element(params).getText();
+            case "activatewindow":
+            case "grabfocus":
+                window(params, 0);
+                return 1;
+            case "closewindow":
+                model.removeWindow(window(params, 0).getName());
+                return 1;
+            case "launchapp":
+            case "mousemove":
+                return 1;
+            case "wait":
+                WaitEngine.sleep(params.length > 0 && params[0] instanceof Integer ? (Integer) params[0] * 1000L : 5000L);
+                return 1;
+            case "imagecapture":
+                return imageCapture();
+            case "registerevent":
+            case "deregisterevent":
+                if (!model.isWindowEvents())
+                {
+                    throw new Fault(METHOD_NOT_FOUND, "Method " + method + " is not supported by the fake agent");
+                }
+                return 1;
+            case "poll_events":
+                return model.pollEvent();
+            default:
+                throw new Fault(METHOD_NOT_FOUND, "Method " + method + " is not supported by the fake agent");
+        }
+    }
+
+    private Object[] multicall(Object[] params) throws Fault
+    {
+        if (params.length == 0 || !(params[0] instanceof Object[]))
+        {
+            throw new Fault(FAULT_CODE, "system.multicall expects an array of calls");
+        }
+        Object[] batch = (Object[]) params[0];
+        List<Object> results = new ArrayList<Object>(batch.length);
+        for (Object item : batch)
+        {
+            Map<?, ?> call = (Map<?, ?>) item;
+            Object callParams = call.get("params");
+            try
+            {
+                results.add(new Object[] { invoke(String.valueOf(call.get("methodName")),
+                        callParams instanceof Object[] ? (Object[]) callParams : new Object[0]) });
+            }
+            catch (Fault e)
+            {
+                results.add(XmlRpcCodec.fault(e.code, e.getMessage()));
+            }
+        }
+        return results.toArray();
+    }
+
+    private boolean exists(String windowName, String objectName)
+    {
+        GuiModel.Window window = windowName == null ? null : model.findWindow(windowName);
+        if (window == null)
+        {
+            return false;
+        }
+        return objectName == null || objectName.isEmpty() || window.get(objectName) != null;
+    }
+
+    private int waitFor(Object[] params, boolean appear)
+    {
+        final String windowName = string(params, 0);
+        final String objectName = string(params, 1);
+        int timeout = params.length > 2 && params[2] instanceof Integer ? (Integer) params[2] : DEFAULT_TIMEOUT;
+        boolean result = WaitEngine.until(() -> exists(windowName, objectName) == appear, new WaitPolicy(50, timeout * 1000L));
+        return result ? 1 : 0;
+    }
+
+    private int click(GuiModel.Element element) throws Fault
+    {
+        if (!element.isEnabled())
+        {
+            throw new Fault(FAULT_CODE, "Object state is disabled: " + element.getName());
+        }
+        element.click(model);
+        return 1;
+    }
+
+    private int selectMenuItem(Object[] params) throws Fault
+    {
+        GuiModel.Window window = window(params, 0);
+        String path = string(params, 1);
+        String item = path.substring(path.lastIndexOf(';') + 1);
+        GuiModel.Element element = window.get(path);
+        if (element == null)
+        {
+            element = window.get(item);
+        }
+        if (element == null)
+        {
+            throw new Fault(FAULT_CODE, "Unable to find menu item " + path + " in " + window.getName());
+        }
+        return click(element);
+    }
+
+    private String imageCapture() throws Fault
+    {
+        BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try
+        {
+            ImageIO.write(image, "png", png);
+        }
+        catch (IOException e)
+        {
+            throw new Fault(FAULT_CODE, "Unable to capture image: " + e.getMessage());
+        }
+        return Base64.getEncoder().encodeToString(png.toByteArray());
+    }
+
+    private GuiModel.Window window(Object[] params, int index) throws Fault
+    {
+        String windowName = string(params, index);
+        GuiModel.Window window = windowName == null ? null : model.findWindow(windowName);
+        if (window == null)
+        {
+            throw new Fault(FAULT_CODE, "Unable to find window " + windowName);
+        }
+        return window;
+    }
+
+    private GuiModel.Element findElement(Object[] params)
+    {
+        String windowName = string(params, 0);
+        String objectName = string(params, 1);
+        GuiModel.Window window = windowName == null ? null : model.findWindow(windowName);
+        return window == null || objectName == null ? null : window.get(objectName);
+    }
+
+    private GuiModel.Element element(Object[] params) throws Fault
+    {
+        GuiModel.Window window = window(params, 0);
+        String objectName = string(params, 1);
+        GuiModel.Element element = objectName == null ? null : window.get(objectName);
+        if (element == null)
+        {
+            throw new Fault(FAULT_CODE, "Unable to find object " + objectName + " in " + window.getName());
+        }
+        return element;
+    }
+
+    private static String string(Object[] params, int index)
+    {
+        return params.length > index && params[index] != null ? params[index].toString() : null;
+    }
+
+    /**
+     * XML-RPC fault sent back to the client
+     */
+    static class Fault extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+
+        Fault(int code, String message)
+        {
+            super(message);
+            this.code = code;
+        }
+    }
+}
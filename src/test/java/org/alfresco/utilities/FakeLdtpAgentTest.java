@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.Arrays;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of FakeLdtpAgent, driven through {@link LdtpTransport}
+ */
+public class FakeLdtpAgentTest
+{
+    private FakeLdtpAgent agent;
+    private LdtpTransport transport;
+
+    @BeforeClass
+    public void startAgent() throws Exception
+    {
+        GuiModel model = new GuiModel();
+        model.window("frmUntitled-Notepad").text("txt0", "hello").object("mnuFile");
+        model.onKeys("<ctrl>s", m -> m.window("dlgSaveAs").object("txtFilename").object("btnSave", saved -> saved.removeWindow("dlgSaveAs")));
+        agent = FakeLdtpAgent.start(model);
+        transport = agent.getTransport();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopAgent()
+    {
+        agent.stop();
+    }
+
+    @Test
+    public void testQueries() throws Exception
+    {
+        Assert.assertEquals(Arrays.asList((Object[]) transport.execute("getobjectlist", "*Notepad")), Arrays.asList("txt0", "mnuFile"));
+        Assert.assertEquals(transport.execute("gettextvalue", "frmUntitled-Notepad", "txt0"), "hello");
+        Assert.assertEquals(transport.execute("objectexist", "Untitled-Notepad", "mnuFile"), 1);
+        Assert.assertEquals(transport.execute("guiexist", "frmMissing"), 0);
+    }
+
+    @Test
+    public void testUnknownObjectIsAFault() throws Exception
+    {
+        try
+        {
+            transport.execute("click", "frmUntitled-Notepad", "btnMissing");
+            Assert.fail("Clicking a missing object should fail");
+        }
+        catch (XmlRpcException e)
+        {
+            Assert.assertTrue(e.getMessage().contains("btnMissing"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchedDialogWorkflow() throws Exception
+    {
+        new LdtpBatch(transport, "dlgSaveAs").keys("<ctrl>s").enter("txtFilename", "report.txt").call("gettextvalue", "dlgSaveAs", "txtFilename")
+                .click("btnSave").execute().assertSuccess();
+
+        Assert.assertTrue(transport.isMulticallSupported());
+        Assert.assertFalse(Arrays.asList((Object[]) transport.execute("getwindowlist")).contains("dlgSaveAs"), "Save closed the dialog");
+    }
+
+    @Test
+    public void testDelayedWindow() throws Exception
+    {
+        agent.getModel().schedule(200, m -> m.window("dlgProperties"));
+        Assert.assertEquals(transport.execute("guiexist", "dlgProperties"), 0);
+        Assert.assertEquals(transport.execute("waittillguiexist", "dlgProperties", "", 5, ""), 1);
+    }
+
+    @Test
+    public void testLongsAreNotTruncated()
+    {
+        StringBuilder xml = new StringBuilder();
+        XmlRpcCodec.encodeValue(xml, 42L);
+        Assert.assertEquals(xml.toString(), "<value><i4>42</i4></value>");
+        xml.setLength(0);
+        XmlRpcCodec.encodeValue(xml, 5000000000L);
+        Assert.assertEquals(xml.toString(), "<value><double>5.0E9</double></value>");
+    }
+
+    @Test
+    public void testLongsBeyondDoublePrecisionAreRejected()
+    {
+        try
+        {
+            XmlRpcCodec.encodeValue(new StringBuilder(), Long.MAX_VALUE);
+            Assert.fail("Long.MAX_VALUE cannot be sent without losing precision");
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of FileWaiter class
+ */
+public class FileWaiterTest
+{
+    private File folder;
+
+    @BeforeMethod
+    public void createFolder() throws IOException
+    {
+        folder = Files.createTempDirectory("filewaiter").toFile();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void removeFolder()
+    {
+        for (File file : folder.listFiles())
+        {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    @Test
+    public void testCreatedFileEndsTheWait() throws Exception
+    {
+        final File file = new File(folder, "saved.txt");
+        WaitEngine.getScheduler().schedule(() -> create(file), 300, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        Assert.assertTrue(FileWaiter.waitUntilExists(file, 10000));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(elapsed >= 250 && elapsed < 1500, "Wait ended right after the file was created: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testDeletedFileEndsTheWait() throws Exception
+    {
+        final File file = create(new File(folder, "moved.txt"));
+        WaitEngine.getScheduler().schedule(() -> file.delete(), 200, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(FileWaiter.waitUntilDeleted(file, 10000));
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSeveralFiles() throws Exception
+    {
+        final File first = new File(folder, "first.txt");
+        final File second = new File(folder, "second.txt");
+        WaitEngine.getScheduler().schedule(() -> create(first), 100, TimeUnit.MILLISECONDS);
+        WaitEngine.getScheduler().schedule(() -> create(second), 300, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(FileWaiter.waitUntilAllExist(Arrays.asList(first, second), 10000));
+        Assert.assertTrue(second.exists());
+    }
+
+    @Test
+    public void testTimeout()
+    {
+        long start = System.nanoTime();
+        Assert.assertFalse(FileWaiter.waitUntilExists(new File(folder, "never.txt"), 200));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        Assert.assertTrue(FileWaiter.waitUntilDeleted(new File(folder, "never.txt"), 200), "Missing file is already deleted");
+    }
+
+    @Test
+    public void testMissingFolderIsPolled()
+    {
+        final File file = new File(new File(folder, "sub"), "late.txt");
+        WaitEngine.getScheduler().schedule(() -> {
+            file.getParentFile().mkdir();
+            create(file);
+        }, 100, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(FileWaiter.waitUntilExists(file, 10000));
+        file.delete();
+        file.getParentFile().delete();
+    }
+
+    private static File create(File file)
+    {
+        try
+        {
+            Files.createFile(file.toPath());
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory description of a desktop, served by {@link FakeLdtpAgent}.
+ * Windows and their objects are declared with a fluent API:
+ * 
+ * <pre>
+ * GuiModel model = new GuiModel();
+ * model.window(&quot;frmUntitled-Notepad&quot;).object(&quot;txt0&quot;).object(&quot;mnuFile&quot;);
+ * model.window(&quot;dlgSaveAs&quot;).object(&quot;txtFilename&quot;).object(&quot;btnSave&quot;, m -&gt; m.removeWindow(&quot;dlgSaveAs&quot;));
+ * model.onKeys(&quot;&lt;ctrl&gt;s&quot;, m -&gt; m.window(&quot;dlgSaveAs&quot;));
+ * model.delay(&quot;getobjectlist&quot;, 200);
+ * </pre>
+ * 
+ * Windows and objects are matched like LDTP does: exact name, name without its role prefix, or a pattern where '*'
+ * matches any characters (case insensitive).
+ * All methods are thread safe.
+ */
+public class GuiModel
+{
+    private final Map<String, Window> windows = new LinkedHashMap<String, Window>();
+    private final Map<String, Long> delays = new ConcurrentHashMap<String, Long>();
+    private final Map<String, List<Consumer<GuiModel>>> keyBindings = new LinkedHashMap<String, List<Consumer<GuiModel>>>();
+    private final StringBuilder typedText = new StringBuilder();
+    private final Deque<String> events = new ArrayDeque<String>();
+    private boolean windowEvents;
+
+    /**
+     * Return the window named <name>, opening it if it does not exist yet
+     *
+     * @param name full window name, i.e. frmUntitled-Notepad
+     * @return Window
+     */
+    public synchronized Window window(String name)
+    {
+        Window window = windows.get(name);
+        if (window == null)
+        {
+            window = new Window(this, name);
+            windows.put(name, window);
+            event("window:create", name);
+        }
+        return window;
+    }
+
+    /**
+     * Close the window named <name>
+     *
+     * @param name full window name
+     * @return this model
+     */
+    public synchronized GuiModel removeWindow(String name)
+    {
+        if (windows.remove(name) != null)
+        {
+            event("window:destroy", name);
+        }
+        return this;
+    }
+
+    /**
+     * Make the agent accept registerevent and report window creation and destruction through poll_events, as agents
+     * with accessibility event support do. Without it the agent rejects registerevent.
+     *
+     * @param enabled
+     * @return this model
+     */
+    public synchronized GuiModel windowEvents(boolean enabled)
+    {
+        windowEvents = enabled;
+        events.clear();
+        return this;
+    }
+
+    public synchronized boolean isWindowEvents()
+    {
+        return windowEvents;
+    }
+
+    /**
+     * @return the oldest window event not polled yet, i.e. "window:create-dlgSaveAs", or an empty string
+     */
+    synchronized String pollEvent()
+    {
+        String event = events.pollFirst();
+        return event == null ? "" : event;
+    }
+
+    private void event(String type, String window)
+    {
+        if (windowEvents)
+        {
+            events.addLast(type + "-" + window);
+        }
+    }
+
+    /**
+     * Apply <change> after <delayMillis>, i.e. to simulate a window that takes time to open
+     *
+     * @param delayMillis
+     * @param change
+     * @return this model
+     */
+    public GuiModel schedule(long delayMillis, final Consumer<GuiModel> change)
+    {
+        WaitEngine.getScheduler().schedule(() -> change.accept(this), delayMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Make every call of <method> take at least <millis>
+     *
+     * @param method LDTP method name, i.e. getobjectlist
+     * @param millis
+     * @return this model
+     */
+    public GuiModel delay(String method, long millis)
+    {
+        delays.put(method.toLowerCase(), millis);
+        return this;
+    }
+
+    /**
+     * @param method
+     * @return delay added to each call of <method>
+     */
+    public long getDelay(String method)
+    {
+        Long delay = delays.get(method.toLowerCase());
+        return delay == null ? 0 : delay;
+    }
+
+    /**
+     * Run <handler> each time exactly <keys> are sent with generateKeyEvent
+     *
+     * @param keys i.e. "&lt;ctrl&gt;s"
+     * @param handler
+     * @return this model
+     */
+    public synchronized GuiModel onKeys(String keys, Consumer<GuiModel> handler)
+    {
+        List<Consumer<GuiModel>> handlers = keyBindings.get(keys);
+        if (handlers == null)
+        {
+            handlers = new ArrayList<Consumer<GuiModel>>();
+            keyBindings.put(keys, handlers);
+        }
+        handlers.add(handler);
+        return this;
+    }
+
+    /**
+     * @return full names of the opened windows, in opening order
+     */
+    public synchronized String[] getWindowNames()
+    {
+        return windows.keySet().toArray(new String[windows.size()]);
+    }
+
+    /**
+     * @param pattern window name or pattern
+     * @return the first window matching <pattern> or null
+     */
+    public synchronized Window findWindow(String pattern)
+    {
+        Window window = windows.get(pattern);
+        if (window != null)
+        {
+            return window;
+        }
+        for (Window candidate : windows.values())
+        {
+            if (matches(pattern, candidate.getName()))
+            {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return everything typed with generateKeyEvent or enterString outside of an object
+     */
+    public synchronized String getTypedText()
+    {
+        return typedText.toString();
+    }
+
+    /**
+     * Record <keys> typed on the keyboard and run the handlers bound to them
+     *
+     * @param keys
+     */
+    void type(String keys)
+    {
+        List<Consumer<GuiModel>> handlers;
+        synchronized (this)
+        {
+            typedText.append(keys);
+            List<Consumer<GuiModel>> bound = keyBindings.get(keys);
+            handlers = bound == null ? new ArrayList<Consumer<GuiModel>>() : new ArrayList<Consumer<GuiModel>>(bound);
+        }
+        for (Consumer<GuiModel> handler : handlers)
+        {
+            handler.accept(this);
+        }
+    }
+
+    /**
+     * @return true if <name> matches the LDTP <pattern>
+     */
+    static boolean matches(String pattern, String name)
+    {
+        if (pattern.equals(name))
+        {
+            return true;
+        }
+        StringBuilder regex = new StringBuilder();
+        for (String part : pattern.split("\\*", -1))
+        {
+            regex.append(regex.length() == 0 ? "" : ".*").append(Pattern.quote(part));
+        }
+        Pattern compiled = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        return compiled.matcher(name).matches() || compiled.matcher(name.replaceFirst("^[a-z]+", "")).matches();
+    }
+
+    /**
+     * One window of the model
+     */
+    public static class Window
+    {
+        private final GuiModel model;
+        private final String name;
+        private final Map<String, Element> objects = new LinkedHashMap<String, Element>();
+
+        Window(GuiModel model, String name)
+        {
+            this.model = model;
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Add an object without behaviour
+         *
+         * @param objectName full object name, i.e. btnSave
+         * @return this window
+         */
+        public Window object(String objectName)
+        {
+            return object(objectName, (Consumer<GuiModel>) null);
+        }
+
+        /**
+         * Add an object running <onClick> when it is clicked
+         *
+         * @param objectName
+         * @param onClick
+         * @return this window
+         */
+        public Window object(String objectName, Consumer<GuiModel> onClick)
+        {
+            synchronized (model)
+            {
+                Element element = new Element(objectName);
+                element.onClick = onClick;
+                objects.put(objectName, element);
+            }
+            return this;
+        }
+
+        /**
+         * Add an object holding <text>
+         *
+         * @param objectName
+         * @param text
+         * @return this window
+         */
+        public Window text(String objectName, String text)
+        {
+            object(objectName);
+            get(objectName).setText(text);
+            return this;
+        }
+
+        /**
+         * @param objectName object name or pattern
+         * @return the first object matching <objectName> or null
+         */
+        public Element get(String objectName)
+        {
+            synchronized (model)
+            {
+                Element element = objects.get(objectName);
+                if (element != null)
+                {
+                    return element;
+                }
+                for (Element candidate : objects.values())
+                {
+                    if (matches(objectName, candidate.getName()))
+                    {
+                        return candidate;
+                    }
+                }
+                return null;
+            }
+        }
+
+        public Window remove(String objectName)
+        {
+            synchronized (model)
+            {
+                objects.remove(objectName);
+            }
+            return this;
+        }
+
+        /**
+         * @return full names of the objects of this window, in declaration order
+         */
+        public String[] getObjectNames()
+        {
+            synchronized (model)
+            {
+                return objects.keySet().toArray(new String[objects.size()]);
+            }
+        }
+
+        /**
+         * @return the model, to continue the declaration
+         */
+        public GuiModel model()
+        {
+            return model;
+        }
+    }
+
+    /**
+     * One object (button, text field, menu, etc.) of a window
+     */
+    public static class Element
+    {
+        private final String name;
+        private volatile String text = "";
+        private volatile boolean enabled = true;
+        private volatile Consumer<GuiModel> onClick;
+
+        Element(String name)
+        {
+            this.name = name;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public String getText()
+        {
+            return text;
+        }
+
+        public Element setText(String text)
+        {
+            this.text = text == null ? "" : text;
+            return this;
+        }
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public Element setEnabled(boolean enabled)
+        {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Element onClick(Consumer<GuiModel> onClick)
+        {
+            this.onClick = onClick;
+            return this;
+        }
+
+        void click(GuiModel model)
+        {
+            Consumer<GuiModel> handler = onClick;
+            if (handler != null)
+            {
+                handler.accept(model);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of ImageComparator class
+ */
+public class ImageComparatorTest
+{
+    private BufferedImage image(int width, int height, int type)
+    {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(width / 4, height / 4, width / 2, height / 2);
+        graphics.dispose();
+        return image;
+    }
+
+    @Test
+    public void testIdenticalImages()
+    {
+        BufferedImage a = image(100, 80, BufferedImage.TYPE_INT_ARGB);
+        ImageComparator.Result result = ImageComparator.exact().compare(a, image(100, 80, BufferedImage.TYPE_3BYTE_BGR));
+        Assert.assertTrue(result.isMatch(), "Same pixels stored differently: " + result);
+        Assert.assertEquals(result.getMismatchedPixels(), 0);
+        Assert.assertEquals(result.getMismatchRatio(), 0.0);
+    }
+
+    @Test
+    public void testExactStopsOnFirstDifference()
+    {
+        BufferedImage a = image(100, 80, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage b = image(100, 80, BufferedImage.TYPE_INT_ARGB);
+        b.setRGB(5, 5, 0xff000000);
+        b.setRGB(6, 6, 0xff000000);
+        ImageComparator.Result result = ImageComparator.exact().compare(a, b);
+        Assert.assertFalse(result.isMatch());
+        Assert.assertEquals(result.getMismatchedPixels(), -1, "Not counted after the first difference");
+    }
+
+    @Test
+    public void testDifferentSizes()
+    {
+        ImageComparator.Result result = ImageComparator.exact().compare(image(10, 10, BufferedImage.TYPE_INT_ARGB),
+                image(10, 11, BufferedImage.TYPE_INT_ARGB));
+        Assert.assertFalse(result.isMatch());
+        Assert.assertEquals(result.getMismatchRatio(), 1.0);
+    }
+
+    @Test
+    public void testTolerance()
+    {
+        BufferedImage a = image(50, 50, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage b = image(50, 50, BufferedImage.TYPE_INT_ARGB);
+        b.setRGB(0, 0, 0xfffafafa);
+        Assert.assertFalse(ImageComparator.exact().compare(a, b).isMatch());
+        Assert.assertTrue(ImageComparator.exact().withTolerance(5).compare(a, b).isMatch());
+        Assert.assertFalse(ImageComparator.exact().withTolerance(4).compare(a, b).isMatch());
+    }
+
+    @Test
+    public void testIgnoredRegionAndRatio()
+    {
+        BufferedImage a = image(100, 100, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage b = image(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = b.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(90, 0, 10, 10);
+        graphics.dispose();
+
+        Assert.assertTrue(ImageComparator.exact().ignoring(new Rectangle(85, 0, 50, 15)).compare(a, b).isMatch());
+        ImageComparator.Result result = ImageComparator.exact().withMaxMismatchRatio(0.5).compare(a, b);
+        Assert.assertTrue(result.isMatch());
+        Assert.assertEquals(result.getMismatchedPixels(), 100);
+        Assert.assertEquals(result.getMismatchRatio(), 0.01, 0.0001);
+        Assert.assertFalse(ImageComparator.exact().withMaxMismatchRatio(0.005).compare(a, b).isMatch());
+    }
+
+    @Test
+    public void testParallelComparisonCountsEveryPixel()
+    {
+        BufferedImage a = image(1024, 768, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage b = image(1024, 768, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 768; y += 7)
+        {
+            b.setRGB(y % 1024, y, 0xff00ff00);
+        }
+        ImageComparator.Result result = ImageComparator.exact().withMaxMismatchRatio(1).withDiffImage().compare(a, b);
+        Assert.assertEquals(result.getMismatchedPixels(), 110);
+        Assert.assertEquals(result.getDiffImage().getRGB(7, 7), 0xffff0000, "Difference shown in red");
+        Assert.assertFalse(result.getDiffImage().getRGB(8, 7) == 0xffff0000, "Same pixel faded");
+    }
+
+    @Test
+    public void testPerceptualHash()
+    {
+        BufferedImage a = image(200, 200, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage b = image(200, 200, BufferedImage.TYPE_INT_ARGB);
+        b.setRGB(1, 1, 0xfffefefe);
+        BufferedImage inverted = new BufferedImage(200, 200, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 200; y++)
+        {
+            for (int x = 0; x < 200; x++)
+            {
+                inverted.setRGB(x, y, a.getRGB(x, y) ^ 0x00ffffff);
+            }
+        }
+        Assert.assertEquals(ImageComparator.perceptualHash(a), ImageComparator.perceptualHash(b));
+        ImageComparator.Result result = ImageComparator.exact().withHashPrefilter(4).compare(a, inverted);
+        Assert.assertFalse(result.isMatch());
+        Assert.assertTrue(Double.isNaN(result.getMismatchRatio()), "Rejected by the hash: " + result);
+    }
+
+    @Test
+    public void testCompareFiles() throws IOException
+    {
+        File first = File.createTempFile("image", ".png");
+        File second = File.createTempFile("image", ".png");
+        File diff = File.createTempFile("diff", ".png");
+        try
+        {
+            ImageIO.write(image(60, 40, BufferedImage.TYPE_INT_RGB), "png", first);
+            ImageIO.write(image(60, 40, BufferedImage.TYPE_INT_RGB), "png", second);
+            Assert.assertTrue(LdtpUtils.compareImages(first, second));
+
+            BufferedImage changed = image(60, 40, BufferedImage.TYPE_INT_RGB);
+            changed.setRGB(0, 0, 0);
+            ImageIO.write(changed, "png", second);
+            Assert.assertFalse(LdtpUtils.compareImages(first, second));
+            LdtpUtils.compareImages(first, second, ImageComparator.exact().withMaxMismatchRatio(1).withDiffImage()).writeDiffImage(diff);
+            Assert.assertEquals(ImageIO.read(diff).getWidth(), 60);
+        }
+        finally
+        {
+            first.delete();
+            second.delete();
+            diff.delete();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of KeySequence class
+ */
+public class KeySequenceTest
+{
+    @Test
+    public void testPlainTextIsNotCopied()
+    {
+        String text = "Hello World 123";
+        Assert.assertSame(KeySequence.encode(text), text);
+    }
+
+    @Test
+    public void testSpecialCharacters()
+    {
+        Assert.assertEquals(KeySequence.encode("<img src=\"a\">"), "<shift>,img src=\"a\"<shift>.");
+        Assert.assertEquals(KeySequence.encode("a\r\nb\nc\td"), "a<enter>b<enter>c<tab>d");
+        Assert.assertEquals(LdtpUtils.toLdapString("<p>"), "<shift>,p<shift>.");
+        Assert.assertEquals(KeySequence.encode("<p>"), KeySequence.encode("<p>"), "Same result from the cache");
+    }
+
+    @Test
+    public void testBuilder()
+    {
+        String keys = KeySequence.builder().press(KeySequence.Key.COMMAND, 'a').text("a<b").press(KeySequence.Key.ENTER).build();
+        Assert.assertEquals(keys, "<command>aa<shift>,b<enter>");
+        Assert.assertEquals(KeySequence.builder().press(KeySequence.Key.COMMAND, KeySequence.Key.SHIFT, KeySequence.Key.UP).build(),
+                "<command><shift><up>");
+    }
+
+    @Test
+    public void testSplitKeepsKeysWhole()
+    {
+        String keys = KeySequence.encode("ab<cd>\nef");
+        List<String> chunks = KeySequence.split(keys, 4);
+        StringBuilder joined = new StringBuilder();
+        for (String chunk : chunks)
+        {
+            joined.append(chunk);
+            Assert.assertFalse(chunk.endsWith("<shift>"), "Modifier kept with its key: " + chunks);
+            Assert.assertEquals(chunk.chars().filter(c -> c == '<').count(), chunk.chars().filter(c -> c == '>').count(), chunk);
+        }
+        Assert.assertEquals(joined.toString(), keys);
+        Assert.assertEquals(chunks.get(0), "ab");
+        Assert.assertEquals(chunks.get(1), "<shift>,", "Longer than the chunk size, but alone");
+        Assert.assertEquals(KeySequence.split("abcdefgh", 3).size(), 3);
+        Assert.assertEquals(KeySequence.split("abc", 3).size(), 1);
+    }
+
+    @Test
+    public void testTypeLongText() throws Exception
+    {
+        FakeLdtpAgent agent = FakeLdtpAgent.start(new GuiModel());
+        try
+        {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 200; i++)
+            {
+                text.append("<li>line ").append(i).append("</li>\n");
+            }
+            KeySequence.type(agent.newLdtp("*"), text.toString());
+            Assert.assertEquals(agent.getModel().getTypedText(), KeySequence.encode(text.toString()));
+            Assert.assertTrue(agent.getCallCount("enterstring") > 1, "Typed in several chunks");
+            Assert.assertEquals(agent.getCallCount("system.multicall"), 1, "Chunks sent in one request");
+        }
+        finally
+        {
+            agent.stop();
+        }
+    }
+}
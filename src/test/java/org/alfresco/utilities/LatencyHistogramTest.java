@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of LatencyHistogram class
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBucketsCoverValues()
+    {
+        for (long value : new long[] { 0, 1, 63, 64, 65, 1000, 123456, 99999999L })
+        {
+            int index = LatencyHistogram.indexOf(value);
+            Assert.assertTrue(LatencyHistogram.highestValueOf(index) >= value, "Bucket upper bound of " + value);
+            if (index > 0)
+            {
+                Assert.assertTrue(LatencyHistogram.highestValueOf(index - 1) < value, "Previous bucket below " + value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+        {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i * 10));
+        }
+        Assert.assertEquals(histogram.getCount(), 1000);
+        Assert.assertEquals(histogram.getMaxMicros(), 10000);
+        Assert.assertEquals(histogram.getMeanMicros(), 5005.0, 1.0);
+        assertClose(histogram.getPercentileMicros(50), 5000);
+        assertClose(histogram.getPercentileMicros(90), 9000);
+        assertClose(histogram.getPercentileMicros(99), 9900);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertEquals(histogram.getPercentileMicros(99), 0);
+        Assert.assertEquals(histogram.getMeanMicros(), 0.0);
+    }
+
+    private void assertClose(long actual, long expected)
+    {
+        Assert.assertTrue(Math.abs(actual - expected) <= expected / 16, "Expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.cobra.ldtp.LdtpExecutionError;
+
+/**
+ * Unit test for validation of LdtpBatch class, using a client that never reaches an agent
+ */
+public class LdtpBatchTest
+{
+    /**
+     * Client recording the calls that reach the "agent"; the "btnMissing" object does not exist
+     */
+    private static class RecordingClient extends LdtpRpcClient
+    {
+        private final boolean multicall;
+        private final List<String> calls = new ArrayList<String>();
+        private String multicallFault;
+
+        RecordingClient(boolean multicall)
+        {
+            this.multicall = multicall;
+        }
+
+        @Override
+        protected Object invoke(XmlRpcRequest request) throws XmlRpcException
+        {
+            calls.add(request.getMethodName());
+            if (request.getMethodName().equals("system.multicall"))
+            {
+                if (!multicall)
+                {
+                    throw new XmlRpcException(1, "method \"system.multicall\" is not supported");
+                }
+                if (multicallFault != null)
+                {
+                    throw new XmlRpcException(1, multicallFault);
+                }
+                Object[] batch = (Object[]) request.getParameter(0);
+                Object[] responses = new Object[batch.length];
+                for (int i = 0; i < batch.length; i++)
+                {
+                    Object[] params = (Object[]) ((Map<?, ?>) batch[i]).get("params");
+                    responses[i] = new Object[] { answer(params) };
+                }
+                return responses;
+            }
+            Object[] params = new Object[request.getParameterCount()];
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = request.getParameter(i);
+            }
+            return answer(params);
+        }
+
+        private Object answer(Object[] params)
+        {
+            return params.length > 1 && "btnMissing".equals(params[1]) ? 0 : 1;
+        }
+    }
+
+    private LdtpTransport transport(RecordingClient client)
+    {
+        return new LdtpTransport(new LdtpEndpoint("localhost", LdtpEndpoint.DEFAULT_PORT), client);
+    }
+
+    @Test
+    public void testStepsAreSentInOneRoundTrip()
+    {
+        RecordingClient client = new RecordingClient(true);
+        LdtpBatch.Result result = new LdtpBatch(transport(client), "dlgSaveAs").keys("<command>a").enter("a.txt").click("btnSave").execute();
+
+        Assert.assertTrue(result.isSuccessful(), result.toString());
+        Assert.assertEquals(result.size(), 3);
+        Assert.assertEquals(result.getResult(2), 1);
+        Assert.assertEquals(client.calls.size(), 1, "One round trip: " + client.calls);
+    }
+
+    @Test
+    public void testWindowBoundStepsEndTheirRoundTrip()
+    {
+        RecordingClient client = new RecordingClient(true);
+        new LdtpBatch(transport(client), "dlgSaveAs").keys("<command>a").enter("txtFilename", "a.txt").click("btnSave").execute().assertSuccess();
+        Assert.assertEquals(client.calls.toString(), "[system.multicall, click]", "btnSave clicked once the name was entered");
+    }
+
+    @Test
+    public void testPerStepErrors()
+    {
+        RecordingClient client = new RecordingClient(true);
+        LdtpBatch.Result result = new LdtpBatch(transport(client), "dlgSaveAs").click("btnMissing").click("btnSave").execute();
+
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertNotNull(result.getError(0));
+        Assert.assertNotNull(result.getError(1), "Steps after a failure are not executed");
+        Assert.assertEquals(client.calls.toString(), "[click]");
+        try
+        {
+            result.assertSuccess();
+            Assert.fail("The failed step should be reported");
+        }
+        catch (LdtpExecutionError e)
+        {
+            Assert.assertTrue(e.getMessage().contains("btnMissing"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFallbackToSequentialCalls()
+    {
+        RecordingClient client = new RecordingClient(false);
+        LdtpTransport transport = transport(client);
+        LdtpBatch.Result result = new LdtpBatch(transport, "dlgSaveAs").keys("<enter>").click("btnMissing").click("btnSave").execute();
+
+        Assert.assertFalse(transport.isMulticallSupported());
+        Assert.assertEquals(result.getResult(0), 1);
+        Assert.assertNotNull(result.getError(1));
+        Assert.assertNotNull(result.getError(2), "Steps after a failure are not executed");
+        Assert.assertEquals(client.calls.toString(), "[system.multicall, generatekeyevent, click]");
+
+        client.calls.clear();
+        new LdtpBatch(transport, "dlgSaveAs").keys("<enter>").execute().assertSuccess();
+        Assert.assertEquals(client.calls.toString(), "[generatekeyevent]", "Multicall is not tried again");
+    }
+
+    @Test
+    public void testAgentFaultKeepsMulticall()
+    {
+        RecordingClient client = new RecordingClient(true);
+        client.multicallFault = "Window dlgSaveAs not found";
+        LdtpTransport transport = transport(client);
+        LdtpBatch.Result result = new LdtpBatch(transport, "dlgSaveAs").keys("<command>a").keys("<enter>").execute();
+
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertTrue(transport.isMulticallSupported(), "Only a missing system.multicall disables it");
+        Assert.assertEquals(client.calls.toString(), "[system.multicall]");
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of LdtpConfig class
+ */
+public class LdtpConfigTest
+{
+    private File file;
+
+    @BeforeClass
+    public void createConfig() throws IOException
+    {
+        file = File.createTempFile("alfresco-ldtp", ".properties");
+        write("office.root=C:/Program Files\nwin.office2013.path=${office.root}/Office15\ncifs.path=\\\\\\\\server\\\\alfresco\n");
+        System.setProperty("ldtp.config", file.getPath());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void removeConfig()
+    {
+        System.clearProperty("ldtp.config");
+        System.clearProperty("cifs.path");
+        file.delete();
+        LdtpConfig.reload();
+    }
+
+    @Test
+    public void testPlaceholdersAreResolvedOnce()
+    {
+        Map<String, String> raw = new HashMap<String, String>();
+        raw.put("root", "C:");
+        raw.put("office", "${root}/Office");
+        raw.put("path", "${office}/15 and ${office}/16");
+        raw.put("unknown", "${missing}/x");
+        raw.put("self", "a${self}b");
+        Map<String, String> resolved = LdtpConfig.resolve(raw);
+        Assert.assertEquals(resolved.get("path"), "C:/Office/15 and C:/Office/16");
+        Assert.assertEquals(resolved.get("unknown"), "${missing}/x");
+        Assert.assertEquals(resolved.get("self"), "a${self}b");
+    }
+
+    @Test
+    public void testCycleKeepsPlaceholder()
+    {
+        Properties properties = new Properties();
+        properties.setProperty("a", "${b}-a");
+        properties.setProperty("b", "${a}-b");
+        LdtpConfig config = LdtpConfig.of(properties);
+        Assert.assertTrue(config.get("a").contains("${"), config.get("a"));
+        Assert.assertTrue(config.get("b").contains("${"), config.get("b"));
+    }
+
+    @Test
+    public void testSystemPropertyOverridesFile()
+    {
+        Assert.assertEquals(LdtpConfig.reload().get("win.office2013.path"), "C:/Program Files/Office15");
+        System.setProperty("cifs.path", "\\\\other\\alfresco");
+        try
+        {
+            Assert.assertEquals(LdtpConfig.reload().get("cifs.path"), "\\\\other\\alfresco");
+        }
+        finally
+        {
+            System.clearProperty("cifs.path");
+        }
+        Assert.assertEquals(LdtpConfig.reload().get("cifs.path"), "\\\\server\\alfresco");
+        Assert.assertEquals(LdtpConfig.getInstance().get("missing", "default"), "default");
+    }
+
+    @Test(dependsOnMethods = "testSystemPropertyOverridesFile")
+    public void testFileChangeIsReloaded() throws IOException
+    {
+        LdtpConfig.getInstance();
+        write("office.root=D:/Office\nwin.office2013.path=${office.root}/Office15\n");
+        Assert.assertTrue(WaitEngine.until(() -> "D:/Office/Office15".equals(LdtpConfig.getInstance().get("win.office2013.path")), new WaitPolicy(
+                100, 30000)), "Configuration reloaded");
+    }
+
+    private void write(String content) throws IOException
+    {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.List;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of LdtpMetrics class, driven through {@link FakeLdtpAgent}
+ */
+public class LdtpMetricsTest
+{
+    private FakeLdtpAgent agent;
+    private LdtpTransport transport;
+
+    @BeforeClass
+    public void startAgent() throws Exception
+    {
+        GuiModel model = new GuiModel();
+        model.window("frmUntitled-Notepad").text("txt0", "hello");
+        agent = FakeLdtpAgent.start(model);
+        transport = agent.getTransport();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopAgent()
+    {
+        agent.stop();
+    }
+
+    @BeforeMethod
+    public void reset()
+    {
+        LdtpMetrics.getInstance().reset();
+    }
+
+    @Test
+    public void testCallsAreRecordedPerMethodAndWindow() throws Exception
+    {
+        transport.execute("gettextvalue", "frmUntitled-Notepad", "txt0");
+        transport.execute("gettextvalue", "frmUntitled-Notepad", "txt0");
+        transport.execute("generatekeyevent", "<ctrl>s");
+        try
+        {
+            transport.execute("gettextvalue", "frmUntitled-Notepad", "txtMissing");
+            Assert.fail("Unknown object is a fault");
+        }
+        catch (XmlRpcException e)
+        {
+            // expected
+        }
+
+        LdtpMetrics.Stat text = find(LdtpMetrics.getInstance().getCallStats(), "gettextvalue");
+        Assert.assertEquals(text.getWindow(), "frmUntitled-Notepad");
+        Assert.assertEquals(text.getCount(), 3);
+        Assert.assertEquals(text.getErrors(), 1);
+        Assert.assertTrue(text.getMaxMicros() > 0);
+        Assert.assertEquals(find(LdtpMetrics.getInstance().getCallStats(), "generatekeyevent").getWindow(), "-");
+    }
+
+    @Test
+    public void testWaitsAreAttributedToTheCaller()
+    {
+        WaitEngine.until(() -> false, new WaitPolicy(10, 50));
+        LdtpMetrics.Stat wait = find(LdtpMetrics.getInstance().getWaitStats(), "LdtpMetricsTest.testWaitsAreAttributedToTheCaller");
+        Assert.assertEquals(wait.getCount(), 1);
+        Assert.assertEquals(wait.getErrors(), 1, "Timed out");
+        Assert.assertTrue(wait.getParkedMicros() > 0);
+    }
+
+    @Test
+    public void testDelegatingHelpersAreSkipped()
+    {
+        LdtpUtils.waitToLoopTime(0);
+        LdtpMetrics.Stat wait = find(LdtpMetrics.getInstance().getWaitStats(), "LdtpMetricsTest.testDelegatingHelpersAreSkipped");
+        Assert.assertEquals(wait.getCount(), 1);
+    }
+
+    @Test
+    public void testWindowsBeyondTheLimitAreAggregated()
+    {
+        for (int i = 0; i < 250; i++)
+        {
+            LdtpMetrics.getInstance().recordCall("guiexist", "dlgWindow" + i, 1000, false);
+        }
+        List<LdtpMetrics.Stat> stats = LdtpMetrics.getInstance().getCallStats();
+        Assert.assertEquals(stats.size(), 201, "200 windows and the aggregate");
+        Assert.assertEquals(findWindow(stats, LdtpMetrics.OTHER_WINDOWS).getCount(), 50);
+    }
+
+    @Test
+    public void testFormatTable() throws Exception
+    {
+        transport.execute("gettextvalue", "frmUntitled-Notepad", "txt0");
+        String table = LdtpMetrics.getInstance().formatTable();
+        Assert.assertTrue(table.contains("gettextvalue"), table);
+        Assert.assertTrue(table.contains("frmUntitled-Notepad"), table);
+    }
+
+    private LdtpMetrics.Stat find(List<LdtpMetrics.Stat> stats, String name)
+    {
+        for (LdtpMetrics.Stat stat : stats)
+        {
+            if (stat.getName().equals(name))
+            {
+                return stat;
+            }
+        }
+        throw new AssertionError(name + " not found in " + stats);
+    }
+
+    private LdtpMetrics.Stat findWindow(List<LdtpMetrics.Stat> stats, String window)
+    {
+        for (LdtpMetrics.Stat stat : stats)
+        {
+            if (window.equals(stat.getWindow()))
+            {
+                return stat;
+            }
+        }
+        throw new AssertionError(window + " not found in " + stats);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.alfresco.utilities.ObjectIndex.Role;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of ObjectIndex class
+ */
+public class ObjectIndexTest
+{
+    private static final String[] OBJECTS = { "btnSave", "btnSaveAs", "txtFileName", "mnuSaveDocumentAs", "lstRecent", "lblFile name:", "ok",
+            "btnCancel" };
+
+    @Test
+    public void testResolveKeepsListOrder()
+    {
+        ObjectIndex index = new ObjectIndex(OBJECTS);
+        Assert.assertEquals(index.resolve("Save"), "btnSave");
+        Assert.assertEquals(index.resolve("saveas"), "btnSaveAs");
+        Assert.assertEquals(index.resolve("File.Name"), "txtFileName");
+        Assert.assertEquals(index.resolve("Cancel"), "btnCancel");
+        Assert.assertNull(index.resolve("Missing"));
+    }
+
+    @Test
+    public void testRoleFilters()
+    {
+        ObjectIndex index = new ObjectIndex(OBJECTS);
+        Assert.assertEquals(index.resolve(Role.MENU, "Save"), "mnuSaveDocumentAs");
+        Assert.assertEquals(index.resolve(Role.TEXT, "File"), "txtFileName");
+        Assert.assertNull(index.resolve(Role.LIST, "Save"));
+        Assert.assertEquals(index.withRole(Role.BUTTON), Arrays.asList("btnSave", "btnSaveAs", "btnCancel"));
+    }
+
+    @Test
+    public void testResolveAllWithWildcards()
+    {
+        ObjectIndex index = new ObjectIndex(OBJECTS);
+        Assert.assertEquals(index.resolveAll("Save*As"), Arrays.asList("btnSaveAs", "mnuSaveDocumentAs"));
+        Assert.assertEquals(index.resolveAll(Role.BUTTON, "Save"), Arrays.asList("btnSave", "btnSaveAs"));
+        Assert.assertEquals(index.resolveAll("*").size(), OBJECTS.length);
+    }
+
+    @Test
+    public void testIndexMatchesLinearScan()
+    {
+        Random random = new Random(42);
+        String alphabet = "abcdeSAVE.";
+        List<String> objects = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++)
+        {
+            objects.add("btn" + randomWord(random, alphabet, 2 + random.nextInt(12)));
+        }
+        String[] list = objects.toArray(new String[objects.size()]);
+        ObjectIndex index = new ObjectIndex(list);
+        for (int i = 0; i < 500; i++)
+        {
+            String partial = randomWord(random, alphabet, 1 + random.nextInt(5));
+            Assert.assertEquals(index.resolve(partial), linearScan(list, partial), "Lookup of " + partial);
+        }
+    }
+
+    private static String linearScan(String[] objects, String partial)
+    {
+        partial = partial.toLowerCase().replace(".", "");
+        for (String object : objects)
+        {
+            if (object.substring(3).toLowerCase().contains(partial))
+            {
+                return object;
+            }
+        }
+        return null;
+    }
+
+    private static String randomWord(Random random, String alphabet, int length)
+    {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return word.toString();
+    }
+}
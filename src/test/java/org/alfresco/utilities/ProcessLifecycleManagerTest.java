@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of ProcessLifecycleManager class, using child JVMs as processes
+ */
+public class ProcessLifecycleManagerTest
+{
+    @Test
+    public void testDestroyStopsProcessTreeOfOwner() throws Exception
+    {
+        Object owner = new Object();
+        ProcessLifecycleManager manager = ProcessLifecycleManager.getInstance();
+        String marker = "lifecycle-" + UUID.randomUUID();
+        Process parent = manager.track(owner, startJvm(Spawner.class, marker));
+        ProcessMonitor.getInstance().whenStarted(marker + "-child").get(20, TimeUnit.SECONDS);
+
+        List<ProcessHandle> alive = manager.getAlive(owner);
+        Assert.assertEquals(alive.size(), 2, "Parent and child tracked: " + alive);
+        Assert.assertTrue(manager.getAlive(new Object()).isEmpty(), "Other owners have no process");
+
+        long start = System.nanoTime();
+        Assert.assertTrue(manager.destroy(owner).isEmpty(), "Nothing leaked");
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 10000);
+        Assert.assertFalse(parent.isAlive());
+        ProcessMonitor.getInstance().refresh();
+        Assert.assertFalse(ProcessMonitor.getInstance().isRunning(marker + "-child"), "Child stopped with its parent");
+        Assert.assertTrue(manager.getAlive(owner).isEmpty());
+    }
+
+    @Test
+    public void testInfrastructureIsNotLeaked() throws Exception
+    {
+        ProcessLifecycleManager manager = ProcessLifecycleManager.getInstance();
+        Process helper = manager.trackInfrastructure(startJvm(Spawner.class, "lifecycle-" + UUID.randomUUID()));
+        try
+        {
+            Assert.assertTrue(manager.getAlive().contains(helper.toHandle()));
+            Assert.assertFalse(manager.getLeaked().contains(helper.toHandle()), "Helpers kept across tests are not leaks");
+        }
+        finally
+        {
+            Assert.assertTrue(ProcessLifecycleManager.terminate(Collections.singletonList(helper.toHandle()), 500, 5000).isEmpty());
+        }
+    }
+
+    @Test
+    public void testTerminateEscalates() throws Exception
+    {
+        Process process = startJvm(Spawner.class, "lifecycle-" + UUID.randomUUID(), "ignore-term");
+        WaitEngine.sleep(500);
+        List<ProcessHandle> leaked = ProcessLifecycleManager.terminate(Collections.singletonList(process.toHandle()), 200, 10000);
+        Assert.assertTrue(leaked.isEmpty());
+        Assert.assertFalse(process.isAlive());
+    }
+
+    @Test
+    public void testKillByNameSparesCurrentProcess() throws Exception
+    {
+        String marker = "lifecycle-" + UUID.randomUUID();
+        Process process = startJvm(Spawner.class, marker, "no-child");
+        ProcessMonitor.getInstance().whenStarted(marker).get(20, TimeUnit.SECONDS);
+        Assert.assertTrue(ProcessLifecycleManager.getInstance().killByName(marker).isEmpty());
+        Assert.assertFalse(process.isAlive());
+        Assert.assertTrue(ProcessLifecycleManager.terminate(Collections.singletonList(ProcessHandle.current()), 100, 100).isEmpty());
+        Assert.assertTrue(ProcessHandle.current().isAlive());
+    }
+
+    private static Process startJvm(Class<?> main, String... args) throws Exception
+    {
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        String[] command = new String[args.length + 4];
+        command[0] = java;
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = main.getName();
+        System.arraycopy(args, 0, command, 4, args.length);
+        return new ProcessBuilder(command).start();
+    }
+
+    /**
+     * Child JVM starting a grand child JVM named <marker>-child, then sleeping
+     */
+    public static class Spawner
+    {
+        public static void main(String[] args) throws Exception
+        {
+            List<String> options = Arrays.asList(args);
+            if (options.contains("ignore-term"))
+            {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try
+                    {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // killed
+                    }
+                }));
+            }
+            if (!options.contains("no-child") && !options.contains("ignore-term"))
+            {
+                startJvm(Sleeper.class, args[0] + "-child");
+            }
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    public static class Sleeper
+    {
+        public static void main(String[] args) throws InterruptedException
+        {
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+}
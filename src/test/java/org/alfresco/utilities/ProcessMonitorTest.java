@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.utilities.ProcessMonitor.ProcessInfo;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of ProcessMonitor class, using child JVMs as processes
+ */
+public class ProcessMonitorTest
+{
+    @Test
+    public void testCurrentProcessIsListed()
+    {
+        long pid = ProcessHandle.current().pid();
+        boolean found = false;
+        for (ProcessInfo process : ProcessMonitor.getInstance().getProcesses())
+        {
+            found |= process.getPid() == pid;
+        }
+        Assert.assertTrue(found, "Current JVM in the process table");
+    }
+
+    @Test
+    public void testTasklistNamesProcessesTheJdkCannotRead()
+    {
+        Map<Long, String> executables = ProcessMonitor.parseTasklist(Arrays.asList("", "\"System Idle Process\",\"0\",\"Services\",\"0\",\"8 K\"",
+                "\"MsMpEng.exe\",\"4242\",\"Services\",\"0\",\"180,512 K\"", "INFO: No tasks are running which match the specified criteria."));
+        Assert.assertEquals(executables.size(), 2);
+        Assert.assertEquals(executables.get(4242L), "MsMpEng.exe");
+
+        ProcessInfo elevated = new ProcessInfo(4242, -1, "", executables.get(4242L));
+        Assert.assertTrue(elevated.matches("msmpeng"), "Found by executable name");
+        Assert.assertEquals(elevated.getName(), "MsMpEng.exe");
+    }
+
+    @Test
+    public void testStartAndExitEvents() throws Exception
+    {
+        String marker = "monitor-" + UUID.randomUUID();
+        ProcessMonitor monitor = ProcessMonitor.getInstance();
+        Assert.assertFalse(monitor.isRunning(marker));
+
+        Process child = startChild(marker);
+        try
+        {
+            ProcessInfo started = monitor.whenStarted(marker).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(started.getPid(), child.pid());
+            Assert.assertTrue(monitor.isRunning(marker.toUpperCase()), "Case insensitive match");
+        }
+        finally
+        {
+            child.destroy();
+        }
+        monitor.whenExited(marker).get(10, TimeUnit.SECONDS);
+        Assert.assertFalse(monitor.isRunning(marker));
+    }
+
+    @Test
+    public void testExitByPid() throws Exception
+    {
+        Process child = startChild("monitor-" + UUID.randomUUID());
+        long start = System.nanoTime();
+        child.destroy();
+        ProcessMonitor.getInstance().whenExited(child.pid()).get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+    }
+
+    /**
+     * Child JVM sleeping until it is destroyed, with <marker> on its command line
+     */
+    private Process startChild(String marker) throws Exception
+    {
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Sleeper.class.getName(), marker).start();
+    }
+
+    public static class Sleeper
+    {
+        public static void main(String[] args) throws InterruptedException
+        {
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of ScreenshotService class, captures driven through {@link FakeLdtpAgent}
+ */
+public class ScreenshotServiceTest
+{
+    private FakeLdtpAgent agent;
+
+    @BeforeClass
+    public void startAgent() throws Exception
+    {
+        agent = FakeLdtpAgent.start(new GuiModel());
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopAgent()
+    {
+        agent.stop();
+    }
+
+    private static byte[] png(long seed) throws IOException
+    {
+        BufferedImage image = new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < 40; y++)
+        {
+            for (int x = 0; x < 40; x++)
+            {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testSameScreenIsStoredOnce() throws Exception
+    {
+        Path directory = Files.createTempDirectory("screenshots");
+        ScreenshotService service = new ScreenshotService(directory, 10 * 1024 * 1024, 8);
+        File first = service.capture(agent.newLdtp("*"), null).get(10, TimeUnit.SECONDS);
+        File second = service.capture(agent.newLdtp("*"), "frmUntitled").get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(service.awaitPending(10000));
+
+        Assert.assertEquals(first, second, "Same image, same file");
+        Assert.assertEquals(service.getCount(), 1);
+        Assert.assertTrue(first.getName().matches("[0-9a-f]{64}\\.png"), first.getName());
+        Assert.assertEquals(ImageIO.read(first).getWidth(), 64, "Image readable after compression");
+        Assert.assertEquals(service.getTotalBytes(), first.length());
+    }
+
+    @Test
+    public void testOldestCapturesAreRemoved() throws Exception
+    {
+        Path directory = Files.createTempDirectory("screenshots");
+        long size = png(1).length;
+        ScreenshotService service = new ScreenshotService(directory, size * 3, 8);
+        Path first = service.store(png(1));
+        Path second = service.store(png(2));
+        service.store(png(3));
+        service.store(png(1));
+        service.store(png(4));
+
+        Assert.assertTrue(Files.exists(first), "Captured again, so recently used");
+        Assert.assertFalse(Files.exists(second), "Least recently captured is removed");
+        Assert.assertEquals(service.getCount(), 3);
+        Assert.assertTrue(service.getTotalBytes() <= size * 3 + 64);
+
+        ScreenshotService reopened = new ScreenshotService(directory, size * 3, 8);
+        Assert.assertEquals(reopened.getCount(), 3, "Existing captures indexed");
+    }
+
+    @Test
+    public void testQueueIsBounded() throws Exception
+    {
+        ScreenshotService service = new ScreenshotService(Files.createTempDirectory("screenshots"), 10 * 1024 * 1024, 1);
+        AsyncLdtp async = AsyncLdtp.of(agent.newLdtp("*"));
+        // hold the captures behind a slow action
+        async.action(l -> WaitEngine.sleep(500));
+        CompletableFuture<File> accepted = service.capture(agent.newLdtp("*"), null);
+        CompletableFuture<File> rejected = service.capture(agent.newLdtp("*"), null);
+        try
+        {
+            rejected.get(1, TimeUnit.SECONDS);
+            Assert.fail("Queue is full");
+        }
+        catch (ExecutionException e)
+        {
+            Assert.assertTrue(e.getCause().getMessage().contains("pending"), e.getCause().getMessage());
+        }
+        Assert.assertTrue(accepted.get(10, TimeUnit.SECONDS).exists());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of TimeoutAdvisor class
+ */
+public class TimeoutAdvisorTest
+{
+    private static final LdtpEndpoint AGENT = new LdtpEndpoint("localhost", 4118);
+    private static final String KEY = TimeoutAdvisor.key(AGENT, "TextEdit", "window", "Untitled");
+
+    @Test
+    public void testDefaultPolicyUntilEnoughSamples()
+    {
+        TimeoutAdvisor advisor = new TimeoutAdvisor(null, true);
+        WaitPolicy fallback = WaitPolicy.defaultPolicy();
+        Assert.assertSame(advisor.policy(KEY, fallback), fallback);
+        for (int i = 0; i < 4; i++)
+        {
+            advisor.record(KEY, 50, true);
+        }
+        Assert.assertSame(advisor.policy(KEY, fallback), fallback);
+    }
+
+    @Test
+    public void testPolicyFollowsLatencies()
+    {
+        TimeoutAdvisor advisor = new TimeoutAdvisor(null, true);
+        for (int i = 0; i < 20; i++)
+        {
+            advisor.record(KEY, 100 + i, true);
+        }
+        WaitPolicy policy = advisor.policy(KEY, WaitPolicy.defaultPolicy());
+        Assert.assertEquals(policy.getIntervalMillis(), 27);
+        Assert.assertEquals(policy.getTimeoutMillis(), 2000);
+        Assert.assertEquals(advisor.getPercentile(KEY, 50), 109);
+
+        advisor.record(KEY, 20000, true);
+        Assert.assertEquals(advisor.policy(KEY, WaitPolicy.defaultPolicy()).getTimeoutMillis(), WaitPolicy.defaultPolicy().getTimeoutMillis(),
+                "Never longer than the default policy");
+    }
+
+    @Test
+    public void testOnlyWaitsThatPolledAreLearned()
+    {
+        TimeoutAdvisor advisor = new TimeoutAdvisor(null, true);
+        WaitPolicy fallback = new WaitPolicy(10, 3000);
+        for (int i = 0; i < 5; i++)
+        {
+            Assert.assertTrue(advisor.until(KEY, () -> true, fallback));
+        }
+        Assert.assertEquals(advisor.getPercentile(KEY, 50), -1, "Targets found on the first check are not learned");
+
+        final AtomicInteger polls = new AtomicInteger();
+        Assert.assertEquals(advisor.poll(KEY, polls::incrementAndGet, v -> v % 2 == 0, fallback), Integer.valueOf(2));
+        Assert.assertTrue(advisor.getPercentile(KEY, 50) >= 0);
+    }
+
+    @Test
+    public void testLearnedDeadlineNeverCutsTheWait()
+    {
+        TimeoutAdvisor advisor = new TimeoutAdvisor(null, true);
+        WaitPolicy fallback = new WaitPolicy(10, 3000);
+        for (int i = 0; i < 5; i++)
+        {
+            advisor.record(KEY, 50, true);
+        }
+        Assert.assertEquals(advisor.policy(KEY, fallback).getTimeoutMillis(), 2000);
+
+        final long start = System.nanoTime();
+        Assert.assertTrue(advisor.until(KEY, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 2500, fallback),
+                "Found after the learned deadline but within the timeout of the caller");
+        // the advisor starts its clock after the test does
+        Assert.assertTrue(advisor.getPercentile(KEY, 100) >= 2400, "The late wait is learned");
+    }
+
+    @Test
+    public void testFailFastGivesUpAtTheLearnedDeadline()
+    {
+        TimeoutAdvisor advisor = new TimeoutAdvisor(null, true, true);
+        WaitPolicy fallback = new WaitPolicy(10, 5000);
+        for (int i = 0; i < 5; i++)
+        {
+            advisor.record(KEY, 50, true);
+        }
+        Assert.assertEquals(advisor.policy(KEY, fallback).getTimeoutMillis(), 2000, "Deadline with its safety margin");
+
+        long start = System.nanoTime();
+        Assert.assertFalse(advisor.until(KEY, () -> false, fallback));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue(elapsed >= 2000 && elapsed < 4000, "Gave up at the learned deadline: " + elapsed + "ms");
+        Assert.assertTrue(advisor.policy(KEY, fallback) == fallback, "The next wait gets the full timeout again");
+    }
+
+    @Test
+    public void testDisabledAdvisorLearnsNothing()
+    {
+        TimeoutAdvisor advisor = new TimeoutAdvisor(null, false);
+        WaitPolicy fallback = WaitPolicy.defaultPolicy();
+        for (int i = 0; i < 5; i++)
+        {
+            advisor.record(KEY, 50, true);
+        }
+        Assert.assertEquals(advisor.getPercentile(KEY, 50), -1);
+        Assert.assertTrue(advisor.policy(KEY, fallback) == fallback);
+    }
+
+    @Test
+    public void testLatenciesArePersisted() throws Exception
+    {
+        Path file = Files.createTempFile("timeouts", ".properties");
+        try
+        {
+            TimeoutAdvisor advisor = new TimeoutAdvisor(file, true);
+            for (int i = 1; i <= 6; i++)
+            {
+                advisor.record(KEY, i * 10, true);
+            }
+            advisor.record(KEY, 0, false);
+            advisor.save();
+
+            TimeoutAdvisor reloaded = new TimeoutAdvisor(file, true);
+            Assert.assertEquals(reloaded.getPercentile(KEY, 100), 60);
+            Assert.assertEquals(reloaded.getPercentile(KEY, 0), 10);
+            Assert.assertEquals(reloaded.getPercentile(TimeoutAdvisor.key(AGENT, "TextEdit", "object", "btnOK"), 50), -1);
+            Assert.assertEquals(reloaded.getPercentile(TimeoutAdvisor.key(new LdtpEndpoint("win10-vm", 4118), "TextEdit", "window", "Untitled"), 50), -1,
+                    "Latencies are kept per agent");
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of WaitEngine class
+ */
+public class WaitEngineTest
+{
+    @Test
+    public void testUntilReturnsAsSoonAsConditionIsTrue()
+    {
+        final AtomicInteger polls = new AtomicInteger();
+        long start = System.nanoTime();
+        boolean result = WaitEngine.until(() -> polls.incrementAndGet() == 3, new WaitPolicy(10, 5000));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue(result, "Condition fulfilled");
+        Assert.assertEquals(polls.get(), 3);
+        Assert.assertTrue(elapsed < 1000, "Wait ended right after the condition was true: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testUntilStopsOnDeadline()
+    {
+        long start = System.nanoTime();
+        boolean result = WaitEngine.until(() -> false, new WaitPolicy(20, 200));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertFalse(result, "Condition never fulfilled");
+        Assert.assertTrue(elapsed >= 200 && elapsed < 2000, "Deadline respected: " + elapsed + "ms");
+    }
+
+    @Test
+    public void testPollReturnsAcceptedValue()
+    {
+        final AtomicInteger counter = new AtomicInteger();
+        Integer value = WaitEngine.poll(() -> counter.incrementAndGet(), v -> v >= 2, new WaitPolicy(10, 1000));
+        Assert.assertEquals(value, Integer.valueOf(2));
+        Assert.assertNull(WaitEngine.poll(() -> "no", v -> false, new WaitPolicy(10, 50)));
+    }
+
+    @Test
+    public void testUntilAsync() throws Exception
+    {
+        final AtomicInteger polls = new AtomicInteger();
+        Assert.assertTrue(WaitEngine.untilAsync(() -> polls.incrementAndGet() == 2, new WaitPolicy(10, 5000)).get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(WaitEngine.untilAsync(() -> false, new WaitPolicy(10, 50)).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBackoffIsBounded()
+    {
+        WaitPolicy policy = new WaitPolicy(100, 400, 2.0, 1000);
+        Assert.assertEquals(policy.nextInterval(100), 200);
+        Assert.assertEquals(policy.nextInterval(300), 400);
+        Assert.assertEquals(policy.nextInterval(400), 400);
+    }
+
+    @Test
+    public void testSleep()
+    {
+        long start = System.nanoTime();
+        Assert.assertTrue(WaitEngine.sleep(100));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+    }
+
+    @Test
+    public void testBlockingRepeatsKeepTheSchedulerFree() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        int threads = Integer.getInteger("ldtp.wait.threads", 2);
+        ScheduledFuture<?>[] blocked = new ScheduledFuture<?>[threads + 1];
+        for (int i = 0; i < blocked.length; i++)
+        {
+            blocked[i] = WaitEngine.repeat(() -> {
+                runs.incrementAndGet();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }, 10);
+        }
+        try
+        {
+            WaitEngine.sleep(100);
+            Assert.assertEquals(runs.get(), blocked.length, "Each blocked task skips its next runs");
+            long start = System.nanoTime();
+            Assert.assertFalse(WaitEngine.untilAsync(() -> false, new WaitPolicy(10, 50)).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000, "Timers fire while the tasks block");
+        }
+        finally
+        {
+            for (ScheduledFuture<?> future : blocked)
+            {
+                future.cancel(false);
+            }
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.alfresco.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of WindowEventBus class, against a {@link FakeLdtpAgent}
+ */
+public class WindowEventBusTest
+{
+    private GuiModel model;
+    private FakeLdtpAgent agent;
+    private WindowEventBus bus;
+
+    @BeforeMethod
+    public void startAgent() throws Exception
+    {
+        model = new GuiModel();
+        model.window("frmUntitled-Notepad").object("txt0");
+        agent = FakeLdtpAgent.start(model);
+        bus = new WindowEventBus(agent.getTransport());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stopAgent()
+    {
+        agent.stop();
+    }
+
+    @Test
+    public void testAwaitCreatedByDiffingWindowLists() throws Exception
+    {
+        model.schedule(300, m -> m.window("dlgSaveAs"));
+        Assert.assertEquals(bus.awaitCreated("dlgSave*As", 5000).get(5, TimeUnit.SECONDS), "dlgSaveAs");
+        Assert.assertEquals(bus.isAgentEvents(), Boolean.FALSE);
+        Assert.assertEquals(bus.awaitCreated("*notepad", 5000).get(5, TimeUnit.SECONDS), "frmUntitled-Notepad", "Already opened");
+        Assert.assertNull(bus.awaitCreated("dlgMissing", 300).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAwaitCreatedWithAgentEvents() throws Exception
+    {
+        model.windowEvents(true);
+        Assert.assertNull(bus.awaitCreated("dlgMissing", 500).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(bus.isAgentEvents(), Boolean.TRUE);
+
+        CompletableFuture<String> created = bus.awaitCreated("dlgSaveAs", 5000);
+        Thread.sleep(600);
+        int windowLists = agent.getCallCount("getwindowlist");
+        model.window("dlgSaveAs");
+        Assert.assertEquals(created.get(5, TimeUnit.SECONDS), "dlgSaveAs");
+        Assert.assertTrue(agent.getCallCount("getwindowlist") - windowLists <= 2, "Window list fetched on the event only");
+        Assert.assertTrue(agent.getCallCount("poll_events") > 0);
+    }
+
+    @Test
+    public void testAwaitClosed() throws Exception
+    {
+        Assert.assertTrue(bus.awaitClosed("dlgSaveAs", 1000).get(5, TimeUnit.SECONDS), "Not opened");
+        model.schedule(300, m -> m.removeWindow("frmUntitled-Notepad"));
+        Assert.assertTrue(bus.awaitClosed("*Notepad", 5000).get(5, TimeUnit.SECONDS));
+        model.window("dlgStuck");
+        // windows open after actions, which invalidate the window list snapshot
+        agent.getTransport().getWindowListCache().invalidate();
+        Assert.assertFalse(bus.awaitClosed("dlgStuck", 300).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConcurrentWaitersShareOnePollStream() throws Exception
+    {
+        List<CompletableFuture<String>> waits = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 50; i++)
+        {
+            waits.add(bus.awaitCreated("dlgWindow" + i + "-", 5000));
+        }
+        Thread.sleep(1000);
+        for (int i = 0; i < 50; i++)
+        {
+            model.window("dlgWindow" + i + "-");
+        }
+        for (CompletableFuture<String> wait : waits)
+        {
+            Assert.assertNotNull(wait.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertTrue(agent.getCallCount("getwindowlist") < 30, "One poll stream for all waiters: " + agent.getCallCount("getwindowlist"));
+        Thread.sleep(WindowEventBus.INTERVAL * 2);
+        Assert.assertFalse(bus.isPolling(), "Poller stopped once nobody waits");
+    }
+
+    @Test
+    public void testListenersReceiveEvents() throws Exception
+    {
+        final List<String> events = new CopyOnWriteArrayList<String>();
+        Consumer<WindowEventBus.WindowEvent> listener = event -> events.add(event.toString());
+        bus.addListener(listener);
+        Assert.assertTrue(bus.isPolling());
+        Thread.sleep(WindowEventBus.INTERVAL * 3);
+        model.window("dlgAbout");
+        Assert.assertEquals(bus.awaitCreated("dlgAbout", 5000).get(5, TimeUnit.SECONDS), "dlgAbout");
+        model.removeWindow("dlgAbout");
+        Assert.assertTrue(bus.awaitClosed("dlgAbout", 5000).get(5, TimeUnit.SECONDS));
+        bus.removeListener(listener);
+
+        Assert.assertTrue(events.contains("CREATED dlgAbout"), events.toString());
+        Assert.assertTrue(events.contains("CLOSED dlgAbout"), events.toString());
+        Assert.assertFalse(bus.isPolling());
+    }
+
+    @Test
+    public void testAwaitWholeWindowList() throws Exception
+    {
+        model.schedule(300, m -> m.window("dlgSaveAs"));
+        List<String> windows = bus.await(list -> list.size() == 2, 5000).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(windows, Arrays.asList("frmUntitled-Notepad", "dlgSaveAs"));
+        Assert.assertNull(bus.await(list -> list.isEmpty(), 300).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMatcher()
+    {
+        Assert.assertTrue(WindowEventBus.matcher("*Notepad").test("frmUntitled-Notepad"));
+        Assert.assertTrue(WindowEventBus.matcher("untitled*").test("frmUntitled-Notepad"));
+        Assert.assertTrue(WindowEventBus.matcher("dlgSave*As").test("dlgSave Document As"));
+        Assert.assertTrue(WindowEventBus.matcher("Delete File").test("dlgDeleteFile"), "Spaces and role prefix as in LDTP");
+        Assert.assertTrue(WindowEventBus.matcher("dlgDeleteFile").test("dlgDeleteFile"));
+        Assert.assertFalse(WindowEventBus.matcher("untitled").test("frmUntitled-Notepad"), "Whole name, as in LDTP");
+        Assert.assertFalse(WindowEventBus.matcher("dlgOpen").test("dlgSaveAs"));
+    }
+}
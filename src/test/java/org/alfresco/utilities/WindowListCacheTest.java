@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test for validation of WindowListCache class, using a client that never reaches an agent
+ */
+public class WindowListCacheTest
+{
+    /**
+     * Client answering the window list locally and counting the calls that reach the "agent"
+     */
+    private static class CountingClient extends LdtpRpcClient
+    {
+        private final AtomicInteger windowListCalls = new AtomicInteger();
+
+        @Override
+        protected Object invoke(XmlRpcRequest request) throws XmlRpcException
+        {
+            if (request.getMethodName().equals("getwindowlist"))
+            {
+                windowListCalls.incrementAndGet();
+                return new Object[] { "frmDocuments", "dlgSaveAs" };
+            }
+            return 1;
+        }
+    }
+
+    @Test
+    public void testBurstOfLookupsCostsOneCall() throws Exception
+    {
+        CountingClient client = new CountingClient();
+        client.addInterceptor(new WindowListCache(10000));
+
+        for (int i = 0; i < 5; i++)
+        {
+            Object[] windows = (Object[]) client.execute("getwindowlist", new Object[0]);
+            Assert.assertEquals(windows.length, 2);
+        }
+        Assert.assertEquals(client.windowListCalls.get(), 1, "Window list fetched once");
+    }
+
+    @Test
+    public void testWindowActionInvalidatesSnapshot() throws Exception
+    {
+        CountingClient client = new CountingClient();
+        WindowListCache cache = new WindowListCache(10000);
+        client.addInterceptor(cache);
+
+        client.execute("getwindowlist", new Object[0]);
+        long generation = cache.getGeneration();
+        client.execute("getobjectlist", new Object[] { "frmDocuments" });
+        client.execute("getwindowlist", new Object[0]);
+        Assert.assertEquals(client.windowListCalls.get(), 1, "Queries do not invalidate the snapshot");
+
+        client.execute("click", new Object[] { "frmDocuments", "btnSave" });
+        Assert.assertEquals(cache.getGeneration(), generation + 1);
+        client.execute("getwindowlist", new Object[0]);
+        Assert.assertEquals(client.windowListCalls.get(), 2, "Click invalidated the snapshot");
+    }
+
+    @Test
+    public void testSnapshotExpires() throws Exception
+    {
+        CountingClient client = new CountingClient();
+        client.addInterceptor(new WindowListCache(20));
+
+        client.execute("getwindowlist", new Object[0]);
+        WaitEngine.sleep(50);
+        client.execute("getwindowlist", new Object[0]);
+        Assert.assertEquals(client.windowListCalls.get(), 2, "Expired snapshot is fetched again");
+    }
+
+    @Test
+    public void testIsWindowAction()
+    {
+        Assert.assertTrue(WindowListCache.isWindowAction("generateKeyEvent"));
+        Assert.assertTrue(WindowListCache.isWindowAction("closewindow"));
+        Assert.assertFalse(WindowListCache.isWindowAction("getobjectlist"));
+    }
+}
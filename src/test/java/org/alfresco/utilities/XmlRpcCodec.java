@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2005-2015 Alfresco Software Limited.
+ * This file is part of Alfresco
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.alfresco.utilities;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Minimal XML-RPC encoding used by {@link FakeLdtpAgent}: parses method calls and writes responses and faults.
+ * Supports the standard value types (int/i4, boolean, string, double, base64, array, struct).
+ */
+final class XmlRpcCodec
+{
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    private XmlRpcCodec()
+    {
+    }
+
+    /**
+     * Parsed <code>methodCall</code>
+     */
+    static class Call
+    {
+        final String method;
+        final Object[] params;
+
+        Call(String method, Object[] params)
+        {
+            this.method = method;
+            this.params = params;
+        }
+    }
+
+    static Call parseCall(InputStream body) throws Exception
+    {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setExpandEntityReferences(false);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document document = builder.parse(body);
+        Element root = document.getDocumentElement();
+        Element methodName = child(root, "methodName");
+        if (!"methodCall".equals(root.getTagName()) || methodName == null)
+        {
+            throw new IllegalArgumentException("Not a XML-RPC method call: " + root.getTagName());
+        }
+        List<Object> params = new ArrayList<Object>();
+        Element paramsElement = child(root, "params");
+        if (paramsElement != null)
+        {
+            for (Element param : children(paramsElement, "param"))
+            {
+                params.add(parseValue(child(param, "value")));
+            }
+        }
+        return new Call(methodName.getTextContent().trim(), params.toArray());
+    }
+
+    static String encodeResponse(Object value)
+    {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param>");
+        encodeValue(xml, value);
+        return xml.append("</param></params></methodResponse>").toString();
+    }
+
+    static String encodeFault(int code, String message)
+    {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><fault>");
+        encodeValue(xml, fault(code, message));
+        return xml.append("</fault></methodResponse>").toString();
+    }
+
+    /**
+     * @return fault struct, as used in responses and system.multicall results
+     */
+    static Map<String, Object> fault(int code, String message)
+    {
+        Map<String, Object> fault = new LinkedHashMap<String, Object>();
+        fault.put("faultCode", code);
+        fault.put("faultString", message == null ? "" : message);
+        return fault;
+    }
+
+    static Object parseValue(Element value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        Element typed = firstElement(value);
+        if (typed == null)
+        {
+            return value.getTextContent();
+        }
+        String type = typed.getTagName();
+        String text = typed.getTextContent();
+        switch (type)
+        {
+            case "i4":
+            case "int":
+                return Integer.valueOf(text.trim());
+            case "i8":
+                return Long.valueOf(text.trim());
+            case "boolean":
+                return "1".equals(text.trim()) || "true".equalsIgnoreCase(text.trim());
+            case "double":
+                return Double.valueOf(text.trim());
+            case "base64":
+                return Base64.getMimeDecoder().decode(text.trim());
+            case "nil":
+                return null;
+            case "array":
+                List<Object> items = new ArrayList<Object>();
+                Element data = child(typed, "data");
+                if (data != null)
+                {
+                    for (Element item : children(data, "value"))
+                    {
+                        items.add(parseValue(item));
+                    }
+                }
+                return items.toArray();
+            case "struct":
+                Map<String, Object> struct = new LinkedHashMap<String, Object>();
+                for (Element member : children(typed, "member"))
+                {
+                    struct.put(child(member, "name").getTextContent(), parseValue(child(member, "value")));
+                }
+                return struct;
+            default:
+                return text;
+        }
+    }
+
+    /**
+     * XML-RPC without extensions has no 64-bit integer: a long is sent as i4 when it fits, as a double while the
+     * double holds it exactly, and rejected otherwise instead of being truncated
+     */
+    private static void encodeLong(StringBuilder xml, long value)
+    {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+        {
+            xml.append("<i4>").append(value).append("</i4>");
+        }
+        else if (Math.abs(value) <= MAX_EXACT_DOUBLE)
+        {
+            xml.append("<double>").append((double) value).append("</double>");
+        }
+        else
+        {
+            throw new IllegalArgumentException("Long value " + value + " cannot be sent as XML-RPC i4 or double without losing precision");
+        }
+    }
+
+    static void encodeValue(StringBuilder xml, Object value)
+    {
+        xml.append("<value>");
+        if (value == null)
+        {
+            xml.append("<string></string>");
+        }
+        else if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+        {
+            xml.append("<int>").append(value).append("</int>");
+        }
+        else if (value instanceof Long)
+        {
+            encodeLong(xml, (Long) value);
+        }
+        else if (value instanceof Boolean)
+        {
+            xml.append("<boolean>").append((Boolean) value ? 1 : 0).append("</boolean>");
+        }
+        else if (value instanceof Number)
+        {
+            xml.append("<double>").append(((Number) value).doubleValue()).append("</double>");
+        }
+        else if (value instanceof byte[])
+        {
+            xml.append("<base64>").append(Base64.getEncoder().encodeToString((byte[]) value)).append("</base64>");
+        }
+        else if (value instanceof Object[] || value instanceof Collection)
+        {
+            xml.append("<array><data>");
+            for (Object item : value instanceof Object[] ? (Object[]) value : ((Collection<?>) value).toArray())
+            {
+                encodeValue(xml, item);
+            }
+            xml.append("</data></array>");
+        }
+        else if (value instanceof Map)
+        {
+            xml.append("<struct>");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                xml.append("<member><name>").append(escape(String.valueOf(entry.getKey()))).append("</name>");
+                encodeValue(xml, entry.getValue());
+                xml.append("</member>");
+            }
+            xml.append("</struct>");
+        }
+        else
+        {
+            xml.append("<string>").append(escape(value.toString())).append("</string>");
+        }
+        xml.append("</value>");
+    }
+
+    static byte[] toBytes(String xml)
+    {
+        return xml.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String text)
+    {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            switch (c)
+            {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static Element firstElement(Element parent)
+    {
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element)
+            {
+                return (Element) node;
+            }
+        }
+        return null;
+    }
+
+    private static Element child(Element parent, String name)
+    {
+        List<Element> found = children(parent, name);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name)
+    {
+        List<Element> found = new ArrayList<Element>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling())
+        {
+            if (node instanceof Element && ((Element) node).getTagName().equals(name))
+            {
+                found.add((Element) node);
+            }
+        }
+        return found;
+    }
+}